@@ -10,14 +10,58 @@
     is evaluated and the value is output.  For a command of
     the form  let <variable> = <expression> , the expression is
     evaluated and the value is assigned to the variable.
-    If a variable is used in an expression before it has been
-    assigned a value, an error occurs.  A number must begin with 
-    a digit (i.e., not a decimal point).
+    If a variable is used in an expression before any let command
+    for that variable has been read, an error occurs.  A number must
+    begin with a digit (i.e., not a decimal point).
+
+    The program also understands commands for loops, decisions, and
+    functions, which take up several lines:
+
+            while x < 10          if x > 0              def f(x, y)
+               print x               print x               let z = x*x
+               let x = x + 1      else                     return z + y
+            end                      print -x           end
+                                  end
+
+    The condition in a while or if command can compare two expressions
+    with one of the operators <, >, <=, >=, ==, or != .  (It can also be
+    a single expression, which counts as true if its value is not zero.)
+    A function that has been defined with a def command can be called in
+    an expression, as in  print f(2, 3) + 1 .  Its parameters, and any
+    variables that are assigned values in the function, are local to the
+    function.  Other variables that are used in the function are the
+    variables that are defined outside the function.  It is an error to
+    use a local variable in a function before the first let command that
+    assigns it a value, even if there is a variable with the same name
+    outside the function.  A function returns
+    the value in the first return command that it executes, or zero if it
+    does not execute a return command.  Functions can be recursive.
+
+    Since a variable is created when a let command for it is read, not when
+    the command is executed, a variable that is assigned a value only in a
+    while or if command that has not actually executed the let (or in a
+    function that has not been called) has the value zero.  And since each
+    command is compiled before it is executed, an error that can be found
+    while a command is being compiled, such as a ^ applied to two constants
+    that gives an undefined result, is reported even if it is in a part of
+    the command that would never be executed.
 
     Commands are formally defined by the BNF rules:
 
             <command>  ::=  "print" <expression>
                                |  "let" <variable> "=" <expression>
+                               |  "while" <condition> <end-of-line>
+                                         [ <command> <end-of-line> ]... "end"
+                               |  "if" <condition> <end-of-line>
+                                         [ <command> <end-of-line> ]...
+                                    [ "else" <end-of-line>
+                                         [ <command> <end-of-line> ]... ] "end"
+                               |  "def" <name> "(" [ <variable> [ "," <variable> ]... ] ")"
+                                    <end-of-line>
+                                         [ <command> <end-of-line> ]... "end"
+                               |  "return" <expression>
+
+            <condition>  ::=  <expression> [ <comparison-op> <expression> ]
 
             <expression>  ::=  [ "-" ] <term> [ [ "+" | "-" ] <term> ]...
 
@@ -26,21 +70,58 @@
             <factor>  ::=  <primary> [ "^" <primary> ]...
 
             <primary>  ::=  <number> | <variable> | "(" <expression> ")"
+                               | <name> "(" [ <expression> [ "," <expression> ]... ] ")"
 
-    A line of input must contain exactly one such command.  If extra
-    data is found on a line after an expression has been read, it is
-    considered an error.  The variables "pi" and "e" are defined
-    when the program starts to represent the usual mathematical
+    A line of input must contain exactly one such command (or the "end" or
+    "else" of a command).  If extra data is found on a line after an
+    expression has been read, it is considered an error.  A def command can
+    only be used at the "top level," not inside another command, and a
+    return command can only be used inside a def.  The variables "pi" and "e"
+    are defined when the program starts to represent the usual mathematical
     constants.
 
     This program demonstrates the use of a HashMap as a symbol
     table.
 
+    Each command is "compiled" into a list of instructions for a simple
+    virtual machine before it is executed, and the instructions are then
+    executed by the method execute().  (This is a small version of what
+    the Java compiler and the Java Virtual Machine do.)  The virtual
+    machine uses a stack of numbers.  For example, the instructions for
+    let x = 2*y + 1  push the constant 2 onto the stack, push the value of
+    y, multiply the two numbers on top of the stack, push the constant 1,
+    add, and finally pop the value from the stack and store it in x.
+    Variables are found in the symbol table when the command is compiled,
+    and the instructions refer to variables by number, so the symbol table
+    is not used while the instructions are being executed.  Loops and
+    function calls are done with jump and call instructions.  When a
+    function is called, space for its parameters and local variables is
+    taken from the same stack.  All the arrays that are used by execute()
+    are created just once, so no objects are created while a program runs.
+
+    When commands are typed by the user, an error in the ^ operator is
+    found while the command is being compiled, if the values of both
+    operands are already known then, and the rest of the line is discarded,
+    as it was when commands were executed as they were read.  Otherwise,
+    the error is found when the command is executed, after the whole line
+    has been read.  In either case, a variable that the command would have
+    created is not created.
+
+    If the name of a file is given as a command-line argument, the program
+    reads all the commands in the file, compiles them, and then executes
+    them, instead of reading commands from the user.  In that case, only
+    the output from print commands is shown.  (See also the program
+    SimpleInterpreterBenchmark.)
+
     SimpleInterpreter.java is based on the program SimpleParser2.java.
     It uses the non-standard class, TextIO.
  */
 
+import java.io.PrintStream;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 
 public class SimpleInterpreter {
 
@@ -54,36 +135,102 @@ public class SimpleInterpreter {
     } // end nested class ParseError
 
 
+    /**
+     * Represents an error that occurs while a program is being executed, such as
+     * an illegal use of the ^ operator.
+     */
+    private static class ExecutionError extends Exception {
+        ExecutionError(String message) {
+            super(message);
+        }
+    } // end nested class ExecutionError
+
+
     /**
      * The symbolTable contains information about the
-     * values of variables.  When a variable is assigned
-     * a value, it is recorded in the symbol table.
-     * The key is the name of the variable, and the 
-     * value is an object of type Double that contains
-     * the value of the variable.  (The wrapper class
-     * Double is used, since a HashMap cannot contain
-     * objects belonging to the primitive type double.)
+     * variables.  When a variable is assigned
+     * a value for the first time, it is added to the symbol table.
+     * The key is the name of the variable, and the
+     * value is an object of type Integer that contains
+     * the number of the variable, which is its position
+     * in the array, globals.
      */
-    private static HashMap<String,Double> symbolTable;
+    private static HashMap<String,Integer> symbolTable;
+
+    /**
+     * The values of the variables that are defined outside functions.
+     * globals[n] is the value of the variable whose number is n.  (A
+     * variable that has been added to the symbol table but has not yet
+     * been assigned a value has the value zero.)
+     */
+    private static double[] globals;
+
+    /**
+     * The number of variables that are defined outside functions.
+     */
+    private static int globalCount;
+
+    /**
+     * Maps the name of each function that has been defined to its number,
+     * which is its position in the array, functions.
+     */
+    private static HashMap<String,Integer> functionTable;
+
+    /**
+     * The functions, in the order in which they were first defined.
+     */
+    private static Function[] functions;
+
+    /**
+     * The number of functions that have been defined.
+     */
+    private static int functionCount;
+
+    /**
+     * Tells whether the commands are being typed by the user.  If so,
+     * a prompt is shown for each line.
+     */
+    private static boolean interactive;
 
 
     public static void main(String[] args) {
 
-        // Create the map that represents symbol table.
+        // Create the symbol tables.  To start, add variables named "pi"
+        // and "e" to the symbol table.  Their values are the usual
+        // mathematical constants.
 
-        symbolTable = new HashMap<String,Double>();
+        createSymbolTable();
 
-        // To start, add variables named "pi" and "e" to the symbol
-        // table.  Their values are the usual mathematical constants.
+        if (args.length > 0) {
+                // Run the commands in the file named by args[0].
+            try {
+                TextIO.readFile(args[0]);
+            }
+            catch (IllegalArgumentException e) {
+                System.out.println("Can't read from the file " + args[0] + ".");
+                return;
+            }
+            try {
+                Script script = compileScript();
+                script.run(System.out);
+            }
+            catch (ParseError e) {
+                System.out.println("*** Error in script:  " + e.getMessage());
+            }
+            catch (ExecutionError e) {
+                System.out.println("*** Error while running script:  " + e.getMessage());
+            }
+            return;
+        }
 
-        symbolTable.put("pi", Math.PI);
-        symbolTable.put("e", Math.E);
+        interactive = true;
 
         TextIO.putln("\n\nEnter commands; press return to end.");
         TextIO.putln("Commands must have the form:\n");
         TextIO.putln("      print <expression>");
         TextIO.putln("  or");
         TextIO.putln("      let <variable> = <expression>");
+        TextIO.putln("\nor one of the commands  while, if, or def  (which end with  end).");
 
         while (true) {
             TextIO.put("\n?  ");
@@ -91,19 +238,29 @@ public class SimpleInterpreter {
             if ( TextIO.peek() == '\n' ) {
                 break;  // A blank input line ends the while loop and the program.
             }
+            CodeBuilder code = new CodeBuilder();
+            code.globalsKnown = true;  // (The command will be executed as soon as it is compiled.)
+            int oldGlobalCount = globalCount;
             try {
                 String command = TextIO.getWord();
-                if (command.equalsIgnoreCase("print"))
-                    doPrintCommand();
-                else if (command.equalsIgnoreCase("let"))
-                    doLetCommand();
-                else
-                    throw new ParseError("Command must begin with 'print' or 'let'.");
+                compileCommand(command, code, null);
+                code.emit(HALT);
+                execute(code.finish("main", 0, 0), System.out);
                 TextIO.getln();
+                if (command.equalsIgnoreCase("let"))
+                    TextIO.putln("ok");
             }
             catch (ParseError e) {
                 TextIO.putln("\n*** Error in input:    " + e.getMessage());
                 TextIO.putln("*** Discarding input:  " + TextIO.getln());
+                if (code.openBlocks > 0)
+                    skipLines(code.openBlocks);
+                removeGlobals(oldGlobalCount);
+            }
+            catch (ExecutionError e) {
+                TextIO.putln("\n*** Error in input:    " + e.getMessage());
+                TextIO.putln("*** Discarding input:  " + TextIO.getln());
+                removeGlobals(oldGlobalCount);
             }
         }
 
@@ -113,12 +270,547 @@ public class SimpleInterpreter {
 
 
     /**
-     * Process a command of the form  let <variable> = <expression>.
+     * Creates new, empty symbol tables for variables and functions, and then
+     * adds the variables pi and e.  This must be called before any commands
+     * are compiled.
+     */
+    static void createSymbolTable() {
+        symbolTable = new HashMap<String,Integer>();
+        globals = new double[16];
+        globalCount = 0;
+        functionTable = new HashMap<String,Integer>();
+        functions = new Function[16];
+        functionCount = 0;
+        globals[ globalNumber("pi") ] = Math.PI;
+        globals[ globalNumber("e") ] = Math.E;
+    }
+
+
+    /**
+     * Returns the number of the global variable with a given name, first adding
+     * it to the symbol table if it is not already there.
+     */
+    private static int globalNumber(String name) {
+        Integer num = symbolTable.get(name);
+        if (num != null)
+            return num;
+        if (globalCount == globals.length)
+            globals = java.util.Arrays.copyOf(globals, 2*globalCount);
+        symbolTable.put(name, globalCount);
+        return globalCount++;
+    }
+
+
+    /**
+     * Removes the global variables that were added to the symbol table after
+     * the first count variables.  This is used after an error in a command,
+     * so that the command does not create any variables.
+     */
+    private static void removeGlobals(int count) {
+        Iterator<Map.Entry<String,Integer>> entries = symbolTable.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue() >= count)
+                entries.remove();
+        }
+        for (int i = count; i < globalCount; i++)
+            globals[i] = 0;
+        globalCount = count;
+    }
+
+
+    /**
+     * After an error in a command that takes up several lines, this is called to
+     * skip the rest of the lines of the command, up to the end that matches the
+     * beginning of the command.
+     * @param openBlocks the number of while, if, and def commands that had been
+     *    started but not ended when the error occurred.
+     */
+    private static void skipLines(int openBlocks) {
+        while (openBlocks > 0 && ! TextIO.eof()) {
+            if (interactive)
+                TextIO.put("(skipping)  ");
+            TextIO.skipBlanks();
+            String word = TextIO.peek() == '\n' ? "" : TextIO.getWord();
+            if (word.equalsIgnoreCase("while") || word.equalsIgnoreCase("if")
+                                                 || word.equalsIgnoreCase("def"))
+                openBlocks++;
+            else if (word.equalsIgnoreCase("end"))
+                openBlocks--;
+            TextIO.getln();
+        }
+    }
+
+
+    //--------------------------- Instructions -------------------------------------------
+
+    /*
+     * These are the operation codes for the instructions of the virtual machine.
+     * Each instruction is stored in an array of ints as its operation code,
+     * followed by its operands, if it has any.  In the comments, "push" and "pop"
+     * refer to the stack of numbers.
+     */
+
+    private static final int CONST = 0;    // Push constant number N (one operand, N).
+    private static final int GLOAD = 1;    // Push the value of global variable number N.
+    private static final int GSTORE = 2;   // Pop a value and store it in global variable number N.
+    private static final int LLOAD = 3;    // Push the value of local variable number N.
+    private static final int LSTORE = 4;   // Pop a value and store it in local variable number N.
+    private static final int ADD = 5;      // Pop y, pop x, push x+y.  (Also for the next 10 ops.)
+    private static final int SUB = 6;
+    private static final int MUL = 7;
+    private static final int DIV = 8;
+    private static final int POW = 9;      // (An error occurs if x^y is undefined.)
+    private static final int LT = 10;      // Push 1 if x < y, or 0 if not.  (Same for the next 5 ops.)
+    private static final int GT = 11;
+    private static final int LE = 12;
+    private static final int GE = 13;
+    private static final int EQ = 14;
+    private static final int NE = 15;
+    private static final int NEG = 16;     // Pop x, push -x.
+    private static final int JUMP = 17;    // Go to the instruction at position N.
+    private static final int JUMPF = 18;   // Pop x, and go to position N if x is zero.
+    private static final int CALL = 19;    // Call function number N, with M parameters (two operands).
+    private static final int RETURN = 20;  // Pop x, return from the function, and push x.
+    private static final int PRINT = 21;   // Pop x and output "Value is x".
+    private static final int HALT = 22;    // End the program.
+
+    private static final String COMPARISONS = "<  >  <= >= == != ";  // in the same order as LT...NE
+
+
+    /**
+     * A Function contains the instructions for a function that has been defined
+     * with a def command, or for a main program.
+     */
+    private static class Function {
+        String name;         // The name of the function.
+        int paramCount;      // The number of parameters.
+        int localCount;      // The number of local variables, including the parameters.
+        int maxStack;        // The maximum number of values that the function uses on the stack,
+                             //    not counting the local variables.
+        int[] code;          // The instructions.
+        double[] constants;  // The constants that are used in CONST instructions.
+    }
+
+
+    /**
+     * A CodeBuilder is used by the compiler to make the list of instructions for
+     * a Function.  It keeps track of how many values will be on the stack after
+     * each instruction, so that it can tell how much space the Function will need.
+     * It also keeps track of which of those values are already known when the
+     * instructions are compiled, so that an illegal use of ^ can be reported as
+     * soon as it is read, when that is possible.
+     */
+    private static class CodeBuilder {
+
+        int[] code = new int[64];
+        int size;               // Number of ints in code[] that have been used.
+        double[] constants = new double[16];
+        int constantCount;
+        int stackSize;          // Number of values on the stack after the last instruction.
+        int maxStackSize;
+        int openBlocks;         // Number of while, if, and def commands that are being compiled.
+        HashMap<String,Integer> locals;  // Local variables, for a function; null for a main program.
+        HashSet<String> globalsUsed;     // For a function, the global variables that it uses.
+        boolean globalsKnown;   // True if the global variables now have the values that they will
+                                //    have when the next instruction is executed.
+        boolean[] known = new boolean[16];     // For each value on the stack, tells whether
+        double[] knownValue = new double[16];  //    it is known now, and if so, what it is.
+
+        /**
+         * Adds an instruction that has no operands.
+         */
+        void emit(int op) {
+            add(op);
+            switch (op) {
+            case NEG:
+                knownValue[stackSize-1] = -knownValue[stackSize-1];
+                break;
+            case JUMP: case HALT:
+                globalsKnown = false;
+                break;
+            case PRINT: case RETURN:
+                changeStack(-1);
+                break;
+            default:  // binary operators and comparisons
+                changeStack(-1);
+                int top = stackSize - 1;
+                known[top] = known[top] && known[top+1];
+                if (known[top])
+                    knownValue[top] = compute(op, knownValue[top], knownValue[top+1]);
+                break;
+            }
+        }
+
+        /**
+         * Adds an instruction with one operand.  For a JUMP or JUMPF, if the
+         * position of the destination is not yet known, use -1 and call
+         * setJump() later.  Returns the position of the operand.
+         */
+        int emit(int op, int operand) {
+            add(op);
+            add(operand);
+            if (op == CONST || op == GLOAD || op == LLOAD) {
+                changeStack(1);
+                known[stackSize-1] = (op == CONST) || (op == GLOAD && globalsKnown);
+                if (op == CONST)
+                    knownValue[stackSize-1] = constants[operand];
+                else if (op == GLOAD)
+                    knownValue[stackSize-1] = globals[operand];
+            }
+            else {  // GSTORE, LSTORE, JUMP, JUMPF
+                if (op != JUMP)
+                    changeStack(-1);
+                globalsKnown = false;
+            }
+            return size - 1;
+        }
+
+        /**
+         * Adds an instruction to push a constant.
+         */
+        void emitConstant(double value) {
+            if (constantCount == constants.length)
+                constants = java.util.Arrays.copyOf(constants, 2*constantCount);
+            constants[constantCount] = value;
+            emit(CONST, constantCount++);
+        }
+
+        /**
+         * Adds an instruction to call a function.
+         */
+        void emitCall(int functionNumber, int paramCount) {
+            add(CALL);
+            add(functionNumber);
+            add(paramCount);
+            changeStack(1 - paramCount);
+            known[stackSize-1] = false;
+            globalsKnown = false;  // (The function can change global variables.)
+        }
+
+        /**
+         * Tells whether the values of the two numbers on top of the stack are
+         * known now, and x^y is undefined, where y is the top number.
+         */
+        boolean illegalPower() {
+            int top = stackSize - 1;
+            return known[top-1] && known[top] && Double.isNaN(Math.pow(knownValue[top-1], knownValue[top]));
+        }
+
+        /**
+         * Sets the destination of the JUMP or JUMPF whose operand is at the
+         * specified position to be the next instruction that will be added.
+         */
+        void setJump(int operandPosition) {
+            code[operandPosition] = size;
+        }
+
+        /**
+         * Returns the position where the next instruction will be added.
+         */
+        int position() {
+            return size;
+        }
+
+        /**
+         * Returns a Function that contains the instructions.
+         */
+        Function finish(String name, int paramCount, int localCount) {
+            Function f = new Function();
+            f.name = name;
+            f.paramCount = paramCount;
+            f.localCount = localCount;
+            f.maxStack = maxStackSize;
+            f.code = java.util.Arrays.copyOf(code, size);
+            f.constants = java.util.Arrays.copyOf(constants, constantCount);
+            return f;
+        }
+
+        private void add(int n) {
+            if (size == code.length)
+                code = java.util.Arrays.copyOf(code, 2*size);
+            code[size++] = n;
+        }
+
+        private void changeStack(int change) {
+            stackSize += change;
+            if (stackSize > maxStackSize)
+                maxStackSize = stackSize;
+            if (stackSize > known.length) {
+                known = java.util.Arrays.copyOf(known, 2*stackSize);
+                knownValue = java.util.Arrays.copyOf(knownValue, 2*stackSize);
+            }
+        }
+
+        /**
+         * Computes the value of a binary operator or comparison, as it will be
+         * computed by execute().
+         */
+        private static double compute(int op, double x, double y) {
+            switch (op) {
+            case ADD:  return x + y;
+            case SUB:  return x - y;
+            case MUL:  return x * y;
+            case DIV:  return x / y;
+            case POW:  return Math.pow(x,y);
+            case LT:   return (x < y) ? 1 : 0;
+            case GT:   return (x > y) ? 1 : 0;
+            case LE:   return (x <= y) ? 1 : 0;
+            case GE:   return (x >= y) ? 1 : 0;
+            case EQ:   return (x == y) ? 1 : 0;
+            default:   return (x != y) ? 1 : 0;  // NE
+            }
+        }
+
+    } // end nested class CodeBuilder
+
+
+    //--------------------------- The virtual machine -------------------------------------
+
+    private static final int MAX_CALL_DEPTH = 10000;  // Limit on nested function calls.
+
+    private static double[] stack = new double[100000];  // Values and local variables.
+    private static Function[] callerFunction = new Function[MAX_CALL_DEPTH];  // For returning
+    private static int[] callerPosition = new int[MAX_CALL_DEPTH];            //    from the
+    private static int[] callerFrame = new int[MAX_CALL_DEPTH];               //    function calls.
+
+
+    /**
+     * Executes the instructions in a main program.  The output from print commands
+     * is sent to out.
+     */
+    private static void execute(Function main, PrintStream out) throws ExecutionError {
+        Function f = main;         // The function that is being executed.
+        int[] code = f.code;       // Its instructions.
+        double[] constants = f.constants;
+        int pc = 0;                // The position of the next instruction in code[].
+        int sp = 0;                // The number of values on the stack.
+        int fp = 0;                // The position in the stack of local variable number 0.
+        int depth = 0;             // The number of function calls that have not returned.
+        double[] stack = SimpleInterpreter.stack;
+        double[] globals = SimpleInterpreter.globals;
+        Function[] functions = SimpleInterpreter.functions;
+        while (true) {
+            switch (code[pc++]) {
+            case CONST:
+                stack[sp++] = constants[code[pc++]];
+                break;
+            case GLOAD:
+                stack[sp++] = globals[code[pc++]];
+                break;
+            case GSTORE:
+                globals[code[pc++]] = stack[--sp];
+                break;
+            case LLOAD:
+                stack[sp++] = stack[fp + code[pc++]];
+                break;
+            case LSTORE:
+                stack[fp + code[pc++]] = stack[--sp];
+                break;
+            case ADD:
+                sp--;
+                stack[sp-1] = stack[sp-1] + stack[sp];
+                break;
+            case SUB:
+                sp--;
+                stack[sp-1] = stack[sp-1] - stack[sp];
+                break;
+            case MUL:
+                sp--;
+                stack[sp-1] = stack[sp-1] * stack[sp];
+                break;
+            case DIV:
+                sp--;
+                stack[sp-1] = stack[sp-1] / stack[sp];
+                break;
+            case POW:
+                sp--;
+                stack[sp-1] = Math.pow(stack[sp-1], stack[sp]);
+                if (Double.isNaN(stack[sp-1]))
+                    throw new ExecutionError("Illegal values for ^ operator.");
+                break;
+            case LT:
+                sp--;
+                stack[sp-1] = (stack[sp-1] < stack[sp]) ? 1 : 0;
+                break;
+            case GT:
+                sp--;
+                stack[sp-1] = (stack[sp-1] > stack[sp]) ? 1 : 0;
+                break;
+            case LE:
+                sp--;
+                stack[sp-1] = (stack[sp-1] <= stack[sp]) ? 1 : 0;
+                break;
+            case GE:
+                sp--;
+                stack[sp-1] = (stack[sp-1] >= stack[sp]) ? 1 : 0;
+                break;
+            case EQ:
+                sp--;
+                stack[sp-1] = (stack[sp-1] == stack[sp]) ? 1 : 0;
+                break;
+            case NE:
+                sp--;
+                stack[sp-1] = (stack[sp-1] != stack[sp]) ? 1 : 0;
+                break;
+            case NEG:
+                stack[sp-1] = -stack[sp-1];
+                break;
+            case JUMP:
+                pc = code[pc];
+                break;
+            case JUMPF:
+                if (stack[--sp] == 0)
+                    pc = code[pc];
+                else
+                    pc++;
+                break;
+            case CALL: {
+                Function g = functions[code[pc]];
+                int paramCount = code[pc+1];
+                pc += 2;
+                if (paramCount != g.paramCount)  // (Possible if g was redefined.)
+                    throw new ExecutionError("Wrong number of parameters for function " + g.name + ".");
+                if (depth == MAX_CALL_DEPTH || sp + g.localCount + g.maxStack > stack.length)
+                    throw new ExecutionError("Too many nested function calls.");
+                callerFunction[depth] = f;
+                callerPosition[depth] = pc;
+                callerFrame[depth] = fp;
+                depth++;
+                fp = sp - paramCount;  // The parameters are already on the stack.
+                sp = fp + g.localCount;
+                for (int i = fp + paramCount; i < sp; i++)
+                    stack[i] = 0;      // Other local variables start at zero.
+                f = g;
+                code = g.code;
+                constants = g.constants;
+                pc = 0;
+                break;
+            }
+            case RETURN: {
+                double value = stack[sp-1];
+                sp = fp;  // Remove the local variables and anything else the function put on the stack.
+                stack[sp++] = value;
+                depth--;
+                f = callerFunction[depth];
+                code = f.code;
+                constants = f.constants;
+                pc = callerPosition[depth];
+                fp = callerFrame[depth];
+                break;
+            }
+            case PRINT:
+                out.println("Value is " + stack[--sp]);
+                break;
+            default:  // HALT
+                return;
+            }
+        }
+    } // end execute()
+
+
+    /**
+     * A Script is a program that has been read from a file or other input
+     * source and compiled, and that can be executed any number of times.
+     */
+    static class Script {
+
+        private Function main;
+
+        private Script(Function main) {
+            this.main = main;
+        }
+
+        /**
+         * Executes the program.  The output from print commands is sent to out.
+         * @throws ExecutionError if an error occurs while the program is running.
+         */
+        void run(PrintStream out) throws ExecutionError {
+            execute(main, out);
+        }
+
+    } // end nested class Script
+
+
+    //--------------------------- The compiler -------------------------------------------
+
+    /**
+     * Reads commands from the current TextIO input source, up to the end of the
+     * input, and compiles them into a Script.  Blank lines are ignored.
+     * @throws ParseError if there is an error in one of the commands.  The
+     *    message says which line contains the error.
+     */
+    static Script compileScript() throws ParseError {
+        CodeBuilder code = new CodeBuilder();
+        lineNumber = 0;
+        while (true) {
+            TextIO.skipBlanks();
+            if (TextIO.eof())
+                break;
+            lineNumber++;
+            if (TextIO.peek() != '\n') {
+                try {
+                    compileCommand(TextIO.getWord(), code, null);
+                }
+                catch (ParseError e) {
+                    throw new ParseError("Line " + lineNumber + ":  " + e.getMessage());
+                }
+            }
+            TextIO.getln();
+        }
+        code.emit(HALT);
+        return new Script(code.finish("main", 0, 0));
+    }
+
+    private static int lineNumber;  // Used by compileScript() to report errors.
+
+
+    /**
+     * Compiles one command.  When this is called, the first word of the command
+     * has already been read.  When it returns, the end-of-line at the end of the
+     * command has not been read.
+     * @param command the first word of the command.
+     * @param code the CodeBuilder where the instructions are added.
+     * @param function the Function that is being defined, or null if the
+     *    command is not inside a def.
+     */
+    private static void compileCommand(String command, CodeBuilder code, Function function)
+                                                                      throws ParseError {
+        if (command.equalsIgnoreCase("print"))
+            compilePrintCommand(code);
+        else if (command.equalsIgnoreCase("let"))
+            compileLetCommand(code);
+        else if (command.equalsIgnoreCase("while"))
+            compileWhileCommand(code, function);
+        else if (command.equalsIgnoreCase("if"))
+            compileIfCommand(code, function);
+        else if (command.equalsIgnoreCase("def")) {
+            if (code.openBlocks > 0 || function != null)
+                throw new ParseError("A function can only be defined at the top level.");
+            compileDefCommand(code);
+        }
+        else if (command.equalsIgnoreCase("return")) {
+            if (function == null)
+                throw new ParseError("'return' can only be used inside a function.");
+            expressionCode(code);
+            endOfLine();
+            code.emit(RETURN);
+        }
+        else
+            throw new ParseError("Command must begin with 'print', 'let', 'while', "
+                                       + "'if', 'def', or 'return'.");
+    }
+
+
+    /**
+     * Compiles a command of the form  let <variable> = <expression>.
      * When this method is called, the word "let" has already
      * been read.  Read the variable name and the expression, and
-     * store the value of the variable in the symbol table.
+     * add the instructions to store the value of the variable.
+     * Inside a function, the variable is a local variable; it is an
+     * error if the function has already used a global variable with
+     * the same name.
      */
-    private static void doLetCommand() throws ParseError {
+    private static void compileLetCommand(CodeBuilder code) throws ParseError {
         TextIO.skipBlanks();
         if ( ! Character.isLetter(TextIO.peek()) )
             throw new ParseError("Expected variable name after 'let'.");
@@ -127,33 +819,218 @@ public class SimpleInterpreter {
         if ( TextIO.peek() != '=' )
             throw new ParseError("Expected '=' operator for 'let' command.");
         TextIO.getChar();
-        double val = expressionValue();  // The value of the variable.
-        TextIO.skipBlanks();
-        if ( TextIO.peek() != '\n' )
-            throw new ParseError("Extra data after end of expression.");
-        symbolTable.put( varName, val );  // Add to symbol table.
-        TextIO.putln("ok");
+        expressionCode(code);  // Computes the value of the variable.
+        endOfLine();
+        if (code.locals != null) {
+            Integer num = code.locals.get(varName);
+            if (num == null) {
+                if (code.globalsUsed.contains(varName))
+                    throw new ParseError("Local variable \"" + varName + "\" was used before it was assigned a value.");
+                num = code.locals.size();
+                code.locals.put(varName, num);
+            }
+            code.emit(LSTORE, num);
+        }
+        else
+            code.emit(GSTORE, globalNumber(varName));  // Add to symbol table, if necessary.
     }
 
 
     /**
-     * Process a command of the form  print <expression>.
+     * Compiles a command of the form  print <expression>.
      * When this method is called, the word "print" has already
-     * been read.  Evaluate the expression and print the value.
+     * been read.
+     */
+    private static void compilePrintCommand(CodeBuilder code) throws ParseError {
+        expressionCode(code);
+        endOfLine();
+        code.emit(PRINT);
+    }
+
+
+    /**
+     * Compiles a while loop.  When this method is called, the word "while"
+     * has already been read.  The instructions test the condition and jump
+     * past the end of the loop if it is false; at the end of the loop, there
+     * is a jump back to the test.
      */
-    private static void doPrintCommand() throws ParseError {
-        double val = expressionValue();
+    private static void compileWhileCommand(CodeBuilder code, Function function) throws ParseError {
+        code.openBlocks++;
+        code.globalsKnown = false;  // (The condition is tested again after the loop changes variables.)
+        int start = code.position();
+        conditionCode(code);
+        int exitJump = code.emit(JUMPF, -1);
+        compileBlock(code, function, false);
+        code.openBlocks--;
+        code.emit(JUMP, start);
+        code.setJump(exitJump);
+    }
+
+
+    /**
+     * Compiles an if command, which can include an else part.  When this method
+     * is called, the word "if" has already been read.
+     */
+    private static void compileIfCommand(CodeBuilder code, Function function) throws ParseError {
+        code.openBlocks++;
+        conditionCode(code);
+        int elseJump = code.emit(JUMPF, -1);
+        boolean hasElse = compileBlock(code, function, true);
+        if (hasElse) {
+            int endJump = code.emit(JUMP, -1);
+            code.setJump(elseJump);
+            compileBlock(code, function, false);
+            code.setJump(endJump);
+        }
+        else
+            code.setJump(elseJump);
+        code.openBlocks--;
+    }
+
+
+    /**
+     * Compiles a function definition.  When this method is called, the word
+     * "def" has already been read.  The function is compiled into its own
+     * Function object, which is added to the array of functions.  It is added
+     * to the function table before its body is compiled, so that the function
+     * can call itself.
+     */
+    private static void compileDefCommand(CodeBuilder mainCode) throws ParseError {
+        mainCode.openBlocks++;
+        TextIO.skipBlanks();
+        if ( ! Character.isLetter(TextIO.peek()) )
+            throw new ParseError("Expected function name after 'def'.");
+        String name = readWord();
+        CodeBuilder code = new CodeBuilder();
+        code.locals = new HashMap<String,Integer>();
+        code.globalsUsed = new HashSet<String>();
         TextIO.skipBlanks();
-        if ( TextIO.peek() != '\n' )
+        if (TextIO.peek() != '(')
+            throw new ParseError("Expected '(' after function name.");
+        TextIO.getAnyChar();
+        TextIO.skipBlanks();
+        if (TextIO.peek() != ')') {
+            while (true) {
+                TextIO.skipBlanks();
+                if ( ! Character.isLetter(TextIO.peek()) )
+                    throw new ParseError("Expected a parameter name.");
+                String param = readWord();
+                if (code.locals.containsKey(param))
+                    throw new ParseError("Parameter name \"" + param + "\" is used twice.");
+                code.locals.put(param, code.locals.size());
+                TextIO.skipBlanks();
+                if (TextIO.peek() != ',')
+                    break;
+                TextIO.getAnyChar();
+            }
+            if (TextIO.peek() != ')')
+                throw new ParseError("Expected ',' or ')' in parameter list.");
+        }
+        TextIO.getAnyChar();  // Read the ")"
+        Function function = new Function();
+        function.name = name;
+        function.paramCount = code.locals.size();
+        Integer num = functionTable.get(name);
+        Function oldFunction = (num == null) ? null : functions[num];
+        if (num == null) {
+            if (functionCount == functions.length)
+                functions = java.util.Arrays.copyOf(functions, 2*functionCount);
+            num = functionCount++;
+            functionTable.put(name, num);
+        }
+        functions[num] = function;
+        try {
+            compileBlock(code, function, false);
+        }
+        catch (ParseError e) {
+            mainCode.openBlocks += code.openBlocks;  // (So the rest of the def can be skipped.)
+            if (oldFunction != null)
+                functions[num] = oldFunction;  // Go back to the previous definition.
+            else {
+                functionTable.remove(name);
+                functionCount--;
+            }
+            throw e;
+        }
+        mainCode.openBlocks--;
+        code.emitConstant(0);   // In case the function ends without a return command.
+        code.emit(RETURN);
+        Function compiled = code.finish(name, function.paramCount, code.locals.size());
+        function.localCount = compiled.localCount;
+        function.maxStack = compiled.maxStack;
+        function.code = compiled.code;
+        function.constants = compiled.constants;
+    }
+
+
+    /**
+     * Compiles the lines inside a while, if, or def command.  When this is called,
+     * the rest of the first line of the command has not been read.  It must be empty.
+     * Commands are compiled until a line that contains "end" (or "else", if
+     * allowElse is true) is found.  When this method returns, the end-of-line after
+     * the "end" or "else" has not been read.
+     * @return true if the block ended with "else", false if it ended with "end".
+     */
+    private static boolean compileBlock(CodeBuilder code, Function function, boolean allowElse)
+                                                                         throws ParseError {
+        endOfLine();
+        while (true) {
+            TextIO.getln();
+            lineNumber++;
+            if (interactive)
+                TextIO.put("...  ");
+            TextIO.skipBlanks();
+            if (TextIO.eof())
+                throw new ParseError("Missing 'end'.");
+            if (TextIO.peek() == '\n')
+                continue;
+            String word = TextIO.getWord();
+            if (word.equalsIgnoreCase("end") || (allowElse && word.equalsIgnoreCase("else"))) {
+                endOfLine();
+                return word.equalsIgnoreCase("else");
+            }
+            compileCommand(word, code, function);
+        }
+    }
+
+
+    /**
+     * Makes sure that there is nothing else on the current line.
+     */
+    private static void endOfLine() throws ParseError {
+        TextIO.skipBlanks();
+        if ( TextIO.peek() != '\n' && ! TextIO.eof() )
             throw new ParseError("Extra data after end of expression.");
-        TextIO.putln("Value is " + val);
     }
 
 
     /**
-     * Read an expression from the current line of input and return its value.
+     * Reads a condition and adds instructions that will leave 1 on the stack if
+     * the condition is true, and 0 if it is false.  (Actually, for a condition that
+     * is just an expression, they leave the value of the expression on the stack.)
      */
-    private static double expressionValue() throws ParseError {
+    private static void conditionCode(CodeBuilder code) throws ParseError {
+        expressionCode(code);
+        TextIO.skipBlanks();
+        char ch = TextIO.peek();
+        if (ch == '<' || ch == '>' || ch == '=' || ch == '!') {
+            String op = "" + TextIO.getAnyChar();
+            if (TextIO.peek() == '=')
+                op += TextIO.getAnyChar();
+            int n = COMPARISONS.indexOf((op + "  ").substring(0,3));
+            if (n < 0 || n % 3 != 0)
+                throw new ParseError("Illegal comparison operator, \"" + op + "\".");
+            expressionCode(code);
+            code.emit(LT + n/3);
+        }
+    }
+
+
+    /**
+     * Read an expression from the current line of input and add the
+     * instructions that will push its value onto the stack.
+     */
+    private static void expressionCode(CodeBuilder code) throws ParseError {
         TextIO.skipBlanks();
         boolean negative;  // True if there is a leading minus sign.
         negative = false;
@@ -161,106 +1038,111 @@ public class SimpleInterpreter {
             TextIO.getAnyChar();
             negative = true;
         }
-        double val;  // Value of the expression.
-        val = termValue();  // An expression must start with a term.
+        termCode(code);  // An expression must start with a term.
         if (negative)
-            val = -val; // Apply the leading minus sign
+            code.emit(NEG); // Apply the leading minus sign
         TextIO.skipBlanks();
         while ( TextIO.peek() == '+' || TextIO.peek() == '-' ) {
                 // Read the next term and add it to or subtract it from
                 // the value of previous terms in the expression.
             char op = TextIO.getAnyChar();
-            double nextVal = termValue();
+            termCode(code);
             if (op == '+')
-                val += nextVal;
+                code.emit(ADD);
             else
-                val -= nextVal;
+                code.emit(SUB);
             TextIO.skipBlanks();
         }
-        return val;
-    } // end expressionValue()
+    } // end expressionCode()
 
 
     /**
-     * Read a term from the current line of input and return its value.
+     * Read a term from the current line of input and add the
+     * instructions that will push its value onto the stack.
      */
-    private static double termValue() throws ParseError {
+    private static void termCode(CodeBuilder code) throws ParseError {
         TextIO.skipBlanks();
-        double val;  // The value of the term.
-        val = factorValue();  // A term must start with a factor.
+        factorCode(code);  // A term must start with a factor.
         TextIO.skipBlanks();
         while ( TextIO.peek() == '*' || TextIO.peek() == '/' ) {
                 // Read the next factor, and multiply or divide
                 // the value-so-far by the value of this factor.
             char op = TextIO.getAnyChar();
-            double nextVal = factorValue();
+            factorCode(code);
             if (op == '*')
-                val *= nextVal;
+                code.emit(MUL);
             else
-                val /= nextVal;
+                code.emit(DIV);
             TextIO.skipBlanks();
         }
-        return val;
-    } // end termValue()
+    } // end termCode()
 
 
     /**
-     * Read a factor from the current line of input and return its value.
+     * Read a factor from the current line of input and add the
+     * instructions that will push its value onto the stack.
      */
-    private static double factorValue() throws ParseError {
+    private static void factorCode(CodeBuilder code) throws ParseError {
         TextIO.skipBlanks();
-        double val;  // Value of the factor.
-        val = primaryValue();  // A factor must start with a primary.
+        primaryCode(code);  // A factor must start with a primary.
         TextIO.skipBlanks();
         while ( TextIO.peek() == '^' ) {
                 // Read the next primary, and exponentiate
                 // the value-so-far by the value of this primary.
             TextIO.getChar();
-            double nextVal = primaryValue();
-            val = Math.pow(val,nextVal);
-            if (Double.isNaN(val))
+            primaryCode(code);
+            if (code.illegalPower())
                 throw new ParseError("Illegal values for ^ operator.");
+            code.emit(POW);
             TextIO.skipBlanks();
         }
-        return val;
-    } // end termValue()
+    } // end factorCode()
 
 
     /**
-     *  Read a primary from the current line of input and
-     *  return its value.  A primary must be a number,
-     *  a variable, or an expression enclosed in parentheses.
+     *  Read a primary from the current line of input and add the
+     *  instructions that will push its value onto the stack.  A primary
+     *  must be a number, a variable, a function call, or an expression
+     *  enclosed in parentheses.
      */
-    private static double primaryValue() throws ParseError {
+    private static void primaryCode(CodeBuilder code) throws ParseError {
         TextIO.skipBlanks();
         char ch = TextIO.peek();
         if ( Character.isDigit(ch) ) {
-                // The factor is a number.  Read it and
-                // return its value.
-            return TextIO.getDouble();
+                // The factor is a number.
+            code.emitConstant( TextIO.getDouble() );
         }
         else if ( Character.isLetter(ch) ) {
-                // The factor is a variable.  Read its name and
-                // look up its value in the symbol table.  If the
-                // variable is not in the symbol table, an error
-                // occurs.  (Note that the values in the symbol
-                // table are objects of type Double.)
+                // The factor is a variable or a function call.  Read its name.
+                // If it is followed immediately by "(", it is a function call.  Otherwise,
+                // look for the variable first among the local variables, if
+                // there are any, and then in the symbol table.  If the
+                // variable is not found, an error occurs.
             String name = readWord();
-            Double val = symbolTable.get(name);
-            if (val == null)
+            if (TextIO.peek() == '(') {
+                functionCallCode(name, code);
+                return;
+            }
+            Integer local = (code.locals == null) ? null : code.locals.get(name);
+            if (local != null) {
+                code.emit(LLOAD, local);
+                return;
+            }
+            Integer global = symbolTable.get(name);
+            if (global == null)
                 throw new ParseError("Unknown variable \"" + name + "\"");
-            return val.doubleValue();
+            if (code.globalsUsed != null)
+                code.globalsUsed.add(name);  // (So it can't become a local variable later.)
+            code.emit(GLOAD, global);
         }
         else if ( ch == '(' ) {
                 // The factor is an expression in parentheses.
-                // Return the value of the expression.
             TextIO.getAnyChar();  // Read the "("
-            double val = expressionValue();
+            expressionCode(code);
             TextIO.skipBlanks();
             if ( TextIO.peek() != ')' )
                 throw new ParseError("Missing right parenthesis.");
             TextIO.getAnyChar();  // Read the ")"
-            return val;
         }
         else if ( ch == '\n' )
             throw new ParseError("End-of-line encountered in the middle of an expression.");
@@ -273,9 +1155,43 @@ public class SimpleInterpreter {
     }
 
 
+    /**
+     * Reads the parameters in a function call and adds the instructions for
+     * calling the function.  When this is called, the name of the function has
+     * been read, and the next character is the "(".  The values of the parameters
+     * are pushed onto the stack, where they become the first local variables of
+     * the function.
+     */
+    private static void functionCallCode(String name, CodeBuilder code) throws ParseError {
+        Integer num = functionTable.get(name);
+        if (num == null)
+            throw new ParseError("Unknown function \"" + name + "\"");
+        TextIO.getAnyChar();  // Read the "("
+        int paramCount = 0;
+        TextIO.skipBlanks();
+        if (TextIO.peek() != ')') {
+            while (true) {
+                expressionCode(code);
+                paramCount++;
+                TextIO.skipBlanks();
+                if (TextIO.peek() != ',')
+                    break;
+                TextIO.getAnyChar();
+            }
+            if (TextIO.peek() != ')')
+                throw new ParseError("Missing right parenthesis.");
+        }
+        TextIO.getAnyChar();  // Read the ")"
+        if (paramCount != functions[num].paramCount)
+            throw new ParseError("Function " + name + " needs " + functions[num].paramCount
+                                                                        + " parameters.");
+        code.emitCall(num, paramCount);
+    }
+
+
     /**
      *  Reads a word from input.  A word is any sequence of
-     *  letters and digits, starting with a letter.  When 
+     *  letters and digits, starting with a letter.  When
      *  this subroutine is called, it should already be
      *  known that the next character in the input is
      *  a letter.
@@ -0,0 +1,231 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * Measures the speed of the virtual machine in SimpleInterpreter on some
+ * programs that spend most of their time in loops and function calls.  Each
+ * program is compiled once and then run several times, and the best time is
+ * reported.  For comparison, the same computation is also done by a Java
+ * method, using the same operations in the same order, and the program
+ * checks that the output is exactly the same.
+ *
+ * Usage:  java SimpleInterpreterBenchmark
+ */
+public class SimpleInterpreterBenchmark {
+
+    private final static int RUNS = 5;
+
+    private final static String[] NAMES = {
+        "Sum of squares",
+        "Mandelbrot counts",
+        "Recursive Fibonacci",
+        "Newton's method",
+        "Integration"
+    };
+
+    private final static String[] PROGRAMS = {
+
+        "let s = 0\n" +
+        "let i = 0\n" +
+        "while i < 2000000\n" +
+        "    let s = s + i*i\n" +
+        "    let i = i + 1\n" +
+        "end\n" +
+        "print s\n",
+
+        "let total = 0\n" +
+        "let row = 0\n" +
+        "while row < 100\n" +
+        "    let col = 0\n" +
+        "    while col < 150\n" +
+        "        let cx = -2.2 + col*0.02\n" +
+        "        let cy = -1 + row*0.02\n" +
+        "        let x = 0\n" +
+        "        let y = 0\n" +
+        "        let k = 0\n" +
+        "        while k < 100\n" +
+        "            let t = x*x - y*y + cx\n" +
+        "            let y = 2*x*y + cy\n" +
+        "            let x = t\n" +
+        "            let k = k + 1\n" +
+        "            if x*x + y*y > 4\n" +
+        "                let total = total + k\n" +
+        "                let k = 100\n" +
+        "            end\n" +
+        "        end\n" +
+        "        let col = col + 1\n" +
+        "    end\n" +
+        "    let row = row + 1\n" +
+        "end\n" +
+        "print total\n",
+
+        "def fib(n)\n" +
+        "    if n < 2\n" +
+        "        return n\n" +
+        "    end\n" +
+        "    return fib(n-1) + fib(n-2)\n" +
+        "end\n" +
+        "print fib(25)\n",
+
+        "def root(a)\n" +
+        "    let x = a\n" +
+        "    let n = 0\n" +
+        "    while n < 20\n" +
+        "        let x = (x + a/x) / 2\n" +
+        "        let n = n + 1\n" +
+        "    end\n" +
+        "    return x\n" +
+        "end\n" +
+        "let s = 0\n" +
+        "let i = 1\n" +
+        "while i <= 20000\n" +
+        "    let s = s + root(i)\n" +
+        "    let i = i + 1\n" +
+        "end\n" +
+        "print s\n",
+
+        "def f(x)\n" +
+        "    return 4 / (1 + x^2)\n" +
+        "end\n" +
+        "def integral(a, b, n)\n" +
+        "    let h = (b - a) / n\n" +
+        "    let sum = 0\n" +
+        "    let i = 0\n" +
+        "    while i < n\n" +
+        "        let sum = sum + f(a + (i + 0.5)*h)\n" +
+        "        let i = i + 1\n" +
+        "    end\n" +
+        "    return sum * h\n" +
+        "end\n" +
+        "print integral(0, 1, 500000)\n"
+    };
+
+
+    public static void main(String[] args) {
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) { }
+            public void write(byte[] b, int offset, int length) { }
+        });
+        System.out.printf("Best of %d runs.%n%n", RUNS);
+        System.out.printf("%-22s %14s %14s %10s %6s%n", "Program", "Interpreter", "Java", "Ratio", "Same");
+        for (int p = 0; p < PROGRAMS.length; p++) {
+            SimpleInterpreter.createSymbolTable();
+            TextIO.readStream(new StringReader(PROGRAMS[p]));
+            SimpleInterpreter.Script script;
+            try {
+                script = SimpleInterpreter.compileScript();
+            }
+            catch (Exception e) {  // Can't happen, since the programs have no errors.
+                throw new RuntimeException(e);
+            }
+            double interpreterTime = Double.MAX_VALUE, javaTime = Double.MAX_VALUE;
+            double javaValue = 0;
+            for (int i = 0; i <= RUNS; i++) {  // (The first run is a warm-up.)
+                long start = System.nanoTime();
+                run(script, discard);
+                double time = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                javaValue = java(p);
+                double time2 = (System.nanoTime() - start) / 1e6;
+                if (i > 0) {
+                    interpreterTime = Math.min(interpreterTime, time);
+                    javaTime = Math.min(javaTime, time2);
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            run(script, new PrintStream(bytes));
+            String output = bytes.toString().trim();
+            boolean same = output.equals("Value is " + javaValue);
+            System.out.printf("%-22s %11.2f ms %11.2f ms %9.1fx %6s%n", NAMES[p],
+                                 interpreterTime, javaTime, interpreterTime / javaTime, same ? "yes" : "NO");
+        }
+        TextIO.readStandardInput();
+    }
+
+    /**
+     * Runs a compiled program.
+     */
+    private static void run(SimpleInterpreter.Script script, PrintStream out) {
+        try {
+            script.run(out);
+        }
+        catch (Exception e) {  // Can't happen, since the programs have no errors.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Does the same computation as program number p, in Java, and returns the
+     * value that the program prints.
+     */
+    private static double java(int p) {
+        switch (p) {
+        case 0: {
+            double s = 0;
+            for (double i = 0; i < 2000000; i = i + 1)
+                s = s + i*i;
+            return s;
+        }
+        case 1: {
+            double total = 0;
+            for (double row = 0; row < 100; row = row + 1) {
+                for (double col = 0; col < 150; col = col + 1) {
+                    double cx = -2.2 + col*0.02;
+                    double cy = -1 + row*0.02;
+                    double x = 0, y = 0;
+                    double k = 0;
+                    while (k < 100) {
+                        double t = x*x - y*y + cx;
+                        y = 2*x*y + cy;
+                        x = t;
+                        k = k + 1;
+                        if (x*x + y*y > 4) {
+                            total = total + k;
+                            k = 100;
+                        }
+                    }
+                }
+            }
+            return total;
+        }
+        case 2:
+            return fib(25);
+        case 3: {
+            double s = 0;
+            for (double i = 1; i <= 20000; i = i + 1)
+                s = s + root(i);
+            return s;
+        }
+        default:
+            return integral(0, 1, 500000);
+        }
+    }
+
+    private static double fib(double n) {
+        if (n < 2)
+            return n;
+        return fib(n-1) + fib(n-2);
+    }
+
+    private static double root(double a) {
+        double x = a;
+        for (double n = 0; n < 20; n = n + 1)
+            x = (x + a/x) / 2;
+        return x;
+    }
+
+    private static double f(double x) {
+        return 4 / (1 + Math.pow(x,2));
+    }
+
+    private static double integral(double a, double b, double n) {
+        double h = (b - a) / n;
+        double sum = 0;
+        for (double i = 0; i < n; i = i + 1)
+            sum = sum + f(a + (i + 0.5)*h);
+        return sum * h;
+    }
+
+}
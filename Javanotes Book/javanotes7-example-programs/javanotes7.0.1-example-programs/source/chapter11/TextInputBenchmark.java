@@ -0,0 +1,185 @@
+import java.io.*;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.StringTokenizer;
+
+/**
+ * Compares the speed of several ways of reading numbers from a text file:
+ * TextIO, reading a file that was opened with TextIO.readFile() or a FileReader
+ * that was passed to TextIO.readStream(); TextReader; a Scanner; and a
+ * BufferedReader that reads lines which are split into tokens and converted
+ * with Double.parseDouble() or Integer.parseInt().  (TextIO.readFile() reads
+ * a file of 1 megabyte or more by mapping it into memory.)  The program writes
+ * a temporary file containing random real numbers, several to a line, and
+ * another one containing random integers.  It then reads each file in each
+ * of the five ways, and reports the best time out of several runs, after a
+ * warm-up run, along with the speed in megabytes per second.  It also checks
+ * that every method gets the same sum for the numbers in the file.  The
+ * temporary files are deleted at the end.
+ * <p>There is also a sixth way, "TextIO switching", which is the same as
+ * "TextIO readStream" except that, before calling readStream(), it reads a
+ * number from the middle of a line of standard input whose end has not
+ * arrived yet.  This checks that TextIO does not lose any of the file, or
+ * wait for standard input, when it switches to the new input source.  The
+ * program supplies its own standard input for this, so it does not read
+ * from the console.
+ *
+ * Usage:  java TextInputBenchmark [count]
+ * where count is the number of numbers in each file.  The default is 1000000.
+ */
+public class TextInputBenchmark {
+
+    private final static int RUNS = 3;
+
+    private final static String[] METHODS = { "TextIO readFile", "TextIO readStream", "TextIO switching",
+                                              "TextReader", "Scanner", "BufferedReader" };
+
+    public static void main(String[] args) throws IOException {
+        System.setIn(new SlowInput());  // (This must be done before TextIO is used for the first time.)
+        int count = 1000000;
+        if (args.length > 0)
+            count = Integer.parseInt(args[0]);
+        File realFile = File.createTempFile("reals", ".txt");
+        File intFile = File.createTempFile("ints", ".txt");
+        try {
+            writeFiles(realFile, intFile, count);
+            System.out.printf("%d numbers per file; best of %d runs.%n%n", count, RUNS);
+            System.out.printf("%-18s %24s %24s %6s%n", "Method", "Reals", "Integers", "Same");
+            double realSum = 0, intSum = 0;
+            for (int method = 0; method < METHODS.length; method++) {
+                double realTime = Double.MAX_VALUE, intTime = Double.MAX_VALUE;
+                double realAnswer = 0, intAnswer = 0;
+                for (int run = 0; run <= RUNS; run++) {  // (The first run is a warm-up.)
+                    long start = System.nanoTime();
+                    realAnswer = read(method, realFile, count, false);
+                    double time = (System.nanoTime() - start) / 1e6;
+                    start = System.nanoTime();
+                    intAnswer = read(method, intFile, count, true);
+                    double time2 = (System.nanoTime() - start) / 1e6;
+                    if (run > 0) {
+                        realTime = Math.min(realTime, time);
+                        intTime = Math.min(intTime, time2);
+                    }
+                }
+                if (method == 0) {
+                    realSum = realAnswer;
+                    intSum = intAnswer;
+                }
+                boolean same = (realAnswer == realSum && intAnswer == intSum);
+                System.out.printf("%-18s %9.1f ms %7.1f MB/s %9.1f ms %7.1f MB/s %6s%n", METHODS[method],
+                        realTime, realFile.length() / realTime / 1000,
+                        intTime, intFile.length() / intTime / 1000, same ? "yes" : "NO");
+            }
+        }
+        finally {
+            realFile.delete();
+            intFile.delete();
+        }
+    }
+
+    /**
+     * Writes count random real numbers to one file and count random
+     * integers to the other, ten numbers to a line.
+     */
+    private static void writeFiles(File realFile, File intFile, int count) throws IOException {
+        Random random = new Random(42);
+        PrintWriter reals = new PrintWriter(new BufferedWriter(new FileWriter(realFile)));
+        PrintWriter ints = new PrintWriter(new BufferedWriter(new FileWriter(intFile)));
+        for (int i = 0; i < count; i++) {
+            String separator = (i % 10 == 9)? "\n" : " ";
+            switch (i % 3) {
+            case 0:  reals.print(random.nextDouble() * 1000); break;
+            case 1:  reals.print(Math.round(random.nextGaussian() * 1e6) / 1000.0); break;
+            default: reals.print(random.nextInt(100000) / 100.0 - 500); break;
+            }
+            reals.print(separator);
+            ints.print(random.nextInt(2000000) - 1000000);
+            ints.print(separator);
+        }
+        reals.close();
+        ints.close();
+    }
+
+    /**
+     * Reads count numbers from the file, using one of the six methods, and
+     * returns their sum.  If integers is true, the numbers are read as ints;
+     * otherwise, they are read as doubles.
+     */
+    private static double read(int method, File file, int count, boolean integers) throws IOException {
+        double sum = 0;
+        switch (method) {
+        case 0:
+            TextIO.readFile(file.getPath());
+            for (int i = 0; i < count; i++)
+                sum += integers ? TextIO.getInt() : TextIO.getDouble();
+            TextIO.readStandardInput();
+            break;
+        case 1:
+            TextIO.readStream(new FileReader(file));
+            for (int i = 0; i < count; i++)
+                sum += integers ? TextIO.getInt() : TextIO.getDouble();
+            TextIO.readStandardInput();
+            break;
+        case 2:
+            try {
+                if (TextIO.getInt() != 5)  // Stops partway through a line of standard input.
+                    return Double.NaN;
+                TextIO.readStream(new FileReader(file));
+                for (int i = 0; i < count; i++)
+                    sum += integers ? TextIO.getInt() : TextIO.getDouble();
+                TextIO.readStandardInput();
+            }
+            catch (IllegalArgumentException e) {  // (TextIO reports errors, such as reading past the end of the file, in this way.)
+                TextIO.readStandardInput();
+                return Double.NaN;
+            }
+            break;
+        case 3:
+            try (TextReader in = new TextReader(new FileReader(file))) {
+                for (int i = 0; i < count; i++)
+                    sum += integers ? in.getInt() : in.getDouble();
+            }
+            break;
+        case 4:
+            try (Scanner in = new Scanner(new BufferedReader(new FileReader(file)))) {
+                for (int i = 0; i < count; i++)
+                    sum += integers ? in.nextInt() : in.nextDouble();
+            }
+            break;
+        default:
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    StringTokenizer tokens = new StringTokenizer(line);
+                    while (tokens.hasMoreTokens()) {
+                        String token = tokens.nextToken();
+                        sum += integers ? Integer.parseInt(token) : Double.parseDouble(token);
+                    }
+                }
+            }
+            break;
+        }
+        return sum;
+    }
+
+    /**
+     * The standard input for the "TextIO switching" method.  It is an endless
+     * series of lines "5 6", and each call to read() returns only half of a
+     * line, so after TextIO has read the 5, the rest of the line is not
+     * available until TextIO asks for more input.
+     */
+    private static class SlowInput extends InputStream {
+        private final static String LINE = "5 6\n";
+        private int next;  // The number of bytes that have been returned so far.
+        public int read() {
+            return LINE.charAt(next++ % LINE.length());
+        }
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, 2 - next % 2);
+            for (int i = 0; i < n; i++)
+                b[off + i] = (byte)read();
+            return n;
+        }
+    }
+
+}
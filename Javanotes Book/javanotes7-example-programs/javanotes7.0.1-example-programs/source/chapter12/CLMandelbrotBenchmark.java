@@ -0,0 +1,131 @@
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Compares the time that CLMandelbrotMaster takes to compute its image with
+ * the text protocol and with the binary protocol, using worker programs that
+ * run on this computer.  The program starts a number of copies of
+ * CLMandelbrotWorker as separate processes, listening on consecutive ports
+ * starting at 23571, and then runs the computation several times, with each
+ * protocol and for several values of maxIterations.  (With a small number of
+ * iterations, the tasks are quick and the time spent on communication is a
+ * large part of the total.  With many iterations, the computation dominates.)
+ * For comparison, the computation is also done without the network at all.
+ * Each distributed result is checked against the non-distributed one.
+ *
+ * Usage:  java CLMandelbrotBenchmark [workers] [maxIterations ...]
+ * The default is 2 workers, and maxIterations values of 100, 1000, and 10000.
+ * The worker processes use the same Java and class path as this program.
+ * Note that the timings only show the cost of communication if this computer
+ * has at least as many processors as there are workers.
+ */
+public class CLMandelbrotBenchmark {
+
+    private static final int FIRST_PORT = 23571;
+
+    /**
+     * The protocols that are compared:  a label, whether to use the
+     * binary protocol, and the pipeline depth.
+     */
+    private static final String[] LABELS = { "local", "text", "binary, 1 in flight",
+                                             "binary, 4 in flight", "binary, 16 in flight" };
+    private static final boolean[] BINARY = { false, false, true, true, true };
+    private static final int[] DEPTH = { 0, 0, 1, 4, 16 };
+
+    private static ArrayList<Process> processes;  // All the workers, destroyed on exit.
+
+    public static void main(String[] args) throws Exception {
+        int workerCount = 2;
+        int[] iterations = { 100, 1000, 10000 };
+        if (args.length > 0)
+            workerCount = Integer.parseInt(args[0]);
+        if (args.length > 1) {
+            iterations = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                iterations[i-1] = Integer.parseInt(args[i]);
+        }
+        String[] hosts = new String[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            startWorker(FIRST_PORT + i);
+            hosts[i] = "localhost:" + (FIRST_PORT + i);
+        }
+        System.out.printf("%d local worker processes; %d processors.%n%n",
+                                workerCount, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%14s %22s %14s%n", "maxIterations", "Protocol", "Seconds");
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+        for (int iters : iterations) {
+            int[][] expected = null;
+            for (int p = 0; p < LABELS.length; p++) {
+                String[] workers = (p == 0) ? new String[0] : hosts;
+                Thread.sleep(300);  // Give the workers time to start listening again.
+                System.setOut(discard);  // Hide the messages from the worker threads.
+                long time = CLMandelbrotMaster.computeImage(workers, BINARY[p], DEPTH[p], iters);
+                System.setOut(console);
+                String result = String.format("%.3f", time / 1000.0);
+                int[][] data = CLMandelbrotMaster.getImageData();
+                if (expected == null)
+                    expected = data;
+                else if ( ! java.util.Arrays.deepEquals(expected, data) )
+                    result += "  (WRONG IMAGE)";
+                System.out.printf("%14d %22s %14s%n", iters, LABELS[p], result);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts a CLMandelbrotWorker process that listens on a given port, and
+     * waits until it has announced its port number.  A thread is started to
+     * read and discard the rest of the worker's output.  All the processes
+     * that are started by this method are destroyed when the program exits.
+     * (This method is also used by CLMandelbrotFaultTest.)
+     * @param options extra command line arguments for the worker.
+     * @return the process, which can be destroyed to stop the worker sooner.
+     */
+    static synchronized Process startWorker(int port, String... options) throws IOException {
+        if (processes == null) {
+            processes = new ArrayList<Process>();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    for (Process process : processes)
+                        process.destroy();
+                }
+            });
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(java);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("CLMandelbrotWorker");
+        command.add("" + port);
+        for (String option : options)
+            command.add(option);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        processes.add(process);
+        final BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line = out.readLine();
+        if (line == null || ! line.startsWith("Starting"))
+            throw new IOException("Worker on port " + port + " did not start.");
+        Thread drain = new Thread() {
+            public void run() {
+                try {
+                    while (out.readLine() != null) {
+                    }
+                }
+                catch (IOException e) {
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+        return process;
+    }
+
+}
@@ -0,0 +1,74 @@
+import java.util.Arrays;
+
+/**
+ * Checks that CLMandelbrotMaster produces the correct image, in a reasonable
+ * time, when some of its workers are slow, crash, or stop responding.  For
+ * each scenario, three CLMandelbrotWorker processes are started on this
+ * computer, some of them with the options that simulate problems (see
+ * CLMandelbrotWorker), and the image is computed with the text protocol and
+ * with the binary protocol.  The image must be identical to the one that is
+ * computed without the network.  The program prints the time for each run,
+ * followed by the master's report on each worker, and exits with status 1
+ * if any run gives the wrong image.
+ *
+ * Usage:  java CLMandelbrotFaultTest [maxIterations]
+ * The default for maxIterations is 500, which keeps the runs short.
+ */
+public class CLMandelbrotFaultTest {
+
+    /**
+     * The scenarios:  a description, and the options for each of the three workers.
+     */
+    private static final String[] NAMES = {
+        "three normal workers",
+        "one slow worker (20 ms extra per row)",
+        "one worker crashes after 5 tasks",
+        "one worker stops responding after 5 tasks",
+        "one slow worker, one crashes, one stops responding",
+        "all workers crash after 3 tasks",
+        "all workers stop responding after 3 tasks"
+    };
+    private static final String[][][] OPTIONS = {
+        { {}, {}, {} },
+        { {"-delay=20"}, {}, {} },
+        { {"-failafter=5"}, {}, {} },
+        { {"-hangafter=5"}, {}, {} },
+        { {"-delay=20"}, {"-failafter=5"}, {"-hangafter=5"} },
+        { {"-failafter=3"}, {"-failafter=3"}, {"-failafter=3"} },
+        { {"-hangafter=3"}, {"-hangafter=3"}, {"-hangafter=3"} }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 500;
+        if (args.length > 0)
+            iterations = Integer.parseInt(args[0]);
+        CLMandelbrotMaster.computeImage(new String[0], false, 1, iterations);
+        int[][] expected = CLMandelbrotMaster.getImageData();
+        int port = 24571;
+        boolean ok = true;
+        for (int s = 0; s < NAMES.length; s++) {
+            for (int p = 0; p < 2; p++) {
+                boolean binary = (p == 1);
+                Process[] processes = new Process[3];
+                String[] hosts = new String[3];
+                for (int i = 0; i < 3; i++) {
+                    processes[i] = CLMandelbrotBenchmark.startWorker(port, OPTIONS[s][i]);
+                    hosts[i] = "localhost:" + port;
+                    port++;
+                }
+                Thread.sleep(300);  // Give the workers time to start listening.
+                System.out.println("--- " + NAMES[s] + ", " + (binary ? "binary" : "text") + " protocol");
+                long time = CLMandelbrotMaster.computeImage(hosts, binary, 4, iterations);
+                boolean correct = Arrays.deepEquals(expected, CLMandelbrotMaster.getImageData());
+                System.out.printf("%s in %.3f seconds%n%n", correct ? "Correct image" : "WRONG IMAGE", time/1000.0);
+                if ( ! correct )
+                    ok = false;
+                for (Process process : processes)
+                    process.destroy();
+            }
+        }
+        System.out.println(ok ? "All runs produced the correct image." : "SOME RUNS FAILED.");
+        System.exit(ok ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,78 @@
+
+/**
+ * Compares the speed of CLMandelbrotTask.compute(), which computes four
+ * pixels at a time, with CLMandelbrotTask.computeScalar(), which computes
+ * one pixel at a time, for the image that is computed by CLMandelbrotMaster,
+ * with several values of maxIterations.  Each time is the best of several
+ * runs, after a warm-up run.  The program also checks that the two methods
+ * give the same results.
+ *
+ * Usage:  java CLMandelbrotKernelBenchmark [maxIterations ...]
+ * The default is to use maxIterations values of 100, 1000, and 10000.
+ * (The image for 10000 takes several seconds per run.)
+ */
+public class CLMandelbrotKernelBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) {
+        int[] iterations = { 100, 1000, 10000 };
+        if (args.length > 0) {
+            iterations = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                iterations[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%14s %14s %14s %10s%n", "maxIterations", "Scalar (s)", "4 lanes (s)", "Speedup");
+        boolean allEqual = true;
+        for (int iters : iterations) {
+            CLMandelbrotTask scalar = createTask(iters);
+            CLMandelbrotTask lanes = createTask(iters);
+            double scalarTime = time(scalar, false);
+            double lanesTime = time(lanes, true);
+            boolean equal = java.util.Arrays.equals(scalar.results, lanes.results);
+            allEqual = allEqual && equal;
+            System.out.printf("%14d %14.3f %14.3f %9.2fx%s%n", iters, scalarTime, lanesTime,
+                                 scalarTime / lanesTime, equal ? "" : "  (DIFFERENT)");
+        }
+        System.out.println(allEqual ? "The results were identical." : "THE RESULTS WERE DIFFERENT.");
+    }
+
+    /**
+     * Makes one task that covers the whole image from CLMandelbrotMaster.
+     */
+    private static CLMandelbrotTask createTask(int maxIterations) {
+        double xmin = -0.9548900066789311;
+        double xmax = -0.9548895970332226;
+        double ymin = 0.2525416221154478;
+        double ymax = 0.25254192934972913;
+        CLMandelbrotTask task = new CLMandelbrotTask();
+        task.maxIterations = maxIterations;
+        task.y = ymax;
+        task.xmin = xmin;
+        task.count = 1024;
+        task.dx = (xmax - xmin)/(task.count+1);
+        task.rows = 768;
+        task.dy = (ymax - ymin)/(task.rows+1);
+        return task;
+    }
+
+    /**
+     * Performs a task RUNS+1 times and returns the shortest time in seconds,
+     * not counting the first run.
+     */
+    private static double time(CLMandelbrotTask task, boolean useLanes) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            if (useLanes)
+                task.compute();
+            else
+                task.computeScalar();
+            long elapsed = System.nanoTime() - start;
+            if (run > 0)
+                best = Math.min(best, elapsed);
+        }
+        return best / 1e9;
+    }
+
+}
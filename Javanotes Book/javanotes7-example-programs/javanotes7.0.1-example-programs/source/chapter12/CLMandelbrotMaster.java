@@ -1,6 +1,8 @@
 import java.io.*;
 import java.net.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Scanner;
 
 import javax.imageio.ImageIO;
@@ -37,12 +39,20 @@ import java.awt.image.BufferedImage;
  * math.hws.edu:1501 or 127.0.0.1:18881, that is, the computer name or
  * IP, followed by a colon, followed by the port number, with NO SPACES.
  * 
- * When CLMandlebrotMaster runs, it creates a list of tasks (of type
- * CLMandelbrotTask) that have to be performed, and it creates a thread
- * for communicating with each copy of CLMandelbrotWorker.  Each thread
- * sends a sequence of tasks to the connected worker, which does the
- * actual work involved in performing the task and sends back the
- * results.
+ * When CLMandlebrotMaster runs, it creates a CLMandelbrotScheduler that
+ * divides the image into tasks (of type CLMandelbrotTask), and it creates
+ * a thread for communicating with each copy of CLMandelbrotWorker.  Each
+ * thread gets a sequence of tasks from the scheduler and sends them to
+ * the connected worker, which does the actual work involved in performing
+ * the task and sends back the results.  The scheduler sizes each task
+ * according to how fast the worker has been, and it gives copies of
+ * unfinished tasks to idle workers near the end of the job, so that a slow
+ * worker can't hold up the whole computation.  If a worker fails, its tasks
+ * are given to other workers; if all of the workers fail, the master
+ * finishes the job itself.  A worker that stops sending results, without
+ * closing its connection, counts as a failure once it has been silent for
+ * much longer than its tasks should take (see RESULT_TIMEOUT_FACTOR), so
+ * the master never waits forever for a worker that has stopped responding.
  * 
  * Although this program is meant as a demonstration of distributed
  * computing, it does compute an interesting picture.  If you want to
@@ -50,8 +60,21 @@ import java.awt.image.BufferedImage;
  * the main() routine.  The program computes the same picture every
  * time it is run.
  * 
- * Note that data sent over the network is encoded as text.  The first
- * word on a line of text identifies the type of data.
+ * By default, data sent over the network is encoded as text.  The first
+ * word on a line of text identifies the type of data.  If the option
+ * -binary is given on the command line (before the list of workers),
+ * a binary protocol is used instead:  tasks and results are sent as raw
+ * ints and doubles over a DataOutputStream, and each connection keeps
+ * several tasks "in flight" at the same time, so that a worker always
+ * has its next task waiting while the master is busy with the results
+ * of the previous one.  The number of tasks in flight per worker can be
+ * given with the option -pipeline=N (the default is 4).  For example:
+ * 
+ *      java CLMandelbrotMaster -binary -pipeline=8 localhost:2001 localhost:2002
+ * 
+ * CLMandelbrotWorker recognizes the protocol from the first bytes that
+ * it receives, so the same worker programs can be used with either
+ * protocol.  See CLMandelbrotBenchmark for a program that compares them.
  */
 public class CLMandelbrotMaster {
 
@@ -73,33 +96,73 @@ public class CLMandelbrotMaster {
 
     /**
      * The first word on a message representing a CLMandelbrotTask.  This
-     * is followed by the incoming data (id, maxIterations, y, xmin, dx, and 
-     * count) for the task. Items on the line are separated by spaces.
+     * is followed by the incoming data (id, maxIterations, y, xmin, dx, 
+     * count, firstRow, rows, and dy) for the task. Items on the line are
+     * separated by spaces.
      */
     private static final String TASK_COMMAND = "task";
 
     /**
      * The first word on a message representing the results from a
      * CLMandelbrotTask.  This is followed by the task id, the number
-     * of items in the results, and then the results.  Items on the
+     * of items in the results (count*rows), and then the results.  Items on the
      * line are separated by spaces.
      */
     private static final String RESULT_COMMAND = "result";
 
     /**
-     * The list of tasks that must be performed to complete the computation.
-     * This list is created by createJob().  The tasks are sent out to 
-     * workers to be performed.  Each task represents the computation of
-     * one row of an image of part of the Mandelbrot set.
+     * In the binary protocol, the master starts by sending this int to the
+     * worker.  Its first byte is the character 'C', which can't be the
+     * start of any message in the text protocol, so the worker can tell
+     * which protocol is in use by looking at the first byte.  (This value
+     * must be the same as in CLMandelbrotWorker.)
+     */
+    static final int BINARY_PROTOCOL_MAGIC = 0x434C4D42;  // "CLMB" in ASCII.
+
+    /**
+     * In the binary protocol, every message from the master starts with one
+     * of these ints.  A BINARY_TASK is followed by the task's id and
+     * maxIterations (ints), y, xmin and dx (doubles), count, firstRow and
+     * rows (ints), and dy (double).  The reply from the worker is the task
+     * id, the number of results (count*rows), and then the results, all
+     * as ints.
+     */
+    static final int BINARY_TASK = 1, BINARY_CLOSE = 2, BINARY_SHUTDOWN = 3;
+
+    /**
+     * The default number of tasks that are in flight at the same time on
+     * each connection when the binary protocol is used.
+     */
+    private static final int DEFAULT_PIPELINE_DEPTH = 4;
+
+    /**
+     * A worker that sends nothing for RESULT_TIMEOUT_FACTOR times the time that
+     * the task it is working on should take, according to the worker's speed so
+     * far, is assumed to have stopped responding.  Its connection is closed and
+     * its tasks are given back to the scheduler.  The time limit is never less
+     * than MIN_RESULT_TIMEOUT milliseconds, which is also the limit when the
+     * worker's speed is not yet known.
+     */
+    private static final int RESULT_TIMEOUT_FACTOR = 20;
+    private static final int MIN_RESULT_TIMEOUT = 10000;
+
+    /**
+     * Tells whether the WorkerConnections use the binary protocol.  Set
+     * in computeImage().
+     */
+    private static boolean binaryProtocol;
+
+    /**
+     * The number of tasks that each WorkerConnection sends before waiting
+     * for a result, when the binary protocol is used.  Set in computeImage().
      */
-    private static ConcurrentLinkedQueue<CLMandelbrotTask> tasks;
+    private static int pipelineDepth;
 
     /**
-     * The number of tasks that have been completed.  At the end of the
-     * computation, this should be equal to the number of rows in the
-     * image that is being computed.
+     * Decides which rows of the image go to which worker, and collects the
+     * results.  Created by createJob().
      */
-    private static int tasksCompleted;
+    private static CLMandelbrotScheduler scheduler;
 
     /**
      * Number of rows and columns in the image; set by computeJob().
@@ -134,133 +197,183 @@ public class CLMandelbrotMaster {
      */
     public static void main(String[] args) {
         
+        boolean binary = false;
+        int depth = DEFAULT_PIPELINE_DEPTH;
+        ArrayList<String> workers = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("-binary"))
+                binary = true;
+            else if (arg.toLowerCase().startsWith("-pipeline=")) {
+                try {
+                    depth = Integer.parseInt(arg.substring(10));
+                    if (depth < 1)
+                        throw new NumberFormatException();
+                }
+                catch (NumberFormatException e) {
+                    System.out.println("Illegal pipeline depth in " + arg);
+                    System.exit(1);
+                }
+            }
+            else
+                workers.add(arg);
+        }
+        
+        if (workers.size() == 0)
+            System.out.println("Running on this computer only...");
+        else if (binary)
+            System.out.println("Using the binary protocol, with " + depth + " tasks in flight per worker.");
+        
+        long elapsedTime = computeImage(workers.toArray(new String[workers.size()]), 
+                                                  binary, depth, 10000);
+        
+        System.out.println("Finished in " + (elapsedTime/1000.0) + " seconds ");
+        
+        // saveImage();  // Uncomment this line if you would like to save the
+                         // image that was computed by this program to a file.
+    
+    } // end main()
+    
+    
+    /**
+     * Computes the image, either locally or with the help of CLMandelbrotWorker
+     * programs, and returns the time that the computation took.  (This is
+     * separate from main() so that it can also be called by CLMandelbrotBenchmark.)
+     * If all of the workers fail before the image is complete, the rest of the
+     * image is computed on this computer.
+     * @param hosts the workers, in the form described in the comment on this class.
+     * If this is an empty array, the computation is done on this computer.
+     * @param binary tells whether to use the binary protocol.
+     * @param depth the number of tasks in flight per worker for the binary protocol.
+     * @param iterations the maximum number of iterations for the Mandelbrot
+     * computation.  (The main program uses 10000.  Smaller values make the
+     * tasks quicker, so that communication takes a larger share of the time.)
+     * @return the elapsed time in milliseconds.  This is measured when the last
+     * row is complete, before connections to stragglers are closed.
+     */
+    static long computeImage(String[] hosts, boolean binary, int depth, int iterations) {
+        
         long startTime = System.currentTimeMillis();
         
-        createJob();  // Create the list of tasks that need to be computed.
+        binaryProtocol = binary;
+        pipelineDepth = depth;
+        createJob(iterations);  // Create the scheduler that hands out the tasks.
         
-        if (args.length == 0) { // Run non-distributed computation.
+        if (hosts.length == 0) { // Run non-distributed computation.
             
-            System.out.println("Running on this computer only...");
-            while (true) {
-                CLMandelbrotTask task = tasks.poll();
-                if (task == null)
-                    break;
-                task.compute();
-                finishTask(task);
-            }
+            computeLocally();
+            return System.currentTimeMillis() - startTime;
             
         }
-        else {  // Run a distributed computation.
         
-            WorkerConnection[] workers = new WorkerConnection[args.length];
-            
-            for (int i = 0; i < args.length; i++) {
-                   // Create the worker threads that communicate with the
-                   // CLMandelbrotWorker programs.  The threads start automatically
-                   // as soon as they are created.
-                String host = args[i];
-                int port = DEFAULT_PORT;
-                int pos = host.indexOf(':');
-                if (pos >= 0) {
-                       // The host string contains a ":", which should be
-                       // followed by the port number.
-                    String portString = host.substring(pos+1);
-                    host = host.substring(0,pos);  // Remove port from host string.
-                    try {
-                        port = Integer.parseInt(portString);
-                    }
-                    catch (NumberFormatException e) {
-                    }
+        // Run a distributed computation.
+        
+        WorkerConnection[] workers = new WorkerConnection[hosts.length];
+        
+        for (int i = 0; i < hosts.length; i++) {
+               // Create the worker threads that communicate with the
+               // CLMandelbrotWorker programs.  The threads start automatically
+               // as soon as they are created.
+            String host = hosts[i];
+            int port = DEFAULT_PORT;
+            int pos = host.indexOf(':');
+            if (pos >= 0) {
+                   // The host string contains a ":", which should be
+                   // followed by the port number.
+                String portString = host.substring(pos+1);
+                host = host.substring(0,pos);  // Remove port from host string.
+                try {
+                    port = Integer.parseInt(portString);
                 }
-                workers[i] = new WorkerConnection(i+1, host, port);
-            }
-            
-            for (int i = 0; i < args.length; i++) {
-                    // Wait for all the threads to terminate.
-                while (workers[i].isAlive()) {
-                    try {
-                        workers[i].join();
-                    }
-                    catch (InterruptedException e) {
-                    }
+                catch (NumberFormatException e) {
                 }
             }
-    
-            if (tasksCompleted != rows) {
-                   // Not all of the tasks were completed.  (Note: for a more robust
-                   // program, the remaining tasks could be executed here directly.)
-                System.out.println("Something went wrong.  Only " + tasksCompleted);
-                System.out.println("out of " + rows + " tasks were completed");
-                System.exit(1);
-            }
-            
+            workers[i] = new WorkerConnection(i+1, host, port);
         }
         
+        boolean finished = false;
+        while (true) {
+                // Wait until the image is complete or all of the workers have failed.
+            try {
+                finished = scheduler.awaitCompletion();
+                break;
+            }
+            catch (InterruptedException e) {
+            }
+        }
+        if ( ! finished ) {
+            System.out.println("All of the workers have failed after completing " + 
+                    scheduler.getRowsCompleted() + " out of " + rows + " rows.");
+            System.out.println("Computing the remaining rows on this computer.");
+            computeLocally();
+        }
         long elapsedTime = System.currentTimeMillis() - startTime;
-        System.out.println("Finished in " + (elapsedTime/1000.0) + " seconds ");
         
-        // saveImage();  // Uncomment this line if you would like to save the
-                         // image that was computed by this program to a file.
-    
-    } // end main()
+        for (int i = 0; i < hosts.length; i++) {
+                // Wait for all the threads to terminate.  A thread that is
+                // still waiting for results that are no longer needed, for
+                // example from a worker that has stopped responding, is 
+                // given a short time to finish, then its connection is closed.
+            try {
+                workers[i].join(500);
+                if (workers[i].isAlive())
+                    workers[i].abandon();
+                workers[i].join();
+            }
+            catch (InterruptedException e) {
+            }
+        }
+        
+        return elapsedTime;
+        
+    }
     
     
     /**
-     * Creates the data needed for the computation and the list of tasks that
-     * will perform parts of the computation.  For the purposes of this
-     * computation, it is not necessary to understand the computation.
+     * Performs tasks on this computer until every row has been computed.  This is
+     * used when no workers are specified, and when all of the workers have failed.
      */
-    private static void createJob() {
-        double xmin = -0.9548900066789311; // Region of xy-plane shown in the image.
-        double xmax = -0.9548895970332226;
-        double ymin = 0.2525416221154478;
-        double ymax = 0.25254192934972913;
-        maxIterations = 10000;
-        rows = 768;
-        columns = 1024;
-        mandelbrotData = new int[rows][columns];
-        double dx = (xmax - xmin)/(columns+1);
-        double dy = (ymax - ymin)/(rows+1);
-        tasks = new ConcurrentLinkedQueue<CLMandelbrotTask>();
-        for (int j = 0; j < rows; j++) {  // Add tasks to the task list.
-            CLMandelbrotTask task;
-            task = new CLMandelbrotTask();
-            task.id = j;
-            task.maxIterations = maxIterations;
-            task.y = ymax-j*dy;
-            task.xmin = xmin;
-            task.dx = dx;
-            task.count = columns;
-            tasks.add(task);
+    private static void computeLocally() {
+        CLMandelbrotScheduler.WorkerStats stats = new CLMandelbrotScheduler.WorkerStats();
+        scheduler.workerStarted();
+        while (true) {
+            CLMandelbrotTask task = scheduler.nextTask(stats, true);
+            if (task == null)
+                break;
+            long start = System.nanoTime();
+            task.compute();
+            scheduler.finishTask(task, task.results, stats, (System.nanoTime() - start)/1e9);
         }
+        scheduler.workerEnded(stats, new ArrayList<CLMandelbrotTask>());
     }
     
     
     /**
-     * We allow for the possibility that a thread might fail while it is
-     * performing a task.  When that happens, the thread drops the task
-     * back into the list of tasks so that it can be assigned to another
-     * worker.  That way, it is likely that all the tasks will be
-     * completed even if some of the worker threads fail.  (However,
-     * this is not completely foolproof -- if the failure occurs after
-     * other worker threads have already terminated, there won't be
-     * any threads left to execute the task.)
+     * Returns the data computed by the most recent call to computeImage().
+     * Entry [r][c] is the iteration count for row r, column c.
      */
-    private static void reassignTask(CLMandelbrotTask task) {
-        tasks.add(task);
+    static int[][] getImageData() {
+        return mandelbrotData;
     }
     
     
     /**
-     * Add the data from a finished task to the array where the complete
-     * set of data is collected.  Also increments tasksCompleted.  This
-     * method is synchronized because of the race condition involved
-     * in incrementing tasksCompleted.
+     * Creates the data needed for the computation and the scheduler that
+     * will divide it into tasks.  For the purposes of this
+     * computation, it is not necessary to understand the computation.
      */
-    synchronized private static void finishTask(CLMandelbrotTask task) {
-        int row = task.id;
-        System.arraycopy(task.results,0,mandelbrotData[row],0,columns);
-        tasksCompleted++;
+    private static void createJob(int iterations) {
+        double xmin = -0.9548900066789311; // Region of xy-plane shown in the image.
+        double xmax = -0.9548895970332226;
+        double ymin = 0.2525416221154478;
+        double ymax = 0.25254192934972913;
+        maxIterations = iterations;
+        rows = 768;
+        columns = 1024;
+        mandelbrotData = new int[rows][columns];
+        double dx = (xmax - xmin)/(columns+1);
+        double dy = (ymax - ymin)/(rows+1);
+        scheduler = new CLMandelbrotScheduler(rows, columns, maxIterations,
+                                              xmin, dx, ymax, dy, mandelbrotData);
     }
 
 
@@ -284,6 +397,12 @@ public class CLMandelbrotMaster {
         buffer.append(' ');
         buffer.append(task.count);
         buffer.append(' ');
+        buffer.append(task.firstRow);
+        buffer.append(' ');
+        buffer.append(task.rows);
+        buffer.append(' ');
+        buffer.append(task.dy);
+        buffer.append(' ');
         return buffer.toString();
     }
     
@@ -294,22 +413,70 @@ public class CLMandelbrotMaster {
      * @param data the message that contains the results.  It is already known
      * that the first word of the message is RESULT_COMMAND.
      * @param task the task for which results are expected.  The task id in the
-     * results message must match the id of this task.  The results are stored
-     * are stored as the value of task.results.
+     * results message must match the id of this task.
+     * @return the results, in the same form as the results array in the task.
+     * (The results are not stored in the task, since a task can be sent to
+     * more than one worker.)
      * @throws Exception if any error is found in the data.
      */
-    private static void readResults(String data, CLMandelbrotTask task) throws Exception {
+    private static int[] readResults(String data, CLMandelbrotTask task) throws Exception {
         Scanner scanner = new Scanner(data);
         scanner.next();  // read "results" at beginning of line
         int id = scanner.nextInt();
         if (id != task.id)
             throw new IOException("Wrong task ID in results returned by worker");
         int count = scanner.nextInt();
-        if (count != task.count)
+        if (count != task.count*task.rows)
             throw new IOException("Wrong data count in results returned by worker");
-        task.results = new int[count];
+        int[] results = new int[count];
         for (int i = 0; i < count; i++)
-            task.results[i] = scanner.nextInt();
+            results[i] = scanner.nextInt();
+        return results;
+    }
+
+
+    /**
+     * Sends a task to a worker using the binary protocol.  The data is
+     * written to the stream but not flushed.
+     */
+    private static void writeBinaryTask(DataOutputStream out, CLMandelbrotTask task) throws IOException {
+        out.writeInt(BINARY_TASK);
+        out.writeInt(task.id);
+        out.writeInt(task.maxIterations);
+        out.writeDouble(task.y);
+        out.writeDouble(task.xmin);
+        out.writeDouble(task.dx);
+        out.writeInt(task.count);
+        out.writeInt(task.firstRow);
+        out.writeInt(task.rows);
+        out.writeDouble(task.dy);
+    }
+
+
+    /**
+     * Reads the results of a task from a worker that uses the binary protocol.
+     * The results are read as a block of bytes, and are converted to ints
+     * all at once through an IntBuffer view of the bytes, rather than being
+     * read one int at a time.
+     * @param in the stream from which the results are read.
+     * @param task the task for which results are expected.  Since the worker
+     * performs its tasks in the order in which they were sent, this is the
+     * oldest task that has been sent but not yet finished.
+     * @return the results, as for readResults().
+     * @throws IOException if the id or count do not match the task.
+     */
+    private static int[] readBinaryResults(DataInputStream in, CLMandelbrotTask task) throws IOException {
+        int id = in.readInt();
+        if (id != task.id)
+            throw new IOException("Wrong task ID in results returned by worker");
+        int count = in.readInt();
+        if (count != task.count*task.rows)
+            throw new IOException("Wrong data count in results returned by worker");
+        byte[] bytes = new byte[4*count];
+        in.readFully(bytes);
+        int[] results = new int[count];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(results);
+        return results;
     }
 
     
@@ -317,36 +484,62 @@ public class CLMandelbrotMaster {
      * This class represents one worker thread.  The job of a worker thread
      * is to send out tasks to a CLMandelbrotWorker program over a network
      * connection, and to get back the results computed by that program.
+     * The tasks come from the scheduler, which sizes them using the
+     * statistics that are kept in this thread's WorkerStats object.
      */
     private static class WorkerConnection extends Thread {
         
         int id;        // Identifies this thread in output statements.
         String host;   // The host to which this thread will connect.
         int port;      // The port number to which this thread will connect.
+        CLMandelbrotScheduler.WorkerStats stats;  // This worker's statistics.
+        volatile Socket socket;   // The socket for the connection.
         
         /**
          * The constructor just sets the values of the instance
-         * variables id, host, and port and starts the thread.
+         * variables id, host, and port and starts the thread.  It
+         * also tells the scheduler that there is one more worker.
          */
         WorkerConnection(int id, String host, int port) {
             this.id = id;
             this.host = host;
             this.port = port;
+            stats = new CLMandelbrotScheduler.WorkerStats();
+            scheduler.workerStarted();
             start();
         }
         
+        /**
+         * Closes the connection.  This is called by computeImage() if the
+         * thread is still waiting for results after the image is complete.
+         */
+        void abandon() {
+            try {
+                socket.close();
+            }
+            catch (Exception e) {
+            }
+        }
+        
         /**
          * The run() method of the thread opens a connection to the host and
          * port specified in the constructor, then sends tasks to the
          * CLMandelbrotWorker program on the other side of that connection.
-         * If the thread terminates normally, it outputs the number of tasks
-         * that it processed.  If it terminates with an error, it outputs
-         * an error message.
+         * With the text protocol, the thread sends the next task before it
+         * processes the results of the current one, so that the worker can
+         * work on the next task in the meantime.  With the binary protocol,
+         * up to pipelineDepth tasks are in flight.  The tasks that have been
+         * sent but not finished are kept in a queue, in the order in which
+         * they were sent (which is also the order in which the worker sends
+         * back the results).  If an error occurs, they are all given back to
+         * the scheduler.  When the thread terminates, it outputs the 
+         * statistics for the worker, and if it terminates with an error,
+         * it also outputs an error message.
          */
         public void run() {
             
-            int tasksCompleted = 0; // How many tasks has this thread handled.
-            Socket socket;  // The socket for the connection.
+            ArrayDeque<CLMandelbrotTask> inFlight = new ArrayDeque<CLMandelbrotTask>();
+            ArrayDeque<Long> sendTimes = new ArrayDeque<Long>();  // When the tasks were sent.
             
             try {
                 socket = new Socket(host,port);  // open the connection.
@@ -355,60 +548,102 @@ public class CLMandelbrotMaster {
                 System.out.println("Thread " + id + " could not open connection to " +
                         host + ":" + port);
                 System.out.println("   Error: " + e);
+                scheduler.workerEnded(stats, inFlight);
                 return;
             }
-                        
-            CLMandelbrotTask currentTask = null;
-            CLMandelbrotTask nextTask = null;
-
+            
             try {
-                PrintWriter out = new PrintWriter(socket.getOutputStream());
-                BufferedReader in = new BufferedReader(
-                                      new InputStreamReader(socket.getInputStream()) );
-                currentTask = tasks.poll();
-                if (currentTask != null) {
-                       // Send first task to the worker program.
-                    String taskString = writeTask(currentTask);
-                    out.println(taskString);
-                    out.flush();
+                PrintWriter textOut = null;
+                BufferedReader textIn = null;
+                DataOutputStream binaryOut = null;
+                DataInputStream binaryIn = null;
+                int depth;
+                if (binaryProtocol) {
+                    socket.setTcpNoDelay(true);
+                    binaryOut = new DataOutputStream(
+                                   new BufferedOutputStream(socket.getOutputStream()) );
+                    binaryIn = new DataInputStream(
+                                   new BufferedInputStream(socket.getInputStream(), 65536) );
+                    binaryOut.writeInt(BINARY_PROTOCOL_MAGIC);
+                    depth = pipelineDepth;
                 }
-                while (currentTask != null) {
-                    String resultString = in.readLine(); // Get results for currentTask.
-                    if (resultString == null)
-                        throw new IOException("Connection closed unexpectedly.");
-                    if (! resultString.startsWith(RESULT_COMMAND))
-                        throw new IOException("Illegal string received from worker.");
-                    nextTask = tasks.poll();  // Get next task and send it to worker.
-                    if (nextTask != null) {
-                           // Send nextTask to worker before processing results for 
-                           // currentTask, so that the worker can work on nextTask
-                           // while the currentTask results are processed.
-                        String taskString = writeTask(nextTask);
-                        out.println(taskString);
-                        out.flush();
+                else {
+                    textOut = new PrintWriter(socket.getOutputStream());
+                    textIn = new BufferedReader(
+                                   new InputStreamReader(socket.getInputStream()) );
+                    depth = 2;
+                }
+                long lastArrival = 0;  // When the previous result arrived.
+                while (true) {
+                    while (inFlight.size() < depth) {
+                           // Fill the pipeline with new tasks.  If there are no tasks
+                           // in flight, wait for one (or for the end of the job).
+                        CLMandelbrotTask task;
+                        if (inFlight.isEmpty())
+                            task = scheduler.awaitTask(stats);
+                        else
+                            task = scheduler.nextTask(stats, false);
+                        if (task == null)
+                            break;
+                        if (binaryProtocol)
+                            writeBinaryTask(binaryOut, task);
+                        else
+                            textOut.println(writeTask(task));
+                        inFlight.add(task);
+                        sendTimes.add(System.nanoTime());
+                    }
+                    if (binaryProtocol)
+                        binaryOut.flush();
+                    else
+                        textOut.flush();
+                    if (inFlight.isEmpty())
+                        break;  // The job is finished.
+                    CLMandelbrotTask task = inFlight.peek();
+                    setResultTimeout(task);
+                    int[] results;
+                    if (binaryProtocol)
+                        results = readBinaryResults(binaryIn, task);
+                    else {
+                        String resultString = textIn.readLine(); // Get results for task.
+                        if (resultString == null)
+                            throw new IOException("Connection closed unexpectedly.");
+                        if (! resultString.startsWith(RESULT_COMMAND))
+                            throw new IOException("Illegal string received from worker.");
+                        results = readResults(resultString, task);
                     }
-                    readResults(resultString, currentTask); 
-                    finishTask(currentTask);  // Process results from currentTask.
-                    tasksCompleted++;
-                    currentTask = nextTask;   // We are finished with old currentTask.
-                    nextTask = null;
+                    long now = System.nanoTime();
+                       // The worker started on this task when it was received, or
+                       // when the worker finished the previous task, if that was later.
+                    long started = Math.max(sendTimes.remove(), lastArrival);
+                    lastArrival = now;
+                    inFlight.remove();
+                    scheduler.finishTask(task, results, stats, (now - started)/1e9);
+                    if (scheduler.isFinished())
+                        break;  // Don't wait for results that are no longer needed.
+                }
+                if (binaryProtocol) {   // Send close command to worker.
+                    binaryOut.writeInt(BINARY_CLOSE);
+                    binaryOut.flush();
+                }
+                else {
+                    textOut.println(CLOSE_CONNECTION_COMMAND);
+                    textOut.flush();
                 }
-                out.println(CLOSE_CONNECTION_COMMAND);  // Send close command to worker.
-                out.flush();
             }
             catch (Exception e) {
-                System.out.println("Thread " + id + " terminated because of an error");
-                System.out.println("   Error: " + e);
-                e.printStackTrace();
-                   // Put uncompleted tasks, if any, back into the task list.
-                if (currentTask != null)
-                    reassignTask(currentTask);
-                if (nextTask != null)
-                    reassignTask(nextTask);
+                if (scheduler.isFinished())
+                    System.out.println("Thread " + id + " closed after the job was finished.");
+                else if (e instanceof SocketTimeoutException)
+                    System.out.println("Thread " + id + " gave up on a worker that stopped responding.");
+                else {
+                    System.out.println("Thread " + id + " terminated because of an error");
+                    System.out.println("   Error: " + e);
+                }
             }
             finally {
-                System.out.println("Thread " + id + " ending after completing " + 
-                        tasksCompleted + " tasks");
+                   // Give uncompleted tasks, if any, back to the scheduler.
+                scheduler.workerEnded(stats, inFlight);
+                System.out.println("Thread " + id + " ending after completing " + stats);
                 try {
                     socket.close();
                 }
@@ -418,6 +653,19 @@ public class CLMandelbrotMaster {
             
         } //end run()
         
+        /**
+         * Sets the time limit for reading from the socket while waiting for the
+         * results of a task, based on how long the task should take.  (See
+         * RESULT_TIMEOUT_FACTOR.)  If the limit is reached, a read from the
+         * socket throws a SocketTimeoutException, which ends the thread as
+         * for any other error.
+         */
+        private void setResultTimeout(CLMandelbrotTask task) throws SocketException {
+            double expected = stats.getSecondsPerRow() * task.rows;  // Negative if unknown.
+            socket.setSoTimeout( (int)Math.max(MIN_RESULT_TIMEOUT, 
+                                               1000 * RESULT_TIMEOUT_FACTOR * expected) );
+        }
+        
     } // end nested class WorkerConnection
 
     
@@ -0,0 +1,293 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * This class is part of a demonstration of distributed computing.  It is used
+ * by CLMandelbrotMaster to decide which rows of the image are sent to which
+ * worker, and it collects the results.  It replaces a simple queue of one-row
+ * tasks, which had two problems:  A fast worker spends much of its time
+ * waiting for the network when each task is small, and a single slow worker
+ * holds up the whole image, because nobody else will compute the rows that it
+ * is working on (unless its connection fails).
+ *
+ * The scheduler keeps track of how fast each worker is, as an average of the
+ * time that the worker takes per row.  Each new task is given enough rows to
+ * take about TARGET_SECONDS on the worker that will compute it, but never more
+ * than a fraction of the rows that are still unassigned, so that the tasks get
+ * smaller towards the end of the job and all of the workers finish at about
+ * the same time.  The first task for each worker is a single row, which is
+ * used to measure its speed.
+ *
+ * When there are no unassigned rows left, a worker that is idle "steals" a
+ * copy of a task that another worker is still working on.  The task that has
+ * been in progress for the longest time is chosen.  Whichever copy finishes
+ * first is used, and the other result is ignored when it arrives.  This way,
+ * a slow or stuck worker can't delay the end of the job.  When a worker's
+ * connection fails, the tasks that it had not finished are put back into the
+ * pool of unassigned tasks, unless another copy is still in progress.
+ *
+ * All of the public methods of this class are synchronized, since they are
+ * called from several threads.  Methods that wait use wait() and notifyAll()
+ * on the scheduler object.
+ */
+public class CLMandelbrotScheduler {
+
+    /**
+     * The amount of time, in seconds, that a task should take on the worker
+     * that performs it.  Longer tasks mean less time spent on communication;
+     * shorter tasks mean a better balance of work at the end of the job.
+     */
+    public static final double TARGET_SECONDS = 0.05;
+
+    /**
+     * The largest number of rows in one task.
+     */
+    public static final int MAX_ROWS_PER_TASK = 64;
+
+    /**
+     * The largest number of copies of a task that can be in progress at the
+     * same time.
+     */
+    public static final int MAX_COPIES = 2;
+
+    /**
+     * Holds the statistics for one worker.  The scheduler uses secondsPerRow
+     * to size the tasks for the worker.  The other values are for information.
+     * A WorkerStats object is created by the thread that talks to the worker,
+     * and should only be passed to methods of the scheduler that owns it.
+     */
+    public static class WorkerStats {
+        private double secondsPerRow = -1;  // Average time per row; -1 if unknown.
+        private int tasks;          // The number of tasks that the worker finished first.
+        private int rows;           // The number of rows in those tasks.
+        private int wasted;         // Tasks that were finished by another worker first.
+        private int speculative;    // Copies of tasks that were already in progress elsewhere.
+        public double getSecondsPerRow() {
+            return secondsPerRow;
+        }
+        public String toString() {
+            return tasks + " tasks (" + rows + " rows), " + speculative + " speculative, "
+                     + wasted + " not needed" + (secondsPerRow < 0 ? "" :
+                      String.format(", %.2f ms per row", secondsPerRow*1000));
+        }
+    }
+
+    /**
+     * Information about a task that is in the pool or in progress.
+     */
+    private static class TaskInfo {
+        CLMandelbrotTask task;
+        int copies;        // The number of workers that are working on this task.
+        long issueTime;    // When the first copy that is still in progress was sent.
+        ArrayList<WorkerStats> holders = new ArrayList<WorkerStats>();  // Who has copies.
+    }
+
+    private final int rows, columns, maxIterations;
+    private final double xmin, dx, ymax, dy;
+    private final int[][] data;    // The image data; data[r][c] is row r, column c.
+
+    private int nextRow;           // The first row that has not been put in a task.
+    private ArrayDeque<TaskInfo> pool = new ArrayDeque<TaskInfo>();  // Tasks returned after a failure.
+    private ArrayList<TaskInfo> inProgress = new ArrayList<TaskInfo>();
+    private int rowsCompleted;
+    private int activeWorkers;     // The number of workers that can still do work.
+
+    /**
+     * Creates a scheduler for an image with the given size, for the region of
+     * the xy-plane with left edge xmin and top edge ymax.
+     * @param data the array where the results are stored.  It must have rows
+     *    rows, and each row must have length columns.
+     */
+    public CLMandelbrotScheduler(int rows, int columns, int maxIterations,
+                                 double xmin, double dx, double ymax, double dy, int[][] data) {
+        this.rows = rows;
+        this.columns = columns;
+        this.maxIterations = maxIterations;
+        this.xmin = xmin;
+        this.dx = dx;
+        this.ymax = ymax;
+        this.dy = dy;
+        this.data = data;
+    }
+
+    /**
+     * Returns the next task for a worker, or null if there is nothing for it to
+     * do right now.  If there are unassigned rows, a new task is made for them,
+     * sized for the worker.  Otherwise, if idle is true, a copy of a task
+     * that is in progress on another worker might be returned.  When the
+     * worker completes the task, finishTask() must be called.  If it can't, then
+     * workerFailed() must be called.
+     * @param worker the statistics for the worker that will perform the task.
+     * @param idle tells whether the worker has no other tasks in progress.
+     */
+    public synchronized CLMandelbrotTask nextTask(WorkerStats worker, boolean idle) {
+        TaskInfo info = pool.poll();
+        if (info == null && nextRow < rows)
+            info = newTask(worker);
+        if (info == null && idle) {
+            for (TaskInfo candidate : inProgress) {
+                if (candidate.copies < MAX_COPIES && ! candidate.holders.contains(worker)
+                        && (info == null || candidate.issueTime < info.issueTime))
+                    info = candidate;  // The longest-running task that this worker can copy.
+            }
+            if (info != null)
+                worker.speculative++;
+        }
+        if (info == null)
+            return null;
+        if (info.copies == 0) {
+            info.issueTime = System.nanoTime();
+            inProgress.add(info);
+        }
+        info.copies++;
+        info.holders.add(worker);
+        notifyAll();  // A new task in progress might be a candidate for copying.
+        return info.task;
+    }
+
+    /**
+     * Like nextTask(), with idle equal to true, except that if there is no task
+     * available, this method waits until there is one, or until the job is done.
+     * @return the task, or null if all of the rows have been computed.
+     */
+    public synchronized CLMandelbrotTask awaitTask(WorkerStats worker) throws InterruptedException {
+        while (true) {
+            if (isFinished())
+                return null;
+            CLMandelbrotTask task = nextTask(worker, true);
+            if (task != null)
+                return task;
+            wait();
+        }
+    }
+
+    /**
+     * Makes a task for the next unassigned rows, sized for a given worker.
+     */
+    private TaskInfo newTask(WorkerStats worker) {
+        int count = 1;
+        if (worker.secondsPerRow > 0)
+            count = (int)Math.min(MAX_ROWS_PER_TASK, TARGET_SECONDS / worker.secondsPerRow);
+        int share = (rows - nextRow + 2*activeWorkers - 1) / (2*Math.max(1,activeWorkers));
+        count = Math.max(1, Math.min(count, share));
+        CLMandelbrotTask task = new CLMandelbrotTask();
+        task.id = nextRow;
+        task.maxIterations = maxIterations;
+        task.y = ymax;
+        task.xmin = xmin;
+        task.dx = dx;
+        task.count = columns;
+        task.firstRow = nextRow;
+        task.rows = Math.min(count, rows - nextRow);
+        task.dy = dy;
+        nextRow += task.rows;
+        TaskInfo info = new TaskInfo();
+        info.task = task;
+        return info;
+    }
+
+    /**
+     * Finds the information for a task that is in progress, or returns null
+     * if the task is no longer in progress (because it has been completed).
+     */
+    private TaskInfo findInProgress(CLMandelbrotTask task) {
+        for (TaskInfo info : inProgress) {
+            if (info.task == task)
+                return info;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the results of a task, unless another copy of the task has
+     * already been completed.  Also updates the worker's speed.
+     * @param task a task that was returned by nextTask() or awaitTask().
+     * @param results the results, in the same form as CLMandelbrotTask.results.
+     *    (The results are passed separately, rather than in task.results, since
+     *    several workers can be working on the same task.)
+     * @param worker the worker that performed the task.
+     * @param seconds the time that the worker spent on the task.
+     * @return true if the results were used, false if they were not needed.
+     */
+    public synchronized boolean finishTask(CLMandelbrotTask task, int[] results,
+                                           WorkerStats worker, double seconds) {
+        double perRow = seconds / task.rows;
+        if (worker.secondsPerRow < 0)
+            worker.secondsPerRow = perRow;
+        else
+            worker.secondsPerRow = 0.7*worker.secondsPerRow + 0.3*perRow;
+        TaskInfo info = findInProgress(task);
+        if (info != null && info.holders.remove(worker)) {
+            inProgress.remove(info);
+            for (int r = 0; r < task.rows; r++)
+                System.arraycopy(results, r*columns, data[task.firstRow + r], 0, columns);
+            rowsCompleted += task.rows;
+            worker.tasks++;
+            worker.rows += task.rows;
+            notifyAll();
+            return true;
+        }
+        else {
+            worker.wasted++;
+            return false;
+        }
+    }
+
+    /**
+     * Says that a worker is available.  This should be called for each worker
+     * before it asks for tasks, so that the scheduler knows how many workers are
+     * sharing the work.
+     */
+    public synchronized void workerStarted() {
+        activeWorkers++;
+    }
+
+    /**
+     * Says that a worker has stopped, normally or because of an error.  Tasks
+     * that it had not finished are put back into the pool, unless another copy
+     * is in progress.
+     * @param worker the worker's statistics.
+     * @param unfinished the tasks that the worker had not completed.
+     */
+    public synchronized void workerEnded(WorkerStats worker, Collection<CLMandelbrotTask> unfinished) {
+        activeWorkers--;
+        for (CLMandelbrotTask task : unfinished) {
+            TaskInfo info = findInProgress(task);
+            if (info == null || ! info.holders.remove(worker))
+                continue;  // The task has been completed already.
+            info.copies--;
+            if (info.copies == 0) {
+                inProgress.remove(info);
+                pool.addFirst(info);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until every row of the image has been computed, or until there are
+     * no workers left.
+     * @return true if the job is finished.
+     */
+    public synchronized boolean awaitCompletion() throws InterruptedException {
+        while ( ! isFinished() && activeWorkers > 0 )
+            wait();
+        return isFinished();
+    }
+
+    /**
+     * Tells whether every row of the image has been computed.
+     */
+    public synchronized boolean isFinished() {
+        return rowsCompleted == rows;
+    }
+
+    /**
+     * Returns the number of rows that have been computed.
+     */
+    public synchronized int getRowsCompleted() {
+        return rowsCompleted;
+    }
+
+}
@@ -6,10 +6,12 @@
  * CLMandelbrotMaster) and on the worker computers.
  * 
  * CLMandelbrotTask is a simple container that holds the data for one "task"
- * which consists of computing one row of data for a Mandelbrot image.  It
- * also contains the output of the task, and a method for doing the computation.
- * CLMandelbrotMaster computes the image by creating one CLMandelbrotTask for
- * each row in the image.  The tasks are sent over a network to CLMandelbrotWorkers
+ * which consists of computing one or more consecutive rows of data for a
+ * Mandelbrot image.  It also contains the output of the task, and a method for
+ * doing the computation.  CLMandelbrotMaster computes the image by dividing it
+ * into CLMandelbrotTasks.  (The number of rows in each task is chosen by a
+ * CLMandelbrotScheduler, based on how fast the worker that will perform the
+ * task has been so far.)  The tasks are sent over a network to CLMandelbrotWorkers
  * to be computed, and the results are returned to CLMandelbrotMaster where
  * all the results are combined to produce the entire image.
  */
@@ -17,34 +19,63 @@ public class CLMandelbrotTask {
 
     public int id;              // Identifies this task.  Each task that is 
                                 // part of the overall computation has a
-                                // different id.
+                                // different id.  (CLMandelbrotMaster uses the
+                                // number of the first row in the task.)
 
     public int maxIterations;   // Input for the computation.
     public double y;    
     public double xmin;
     public double dx;
     public int count;
+    public int firstRow;        // The task computes rows firstRow through
+    public int rows = 1;        //   firstRow+rows-1 of the image, where row j
+    public double dy;           //   has y-coordinate y - j*dy.  (A task for a
+                                //   single row can simply use firstRow = 0.)
 
     public int[] results;       // Holds the results of the computation after
-                                //  compute() has been executed.
+                                //  compute() has been executed.  The results
+                                //  for row r start at index r*count.
 
 
     /**
      * Performs the task represented by this data.  Uses the values
-     * of maxIterations, y, xmin, dx, and count.  Creates the result
-     * array and fills it with computed data.  For the purposes of
+     * of maxIterations, y, xmin, dx, count, firstRow, rows, and dy.  Creates
+     * the result array and fills it with computed data.  For the purposes of
      * this demonstration, it is not important to understand the
      * computation performed by this task.
      */
     public void compute() {
-        results = new int[count];
-        for (int i = 0; i < count; i++)
-            results[i] = countIterations(xmin + i*dx,y);
+        results = new int[count*rows];
+        for (int r = 0; r < rows; r++) {
+            double rowY = y - (firstRow+r)*dy;
+            int i = 0;
+            for ( ; i + 4 <= count; i += 4)
+                countIterations4(xmin + i*dx, xmin + (i+1)*dx, xmin + (i+2)*dx,
+                                           xmin + (i+3)*dx, rowY, r*count + i);
+            for ( ; i < count; i++)
+                results[r*count + i] = countIterations(xmin + i*dx,rowY);
+        }
+    }
+
+
+    /**
+     * Does the same thing as compute(), but one pixel at a time, without
+     * using countIterations4().  The results are the same.  This method
+     * is kept for comparison (see CLMandelbrotKernelBenchmark).
+     */
+    public void computeScalar() {
+        results = new int[count*rows];
+        for (int r = 0; r < rows; r++) {
+            double rowY = y - (firstRow+r)*dy;
+            for (int i = 0; i < count; i++)
+                results[r*count + i] = countIterations(xmin + i*dx,rowY);
+        }
     }
 
 
     /**
-     * Called by compute() to compute each entry in the results array.
+     * Called by compute() to compute each entry in the results array
+     * that is not handled by countIterations4().
      */
     private int countIterations(double startx, double starty) {
         int ct = 0;
@@ -59,4 +90,50 @@ public class CLMandelbrotTask {
         return ct;
     }
 
+
+    /**
+     * Called by compute() to compute four neighboring entries in the results
+     * array, starting at results[index], for the points (x0,starty), ..., 
+     * (x3,starty).  The four computations are interleaved in one loop, which
+     * is much faster than doing them one after the other, because the
+     * processor can work on four independent calculations at the same time.
+     * A point that has escaped is masked out by setting its m to zero, which
+     * stops its count; the loop ends when all four points have escaped.
+     * Each point goes through the same arithmetic as in countIterations(),
+     * so the results are identical.
+     */
+    private void countIterations4(double x0, double x1, double x2, double x3,
+                                  double starty, int index) {
+        double a0 = x0, a1 = x1, a2 = x2, a3 = x3;
+        double b0 = starty, b1 = starty, b2 = starty, b3 = starty;
+        int m0 = 1, m1 = 1, m2 = 1, m3 = 1;
+        int ct0 = 0, ct1 = 0, ct2 = 0, ct3 = 0;
+        for (int ct = 0; ct < maxIterations; ct++) {
+            double aa0 = a0*a0, bb0 = b0*b0, aa1 = a1*a1, bb1 = b1*b1;
+            double aa2 = a2*a2, bb2 = b2*b2, aa3 = a3*a3, bb3 = b3*b3;
+            m0 = (aa0 + bb0 < 5) ? m0 : 0;
+            m1 = (aa1 + bb1 < 5) ? m1 : 0;
+            m2 = (aa2 + bb2 < 5) ? m2 : 0;
+            m3 = (aa3 + bb3 < 5) ? m3 : 0;
+            if ((m0 | m1 | m2 | m3) == 0)
+                break;
+            ct0 += m0;
+            ct1 += m1;
+            ct2 += m2;
+            ct3 += m3;
+            b0 = 2*a0*b0 + starty;
+            a0 = aa0 - bb0 + x0;
+            b1 = 2*a1*b1 + starty;
+            a1 = aa1 - bb1 + x1;
+            b2 = 2*a2*b2 + starty;
+            a2 = aa2 - bb2 + x2;
+            b3 = 2*a3*b3 + starty;
+            a3 = aa3 - bb3 + x3;
+        }
+        results[index] = ct0;
+        results[index+1] = ct1;
+        results[index+2] = ct2;
+        results[index+3] = ct3;
+    }
+
 }
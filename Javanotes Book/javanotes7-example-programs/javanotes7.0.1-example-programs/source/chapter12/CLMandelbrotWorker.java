@@ -1,5 +1,6 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 
 /**
@@ -24,8 +25,20 @@ import java.util.Scanner;
  * used.  Since graceful shutdown is not implemented, you can stop the
  * worker program using CONTROL-C.)
  * 
- * Note that data sent over the network is encoded as text.  The first
- * word on a line of text identifies the type of data.
+ * Data sent over the network can be encoded as text, in which case the
+ * first word on a line of text identifies the type of data, or in the
+ * binary form that is used by CLMandelbrotMaster with the -binary option.
+ * The worker looks at the first byte that it receives on a connection to
+ * decide which protocol the master is using.  (See CLMandelbrotMaster
+ * for a description of the binary protocol.)
+ * 
+ * For testing how the master deals with slow and failing workers, the
+ * following options can be given on the command line, after the port number:
+ * -delay=MS makes the worker sleep for MS milliseconds after computing each
+ * row; -failafter=N makes the worker program exit, without answering, when
+ * it receives task number N+1; and -hangafter=N makes the worker stop
+ * responding, without closing the connection, when it receives task
+ * number N+1.  (See CLMandelbrotFaultTest.)
  */
 public class CLMandelbrotWorker {
 
@@ -60,8 +73,27 @@ public class CLMandelbrotWorker {
      */
     private static final String RESULT_COMMAND = "result";
 
+    /**
+     * The first int sent by a master that uses the binary protocol, and the
+     * ints that start each binary message.  These values must be the same as
+     * in CLMandelbrotMaster.
+     */
+    private static final int BINARY_PROTOCOL_MAGIC = 0x434C4D42;
+    private static final int BINARY_TASK = 1, BINARY_CLOSE = 2, BINARY_SHUTDOWN = 3;
+
     private static boolean shutdownCommandReceived;
 
+    /**
+     * Settings for simulating slow and failing workers, from the command line.
+     * A value of zero means that the feature is not used.
+     */
+    private static int delayPerRow, failAfter, hangAfter;
+
+    /**
+     * The number of tasks that have been received, for failAfter and hangAfter.
+     */
+    private static int tasksReceived;
+
 
     /**
      * The main program listens for connections from the master program
@@ -86,6 +118,24 @@ public class CLMandelbrotWorker {
             }
         }
 
+        /* Get the options for simulating slow and failing workers, if present. */
+
+        for (int i = 1; i < args.length; i++) {
+            try {
+                if (args[i].startsWith("-delay="))
+                    delayPerRow = Integer.parseInt(args[i].substring(7));
+                else if (args[i].startsWith("-failafter="))
+                    failAfter = Integer.parseInt(args[i].substring(11));
+                else if (args[i].startsWith("-hangafter="))
+                    hangAfter = Integer.parseInt(args[i].substring(11));
+                else
+                    System.out.println("Ignoring unknown option " + args[i]);
+            }
+            catch (NumberFormatException e) {
+                System.out.println("Ignoring illegal option " + args[i]);
+            }
+        }
+
         System.out.println("Starting with listening port number " + port);
 
         while (shutdownCommandReceived == false) {
@@ -143,6 +193,11 @@ public class CLMandelbrotWorker {
             task.xmin = scanner.nextDouble();
             task.dx = scanner.nextDouble();
             task.count = scanner.nextInt();
+            task.firstRow = scanner.nextInt();
+            task.rows = scanner.nextInt();
+            task.dy = scanner.nextDouble();
+            if (task.count < 0 || task.rows < 1 || (long)task.count*task.rows > 1000000)
+                throw new Exception();
             return task;
         }
         catch (Exception e) {
@@ -150,6 +205,26 @@ public class CLMandelbrotWorker {
         }
     }
 
+    /**
+     * Performs a task, applying the -delay, -failafter and -hangafter
+     * options from the command line.
+     */
+    private static void performTask(CLMandelbrotTask task) throws InterruptedException {
+        tasksReceived++;
+        if (failAfter > 0 && tasksReceived > failAfter) {
+            System.out.println("Simulating a failure after " + failAfter + " tasks.");
+            System.exit(3);
+        }
+        if (hangAfter > 0 && tasksReceived > hangAfter) {
+            System.out.println("Simulating a worker that stops responding after " + hangAfter + " tasks.");
+            while (true)
+                Thread.sleep(60000);
+        }
+        task.compute();
+        if (delayPerRow > 0)
+            Thread.sleep((long)delayPerRow * task.rows);
+    }
+
     /**
      * Encode the result of a task into String form, so that it can be sent
      * as a message back to the master program.
@@ -162,8 +237,8 @@ public class CLMandelbrotWorker {
         buffer.append(' ');
         buffer.append(task.id);
         buffer.append(' ');
-        buffer.append(task.count);
-        for (int i = 0; i < task.count; i++) {
+        buffer.append(task.results.length);
+        for (int i = 0; i < task.results.length; i++) {
             buffer.append(' ');
             buffer.append(task.results[i]);
         }
@@ -179,8 +254,15 @@ public class CLMandelbrotWorker {
      */
     private static void handleConnection(Socket connection) {
         try {
-            BufferedReader in = new BufferedReader( new InputStreamReader(
-                    connection.getInputStream()) );
+            BufferedInputStream input = new BufferedInputStream(connection.getInputStream());
+            input.mark(1);
+            int firstByte = input.read();  // Peek at the first byte, then put it back.
+            input.reset();
+            if (firstByte == (BINARY_PROTOCOL_MAGIC >>> 24)) {
+                handleBinaryConnection(input, connection);
+                return;
+            }
+            BufferedReader in = new BufferedReader( new InputStreamReader(input) );
             PrintWriter out = new PrintWriter(connection.getOutputStream());
             while (true) {
                 String line = in.readLine();  // Message from the master.
@@ -204,7 +286,7 @@ public class CLMandelbrotWorker {
                         // Represents a CLMandelbrotTask that this worker is
                         // supposed to perform.
                     CLMandelbrotTask task = readTask(line);  // Decode the message.
-                    task.compute();  // Perform the task.
+                    performTask(task);
                     out.println(writeResults(task));  //  Send back the results.
                     out.flush();
                 }
@@ -227,4 +309,63 @@ public class CLMandelbrotWorker {
     }
 
 
+    /**
+     * Handles a connection from a master that uses the binary protocol.  The
+     * results of each task are written as a block of bytes, filled in through
+     * an IntBuffer view, and is flushed at once, so that the master can send
+     * the next task while this worker goes on with the tasks that it already has.
+     * @param input the input stream for the connection, positioned at the
+     * start of the magic number that identifies the binary protocol.
+     * @param connection the socket, which is closed by handleConnection().
+     */
+    private static void handleBinaryConnection(InputStream input, Socket connection) throws Exception {
+        connection.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(input);
+        DataOutputStream out = new DataOutputStream(
+                                 new BufferedOutputStream(connection.getOutputStream(), 65536) );
+        if (in.readInt() != BINARY_PROTOCOL_MAGIC)
+            throw new Exception("Illegal protocol identifier received.");
+        byte[] bytes = new byte[0];
+        while (true) {
+            int command = in.readInt();
+            if (command == BINARY_CLOSE) {
+                System.out.println("Received close command.");
+                break;
+            }
+            else if (command == BINARY_SHUTDOWN) {
+                System.out.println("Received shutdown command.");
+                shutdownCommandReceived = true;
+                break;
+            }
+            else if (command == BINARY_TASK) {
+                CLMandelbrotTask task = new CLMandelbrotTask();
+                task.id = in.readInt();
+                task.maxIterations = in.readInt();
+                task.y = in.readDouble();
+                task.xmin = in.readDouble();
+                task.dx = in.readDouble();
+                task.count = in.readInt();
+                task.firstRow = in.readInt();
+                task.rows = in.readInt();
+                task.dy = in.readDouble();
+                if (task.count < 0 || task.rows < 1 || (long)task.count*task.rows > 1000000)
+                    throw new IOException("Illegal data found while reading task information.");
+                performTask(task);
+                int size = task.results.length;
+                if (bytes.length != 4*size)
+                    bytes = new byte[4*size];
+                ByteBuffer.wrap(bytes).asIntBuffer().put(task.results);
+                out.writeInt(task.id);
+                out.writeInt(size);
+                out.write(bytes);
+                out.flush();
+            }
+            else {
+                throw new Exception("Illegal command received.");
+            }
+        }
+        out.flush();
+    }
+
+
 }
@@ -0,0 +1,338 @@
+package netgame.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A MessageCodec that uses a compact binary format for the types of message
+ * that have been registered with it.  A message of a registered type is written
+ * as a one-byte "tag" that identifies the type, followed by the message's data,
+ * written by the Encoder that was registered for that type.  No class
+ * descriptions are sent and no reflection is used, so the encoded messages are
+ * much smaller, and much faster to produce, than with Java serialization.
+ * <p>A message whose type has not been registered is written using Java
+ * serialization, exactly as SerializationCodec would write it.  Since a
+ * serialization stream starts with the byte 0xAC, which is never used as a tag,
+ * this codec can read messages written by either codec.
+ * <p>The types String, Integer, int[], ForwardedMessage, RoomMessage, RoomRequest,
+ * StateUpdate, ResyncRequest, and the package private
+ * message types that are used internally by Hub and Client are registered
+ * automatically.  (A ResetSignal is never transmitted, so it does not need a
+ * format.)  Applications can register their own types by calling the static
+ * register() method, using tags in the range 64 to 127.  The registrations are
+ * shared by all BinaryCodecs, and a type must be registered at both ends of a
+ * connection, with the same tag, before a message of that type is received.
+ * The netgame.fivecarddraw and netgame.tictactoe packages show how this is done.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    /**
+     * An Encoder writes the data for objects of one type, and reads them back.
+     * It does not write the tag; that is done by the codec.
+     */
+    public static interface Encoder<T> {
+        public void write(T obj, DataOutputStream out) throws IOException;
+        public T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * The smallest tag that can be used by applications.  Smaller tags are reserved
+     * for the netgame.common package.  The largest possible tag is 127.
+     */
+    public final static int FIRST_APPLICATION_TAG = 64;
+
+    private final static int NULL_TAG = 0;        // A null value, inside another message.
+    private final static int SERIALIZED_TAG = 1;  // A serialized object inside another message.
+    private final static int SERIALIZATION_STREAM_START = 0xAC;  // First byte of any serialization stream.
+
+    private static class Registration {  // Information about one registered type.
+        int tag;
+        Class<?> type;
+        Encoder<Object> encoder;
+    }
+
+    private static final ConcurrentHashMap<Class<?>,Registration> registrationsByType
+                                           = new ConcurrentHashMap<Class<?>,Registration>();
+    private static volatile Registration[] registrationsByTag = new Registration[128];
+
+    private static final SerializationCodec serializationCodec = new SerializationCodec();
+
+    static {
+        registerBuiltIn(2, String.class, new Encoder<String>() {
+            public void write(String str, DataOutputStream out) throws IOException {
+                writeString(str, out);
+            }
+            public String read(DataInputStream in) throws IOException {
+                return readString(in);
+            }
+        });
+        registerBuiltIn(3, Integer.class, new Encoder<Integer>() {
+            public void write(Integer n, DataOutputStream out) throws IOException {
+                out.writeInt(n);
+            }
+            public Integer read(DataInputStream in) throws IOException {
+                return in.readInt();
+            }
+        });
+        registerBuiltIn(4, int[].class, new Encoder<int[]>() {
+            public void write(int[] array, DataOutputStream out) throws IOException {
+                writeIntArray(array, out);
+            }
+            public int[] read(DataInputStream in) throws IOException {
+                return readIntArray(in);
+            }
+        });
+        registerBuiltIn(5, ForwardedMessage.class, new Encoder<ForwardedMessage>() {
+            public void write(ForwardedMessage fm, DataOutputStream out) throws IOException {
+                out.writeInt(fm.senderID);
+                writeValue(fm.message, out);
+            }
+            public ForwardedMessage read(DataInputStream in) throws IOException {
+                int senderID = in.readInt();
+                return new ForwardedMessage(senderID, readValue(in));
+            }
+        });
+        registerBuiltIn(6, StatusMessage.class, new Encoder<StatusMessage>() {
+            public void write(StatusMessage sm, DataOutputStream out) throws IOException {
+                out.writeInt(sm.playerID);
+                out.writeBoolean(sm.connecting);
+                writeIntArray(sm.players, out);
+            }
+            public StatusMessage read(DataInputStream in) throws IOException {
+                int playerID = in.readInt();
+                boolean connecting = in.readBoolean();
+                return new StatusMessage(playerID, connecting, readIntArray(in));
+            }
+        });
+        registerBuiltIn(7, DisconnectMessage.class, new Encoder<DisconnectMessage>() {
+            public void write(DisconnectMessage dm, DataOutputStream out) throws IOException {
+                writeString(dm.message, out);
+            }
+            public DisconnectMessage read(DataInputStream in) throws IOException {
+                return new DisconnectMessage(readString(in));
+            }
+        });
+        registerBuiltIn(8, RoomMessage.class, new Encoder<RoomMessage>() {
+            public void write(RoomMessage rm, DataOutputStream out) throws IOException {
+                writeString(rm.room, out);
+                out.writeInt(rm.senderID);
+                writeValue(rm.message, out);
+            }
+            public RoomMessage read(DataInputStream in) throws IOException {
+                String room = readString(in);
+                if (room == null)
+                    throw new IOException("Received a RoomMessage with no room name.");
+                int senderID = in.readInt();
+                return new RoomMessage(room, senderID, readValue(in));
+            }
+        });
+        registerBuiltIn(9, RoomRequest.class, new Encoder<RoomRequest>() {
+            public void write(RoomRequest rr, DataOutputStream out) throws IOException {
+                writeString(rr.room, out);
+                out.writeBoolean(rr.join);
+            }
+            public RoomRequest read(DataInputStream in) throws IOException {
+                String room = readString(in);
+                if (room == null)
+                    throw new IOException("Received a RoomRequest with no room name.");
+                return new RoomRequest(room, in.readBoolean());
+            }
+        });
+        registerBuiltIn(10, StateUpdate.class, new Encoder<StateUpdate>() {
+            public void write(StateUpdate su, DataOutputStream out) throws IOException {
+                out.writeInt(su.version);
+                out.writeInt(su.baseVersion);
+                writeValue(su.data, out);
+            }
+            public StateUpdate read(DataInputStream in) throws IOException {
+                int version = in.readInt();
+                int baseVersion = in.readInt();
+                return new StateUpdate(version, baseVersion, readValue(in));
+            }
+        });
+        registerBuiltIn(11, ResyncRequest.class, new Encoder<ResyncRequest>() {
+            public void write(ResyncRequest rr, DataOutputStream out) throws IOException {
+                out.writeInt(rr.version);
+            }
+            public ResyncRequest read(DataInputStream in) throws IOException {
+                return new ResyncRequest(in.readInt());
+            }
+        });
+    }
+
+    /**
+     * Registers a binary format for messages of a given type.  The format is used
+     * only for objects whose class is exactly the specified type, not for subclasses.
+     * @param tag the tag that identifies the type.  This must be in the range 64 to 127.
+     * @param type the class of the objects that will use this format.
+     * @param encoder writes and reads the data for objects of the specified type.
+     * @throws IllegalArgumentException if the tag is out of range, or if the tag or
+     *    the type has already been registered with a different encoder.
+     */
+    public static <T> void register(int tag, Class<T> type, Encoder<T> encoder) {
+        if (tag < FIRST_APPLICATION_TAG || tag > 127)
+            throw new IllegalArgumentException("Tag must be in the range " + FIRST_APPLICATION_TAG + " to 127.");
+        registerBuiltIn(tag, type, encoder);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static synchronized <T> void registerBuiltIn(int tag, Class<T> type, Encoder<T> encoder) {
+        if (type == null || encoder == null)
+            throw new IllegalArgumentException("Type and encoder must be non-null.");
+        Registration old = registrationsByTag[tag];
+        if (old != null) {
+            if (old.type == type && old.encoder == (Object)encoder)
+                return;  // Registering the same thing twice is allowed.
+            throw new IllegalArgumentException("Tag " + tag + " is already in use for " + old.type.getName());
+        }
+        if (registrationsByType.containsKey(type))
+            throw new IllegalArgumentException("Type " + type.getName() + " is already registered.");
+        Registration reg = new Registration();
+        reg.tag = tag;
+        reg.type = type;
+        reg.encoder = (Encoder<Object>)encoder;
+        Registration[] newTable = registrationsByTag.clone();
+        newTable[tag] = reg;
+        registrationsByTag = newTable;
+        registrationsByType.put(type, reg);
+    }
+
+
+    public void writeMessage(Object message, DataOutputStream out) throws IOException {
+        Registration reg = registrationsByType.get(message.getClass());
+        if (reg == null)
+            serializationCodec.writeMessage(message, out);
+        else {
+            out.writeByte(reg.tag);
+            reg.encoder.write(message, out);
+        }
+    }
+
+    public Object readMessage(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == SERIALIZATION_STREAM_START) {
+            // Put the byte back in front of the rest of the stream, and deserialize.
+            DataInputStream whole = new DataInputStream(new SequenceInputStream(
+                        new ByteArrayInputStream(new byte[] { (byte)tag }), in));
+            return serializationCodec.readMessage(whole);
+        }
+        return readTagged(tag, in);
+    }
+
+
+    /**
+     * Writes a value that is part of a larger message, such as the message inside
+     * a ForwardedMessage.  The value can be null, and it can be of any type; if its
+     * type has not been registered, it is serialized.  Encoders can use this method
+     * for fields whose type is not known in advance.
+     */
+    public static void writeValue(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_TAG);
+            return;
+        }
+        Registration reg = registrationsByType.get(value.getClass());
+        if (reg != null) {
+            out.writeByte(reg.tag);
+            reg.encoder.write(value, out);
+        }
+        else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializationCodec.writeMessage(value, new DataOutputStream(bytes));
+            out.writeByte(SERIALIZED_TAG);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Reads a value that was written by writeValue().
+     */
+    public static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == NULL_TAG)
+            return null;
+        if (tag == SERIALIZED_TAG) {
+            int length = in.readInt();
+            if (length < 0 || length > MessageFraming.MAX_FRAME_LENGTH)
+                throw new IOException("Illegal length (" + length + ") for serialized value.");
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return serializationCodec.readMessage(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+        return readTagged(tag, in);
+    }
+
+    private static Object readTagged(int tag, DataInputStream in) throws IOException {
+        Registration reg = tag < 128 ? registrationsByTag[tag] : null;
+        if (reg == null)
+            throw new IOException("Received a message with unknown binary tag " + tag + ".");
+        return reg.encoder.read(in);
+    }
+
+
+    /**
+     * Writes a possibly null string, as its length in UTF-8 bytes (or -1 for null)
+     * followed by the bytes.  Unlike DataOutputStream.writeUTF(), there is no limit
+     * on the length of the string.
+     */
+    public static void writeString(String str, DataOutputStream out) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string that was written by writeString().
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > MessageFraming.MAX_FRAME_LENGTH)
+            throw new IOException("Illegal string length (" + length + ") received.");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a possibly null array of ints, as its length (or -1 for null) followed
+     * by the elements.
+     */
+    public static void writeIntArray(int[] array, DataOutputStream out) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int n : array)
+            out.writeInt(n);
+    }
+
+    /**
+     * Reads an array that was written by writeIntArray().
+     */
+    public static int[] readIntArray(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > MessageFraming.MAX_FRAME_LENGTH/4)
+            throw new IOException("Illegal array length (" + length + ") received.");
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++)
+            array[i] = in.readInt();
+        return array;
+    }
+
+}
@@ -0,0 +1,114 @@
+package netgame.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the broadcasts that have been made by a Hub, that is, the
+ * messages that have been sent with the sendToAll() method (including the status
+ * messages that the Hub sends when players connect and disconnect).  A broadcast
+ * is encoded just once, into a frame that is shared by all the recipients, and
+ * the frame is then placed in the output queue of each connection.  The time
+ * for these two steps is recorded separately, so that it is possible to see how
+ * the cost of a broadcast grows with the number of players.
+ * <p>A Hub's metrics can be obtained by calling its getBroadcastMetrics()
+ * method.  Broadcasts can be made by several threads at the same time (for
+ * example, by the rooms in a RoomHub), so the counts are kept in LongAdders,
+ * which can be updated without contention.  The values can be read while
+ * the Hub is running, but they are not read as one consistent snapshot.
+ */
+public class BroadcastMetrics {
+
+    private final LongAdder broadcasts = new LongAdder();   // Number of broadcasts that had at least one recipient.
+    private final LongAdder recipients = new LongAdder();   // Total number of recipients, over all broadcasts.
+    private final LongAdder frameBytes = new LongAdder();   // Total size of the encoded frames.
+    private final LongAdder bytesQueued = new LongAdder();  // Total of frame size times number of recipients.
+    private final LongAdder encodeNanos = new LongAdder();  // Total time spent encoding.
+    private final LongAdder fanOutNanos = new LongAdder();  // Total time spent placing frames in output queues.
+
+    /**
+     * Records one broadcast.  This is called by the Hub.
+     */
+    void record(int recipientCount, int frameLength, long encodeTime, long fanOutTime) {
+        broadcasts.increment();
+        recipients.add(recipientCount);
+        frameBytes.add(frameLength);
+        bytesQueued.add((long)frameLength * recipientCount);
+        encodeNanos.add(encodeTime);
+        fanOutNanos.add(fanOutTime);
+    }
+
+    /**
+     * Returns the number of broadcasts that have been recorded.  A broadcast that
+     * is made when there are no connected players is not counted.
+     */
+    public long getBroadcastCount() {
+        return broadcasts.sum();
+    }
+
+    /**
+     * Returns the average number of players who received each broadcast.
+     */
+    public double getAverageRecipients() {
+        long count = broadcasts.sum();
+        return count == 0 ? 0 : (double)recipients.sum() / count;
+    }
+
+    /**
+     * Returns the average size, in bytes, of the frame that was encoded for a broadcast,
+     * including the four-byte length at the start of the frame.
+     */
+    public double getAverageFrameBytes() {
+        long count = broadcasts.sum();
+        return count == 0 ? 0 : (double)frameBytes.sum() / count;
+    }
+
+    /**
+     * Returns the average time, in microseconds, that was needed to encode a broadcast.
+     * Since a broadcast is only encoded once, this does not depend on the number of players.
+     */
+    public double getAverageEncodeMicros() {
+        long count = broadcasts.sum();
+        return count == 0 ? 0 : encodeNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * Returns the average time, in microseconds, that was needed to place the encoded
+     * frame of a broadcast in the output queues of all the recipients.
+     */
+    public double getAverageFanOutMicros() {
+        long count = broadcasts.sum();
+        return count == 0 ? 0 : fanOutNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * Returns the total number of bytes that were queued for transmission by all
+     * the broadcasts; that is, for each broadcast, the size of the frame times the
+     * number of recipients.  Only getAverageFrameBytes() of these bytes had to be
+     * produced by the encoder for each broadcast.
+     */
+    public long getTotalBytesQueued() {
+        return bytesQueued.sum();
+    }
+
+    /**
+     * Discards all the statistics that have been recorded so far.
+     */
+    public void reset() {
+        broadcasts.reset();
+        recipients.reset();
+        frameBytes.reset();
+        bytesQueued.reset();
+        encodeNanos.reset();
+        fanOutNanos.reset();
+    }
+
+    /**
+     * Returns a one-line summary of the statistics.
+     */
+    public String toString() {
+        return String.format("%d broadcasts, %.1f recipients, %.0f bytes, encode %.1f us, fan-out %.1f us (averages)",
+                getBroadcastCount(), getAverageRecipients(), getAverageFrameBytes(),
+                getAverageEncodeMicros(), getAverageFanOutMicros());
+    }
+
+}
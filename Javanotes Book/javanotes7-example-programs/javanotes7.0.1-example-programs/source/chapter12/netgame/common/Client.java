@@ -1,11 +1,14 @@
 package netgame.common;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingQueue;
 
 
 /**
@@ -23,16 +26,22 @@ import java.util.concurrent.LinkedBlockingQueue;
  * <p>A client provides methods send(Object) and disconnect() for
  * sending a message to the Hub and for closing down the connection.
  * Any non-null object that implements the Serializable interface can be sent
- * as a message.  Note that an ObjectOutputStream is used for sending
- * messages.  If the same object is to be sent more than once, with
- * changes between transmissions, then the resetOutput() method should be
- * called between transmissions (or the autoreset property should be
- * set to true).
+ * as a message.  Each message is serialized separately and is sent as
+ * a "frame" consisting of its length followed by the serialized data
+ * (see the MessageFraming class), so an object that is sent more than
+ * once is always transmitted with its current state.  (In earlier versions,
+ * it was necessary to call resetOutput() between transmissions of the same
+ * object, or to set the autoreset property to true.  This does no harm,
+ * but it is no longer needed.)
  * <p>A client has a unique ID number that is assigned to the client
  * when it connects to the hub.  The ID can retrieved by calling
  * the getID() method.  The protected variable connectedPlayerIDs
  * contains the ID numbers of all clients currently connected to the
  * hub, including this one.
+ * <p>The client uses one thread for sending messages and one for receiving
+ * them.  In Java 21 and later, these can be virtual threads instead of
+ * platform threads; this is selected by a constructor parameter or by
+ * setting the system property netgame.client.virtualThreads to "true".
  */
 abstract public class Client {
     
@@ -50,6 +59,17 @@ abstract public class Client {
      */
     private volatile boolean autoreset;
     
+    /**
+     * The codec that is used to encode messages that are sent to the hub.
+     */
+    private volatile MessageCodec messageCodec = MessageFraming.defaultCodec();
+    
+    /**
+     * Batching of outgoing messages; see setBatching().
+     */
+    private volatile int batchMaxMessages = 1;
+    private volatile int batchWindowMicros;
+    
     /**
      * Constructor opens a connection to a Hub.  This constructor will 
      * block while waiting for the connection to be established.
@@ -58,7 +78,21 @@ abstract public class Client {
      * @throws IOException if any I/O exception occurs while trying to connect.
      */
     public Client(String hubHostName, int hubPort) throws IOException {
-        connection = new ConnectionToHub(hubHostName, hubPort);
+        this(hubHostName, hubPort, Boolean.getBoolean("netgame.client.virtualThreads"));
+    }
+
+    /**
+     * Constructor opens a connection to a Hub, using either platform threads or virtual
+     * threads for sending and receiving messages.  This constructor will block while
+     * waiting for the connection to be established.
+     * @param hubHostName  The host name (or IP address) of the computer where the Hub is running.
+     * @param hubPort      The port number on which the Hub is listening for connection requests.
+     * @param useVirtualThreads  If true, virtual threads are used, if they are available in
+     *    this version of Java.
+     * @throws IOException if any I/O exception occurs while trying to connect.
+     */
+    public Client(String hubHostName, int hubPort, boolean useVirtualThreads) throws IOException {
+        connection = new ConnectionToHub(hubHostName, hubPort, useVirtualThreads);
     }
 
     // ---------------- Methods that subclasses can override --------------------------
@@ -186,6 +220,8 @@ abstract public class Client {
      * optimized for sending objects that don't change -- if the same object is sent
      * twice it will not actually be transmitted the second time, unless the stream
      * has been reset in the meantime.
+     * <p>Note:  Since each message is now serialized on its own, calling this
+     * method is no longer necessary.  It is kept for compatibility.
      */
     public void resetOutput() {
         connection.send(new ResetSignal()); // A ResetSignal in the output stream is seen as a signal to reset
@@ -208,6 +244,66 @@ abstract public class Client {
         return autoreset;
     }
     
+    /**
+     * Sets the codec that is used to encode messages that are sent to the hub.
+     * Since the hub can decode messages written by any of the codecs in the
+     * netgame.common package, this can be changed at any time, but a type that
+     * has been registered with BinaryCodec must also be registered in the hub.
+     * The default is given by the system property netgame.codec; see the
+     * MessageCodec interface.
+     * @param codec the codec to use.  Must be non-null.
+     */
+    public void setMessageCodec(MessageCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("The codec cannot be null.");
+        messageCodec = codec;
+    }
+    
+    /**
+     * Returns the codec that is used to encode messages that are sent to the hub.
+     */
+    public MessageCodec getMessageCodec() {
+        return messageCodec;
+    }
+    
+    /**
+     * Turns batching of outgoing messages on or off.  When batching is on, up to
+     * maxMessages messages that are waiting to be sent are written to the network
+     * together, and after the first message of a batch, the client waits up to
+     * windowMicros microseconds for more messages.  This is useful for a client
+     * that sends many small messages in quick succession.  A window of 0 adds no
+     * delay; only messages that are already waiting are combined.  The default,
+     * maxMessages = 1, means that batching is off, and each message is written
+     * as soon as it is sent.  (See also the setBatching() method in the Hub class.)
+     * @param maxMessages the largest number of messages in a batch.  Must be at least 1.
+     * @param windowMicros how long to wait for more messages, in microseconds.  Must
+     *    not be negative.
+     */
+    public void setBatching(int maxMessages, int windowMicros) {
+        if (maxMessages < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        if (windowMicros < 0)
+            throw new IllegalArgumentException("The batching window cannot be negative.");
+        batchMaxMessages = maxMessages;
+        batchWindowMicros = windowMicros;
+    }
+    
+    /**
+     * Returns the largest number of messages that are written at once; 1 means
+     * that batching is off.  See setBatching().
+     */
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+    
+    /**
+     * Returns the time, in microseconds, that the client waits for more messages
+     * to add to a batch.  See setBatching().
+     */
+    public int getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+    
 
     //------------- Private implementation part of the class -----------------------------
     
@@ -220,12 +316,12 @@ abstract public class Client {
 
         private final int id_number;               // The ID of this client, assigned by the hub.
         private final Socket socket;               // The socket that is connected to the Hub.
-        private final ObjectInputStream in;        // A stream for sending messages to the Hub.
-        private final ObjectOutputStream out;      // A stream for receiving messages from the Hub.
-        private final SendThread sendThread;       // The thread that sends messages to the Hub.
-        private final ReceiveThread receiveThread; // The thread that receives messages from the Hub.
+        private final DataInputStream in;          // A stream for receiving framed messages from the Hub.
+        private final DataOutputStream out;        // A stream for sending framed messages to the Hub.
+        private final Thread sendThread;           // The thread that sends messages to the Hub.
+        private final Thread receiveThread;        // The thread that receives messages from the Hub.
 
-        private final LinkedBlockingQueue<Object> outgoingMessages;  // Queue of messages waiting to be transmitted.
+        private final OutgoingQueue outgoingMessages;  // Queue of messages waiting to be transmitted.
 
         private volatile boolean closed;     // This is set to true when the connection is closing.
                                              // For one thing, this will prevent errors from being
@@ -237,25 +333,30 @@ abstract public class Client {
          * to the hub.  The hub responds with an object of type Integer representing
          * the ID number of the client.  The extraHandshake() method is then called
          * to do any other required startup communication.  Finally, threads
-         * are created to handle sending and receiving messages.
+         * are created to handle sending and receiving messages.  After the handshake,
+         * messages are sent and received as frames (see the MessageFraming class).
          */
-        ConnectionToHub(String host, int port) throws IOException {
-            outgoingMessages = new LinkedBlockingQueue<Object>();
+        ConnectionToHub(String host, int port, boolean useVirtualThreads) throws IOException {
+            outgoingMessages = new OutgoingQueue(null);  // (Not bounded.)
             socket = new Socket(host,port);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.writeObject("Hello Hub");
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream handshakeOut = new ObjectOutputStream(socket.getOutputStream());
+            handshakeOut.writeObject("Hello Hub");
+            handshakeOut.flush();
+            ObjectInputStream handshakeIn = new ObjectInputStream(socket.getInputStream());
             try {
-                Object response = in.readObject();
+                Object response = handshakeIn.readObject();
                 id_number = ((Integer)response).intValue();
             }
             catch (Exception e){
                 throw new IOException("Illegal response from server.");
             }
-            extraHandshake(in,out);  // Will throw an IOException if handshake doesn't succeed.
-            sendThread = new SendThread();
-            receiveThread = new ReceiveThread();
+            extraHandshake(handshakeIn,handshakeOut);  // Will throw an IOException if handshake doesn't succeed.
+            handshakeOut.flush();
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            sendThread = NetgameThreads.newThread(new SendThread(), useVirtualThreads);
+            receiveThread = NetgameThreads.newThread(new ReceiveThread(), useVirtualThreads);
             sendThread.start();
             receiveThread.start();
         }
@@ -295,25 +396,16 @@ abstract public class Client {
         }
         
         /**
-         * This class defines a thread that sends messages to the Hub.
+         * This class defines the task for the thread that sends messages to the Hub.
          */
-        private class SendThread extends Thread {
+        private class SendThread implements Runnable {
             public void run() {
                 System.out.println("Client send thread started.");
                 try {
                     while ( ! closed ) {
-                        Object message = outgoingMessages.take();
-                        if (message instanceof ResetSignal) {
-                            out.reset();
-                        }
-                        else {
-                            if (autoreset)
-                                out.reset();
-                            out.writeObject(message);
-                            out.flush();
-                            if (message instanceof DisconnectMessage) {
-                                close();
-                            }
+                        if (MessageFraming.writeBatch(out, outgoingMessages, messageCodec, 
+                                                         batchMaxMessages, batchWindowMicros)) {
+                            close();  // A DisconnectMessage has been sent.
                         }
                     }
                 }
@@ -337,21 +429,24 @@ abstract public class Client {
         }
         
         /**
-         * This class defines a thread that reads messages from the Hub.
+         * This class defines the task for the thread that reads messages from the Hub.
          */
-        private class ReceiveThread extends Thread {
+        private class ReceiveThread implements Runnable {
             public void run() {
                 System.out.println("Client receive thread started.");
                 try {
                     while ( ! closed ) {
-                        Object obj = in.readObject();
+                        Object obj = MessageFraming.readMessage(in);
                         if (obj instanceof DisconnectMessage) {
                             close();
                             serverShutdown(((DisconnectMessage)obj).message);
                         }
                         else if (obj instanceof StatusMessage) {
                             StatusMessage msg = (StatusMessage)obj;
-                            connectedPlayerIDs = msg.players;
+                            if (msg.players != null)
+                                connectedPlayerIDs = msg.players;
+                            else
+                                connectedPlayerIDs = updatedPlayerList(connectedPlayerIDs, msg);
                             if (msg.connecting)
                                 playerConnected(msg.playerID);
                             else
@@ -381,5 +476,33 @@ abstract public class Client {
         }
         
     } // end nested class ConnectionToHub
+    
+    /**
+     * Applies the change described by a StatusMessage that does not include the
+     * complete list of players to a list of players.  The list is kept in
+     * increasing order.  A new array is created, so that an array that has been
+     * obtained from connectedPlayerIDs is never modified.
+     */
+    private static int[] updatedPlayerList(int[] players, StatusMessage msg) {
+        int pos = 0;  // The position where msg.playerID is, or where it belongs.
+        while (pos < players.length && players[pos] < msg.playerID)
+            pos++;
+        boolean present = pos < players.length && players[pos] == msg.playerID;
+        if (msg.connecting == present)
+            return players;  // Nothing has changed.
+        int[] newList;
+        if (msg.connecting) {
+            newList = new int[players.length + 1];
+            System.arraycopy(players, 0, newList, 0, pos);
+            newList[pos] = msg.playerID;
+            System.arraycopy(players, pos, newList, pos + 1, players.length - pos);
+        }
+        else {
+            newList = new int[players.length - 1];
+            System.arraycopy(players, 0, newList, 0, pos);
+            System.arraycopy(players, pos + 1, newList, pos, players.length - pos - 1);
+        }
+        return newList;
+    }
 
 }
@@ -0,0 +1,121 @@
+package netgame.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+import netgame.fivecarddraw.PokerCard;
+import netgame.fivecarddraw.PokerGameState;
+import netgame.tictactoe.TicTacToeGameState;
+
+/**
+ * Compares SerializationCodec and BinaryCodec for typical netgame messages.
+ * For each type of message, the program shows the number of bytes in the
+ * encoded message (not counting the four-byte frame length) and the average
+ * time needed to encode and to decode the message with each codec.  Since
+ * every message is now sent in a frame of its own, the serialized size
+ * includes the class descriptions every time, just as it did on the old
+ * ObjectOutputStream with autoreset turned on.
+ * <p>Usage:  java netgame.common.CodecBenchmark [repetitions=200000]
+ * <p>(This program uses classes from the netgame.fivecarddraw and
+ * netgame.tictactoe packages, so it is not included in copies of
+ * netgame.common that are distributed without those packages.)
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int repetitions = 200000;
+        if (args.length > 0)
+            repetitions = Integer.parseInt(args[0]);
+
+        PokerGameState.registerBinaryFormats();
+        TicTacToeGameState.registerBinaryFormat();
+
+        PokerCard[] hand = new PokerCard[5];
+        for (int i = 0; i < 5; i++)
+            hand[i] = new PokerCard(i + 2, i % 4);
+        TicTacToeGameState ticTacToe = new TicTacToeGameState();
+        ticTacToe.board = new char[][] { {'X',' ','O'}, {' ','X',' '}, {'O',' ',' '} };
+        ticTacToe.playerPlayingX = 1;
+        ticTacToe.playerPlayingO = 2;
+        ticTacToe.currentPlayer = 2;
+        ticTacToe.gameInProgress = true;
+        int[] players = new int[100];
+        for (int i = 0; i < players.length; i++)
+            players[i] = i + 1;
+
+        String[] names = {
+                "String",
+                "Integer",
+                "ForwardedMessage(String)",
+                "StatusMessage (no list)",
+                "StatusMessage (100 players)",
+                "DisconnectMessage",
+                "PokerCard[] (hand)",
+                "PokerGameState",
+                "TicTacToeGameState"
+        };
+        Object[] messages = {
+                "Hello everybody",
+                Integer.valueOf(17),
+                new ForwardedMessage(3, "Hello everybody"),
+                new StatusMessage(42, true, null),
+                new StatusMessage(42, true, players),
+                new DisconnectMessage("*shutdown*"),
+                hand,
+                new PokerGameState(hand, PokerGameState.BET_OR_FOLD, 200, 180, 20, 10),
+                ticTacToe
+        };
+        MessageCodec serialization = new SerializationCodec();
+        MessageCodec binary = new BinaryCodec();
+
+        System.out.printf("%-28s %10s %10s %12s %12s %12s %12s%n", "Message", "Ser bytes", "Bin bytes",
+                "Ser enc ns", "Bin enc ns", "Ser dec ns", "Bin dec ns");
+        for (int i = 0; i < messages.length; i++) {
+            byte[] serFrame = MessageFraming.encode(messages[i], serialization);
+            byte[] binFrame = MessageFraming.encode(messages[i], binary);
+            double serEncode = timeEncode(messages[i], serialization, repetitions);
+            double binEncode = timeEncode(messages[i], binary, repetitions);
+            double serDecode = timeDecode(serFrame, serialization, repetitions);
+            double binDecode = timeDecode(binFrame, binary, repetitions);
+            System.out.printf("%-28s %10d %10d %12.0f %12.0f %12.0f %12.0f%n", names[i],
+                    serFrame.length - 4, binFrame.length - 4, serEncode, binEncode, serDecode, binDecode);
+        }
+    }
+
+    /**
+     * Returns the average time, in nanoseconds, to encode a message into a frame.
+     * The loop is run once without timing, to give the JIT compiler a chance to work.
+     */
+    private static double timeEncode(Object message, MessageCodec codec, int repetitions) throws Exception {
+        int check = 0;
+        for (int i = 0; i < repetitions; i++)
+            check += MessageFraming.encode(message, codec).length;
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++)
+            check += MessageFraming.encode(message, codec).length;
+        long elapsed = System.nanoTime() - start;
+        if (check == 42)
+            System.out.println();  // Makes sure the work can't be optimized away.
+        return (double)elapsed / repetitions;
+    }
+
+    /**
+     * Returns the average time, in nanoseconds, to decode a message from a frame,
+     * using the codec that encoded it.
+     */
+    private static double timeDecode(byte[] frame, MessageCodec codec, int repetitions) throws Exception {
+        int check = 0;
+        for (int i = 0; i < repetitions; i++)
+            check += codec.readMessage(new DataInputStream(
+                    new ByteArrayInputStream(frame, 4, frame.length - 4))).hashCode();
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++)
+            check += codec.readMessage(new DataInputStream(
+                    new ByteArrayInputStream(frame, 4, frame.length - 4))).hashCode();
+        long elapsed = System.nanoTime() - start;
+        if (check == 42)
+            System.out.println();
+        return (double)elapsed / repetitions;
+    }
+
+}
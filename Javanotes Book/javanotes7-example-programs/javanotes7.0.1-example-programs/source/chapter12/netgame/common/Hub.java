@@ -1,11 +1,15 @@
 package netgame.common;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.TreeMap;
-import java.util.concurrent.BlockingQueue;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -28,6 +32,25 @@ import java.util.concurrent.LinkedBlockingQueue;
  * client with the specified ID number.  If the same object is transmitted
  * more than once, it might be necessary to use the resetOutput() or
  * setAutoReset(true) methods.  See those methods for details.
+ * A message that is sent with sendToAll() is encoded only once, no matter
+ * how many clients there are, and statistics about the cost of these
+ * broadcasts are available from getBroadcastMetrics().
+ * <p>The methods messageReceived(), playerConnected(), and playerDisconnected()
+ * are all called in the same thread, the Hub's message processing thread,
+ * one at a time and in the order in which the events occurred.  So subclasses
+ * that override them do not need to synchronize the data that they share.
+ * The methods for sending messages and for getting the player list do not
+ * lock the Hub, and they can be called from any thread.
+ * <p>A Hub can use one of two "transports" for communicating with its clients.
+ * By default, each connected client is served by two threads of its own, one
+ * for sending and one for receiving.  These can be ordinary platform threads
+ * or, in Java 21 and later, virtual threads, which cost much less memory.
+ * Alternatively, the Hub can use a java.nio Selector to serve all of its
+ * clients from a small, fixed set of threads, which allows it to handle many
+ * thousands of connections.  The transport can be selected in the constructor,
+ * or by setting the system property netgame.hub.transport to "threads",
+ * "virtual", or "selector".  Subclasses
+ * of Hub do not need to know which transport is in use.
  * <p>(Certain messages that are defined by package private classes in
  * the package netgame.common, are for internal use only.  These messages
  * do not result in a call to messageReceived, and they are not seen
@@ -50,7 +73,10 @@ import java.util.concurrent.LinkedBlockingQueue;
  *  the client will be called.)</li>
  *  <li>Once a client has successfully connected, the client can send messages to
  *  the server.  Messages received from a client are passed to the
- *  messageReceived() method.</li>
+ *  messageReceived() method.  From this point on, every message, in either
+ *  direction, is serialized separately and is transmitted as a four-byte length
+ *  followed by that many bytes of serialized data.  (See the MessageFraming
+ *  class.)</li>
  *  <li>If the client's disconnect() method is called, the hub is notified,
  *  and it in turn notifies all connected clients, not including the one
  *  that just disconnected.  (The clients' playerDisconnected() method
@@ -62,10 +88,41 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class Hub {
     
+    /**
+     * The possible transports that a Hub can use for communicating with
+     * its clients.  THREADS uses a pair of platform threads for each client.
+     * VIRTUAL_THREADS is the same, except that it uses virtual threads (if the
+     * Java version is less than 21, platform threads are used instead).  SELECTOR
+     * uses a java.nio Selector and serves all clients from a few threads.
+     */
+    public static enum Transport { THREADS, VIRTUAL_THREADS, SELECTOR }
+    
+    /**
+     * The possible responses when a message is sent to a client whose queue of
+     * outgoing messages is full (see setOutgoingQueueLimit()).  DROP_OLDEST discards
+     * the oldest message in the queue.  COALESCE discards an older message of the
+     * same class as the new message, if the new message is of a snapshot type
+     * (see addSnapshotType()) and there is such a message in the queue; otherwise,
+     * it discards the oldest message.  (For a StateUpdate that contains a complete
+     * state of a snapshot type, COALESCE discards all the StateUpdates in the queue.)
+     * DISCONNECT closes the connection to the client.
+     */
+    public static enum OverflowPolicy { DROP_OLDEST, COALESCE, DISCONNECT }
+    
     /**
      *  A map that associates player names with the connections to each player.
+     *  This is a concurrent map, so it can be read without locking; changes are
+     *  made only while holding membershipLock.
      */
-    private TreeMap<Integer, ConnectionToClient> playerConnections;
+    private ConcurrentSkipListMap<Integer, PlayerConnection> playerConnections;
+    
+    /**
+     * Held while a player is being added to or removed from playerConnections,
+     * together with the status messages that announce the change, so that every
+     * client sees the same sequence of connections and disconnections.  It is
+     * not used for sending other messages or for processing received messages.
+     */
+    private final Object membershipLock = new Object();
     
     /**
      * A queue of messages received from clients.  When a method is received,
@@ -80,23 +137,58 @@ public class Hub {
      */
     private volatile boolean autoreset;
     
+    /**
+     * The codec that is used to encode messages that are sent to clients.
+     */
+    private volatile MessageCodec messageCodec = MessageFraming.defaultCodec();
+    
     private ServerSocket serverSocket;  // Listens for connections.
     private Thread serverThread;        // Accepts connections on serverSocket
     volatile private boolean shutdown;  // Set to true when the Hub is not listening.
     
-    private int nextClientID = 1;  // The id number that will be assigned to
-                                   // the next client that connects.
+    private final AtomicInteger nextClientID = new AtomicInteger(1);  // The id number that will be 
+                                                                      // assigned to the next client that connects.
+    
+    private final BroadcastMetrics broadcastMetrics = new BroadcastMetrics();
+    
+    private volatile int batchMaxMessages = 1;  // Batching of outgoing messages; see setBatching().
+    private volatile int batchWindowMicros;
+    
+    private volatile int outgoingQueueLimit;  // Maximum size of outgoing queues; 0 means no limit.
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private final CopyOnWriteArraySet<Class<?>> snapshotTypes = new CopyOnWriteArraySet<Class<?>>();
+    
+    private final SelectorEngine selectorEngine;  // Non-null if the SELECTOR transport is used.
+    private final boolean virtualThreads;  // True if the VIRTUAL_THREADS transport is used.
     
     /**
      * Creates a Hub listening on a specified port, and starts a thread for
-     * processing messages that are received from clients.
+     * processing messages that are received from clients.  The transport
+     * is taken from the system property netgame.hub.transport; if that
+     * property is not set, the THREADS transport is used.
      * @param port  the port on which the server will listen.
      * @throws IOException if it is not possible to create a listening socket on the specified port.
      */
     public Hub(int port) throws IOException {
-        playerConnections = new TreeMap<Integer, ConnectionToClient>();
+        this(port, defaultTransport());
+    }
+    
+    /**
+     * Creates a Hub listening on a specified port, using a specified transport,
+     * and starts a thread for processing messages that are received from clients.
+     * @param port  the port on which the server will listen.
+     * @param transport  the transport that is used to communicate with clients.
+     * @throws IOException if it is not possible to create a listening socket on the specified port.
+     */
+    public Hub(int port, Transport transport) throws IOException {
+        playerConnections = new ConcurrentSkipListMap<Integer, PlayerConnection>();
         incomingMessages = new LinkedBlockingQueue<Message>();
-        serverSocket = new ServerSocket(port);
+        if (transport == Transport.SELECTOR)
+            selectorEngine = new SelectorEngine(this, Runtime.getRuntime().availableProcessors());
+        else
+            selectorEngine = null;
+        virtualThreads = (transport == Transport.VIRTUAL_THREADS);
+        serverSocket = openServerSocket(port);
         System.out.println("Listening for client connections on port " + port);
         serverThread = new ServerThread();
         serverThread.start();
@@ -105,7 +197,13 @@ public class Hub {
                while (true) {
                    try {
                        Message msg = incomingMessages.take();
-                       messageReceived(msg.playerConnection, msg.message);
+                       int playerID = msg.playerConnection.getPlayer();
+                       if (msg.message == PLAYER_CONNECTED)
+                           playerConnected(playerID);
+                       else if (msg.message == PLAYER_DISCONNECTED)
+                           playerDisconnected(playerID);
+                       else  // Note: DisconnectMessage is handled by the transport.
+                           messageReceived(playerID, msg.message);
                    }
                    catch (Exception e) {
                        System.out.println("Exception while handling received message:");
@@ -137,7 +235,10 @@ public class Hub {
     /**
      * This method is called just after a player has connected.
      * Note that getPlayerList() can be called to get a list
-     * of connected players.  The method in this class does nothing.
+     * of connected players.  (Like messageReceived(), this method is
+     * called in the message processing thread, so other players might
+     * have connected or disconnected in the meantime.)  The method in
+     * this class does nothing.
      * @param playerID the ID number of the new player.
      */
     protected void playerConnected(int playerID) {
@@ -147,7 +248,8 @@ public class Hub {
     /**
      * This method is called just after a player has disconnected.
      * Note that getPlayerList() can be called to get a list
-     * of connected players.  The method in this class does nothing.
+     * of connected players.  Like playerConnected(), it is called in
+     * the message processing thread.  The method in this class does nothing.
      * @param playerID the ID number of the new player.
      */
     protected void playerDisconnected(int playerID) {
@@ -178,12 +280,13 @@ public class Hub {
      * Gets a list of ID numbers of currently connected clients.
      * @return an array containing the ID numbers of all the connected clients.
      * The array is newly created each time this method is called.
+     * The IDs are in increasing order.
      */
-    synchronized public int[] getPlayerList() {
-        int[] players = new int[playerConnections.size()];
-        int i = 0;
-        for (int p : playerConnections.keySet())
-            players[i++] = p;
+    public int[] getPlayerList() {
+        Integer[] ids = playerConnections.keySet().toArray(new Integer[0]);
+        int[] players = new int[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            players[i] = ids[i];
         return players;
     }
     
@@ -191,12 +294,20 @@ public class Hub {
     /**
      * Stops listening, without disconnecting any currently connected clients.
      * You might do this, for example, if some maximum number of player connections has
-     * been reached, as when a game only allows two players.
+     * been reached, as when a game only allows two players.  Messages that have been
+     * received but not yet processed are discarded, but a player connection or
+     * disconnection that is waiting to be processed is kept, so that playerConnected()
+     * and playerDisconnected() are still called for it.
      */
     public void shutdownServerSocket() {
         if (serverThread == null)
             return;
-        incomingMessages.clear();
+        Iterator<Message> iter = incomingMessages.iterator();
+        while (iter.hasNext()) {
+            Object message = iter.next().message;
+            if (message != PLAYER_CONNECTED && message != PLAYER_DISCONNECTED)
+                iter.remove();
+        }
         shutdown = true;
         try {
             serverSocket.close();
@@ -218,7 +329,7 @@ public class Hub {
         if (serverThread != null && serverThread.isAlive())
             throw new IllegalStateException("Server is already listening for connections.");
         shutdown = false;
-        serverSocket = new ServerSocket(port);
+        serverSocket = openServerSocket(port);
         serverThread = new ServerThread();
         serverThread.start();
     }
@@ -237,23 +348,28 @@ public class Hub {
         }
         catch (InterruptedException e) {
         }
-        for (ConnectionToClient pc : playerConnections.values())
+        for (PlayerConnection pc : playerConnections.values())
             pc.close();
     }
     
     
     /**
      * Sends a specified non-null Object as a message to all connected client.
+     * The message is encoded just once, in the calling thread, and the same
+     * encoded frame is then queued for transmission to every client.  This
+     * method does not lock the Hub.
      * @param message the message to be sent to all connected clients.  This object must
      * implement the Serializable interface.  Messages must not be null.
+     * @throws IllegalArgumentException if the message is null or cannot be encoded
+     * by the Hub's message codec.
      */
-    synchronized public void sendToAll(Object message) {
+    public void sendToAll(Object message) {
         if (message == null)
             throw new IllegalArgumentException("Null cannot be sent as a message.");
         if ( ! (message instanceof Serializable) )
             throw new IllegalArgumentException("Messages must implement the Serializable interface.");
-        for (ConnectionToClient pc : playerConnections.values())
-            pc.send(message);
+        if ( ! playerConnections.isEmpty() )
+            broadcast(message, null);
     }
     
     
@@ -266,12 +382,12 @@ public class Hub {
      * implement the Serializable interface.  Messages must not be null.
      * @return true if the specified recipient exists, false if not.
      */
-    synchronized public boolean sendToOne(int recipientID, Object message) {
+    public boolean sendToOne(int recipientID, Object message) {
         if (message == null)
             throw new IllegalArgumentException("Null cannot be sent as a message.");
         if ( ! (message instanceof Serializable) )
             throw new IllegalArgumentException("Messages must implement the Serializable interface.");
-        ConnectionToClient pc = playerConnections.get(recipientID);
+        PlayerConnection pc = playerConnections.get(recipientID);
         if (pc == null)
             return false;
         else {
@@ -289,10 +405,13 @@ public class Hub {
      * optimized for sending objects that don't change -- if the same object is sent
      * twice it will not actually be transmitted the second time, unless the stream
      * has been reset in the meantime.
+     * <p>Note:  Since each message is now serialized on its own (see the MessageFraming
+     * class), a message is always transmitted in full, and calling this method is no
+     * longer necessary.  It is kept so that existing subclasses continue to work.
      */
     public void resetOutput() {
         ResetSignal rs = new ResetSignal();
-        for (ConnectionToClient pc : playerConnections.values())
+        for (PlayerConnection pc : playerConnections.values())
             pc.send(rs); // A ResetSignal in the output stream is seen as a signal to reset
     }
     
@@ -302,6 +421,7 @@ public class Hub {
      * before every object transmission.  Use this if the same object is going to be
      * continually changed and retransmitted.  See the resetOutput() method for more
      * information on resetting the output stream.  The default value is false.
+     * (As with resetOutput(), this is no longer necessary, but it does no harm.)
      */
     public void setAutoreset(boolean auto) {
         autoreset = auto;
@@ -314,46 +434,386 @@ public class Hub {
         return autoreset;
     }
     
+    /**
+     * Sets the codec that is used to encode messages that are sent to clients.
+     * Since clients can decode messages written by any of the codecs in the
+     * netgame.common package, this can be changed at any time, but a type that
+     * has been registered with BinaryCodec must also be registered in the clients.
+     * The default is given by the system property netgame.codec; see the
+     * MessageCodec interface.
+     * @param codec the codec to use.  Must be non-null.
+     */
+    public void setMessageCodec(MessageCodec codec) {
+        if (codec == null)
+            throw new IllegalArgumentException("The codec cannot be null.");
+        messageCodec = codec;
+    }
+    
+    /**
+     * Returns the codec that is used to encode messages that are sent to clients.
+     */
+    public MessageCodec getMessageCodec() {
+        return messageCodec;
+    }
+    
+    /**
+     * Returns the object that keeps statistics about the messages that have been
+     * sent with sendToAll().  The same object is returned every time; it is updated
+     * as messages are sent.
+     */
+    public BroadcastMetrics getBroadcastMetrics() {
+        return broadcastMetrics;
+    }
+    
+    /**
+     * Turns batching of outgoing messages on or off.  Ordinarily, each message is
+     * written to the network as soon as it is sent, which for a chatty game means
+     * one system call and one small TCP segment per message.  (Nagle's algorithm,
+     * which would combine small segments, is turned off, since it can delay
+     * messages for tens of milliseconds.)  When batching is on, the messages for
+     * a client that are waiting to be sent, up to maxMessages of them, are written
+     * together, and the connection also waits up to windowMicros microseconds
+     * after the first message of a batch for more messages to arrive.  This
+     * trades a little latency for fewer, larger writes.  A window of 0 adds no
+     * delay at all; only messages that are already waiting are combined.
+     * <p>With the SELECTOR transport, the frames that are waiting are combined
+     * into one gathering write, but the window is not used.
+     * <p>The default, maxMessages = 1, means that batching is off.
+     * @param maxMessages the largest number of messages in a batch.  Must be at least 1.
+     * @param windowMicros how long to wait for more messages, in microseconds.  Must
+     *    not be negative.
+     */
+    public void setBatching(int maxMessages, int windowMicros) {
+        if (maxMessages < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        if (windowMicros < 0)
+            throw new IllegalArgumentException("The batching window cannot be negative.");
+        batchMaxMessages = maxMessages;
+        batchWindowMicros = windowMicros;
+    }
+    
+    /**
+     * Returns the largest number of messages that are written to a client at once;
+     * 1 means that batching is off.  See setBatching().
+     */
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+    
+    /**
+     * Returns the time, in microseconds, that a connection waits for more messages
+     * to add to a batch.  See setBatching().
+     */
+    public int getBatchWindowMicros() {
+        return batchWindowMicros;
+    }
+    
+    /**
+     * Sets the maximum number of messages that can wait in the queue of outgoing
+     * messages for one client.  When a client is slow to read the messages that are
+     * sent to it, its queue grows; the limit keeps one slow client from using up
+     * the Hub's memory.  What happens when a queue is full depends on the overflow
+     * policy; see setOverflowPolicy().  (The internal messages that tell clients
+     * about players connecting and disconnecting are never discarded, and they can
+     * take a queue slightly over its limit.  A StateUpdate that contains a complete
+     * state is not discarded to make room for another message.)  The default is 0,
+     * meaning that there is no limit.  A change applies to messages that are sent
+     * after the change.
+     * @param limit the maximum queue size, or 0 for no limit.  Must not be negative.
+     */
+    public void setOutgoingQueueLimit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("The queue limit cannot be negative.");
+        outgoingQueueLimit = limit;
+    }
+    
+    /**
+     * Returns the maximum number of messages that can wait in one client's outgoing
+     * queue, or 0 if there is no limit.
+     */
+    public int getOutgoingQueueLimit() {
+        return outgoingQueueLimit;
+    }
+    
+    /**
+     * Says what happens when a message is sent to a client whose outgoing queue
+     * is full.  The default is OverflowPolicy.DROP_OLDEST.
+     * @param policy the policy to use.  Must be non-null.
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("The overflow policy cannot be null.");
+        overflowPolicy = policy;
+    }
+    
+    /**
+     * Returns the policy that is used when a client's outgoing queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+    
+    /**
+     * Says that messages of a given class are "snapshots":  Each such message
+     * contains a complete state, such as the state of a game, so when a client's
+     * queue is full, an older snapshot that has not yet been sent can be discarded
+     * in favor of a newer one.  This only matters when the overflow policy is
+     * OverflowPolicy.COALESCE.  When a StateSender is used, the type can be the
+     * class of the game states that it sends; a StateUpdate that contains a
+     * complete state then replaces the StateUpdates that are waiting to be sent
+     * to the same player.
+     * @param type the class of the snapshot messages.  Subclasses are not included.
+     */
+    public void addSnapshotType(Class<?> type) {
+        snapshotTypes.add(type);
+    }
+    
+    /**
+     * Tests whether a class has been designated as a snapshot type by addSnapshotType().
+     */
+    public boolean isSnapshotType(Class<?> type) {
+        return snapshotTypes.contains(type);
+    }
+    
+    /**
+     * Returns the number of messages that are waiting to be sent to a player,
+     * or -1 if there is no player with the specified ID.
+     */
+    public int getOutgoingQueueDepth(int playerID) {
+        PlayerConnection pc = playerConnections.get(playerID);
+        return pc == null ? -1 : pc.getOutgoingQueue().size();
+    }
+    
+    /**
+     * Returns the number of messages to a player that were discarded because the
+     * player's outgoing queue was full, not counting snapshots that were replaced
+     * by newer ones.  Returns -1 if there is no player with the specified ID.
+     */
+    public long getDroppedMessageCount(int playerID) {
+        PlayerConnection pc = playerConnections.get(playerID);
+        return pc == null ? -1 : pc.getOutgoingQueue().getDroppedCount();
+    }
+    
+    /**
+     * Returns the number of snapshot messages to a player that were replaced by
+     * newer ones because the player's outgoing queue was full.  Returns -1 if there
+     * is no player with the specified ID.
+     */
+    public long getCoalescedMessageCount(int playerID) {
+        PlayerConnection pc = playerConnections.get(playerID);
+        return pc == null ? -1 : pc.getOutgoingQueue().getCoalescedCount();
+    }
+    
 
     //------------------------- private implementation part ---------------------------------------
     
+    /**
+     * Represents the connection to one client, whichever transport is used.
+     * The methods in the Hub that are used by the transports are package private,
+     * so that the SelectorEngine, which is defined in a separate file, can use them.
+     */
+    interface PlayerConnection {
+        int getPlayer();          // The ID number of the connected player.
+        void send(Object obj);    // Queue a message for transmission to the player.
+        void sendEncoded(EncodedMessage message);  // Queue a message that has already been encoded.
+        void close();             // Close the connection.
+        OutgoingQueue getOutgoingQueue();  // The queue of messages waiting to be sent.
+    }
+    
+    /**
+     * A message, together with the complete frame that encodes it.  This is used for
+     * messages that go to several players, so that the message is encoded only once.
+     * The same frame is written to every connection, so it must never be modified.
+     */
+    static final class EncodedMessage {
+        final Object message;  // The original message.
+        final byte[] frame;    // The frame, as produced by MessageFraming.encode().
+        EncodedMessage(Object message, byte[] frame) {
+            this.message = message;
+            this.frame = frame;
+        }
+    }
+    
+    /**
+     * Encodes a message once and queues it for transmission to each connected
+     * player, except for one connection that can be excluded.
+     */
+    private void broadcast(Object message, PlayerConnection exclude) {
+        broadcast(message, playerConnections.values(), exclude);
+    }
+    
+    /**
+     * Encodes a message once and queues it for transmission to each of a group of
+     * connections, except for one connection that can be excluded.  The time
+     * taken is recorded in the broadcast metrics.
+     * @throws IllegalArgumentException if the message cannot be encoded.
+     */
+    void broadcast(Object message, Iterable<PlayerConnection> recipients, PlayerConnection exclude) {
+        long startTime = System.nanoTime();
+        EncodedMessage encoded;
+        try {
+            encoded = new EncodedMessage(message, MessageFraming.encode(message, messageCodec));
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Message cannot be encoded: " + e, e);
+        }
+        long encodedTime = System.nanoTime();
+        int count = 0;
+        for (PlayerConnection pc : recipients) {
+            if (pc != exclude) {
+                pc.sendEncoded(encoded);
+                count++;
+            }
+        }
+        broadcastMetrics.record(count, encoded.frame.length, encodedTime - startTime, System.nanoTime() - encodedTime);
+    }
+    
+    /**
+     * Reads the value of the netgame.hub.transport system property.
+     */
+    static Transport defaultTransport() {
+        String transport = System.getProperty("netgame.hub.transport");
+        if (transport != null && transport.trim().equalsIgnoreCase("selector"))
+            return Transport.SELECTOR;
+        else if (transport != null && transport.trim().equalsIgnoreCase("virtual"))
+            return Transport.VIRTUAL_THREADS;
+        else
+            return Transport.THREADS;
+    }
+    
+    /**
+     * Creates the listening socket.  For the SELECTOR transport, the socket belongs
+     * to a ServerSocketChannel, so that accepted sockets also have channels.
+     */
+    private ServerSocket openServerSocket(int port) throws IOException {
+        if (selectorEngine == null)
+            return new ServerSocket(port);
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().setReuseAddress(true);
+        channel.socket().bind(new InetSocketAddress(port), 1024);
+        return channel.socket();
+    }
     
-    synchronized private void messageReceived(ConnectionToClient fromConnection, Object message) {
-              // Note: DisconnectMessage is handled in the ConnectionToClient class.
-        int sender = fromConnection.getPlayer();
-        messageReceived(sender,message);
+    /**
+     * Carries out the part of the connection protocol that comes before the
+     * connection is considered to be established:  It reads "Hello Hub" from the
+     * client, assigns an ID number to the client and sends it to the client, and
+     * calls extraHandshake().  The ID number is returned.  This is used by both
+     * transports.
+     */
+    int handshake(ObjectInputStream in, ObjectOutputStream out) throws Exception {
+        String handle = (String)in.readObject(); // first input must be "Hello Hub"
+        if ( ! "Hello Hub".equals(handle) )
+            throw new Exception("Incorrect hello string received from client.");
+        int playerID = nextClientID.getAndIncrement(); // Get a player ID for this player.
+        out.writeObject(playerID);  // send playerID to the client.
+        out.flush();
+        extraHandshake(playerID,in,out);  // Does any extra stuff before connection is fully established.
+        out.flush();  // From here on, all messages are framed.
+        return playerID;
     }
     
+    /**
+     * Called by a transport when a message has been received from a client.
+     * The message is put into the queue of incoming messages, to be passed
+     * to messageReceived(playerID,message) by the message processing thread.
+     * (This is overridden in RoomHub, which handles some messages itself.)
+     */
+    void queueIncomingMessage(PlayerConnection fromConnection, Object message) {
+        queueEvent(fromConnection, message);
+    }
     
-    synchronized private void acceptConnection(ConnectionToClient newConnection) {
+    /**
+     * Puts a message, or one of the markers PLAYER_CONNECTED and PLAYER_DISCONNECTED,
+     * into the queue of incoming messages.
+     */
+    private void queueEvent(PlayerConnection fromConnection, Object message) {
+        Message msg = new Message();
+        msg.playerConnection = fromConnection;
+        msg.message = message;
+        incomingMessages.add(msg);
+    }
+    
+    /**
+     * Called by a transport when the handshake for a new connection is complete.
+     * The new player gets the complete list of players; the other players are told
+     * only about the new player.  The full list is queued before the connection is
+     * added to playerConnections, so that it is the first message that the new
+     * player receives.  The call to playerConnected() is queued, to be made by the
+     * message processing thread.
+     */
+    void acceptConnection(PlayerConnection newConnection) {
         int ID = newConnection.getPlayer();
-        playerConnections.put(ID,newConnection);
-        StatusMessage sm = new StatusMessage(ID,true,getPlayerList());
-        sendToAll(sm);
-        playerConnected(ID);
+        synchronized(membershipLock) {
+            int[] oldPlayers = getPlayerList();
+            int[] players = new int[oldPlayers.length + 1];
+            int i = 0;
+            while (i < oldPlayers.length && oldPlayers[i] < ID) {  // Keep the list in order.
+                players[i] = oldPlayers[i];
+                i++;
+            }
+            players[i] = ID;
+            System.arraycopy(oldPlayers, i, players, i+1, oldPlayers.length - i);
+            newConnection.send(new StatusMessage(ID,true,players)); // Full list for the new player.
+            playerConnections.put(ID,newConnection);
+            if (oldPlayers.length > 0)
+                broadcast(new StatusMessage(ID,true,null), newConnection);
+        }
+        queueEvent(newConnection, PLAYER_CONNECTED);
         System.out.println("Connection accepted from client number " + ID);
     }
     
-    synchronized private void clientDisconnected(int playerID) {
-        if (playerConnections.containsKey(playerID)) {
-            playerConnections.remove(playerID);
-            StatusMessage sm = new StatusMessage(playerID,false,getPlayerList());
-            sendToAll(sm);
-            playerDisconnected(playerID);
-            System.out.println("Connection with client number " + playerID + " closed by DisconnectMessage from client.");
+    void clientDisconnected(PlayerConnection playerConnection) {
+        int playerID = playerConnection.getPlayer();
+        synchronized(membershipLock) {
+            if (playerConnections.remove(playerID, playerConnection))
+                sendToAll(new StatusMessage(playerID,false,null));
+            else
+                return;
         }
+        playerRemoved(playerConnection);
+        queueEvent(playerConnection, PLAYER_DISCONNECTED);
+        System.out.println("Connection with client number " + playerID + " closed by DisconnectMessage from client.");
     }
     
-    synchronized private void connectionToClientClosedWithError( ConnectionToClient playerConnection, String message ) {
+    void connectionToClientClosedWithError( PlayerConnection playerConnection, String message ) {
         int ID = playerConnection.getPlayer();
-        if (playerConnections.remove(ID) != null) {
-            StatusMessage sm = new StatusMessage(ID,false,getPlayerList());
-            sendToAll(sm);
+        synchronized(membershipLock) {
+            if (playerConnections.remove(ID, playerConnection))
+                sendToAll(new StatusMessage(ID,false,null));
+            else
+                return;
         }
+        playerRemoved(playerConnection);
     }
     
+    /**
+     * Called after a player has been removed from playerConnections, whether the
+     * client disconnected normally or the connection was closed by an error.  This
+     * is called in a transport thread, after any messages that were received from
+     * the player have been passed to queueIncomingMessage().  The method in this
+     * class does nothing.  (It is overridden in RoomHub.)
+     */
+    void playerRemoved(PlayerConnection playerConnection) {
+    }
+    
+    /**
+     * Returns the connection to a specified player, or null if there is no such player.
+     */
+    PlayerConnection getPlayerConnection(int playerID) {
+        return playerConnections.get(playerID);
+    }
+    
+    /**
+     * Markers that are placed in the incoming message queue, in place of a message,
+     * to have playerConnected() or playerDisconnected() called by the message
+     * processing thread.
+     */
+    private final static Object PLAYER_CONNECTED = new Object();
+    private final static Object PLAYER_DISCONNECTED = new Object();
+    
     private class Message {
-        ConnectionToClient playerConnection;
+        PlayerConnection playerConnection;
         Object message;
     }
     
@@ -366,7 +826,10 @@ public class Hub {
                         System.out.println("Listener socket has shut down.");
                         break;
                     }
-                    new ConnectionToClient(incomingMessages,connection);
+                    if (selectorEngine != null)
+                        selectorEngine.connectionAccepted(connection.getChannel());
+                    else
+                        new ConnectionToClient(connection);
                 }
             }
             catch (Exception e) {
@@ -379,31 +842,33 @@ public class Hub {
     }
     
     
-    private class ConnectionToClient { // Handles communication with one client.
+    private class ConnectionToClient implements PlayerConnection { // Handles communication with one client.
 
         private int playerID;  // The ID number for this player.
-        private BlockingQueue<Message> incomingMessages;
-        private LinkedBlockingQueue<Object> outgoingMessages;
+        private OutgoingQueue outgoingMessages;
         private Socket connection;
-        private ObjectInputStream in;
-        private ObjectOutputStream out;
+        private DataInputStream in;    // Streams for framed messages, created after the handshake.
+        private DataOutputStream out;
         private volatile boolean closed;  // Set to true when connection is closing normally.
         private Thread sendThread; // Handles setup, then handles outgoing messages.
         private volatile Thread receiveThread; // Created only after connection is open.
         
-        ConnectionToClient(BlockingQueue<Message> receivedMessageQueue, Socket connection)  {
+        ConnectionToClient(Socket connection)  {
             this.connection = connection;
-            incomingMessages = receivedMessageQueue;
-            outgoingMessages = new LinkedBlockingQueue<Object>();
-            sendThread =  new SendThread();
+            outgoingMessages = new OutgoingQueue(Hub.this);
+            sendThread = NetgameThreads.newThread(new SendThread(), virtualThreads);
             sendThread.start();
         }
         
-        int getPlayer() {
+        public int getPlayer() {
             return playerID;
         }
         
-        void close() {
+        public OutgoingQueue getOutgoingQueue() {
+            return outgoingMessages;
+        }
+        
+        public void close() {
             closed = true;
             sendThread.interrupt();
             if (receiveThread != null)
@@ -415,13 +880,21 @@ public class Hub {
             }
         }
         
-        void send(Object obj) { // Just drop message into message output queue.
-            if (obj instanceof DisconnectMessage) {
+        public void send(Object obj) { // Just drop message into message output queue.
+            if (obj instanceof DisconnectMessage 
+                    || obj instanceof EncodedMessage && ((EncodedMessage)obj).message instanceof DisconnectMessage) {
                 // A signal to close the connection;
                 // discard other waiting messages, if any.
                 outgoingMessages.clear();
             }
-            outgoingMessages.add(obj);
+            if ( ! outgoingMessages.add(obj) && ! closed ) {  // The queue is full, and the policy is DISCONNECT.
+                System.out.println("Outgoing queue overflow; closing connection to client " + playerID);
+                closedWithError("Too many messages waiting to be sent to client.");
+            }
+        }
+        
+        public void sendEncoded(EncodedMessage message) {  // The send thread will write message.frame.
+            send(message);
         }
         
         private void closedWithError(String message) {
@@ -434,22 +907,17 @@ public class Hub {
          * Once that's done, it creates a thread for receiving incoming messages,
          * and goes into an infinite loop in which it transmits outgoing messages.
          */
-        private class SendThread extends Thread {
+        private class SendThread implements Runnable {
             public void run() {
                 try {
-                    out = new ObjectOutputStream(connection.getOutputStream());
-                    in = new ObjectInputStream(connection.getInputStream());
-                    String handle = (String)in.readObject(); // first input must be "Hello Hub"
-                    if ( ! "Hello Hub".equals(handle) )
-                        throw new Exception("Incorrect hello string received from client.");
-                    synchronized(Hub.this) {
-                        playerID = nextClientID++; // Get a player ID for this player.
-                    }
-                    out.writeObject(playerID);  // send playerID to the client.
-                    out.flush();
-                    extraHandshake(playerID,in,out);  // Does any extra stuff before connection is fully established.
+                    connection.setTcpNoDelay(true);  // Small messages are sent at once, or batched by this class.
+                    ObjectOutputStream handshakeOut = new ObjectOutputStream(connection.getOutputStream());
+                    ObjectInputStream handshakeIn = new ObjectInputStream(connection.getInputStream());
+                    playerID = handshake(handshakeIn,handshakeOut);
+                    out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
                     acceptConnection(ConnectionToClient.this);
-                    receiveThread = new ReceiveThread();
+                    receiveThread = NetgameThreads.newThread(new ReceiveThread(), virtualThreads);
                     receiveThread.start();
                 }
                 catch (Exception e) {
@@ -466,17 +934,9 @@ public class Hub {
                 try {
                     while ( ! closed ) {  // Get messages from outgoingMessages queue and send them.
                         try {
-                            Object message = outgoingMessages.take();
-                            if (message instanceof ResetSignal)
-                                out.reset();
-                            else {
-                                if (autoreset)
-                                    out.reset();
-                                out.writeObject(message);
-                                out.flush();
-                                if (message instanceof DisconnectMessage) // A signal to close the connection.
-                                    close();
-                            }
+                            if (MessageFraming.writeBatch(out, outgoingMessages, messageCodec,
+                                                             batchMaxMessages, batchWindowMicros))
+                                close();  // A DisconnectMessage was sent, as a signal to close the connection.
                         }
                         catch (InterruptedException e) {
                             // should mean that connection is closing
@@ -501,32 +961,24 @@ public class Hub {
         
         /**
          * The ReceiveThread reads messages transmitted from the client.  Messages
-         * are dropped into an incomingMessages queue, which is shared by all clients.
+         * are passed to queueIncomingMessage(), which normally drops them into the
+         * incomingMessages queue that is shared by all clients.
          * If a DisconnectMessage is received, however, it is a signal from the
          * client that the client is disconnecting.
          */
-        private class ReceiveThread extends Thread {
+        private class ReceiveThread implements Runnable {
             public void run() {
                 try {
                     while ( ! closed ) {
-                        try {
-                            Object message = in.readObject();
-                            Message msg = new Message();
-                            msg.playerConnection = ConnectionToClient.this;
-                            msg.message = message;
-                            if ( ! (message instanceof DisconnectMessage) )
-                                incomingMessages.put(msg);
-                            else {
-                                closed = true;
-                                outgoingMessages.clear();
-                                out.writeObject("*goodbye*");
-                                out.flush();
-                                clientDisconnected(playerID);
-                                close();
-                            }
-                        }
-                        catch (InterruptedException e) {
-                            // should mean that connection is closing
+                        Object message = MessageFraming.readMessage(in);
+                        if ( ! (message instanceof DisconnectMessage) )
+                            queueIncomingMessage(ConnectionToClient.this, message);
+                        else {
+                            closed = true;
+                            outgoingMessages.clear();
+                            MessageFraming.writeMessage(out,"*goodbye*",messageCodec);
+                            clientDisconnected(ConnectionToClient.this);
+                            close();
                         }
                     }
                 }
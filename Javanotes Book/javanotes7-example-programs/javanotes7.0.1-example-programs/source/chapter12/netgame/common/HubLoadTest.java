@@ -0,0 +1,110 @@
+package netgame.common;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+
+/**
+ * A load test for the Hub class.  This program starts a Hub in the same JVM
+ * and then opens a large number of simulated client connections to it.  The
+ * simulated clients do not use the Client class, which would need two threads
+ * for each connection; instead, they speak the netgame protocol directly, and
+ * all of them are served by a single thread that uses a Selector.
+ * <p>The program reports the time that it takes to connect all the clients,
+ * the number of threads and the amount of memory in use once they are all
+ * connected, and the time that it takes for a message sent by one client to
+ * reach every client (as a ForwardedMessage from the Hub).  It also shows
+ * the Hub's broadcast metrics:  the time the Hub needed to encode each
+ * broadcast, which does not depend on the number of clients, and the time
+ * to queue it for every client, which does.
+ * <p>Usage:  java netgame.common.HubLoadTest [clients] [transport] [port]
+ * <br>The default is 10000 clients using the "selector" transport on port 37831.
+ * The transport can also be "threads" or "virtual_threads".  Note that each client uses two file
+ * descriptors in this program (one for each end of the connection), so the
+ * limit on open files (ulimit -n) must be more than twice the number of clients.
+ */
+public class HubLoadTest {
+
+    private static int clientCount = 10000;
+    private static Hub.Transport transport = Hub.Transport.SELECTOR;
+    private static int port = 37831;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0)
+            clientCount = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            transport = Hub.Transport.valueOf(args[1].toUpperCase());
+        if (args.length > 2)
+            port = Integer.parseInt(args[2]);
+
+        System.out.println("Starting hub with " + transport + " transport; opening " + clientCount + " clients.");
+        Hub hub = new Hub(port, transport);
+        SimulatedClients clients = new SimulatedClients(port);
+        clients.start();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            clients.connect();
+            if ((i+1) % 1000 == 0)
+                System.out.printf("   %d clients connected after %.2f seconds%n",
+                                           i+1, (System.nanoTime() - startTime)/1e9);
+        }
+        // Each client is told about itself and every client that connects after it.
+        long expectedFrames = (long)clientCount * (clientCount + 1) / 2;
+        clients.waitForFrames(expectedFrames);
+        double connectTime = (System.nanoTime() - startTime)/1e9;
+        System.out.printf("All %d clients connected, and all status messages delivered, in %.2f seconds.%n",
+                                     clientCount, connectTime);
+
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("Platform threads:     %d%n", Thread.activeCount());
+        System.out.printf("Heap in use:          %.1f MB%n", (rt.totalMemory() - rt.freeMemory())/1e6);
+        String rss = residentMemory();
+        if (rss != null)
+            System.out.printf("Process memory:       %s%n", rss);
+
+        hub.getBroadcastMetrics().reset();  // Count only the broadcasts made below.
+        byte[] frame = MessageFraming.encode("Hello everybody", new SerializationCodec());
+        for (int trial = 1; trial <= 5; trial++) {
+            long before = System.nanoTime();
+            expectedFrames += clientCount;
+            clients.send(frame);
+            clients.waitForFrames(expectedFrames);
+            System.out.printf("Broadcast %d reached all clients in %.2f milliseconds.%n",
+                                          trial, (System.nanoTime() - before)/1e6);
+        }
+        BroadcastMetrics metrics = hub.getBroadcastMetrics();
+        System.out.printf("Broadcast encode:     %.1f microseconds%n", metrics.getAverageEncodeMicros());
+        System.out.printf("Broadcast fan-out:    %.1f microseconds%n", metrics.getAverageFanOutMicros());
+        System.out.printf("Bytes per broadcast:  %.0f encoded, %d queued%n", metrics.getAverageFrameBytes(),
+                                          metrics.getTotalBytesQueued() / metrics.getBroadcastCount());
+        System.exit(0);
+    }
+
+    /**
+     * Returns the amount of physical memory used by this process, which includes
+     * the stacks of platform threads as well as the heap.  This only works on Linux;
+     * on other systems, the return value is null.
+     */
+    private static String residentMemory() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader("/proc/self/status"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("VmRSS:")) {
+                        String[] parts = line.trim().split("\\s+");
+                        return String.format("%.1f MB", Long.parseLong(parts[1])/1e3);
+                    }
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (Exception e) {
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,84 @@
+package netgame.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+
+/**
+ * Compares the transports that a Hub can use.  For each transport and for
+ * each of several numbers of clients, this program runs HubLoadTest in a
+ * separate JVM (so that the measurements do not affect each other) and
+ * collects the results into a table showing the time needed to connect all
+ * the clients, the number of platform threads, the heap and process memory
+ * in use, and the average time for a broadcast to reach every client.
+ * The last two columns show how much of the Hub's own time was spent on
+ * each broadcast:  encoding it (once) and queueing it for every client.
+ * <p>Usage:  java netgame.common.HubTransportBenchmark [clients...]
+ * <br>The default client counts are 250, 1000, and 4000.  Virtual threads
+ * need Java 21; with an older version, VIRTUAL_THREADS will show the same
+ * results as THREADS.
+ */
+public class HubTransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = { 250, 1000, 4000 };
+        if (args.length > 0) {
+            clientCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                clientCounts[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%-16s %8s %12s %9s %10s %10s %14s %12s %13s%n", "Transport", "Clients",
+                "Connect (s)", "Threads", "Heap", "Process", "Broadcast (ms)", "Encode (us)", "Fan-out (us)");
+        int port = 37840;
+        for (int clients : clientCounts) {
+            for (Hub.Transport transport : Hub.Transport.values()) {
+                String[] result = runLoadTest(clients, transport, port++);
+                System.out.printf("%-16s %8d %12s %9s %10s %10s %14s %12s %13s%n", transport, clients,
+                        result[0], result[1], result[2], result[3], result[4], result[5], result[6]);
+            }
+        }
+    }
+
+    /**
+     * Runs HubLoadTest in a new JVM and picks the numbers out of its output.
+     * Returns an array containing the connect time, platform thread count, heap
+     * in use, process memory, average broadcast time, and the Hub's encode and
+     * fan-out time per broadcast.  Items that could not
+     * be found in the output are shown as "?".
+     */
+    private static String[] runLoadTest(int clients, Hub.Transport transport, int port) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "netgame.common.HubLoadTest", "" + clients, transport.toString(), "" + port);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        String[] result = { "?", "?", "?", "?", "?", "?", "?" };
+        double broadcastTotal = 0;
+        int broadcastCount = 0;
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("All "))
+                result[0] = line.replaceAll(".* in ([0-9.]+) seconds.*", "$1");
+            else if (line.startsWith("Platform threads:"))
+                result[1] = line.substring(line.indexOf(':') + 1).trim();
+            else if (line.startsWith("Heap in use:"))
+                result[2] = line.substring(line.indexOf(':') + 1).trim();
+            else if (line.startsWith("Process memory:"))
+                result[3] = line.substring(line.indexOf(':') + 1).trim();
+            else if (line.startsWith("Broadcast encode:"))
+                result[5] = line.replaceAll(".*:\\s*([0-9.]+).*", "$1");
+            else if (line.startsWith("Broadcast fan-out:"))
+                result[6] = line.replaceAll(".*:\\s*([0-9.]+).*", "$1");
+            else if (line.startsWith("Broadcast ")) {
+                broadcastTotal += Double.parseDouble(line.replaceAll(".* in ([0-9.]+) milliseconds.*", "$1"));
+                broadcastCount++;
+            }
+        }
+        process.waitFor();
+        if (broadcastCount > 0)
+            result[4] = String.format("%.2f", broadcastTotal / broadcastCount);
+        return result;
+    }
+
+}
@@ -0,0 +1,165 @@
+package netgame.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This package private class defines the "framing" that is used to transmit
+ * messages between a Hub and its Clients once the initial handshake is
+ * complete.  Each message is encoded on its own, into an array of bytes,
+ * and it is transmitted as a four-byte int giving the number of bytes,
+ * followed by the bytes themselves.  The bytes are produced by a MessageCodec;
+ * they are always decoded by a BinaryCodec, which can read the output of
+ * both of the codecs in this package.  Because every message is a complete,
+ * self-contained unit, the receiver can tell exactly where a message ends
+ * without having a thread blocked in ObjectInputStream.readObject().  That
+ * is what makes it possible for the Hub to serve clients from a small number
+ * of threads using a java.nio Selector (see the SelectorEngine class).
+ * <p>A side effect is that an object that is sent twice is always
+ * transmitted in full, with its current state, so it is no longer necessary
+ * to reset the output stream between transmissions.
+ */
+final class MessageFraming {
+
+    private static final BinaryCodec decoder = new BinaryCodec();  // Used for decoding all messages.
+
+    /**
+     * The largest frame that will be accepted from the network.  A length
+     * outside the range 0 to MAX_FRAME_LENGTH is taken to mean that the
+     * data stream is corrupt, and the connection is closed.
+     */
+    static final int MAX_FRAME_LENGTH = 16*1024*1024;
+
+    private MessageFraming() { // No objects of this class can be created.
+    }
+
+    /**
+     * Encodes a message and returns the complete frame for that message,
+     * including the four-byte length at the start of the frame.
+     * @param message the message.
+     * @param codec the codec that is used to encode the message.
+     * @throws IOException if an error occurs while encoding the message,
+     *    for example, if the message contains an object that is not Serializable.
+     */
+    static byte[] encode(Object message, MessageCodec codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(0);  // Leave space for the length, which is filled in below.
+        bytes.write(0);
+        bytes.write(0);
+        bytes.write(0);
+        DataOutputStream out = new DataOutputStream(bytes);
+        codec.writeMessage(message, out);
+        out.flush();
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte)(length >>> 24);
+        frame[1] = (byte)(length >>> 16);
+        frame[2] = (byte)(length >>> 8);
+        frame[3] = (byte)length;
+        return frame;
+    }
+
+    /**
+     * Decodes a message from the body of a frame (that is, from the
+     * bytes that follow the length).
+     * @param data an array that contains the body of the frame.
+     * @param offset the position in the array where the body starts.
+     * @param length the number of bytes in the body.
+     * @throws IOException if the data does not represent a message, for example
+     *    if the class of a serialized object cannot be found.
+     */
+    static Object decode(byte[] data, int offset, int length) throws IOException {
+        return decoder.readMessage(new DataInputStream(new ByteArrayInputStream(data,offset,length)));
+    }
+
+    /**
+     * Returns the codec that Hubs and Clients use for sending messages when no
+     * codec has been set explicitly.  This is a BinaryCodec if the system property
+     * netgame.codec is "binary", and a SerializationCodec otherwise.
+     */
+    static MessageCodec defaultCodec() {
+        String codec = System.getProperty("netgame.codec");
+        if (codec != null && codec.trim().equalsIgnoreCase("binary"))
+            return new BinaryCodec();
+        else
+            return new SerializationCodec();
+    }
+
+    /**
+     * Writes one message to a stream, as a complete frame, and flushes the stream.
+     */
+    static void writeMessage(DataOutputStream out, Object message, MessageCodec codec) throws IOException {
+        out.write(encode(message, codec));
+        out.flush();
+    }
+
+    /**
+     * Takes one or more messages from a queue and writes them to a stream as
+     * frames, then flushes the stream, so that the whole batch goes to the network
+     * in one write (as long as it fits in the stream's buffer).  This method waits
+     * for the first message.  It then goes on writing messages that are already in
+     * the queue, or that arrive within windowMicros microseconds of the start of the
+     * batch, until maxMessages messages have been written.  With maxMessages equal
+     * to 1, every message is flushed as soon as it is written.  Items in the queue
+     * can be Hub.EncodedMessages, whose frames are written as they are, or message
+     * objects, which are encoded with the codec.  A ResetSignal is ignored.  If the
+     * thread is interrupted while waiting for more messages, the batch is flushed
+     * and the interrupted status is restored.
+     * @return true if the batch ended with a DisconnectMessage, which means that
+     *    the connection should now be closed.
+     */
+    static boolean writeBatch(DataOutputStream out, OutgoingQueue queue, MessageCodec codec, 
+                              int maxMessages, int windowMicros) throws IOException, InterruptedException {
+        Object item = queue.take();
+        long deadline = System.nanoTime() + windowMicros * 1000L;
+        int count = 0;
+        while (true) {
+            Object message = item;
+            if (item instanceof Hub.EncodedMessage) {  // Already encoded; just write the frame.
+                out.write(((Hub.EncodedMessage)item).frame);
+                message = ((Hub.EncodedMessage)item).message;
+            }
+            else if ( ! (item instanceof ResetSignal) ) // (Resetting is not needed for framed messages.)
+                out.write(encode(item, codec));
+            if (message instanceof DisconnectMessage) {
+                out.flush();
+                return true;
+            }
+            count++;
+            if (count >= maxMessages)
+                break;
+            item = queue.poll();
+            if (item == null && windowMicros > 0) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    if (remaining > 0)
+                        item = queue.poll(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();  // (The next call to take() will throw the exception.)
+                }
+            }
+            if (item == null)
+                break;
+        }
+        out.flush();
+        return false;
+    }
+
+    /**
+     * Reads one complete frame from a stream and returns the message that it contains.
+     * This method blocks until the entire frame has been received.
+     */
+    static Object readMessage(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH)
+            throw new IOException("Illegal message length (" + length + ") received.");
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return decode(data, 0, length);
+    }
+
+}
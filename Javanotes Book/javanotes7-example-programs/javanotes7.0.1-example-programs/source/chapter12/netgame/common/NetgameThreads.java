@@ -0,0 +1,78 @@
+package netgame.common;
+
+import java.lang.reflect.Method;
+
+/**
+ * This package private class creates the threads that Hub and Client use
+ * for sending and receiving messages.  The threads can be ordinary
+ * "platform" threads or, if the Java version is 21 or higher, "virtual"
+ * threads.  A virtual thread is managed by the JVM rather than by the
+ * operating system, and it costs very little memory while it is blocked
+ * waiting for network input or output, so a Hub that uses virtual threads
+ * can handle many more connections.
+ * <p>Virtual threads are created using reflection, so that this package
+ * can still be compiled and run with older versions of Java.  On those
+ * versions, a request for a virtual thread gives a platform thread instead.
+ */
+final class NetgameThreads {
+
+    private static final Method ofVirtual;       // The method Thread.ofVirtual(), or null.
+    private static final Method builderUnstarted; // The method Thread.Builder.unstarted(Runnable), or null.
+
+    private static boolean warningPrinted;  // Set to true when the "not available" warning is printed.
+
+    static {
+        Method ofVirtualMethod = null;
+        Method unstartedMethod = null;
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            unstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+        }
+        catch (Exception e) {
+            ofVirtualMethod = null;  // This version of Java does not have virtual threads.
+            unstartedMethod = null;
+        }
+        ofVirtual = ofVirtualMethod;
+        builderUnstarted = unstartedMethod;
+    }
+
+    private NetgameThreads() { // No objects of this class can be created.
+    }
+
+    /**
+     * Tells whether virtual threads can be created in this version of Java.
+     */
+    static boolean virtualThreadsAvailable() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Creates, but does not start, a thread that will run a given task.
+     * @param task the task that the thread will run.
+     * @param virtual if true, a virtual thread is created, if possible.  If virtual
+     *    threads are not available, a platform thread is created, and a warning is
+     *    printed the first time that this happens.
+     */
+    static Thread newThread(Runnable task, boolean virtual) {
+        if (virtual) {
+            if (ofVirtual != null) {
+                try {
+                    return (Thread)builderUnstarted.invoke(ofVirtual.invoke(null), task);
+                }
+                catch (Exception e) {
+                    // Fall through and create a platform thread.
+                }
+            }
+            synchronized(NetgameThreads.class) {
+                if ( ! warningPrinted ) {
+                    System.out.println("Virtual threads are not available in this version of Java;"
+                                                     + " platform threads will be used.");
+                    warningPrinted = true;
+                }
+            }
+        }
+        return new Thread(task);
+    }
+
+}
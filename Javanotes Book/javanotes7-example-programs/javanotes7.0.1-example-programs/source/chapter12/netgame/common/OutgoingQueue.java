@@ -0,0 +1,266 @@
+package netgame.common;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This package private class is the queue of messages that are waiting to be
+ * sent to one client.  It is used by both of the Hub's transports, and also by
+ * the Client class for messages waiting to be sent to the hub; a queue in a
+ * Client has no hub and is never bounded.  An item in the queue is either a
+ * message object, a Hub.EncodedMessage, or the marker CLOSE_MARKER.
+ * <p>The queue can be bounded, by calling the Hub's setOutgoingQueueLimit()
+ * method.  When a message is added to a full queue, the Hub's overflow policy
+ * says what to do:  discard the oldest waiting message, discard an older
+ * snapshot of the same type (falling back on discarding the oldest message),
+ * or refuse the message, in which case the connection is closed.  A
+ * StateUpdate that contains a complete state of a snapshot type replaces all
+ * the StateUpdates that are waiting in the queue, since the client will not
+ * need them once it has the new state.  The
+ * messages that the Hub uses to keep the clients' player lists up to date,
+ * and to disconnect, are never discarded, and they are added even if the
+ * queue is full.  A StateUpdate that contains a complete state is not
+ * discarded to make room for another message, since a client that has lost
+ * an update is waiting for a complete state to get back in step with the hub.
+ * The queue keeps counts of the messages that it discards.
+ */
+final class OutgoingQueue {
+
+    /**
+     * A marker that is placed in the queue to say that the connection should be
+     * closed after everything before it has been sent.
+     */
+    final static Object CLOSE_MARKER = new Object();
+
+    private final Hub hub;  // Provides the limit and the overflow policy; null in a Client.
+    private final ArrayDeque<Object> items = new ArrayDeque<Object>();
+    private final ReentrantLock lock = new ReentrantLock();  // (Used instead of synchronization 
+    private final Condition notEmpty = lock.newCondition();  //    because it can wait for less than 1 ms.)
+    private long dropped;    // Number of messages discarded because the queue was full.
+    private long coalesced;  // Number of snapshots that were replaced by newer ones.
+
+    OutgoingQueue(Hub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * Adds an item to the end of the queue, applying the Hub's overflow policy if
+     * the queue is full.
+     * @return false if the item was not added because the queue is full and the
+     *    policy is DISCONNECT.  The connection should then be closed.
+     */
+    boolean add(Object item) {
+        lock.lock();
+        try {
+            int limit = (hub == null) ? 0 : hub.getOutgoingQueueLimit();
+            if (limit > 0 && items.size() >= limit && isDroppable(item)) {
+                Hub.OverflowPolicy policy = hub.getOverflowPolicy();
+                if (policy == Hub.OverflowPolicy.DISCONNECT)
+                    return false;
+                int replaced = (policy == Hub.OverflowPolicy.COALESCE) ? removeOlderSnapshots(item) : 0;
+                if (replaced > 0)
+                    coalesced += replaced;
+                else if (removeOldest())
+                    dropped++;
+            }
+            items.addLast(item);
+            notEmpty.signal();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, or returns null if
+     * the queue is empty.
+     */
+    Object poll() {
+        lock.lock();
+        try {
+            return items.pollFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, waiting up to a
+     * specified time for an item to become available.  Returns null if the queue
+     * is still empty when the time is up.
+     */
+    Object poll(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                if (timeoutNanos <= 0)
+                    return null;
+                timeoutNanos = notEmpty.awaitNanos(timeoutNanos);
+            }
+            return items.removeFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, waiting until an
+     * item is available if necessary.
+     */
+    Object take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty())
+                notEmpty.await();
+            return items.removeFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards all waiting items.  (These are not counted as dropped.)
+     */
+    void clear() {
+        lock.lock();
+        try {
+            items.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of items waiting in the queue.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return items.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages that were discarded because the queue was full,
+     * not counting snapshots that were replaced by newer ones.
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of snapshot messages that were replaced by newer ones
+     * because the queue was full.
+     */
+    long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalesced;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the message that an item represents.
+     */
+    private static Object messageOf(Object item) {
+        if (item instanceof Hub.EncodedMessage)
+            return ((Hub.EncodedMessage)item).message;
+        else
+            return item;
+    }
+
+    /**
+     * Tests whether an item can be discarded.  Markers and the internal messages that
+     * keep the clients' player lists up to date cannot.
+     */
+    private static boolean isDroppable(Object item) {
+        Object message = messageOf(item);
+        return item != CLOSE_MARKER && ! (message instanceof StatusMessage)
+                                    && ! (message instanceof DisconnectMessage);
+    }
+
+    /**
+     * If the item's message is of a snapshot type, removes the newest waiting item
+     * whose message is of the same class.  If it is a StateUpdate that contains a
+     * complete state of a snapshot type, removes every waiting StateUpdate, since
+     * each of them leads to an older version of the state.  (This assumes that the
+     * Hub sends StateUpdates from only one StateSender.)  Returns the number of
+     * items that were removed.
+     */
+    private int removeOlderSnapshots(Object item) {
+        Object message = messageOf(item);
+        if (message instanceof StateUpdate) {
+            StateUpdate update = (StateUpdate)message;
+            if ( ! update.isComplete() || ! hub.isSnapshotType(update.data.getClass()) )
+                return 0;
+            int count = 0;
+            Iterator<Object> iter = items.iterator();
+            while (iter.hasNext()) {
+                if (messageOf(iter.next()) instanceof StateUpdate) {
+                    iter.remove();
+                    count++;
+                }
+            }
+            return count;
+        }
+        Class<?> type = message.getClass();
+        if ( ! hub.isSnapshotType(type) )
+            return 0;
+        Iterator<Object> iter = items.descendingIterator();
+        while (iter.hasNext()) {
+            if (messageOf(iter.next()).getClass() == type) {
+                iter.remove();
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Tests whether an item is a StateUpdate that contains a complete state.
+     */
+    private static boolean isCompleteState(Object item) {
+        Object message = messageOf(item);
+        return message instanceof StateUpdate && ((StateUpdate)message).isComplete();
+    }
+
+    /**
+     * Removes the oldest waiting item that can be discarded, other than a complete
+     * state.  Returns false if there is no such item.
+     */
+    private boolean removeOldest() {
+        Iterator<Object> iter = items.iterator();
+        while (iter.hasNext()) {
+            Object item = iter.next();
+            if (isDroppable(item) && ! isCompleteState(item)) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
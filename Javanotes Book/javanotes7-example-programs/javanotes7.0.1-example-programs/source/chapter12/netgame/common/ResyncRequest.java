@@ -0,0 +1,21 @@
+package netgame.common;
+
+import java.io.Serializable;
+
+/**
+ * A message that is sent by a StateReceiver in a client when it receives a
+ * StateUpdate that it cannot apply, because it does not have the version
+ * of the state that the changes are based on.  (This happens if updates were
+ * discarded because the hub's queue of messages for the client was full; see
+ * Hub.setOutgoingQueueLimit().)  The hub should pass the request to its
+ * StateSender, which answers it by sending a complete state.
+ */
+public class ResyncRequest implements Serializable {
+
+    public final int version;  // The latest version that the client was able to apply, or 0 if none.
+
+    public ResyncRequest(int version) {
+        this.version = version;
+    }
+
+}
@@ -0,0 +1,43 @@
+package netgame.common;
+
+import java.io.Serializable;
+
+/**
+ * A message that is sent to, or from, one of the rooms in a RoomHub.
+ * A client posts a message in a room by sending a RoomMessage, constructed
+ * with new RoomMessage(roomName,message), to the hub; the client must have
+ * joined the room first (see RoomRequest).  By default, the room forwards
+ * the message to all of its members, including the sender, as a RoomMessage
+ * in which senderID is the ID of the client who posted it.
+ * <p>The hub also uses RoomMessages to tell the members of a room when a
+ * player joins or leaves the room.  In that case, senderID is the ID of the
+ * player who joined or left, and the message is a RoomRequest.
+ */
+public class RoomMessage implements Serializable {
+
+    public final String room;     // The name of the room.
+    public final int senderID;    // The ID of the player who sent the message, or 0.
+    public final Object message;  // The message itself.
+
+    /**
+     * Creates a RoomMessage for sending from a client to a room.
+     * @param room the name of the room.  This must be non-null.
+     * @param message the message that is to be posted in the room.
+     */
+    public RoomMessage(String room, Object message) {
+        this(room, 0, message);
+    }
+
+    /**
+     * Creates a RoomMessage that says that a message was posted in a room by
+     * a specified player.  This constructor is used by the hub.
+     */
+    public RoomMessage(String room, int senderID, Object message) {
+        if (room == null)
+            throw new IllegalArgumentException("The name of the room cannot be null.");
+        this.room = room;
+        this.senderID = senderID;
+        this.message = message;
+    }
+
+}
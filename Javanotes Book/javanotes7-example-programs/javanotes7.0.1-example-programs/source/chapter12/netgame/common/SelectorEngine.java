@@ -0,0 +1,417 @@
+package netgame.common;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This package private class implements the SELECTOR transport for a Hub.
+ * Instead of using two threads for each connected client, it serves all of
+ * the clients from a small, fixed set of "event loop" threads.  Each event
+ * loop owns a java.nio Selector and handles the reading and writing for
+ * the connections that have been registered with it.  Connections are
+ * spread among the event loops in round-robin order.
+ * <p>The handshake that opens a connection (including the Hub's
+ * extraHandshake() method) uses blocking ObjectInputStreams and
+ * ObjectOutputStreams, as it does for the THREADS transport.  This is done
+ * by a small pool of handshake threads.  When the handshake is complete,
+ * the channel is switched to non-blocking mode and is handed to its event
+ * loop.  From then on, messages are read and written as frames, as defined
+ * by the MessageFraming class.
+ * <p>The Hub's own message processing is not affected.  Received messages
+ * go into the same queue of incoming messages that is used by the THREADS
+ * transport, and they are handled, one at a time, by the Hub's message
+ * processing thread.
+ */
+class SelectorEngine {
+
+    private final static int HANDSHAKE_THREADS = 4;        // Size of the pool of handshake threads.
+    private final static int HANDSHAKE_TIMEOUT = 15000;    // Milliseconds allowed for a handshake.
+    private final static int READ_BUFFER_SIZE = 8192;      // Initial size of each read buffer.
+
+    private final Hub hub;
+    private final EventLoop[] eventLoops;
+    private final ExecutorService handshakeThreads;
+    private int nextEventLoop;  // Used for round-robin assignment of connections.
+
+    /**
+     * Creates the engine and starts its threads.
+     * @param hub the hub that is served by this engine.
+     * @param eventLoopCount the number of event loop threads.  This should be at least 1.
+     */
+    SelectorEngine(Hub hub, int eventLoopCount) throws IOException {
+        this.hub = hub;
+        eventLoops = new EventLoop[Math.max(1,eventLoopCount)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i+1);
+            eventLoops[i].start();
+        }
+        handshakeThreads = Executors.newFixedThreadPool(HANDSHAKE_THREADS, new ThreadFactory() {
+            int count;
+            public synchronized Thread newThread(Runnable task) {
+                Thread t = new Thread(task, "netgame handshake thread " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Called by the Hub's listening thread when a connection request has been accepted.
+     * The handshake is done by one of the handshake threads.
+     */
+    void connectionAccepted(final SocketChannel channel) {
+        final EventLoop eventLoop = eventLoops[nextEventLoop];
+        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+        handshakeThreads.execute(new Runnable() {
+            public void run() {
+                openConnection(channel, eventLoop);
+            }
+        });
+    }
+
+    /**
+     * Does the handshake for a newly accepted connection, then registers it with
+     * an event loop and tells the Hub that the connection is open.
+     */
+    private void openConnection(SocketChannel channel, EventLoop eventLoop) {
+        SelectorConnection connection = new SelectorConnection(channel, eventLoop);
+        try {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            connection.playerID = hub.handshake(in, out);
+            channel.configureBlocking(false);
+        }
+        catch (Exception e) {
+            try {
+                channel.close();
+            }
+            catch (Exception e1) {
+            }
+            System.out.println("\nError while setting up connection: " + e);
+            e.printStackTrace();
+            return;
+        }
+        hub.acceptConnection(connection);  // Messages sent here are queued until registration is done.
+        eventLoop.register(connection);
+    }
+
+
+    /**
+     * Represents the connection to one client.  Messages are encoded into frames by the
+     * thread that sends them, and they are written to the channel by the event loop.
+     * A broadcast arrives already encoded; its frame is shared with other connections.
+     */
+    private class SelectorConnection implements Hub.PlayerConnection {
+
+        private int playerID;
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private SelectionKey key;  // Set by the event loop when the channel is registered.
+
+        private final OutgoingQueue outgoingFrames;  // Holds EncodedMessages and OutgoingQueue.CLOSE_MARKER.
+        private ByteBuffer[] batch = new ByteBuffer[1];  // Frames taken from the queue that are being written.
+        private int batchStart, batchEnd;  // The frames in batch that are not yet completely written.
+        private boolean closeAfterBatch;   // Set when the close marker is taken from the queue.
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(); // True while the event loop has output to do.
+
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        private volatile boolean closed;    // Set to true when the connection is closing.
+        private volatile boolean closing;   // Set to true when no more input will be accepted.
+
+        SelectorConnection(SocketChannel channel, EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            outgoingFrames = new OutgoingQueue(hub);
+        }
+
+        public int getPlayer() {
+            return playerID;
+        }
+
+        public OutgoingQueue getOutgoingQueue() {
+            return outgoingFrames;
+        }
+
+        public void send(Object message) {
+            if (closed || message instanceof ResetSignal) // (Resetting is not needed for framed messages.)
+                return;
+            Hub.EncodedMessage frame;
+            try {
+                frame = new Hub.EncodedMessage(message, MessageFraming.encode(message, hub.getMessageCodec()));
+            }
+            catch (IOException e) {
+                System.out.println("Error while encoding message for client " + playerID + ": " + e);
+                eventLoop.execute(new Runnable() { // (Not done here, since the Hub might be iterating over its connections.)
+                    public void run() {
+                        closedWithError("Error while sending data to client.");
+                    }
+                });
+                return;
+            }
+            sendEncoded(frame);
+        }
+
+        public void sendEncoded(Hub.EncodedMessage message) {
+            if (closed)
+                return;
+            if (message.message instanceof DisconnectMessage) {
+                // A signal to close the connection; discard other waiting messages, if any.
+                outgoingFrames.clear();
+                outgoingFrames.add(message);
+                outgoingFrames.add(OutgoingQueue.CLOSE_MARKER);
+            }
+            else if ( ! outgoingFrames.add(message) ) {  // The queue is full, and the policy is DISCONNECT.
+                System.out.println("Outgoing queue overflow; closing connection to client " + playerID);
+                eventLoop.execute(new Runnable() {
+                    public void run() {
+                        closedWithError("Too many messages waiting to be sent to client.");
+                    }
+                });
+                return;
+            }
+            scheduleWrite();
+        }
+
+        public void close() {
+            closed = true;
+            closing = true;
+            try {
+                channel.close();  // This also cancels the channel's SelectionKey.
+            }
+            catch (IOException e) {
+            }
+        }
+
+        /**
+         * Makes sure that the event loop will write the frames that are waiting
+         * in the output queue.
+         */
+        void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false,true)) {
+                eventLoop.execute(new Runnable() {
+                    public void run() {
+                        writeFrames(SelectorConnection.this);
+                    }
+                });
+            }
+        }
+
+        void closedWithError(String message) {
+            if ( ! closed ) {
+                hub.connectionToClientClosedWithError(this, message);
+                close();
+            }
+        }
+
+    } // end nested class SelectorConnection
+
+
+    /**
+     * Writes as many waiting frames as possible to a connection's channel without
+     * blocking.  Frames are taken from the queue in batches of up to the Hub's
+     * batch size (see Hub.setBatching()), and each batch is written with one
+     * gathering write.  If a batch can only be partly written, OP_WRITE is added to
+     * the channel's interest set so that writing will continue when the channel is
+     * ready.  This is only called in the connection's event loop thread.
+     */
+    private void writeFrames(SelectorConnection connection) {
+        if (connection.key == null || connection.closed)
+            return;  // Not yet registered; registration will call this method again.
+        try {
+            while (true) {
+                if (connection.batchStart == connection.batchEnd) {  // Get the next batch from the queue.
+                    if (connection.closeAfterBatch) {
+                        connection.close();
+                        return;
+                    }
+                    int max = hub.getBatchMaxMessages();
+                    if (connection.batch.length != max)
+                        connection.batch = new ByteBuffer[max];
+                    connection.batchStart = connection.batchEnd = 0;
+                    while (connection.batchEnd < max) {
+                        Object item = connection.outgoingFrames.poll();
+                        if (item == null)
+                            break;
+                        if (item == OutgoingQueue.CLOSE_MARKER) {
+                            connection.closeAfterBatch = true;
+                            break;
+                        }  // (Each connection gets its own wrapper, with its own position.)
+                        connection.batch[connection.batchEnd++] = ByteBuffer.wrap(((Hub.EncodedMessage)item).frame);
+                    }
+                    if (connection.batchEnd == 0) {
+                        if (connection.closeAfterBatch)
+                            continue;
+                        connection.key.interestOps(SelectionKey.OP_READ);
+                        connection.writeScheduled.set(false);
+                        if (connection.outgoingFrames.isEmpty() || ! connection.writeScheduled.compareAndSet(false,true))
+                            return;
+                        continue;  // A frame was added while the flag was being cleared.
+                    }
+                }
+                connection.channel.write(connection.batch, connection.batchStart, 
+                                               connection.batchEnd - connection.batchStart);
+                while (connection.batchStart < connection.batchEnd 
+                                    && ! connection.batch[connection.batchStart].hasRemaining())
+                    connection.batch[connection.batchStart++] = null;
+                if (connection.batchStart < connection.batchEnd) {
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        }
+        catch (CancelledKeyException e) {
+            // The connection was closed by another thread.
+        }
+        catch (IOException e) {
+            if ( ! connection.closed ) {
+                connection.closedWithError("Error while sending data to client.");
+                System.out.println("Hub connection to client " + connection.playerID + " terminated by IOException: " + e);
+            }
+        }
+    }
+
+    /**
+     * Reads whatever data is available on a connection's channel, and handles any
+     * complete frames that have been received.  This is only called in the
+     * connection's event loop thread.
+     */
+    private void readFrames(SelectorConnection connection) {
+        try {
+            ByteBuffer buffer = connection.readBuffer;
+            int count = connection.channel.read(buffer);
+            if (count < 0)
+                throw new IOException("Connection closed by client.");
+            buffer.flip();
+            int needed = 0;  // Size of an incomplete frame that doesn't fit in the buffer.
+            while (buffer.remaining() >= 4 && ! connection.closing) {
+                int length = buffer.getInt(buffer.position());
+                if (length < 0 || length > MessageFraming.MAX_FRAME_LENGTH)
+                    throw new IOException("Illegal message length (" + length + ") received.");
+                if (buffer.remaining() < length + 4) {
+                    needed = length + 4;
+                    break;
+                }
+                int start = buffer.position() + 4;
+                Object message = MessageFraming.decode(buffer.array(), buffer.arrayOffset() + start, length);
+                buffer.position(start + length);
+                messageReceived(connection, message);
+            }
+            buffer.compact();
+            if (needed > buffer.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                buffer.flip();
+                bigger.put(buffer);
+                connection.readBuffer = bigger;
+            }
+        }
+        catch (IOException e) {
+            if ( ! connection.closed ) {
+                connection.closedWithError("Error while reading data from client.");
+                System.out.println("Hub connection to client " + connection.playerID + " terminated by IOException: " + e);
+            }
+        }
+    }
+
+    /**
+     * Handles one message that has been received from a client.  A DisconnectMessage
+     * means that the client is disconnecting.  Any other message is passed on to the Hub.
+     */
+    private void messageReceived(SelectorConnection connection, Object message) throws IOException {
+        if ( ! (message instanceof DisconnectMessage) )
+            hub.queueIncomingMessage(connection, message);
+        else {
+            connection.closing = true;
+            connection.outgoingFrames.clear();
+            connection.outgoingFrames.add(new Hub.EncodedMessage("*goodbye*",
+                                              MessageFraming.encode("*goodbye*", hub.getMessageCodec())));
+            connection.outgoingFrames.add(OutgoingQueue.CLOSE_MARKER);
+            hub.clientDisconnected(connection);
+            connection.scheduleWrite();
+        }
+    }
+
+
+    /**
+     * An event loop thread.  Other threads give work to the event loop by calling
+     * execute(); the tasks are run in the order in which they were submitted.
+     */
+    private class EventLoop extends Thread {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        EventLoop(int number) throws IOException {
+            super("netgame selector thread " + number);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != this)
+                selector.wakeup();
+        }
+
+        void register(final SelectorConnection connection) {
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+                    catch (IOException e) {  // The channel was closed before it could be registered.
+                        connection.closedWithError("Error while setting up connection.");
+                        return;
+                    }
+                    writeFrames(connection);  // Sends anything that was queued during registration.
+                }
+            });
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    if (tasks.isEmpty())
+                        selector.select();
+                    else
+                        selector.selectNow();  // Tasks submitted by this thread itself are waiting.
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        SelectorConnection connection = (SelectorConnection)key.attachment();
+                        if (key.isValid() && key.isReadable())
+                            readFrames(connection);
+                        if (key.isValid() && key.isWritable())
+                            writeFrames(connection);
+                    }
+                }
+                catch (Exception e) {
+                    System.out.println("\nUnexpected error in hub's selector thread:");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+    } // end nested class EventLoop
+
+}
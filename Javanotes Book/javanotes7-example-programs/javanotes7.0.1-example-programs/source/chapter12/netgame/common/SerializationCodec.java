@@ -0,0 +1,34 @@
+package netgame.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * A MessageCodec that uses ordinary Java serialization.  Any object that
+ * implements the Serializable interface can be sent.  The encoded form of a
+ * message includes descriptions of the classes of all the objects that it
+ * contains, so it can be quite large compared to the data itself.
+ * This is the codec that is used by default.
+ */
+public class SerializationCodec implements MessageCodec {
+
+    public void writeMessage(Object message, DataOutputStream out) throws IOException {
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(message);
+        objectOut.flush();
+    }
+
+    public Object readMessage(DataInputStream in) throws IOException {
+        ObjectInputStream objectIn = new ObjectInputStream(in);
+        try {
+            return objectIn.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException("Received a message of unknown type: " + e.getMessage());
+        }
+    }
+
+}
@@ -1,7 +1,13 @@
 package netgame.fivecarddraw;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 
+import netgame.common.BinaryCodec;
+import netgame.common.DeltaState;
+
 /**
  * Represents the state of a game of five-card-draw poker 
  * from one player's point of view.  The full state of a game
@@ -10,8 +16,15 @@ import java.io.Serializable;
  * the game changes.  Note that the two players receive
  * different messages, to reflect each player's view of the
  * status of the game.
+ * <p>This class also defines compact binary formats for
+ * PokerGameState and PokerCard[] messages, for use with
+ * BinaryCodec.  See the registerBinaryFormats() method.
+ * <p>A PokerGameState is a DeltaState, so the hub can send just the
+ * changes from the previous state that it sent to a player, using a
+ * StateSender.  Usually only one or two of the numbers change, and
+ * the hand changes only when cards are dealt or drawn.
  */
-public class PokerGameState implements Serializable {
+public class PokerGameState implements Serializable, DeltaState<PokerGameState> {
     
     //-------------------------------------------------------------
     // The eight following constants are the possible values of
@@ -63,5 +76,240 @@ public class PokerGameState implements Serializable {
         this.pot = pot;
         this.amountToSee = amountToSee;
     }
+    
+    
+    /**
+     * Returns a copy of this state, with its own copy of the hand.
+     */
+    public PokerGameState copy() {
+        return new PokerGameState(hand == null ? null : hand.clone(),
+                                     status, money, opponentMoney, pot, amountToSee);
+    }
+    
+    /**
+     * Returns the changes from a previous state, or null if nothing has changed.
+     * If both states have a hand of the same size, only the cards that are
+     * different are included.
+     */
+    public Object changesFrom(PokerGameState previous) {
+        Changes changes = new Changes();
+        if (hand == null || previous.hand == null || hand.length != previous.hand.length) {
+            if (hand != previous.hand) {
+                changes.fields |= Changes.HAND;
+                changes.cards = hand;
+            }
+        }
+        else {
+            int count = 0;
+            for (int i = 0; i < hand.length; i++) {
+                if ( ! hand[i].equals(previous.hand[i]) ) {
+                    changes.cardMask |= 1 << i;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                changes.fields |= Changes.CARDS;
+                changes.cards = new PokerCard[count];
+                int j = 0;
+                for (int i = 0; i < hand.length; i++) {
+                    if ((changes.cardMask & (1 << i)) != 0)
+                        changes.cards[j++] = hand[i];
+                }
+            }
+        }
+        if (status != previous.status) {
+            changes.fields |= Changes.STATUS;
+            changes.status = status;
+        }
+        if (money != previous.money) {
+            changes.fields |= Changes.MONEY;
+            changes.money = money;
+        }
+        if (opponentMoney != previous.opponentMoney) {
+            changes.fields |= Changes.OPPONENT_MONEY;
+            changes.opponentMoney = opponentMoney;
+        }
+        if (pot != previous.pot) {
+            changes.fields |= Changes.POT;
+            changes.pot = pot;
+        }
+        if (amountToSee != previous.amountToSee) {
+            changes.fields |= Changes.AMOUNT_TO_SEE;
+            changes.amountToSee = amountToSee;
+        }
+        return changes.fields == 0 ? null : changes;
+    }
+    
+    /**
+     * Returns a new state made by applying changes from changesFrom() to this state.
+     */
+    public PokerGameState withChanges(Object changeObject) {
+        Changes changes = (Changes)changeObject;
+        PokerCard[] newHand = hand;
+        if ((changes.fields & Changes.HAND) != 0)
+            newHand = changes.cards;
+        else if ((changes.fields & Changes.CARDS) != 0) {
+            newHand = hand.clone();
+            int j = 0;
+            for (int i = 0; i < newHand.length; i++) {
+                if ((changes.cardMask & (1 << i)) != 0)
+                    newHand[i] = changes.cards[j++];
+            }
+        }
+        int f = changes.fields;
+        return new PokerGameState(newHand,
+                (f & Changes.STATUS) != 0 ? changes.status : status,
+                (f & Changes.MONEY) != 0 ? changes.money : money,
+                (f & Changes.OPPONENT_MONEY) != 0 ? changes.opponentMoney : opponentMoney,
+                (f & Changes.POT) != 0 ? changes.pot : pot,
+                (f & Changes.AMOUNT_TO_SEE) != 0 ? changes.amountToSee : amountToSee);
+    }
+    
+    
+    /**
+     * Registers binary formats for the types of object, PokerGameState,
+     * PokerCard[], and the changes between two PokerGameStates, that the
+     * PokerHub sends and that are not already understood by BinaryCodec.
+     * This must be called in both the hub and the clients before any messages
+     * are received.  (It is called in static initializers in the PokerHub and
+     * PokerWindow classes.)  Calling it more than once has no effect.
+     */
+    public static void registerBinaryFormats() {
+        BinaryCodec.register(64, PokerGameState.class, STATE_FORMAT);
+        BinaryCodec.register(65, PokerCard[].class, HAND_FORMAT);
+        BinaryCodec.register(67, Changes.class, CHANGES_FORMAT);
+    }
+    
+    /**
+     * The changes between two states, as returned by changesFrom().  Only
+     * the variables that are named by the bits in fields are meaningful.
+     */
+    private static class Changes implements Serializable {
+        final static int HAND = 1;      // cards is the complete new hand (possibly null).
+        final static int CARDS = 2;     // cards holds the cards that changed, in order; see cardMask.
+        final static int STATUS = 4;
+        final static int MONEY = 8;
+        final static int OPPONENT_MONEY = 16;
+        final static int POT = 32;
+        final static int AMOUNT_TO_SEE = 64;
+        int fields;          // The OR of the above constants for the variables that changed.
+        PokerCard[] cards;
+        int cardMask;        // For CARDS, bit i is set if the i-th card in the hand changed.
+        int status, money, opponentMoney, pot, amountToSee;
+    }
+    
+    /**
+     * The binary format for a poker hand:  the number of cards (or -1 for null),
+     * followed by the suit and value of each card.
+     */
+    private final static BinaryCodec.Encoder<PokerCard[]> HAND_FORMAT = new BinaryCodec.Encoder<PokerCard[]>() {
+        public void write(PokerCard[] hand, DataOutputStream out) throws IOException {
+            if (hand == null) {
+                out.writeByte(-1);
+                return;
+            }
+            out.writeByte(hand.length);
+            for (PokerCard card : hand)
+                writeCard(card, out);
+        }
+        public PokerCard[] read(DataInputStream in) throws IOException {
+            int count = in.readByte();
+            if (count < 0)
+                return null;
+            PokerCard[] hand = new PokerCard[count];
+            for (int i = 0; i < count; i++)
+                hand[i] = readCard(in);
+            return hand;
+        }
+    };
+    
+    private static void writeCard(PokerCard card, DataOutputStream out) throws IOException {
+        out.writeByte(card.getSuit());
+        out.writeInt(card.getValue());
+    }
+    
+    private static PokerCard readCard(DataInputStream in) throws IOException {
+        int suit = in.readByte();
+        int value = in.readInt();
+        return new PokerCard(value, suit);
+    }
+    
+    /**
+     * The binary format for a PokerGameState:  the hand, in the format given by
+     * HAND_FORMAT, followed by the five int variables.
+     */
+    private final static BinaryCodec.Encoder<PokerGameState> STATE_FORMAT = new BinaryCodec.Encoder<PokerGameState>() {
+        public void write(PokerGameState state, DataOutputStream out) throws IOException {
+            HAND_FORMAT.write(state.hand, out);
+            out.writeByte(state.status);
+            out.writeInt(state.money);
+            out.writeInt(state.opponentMoney);
+            out.writeInt(state.pot);
+            out.writeInt(state.amountToSee);
+        }
+        public PokerGameState read(DataInputStream in) throws IOException {
+            PokerCard[] hand = HAND_FORMAT.read(in);
+            int status = in.readByte();
+            int money = in.readInt();
+            int opponentMoney = in.readInt();
+            int pot = in.readInt();
+            int amountToSee = in.readInt();
+            return new PokerGameState(hand, status, money, opponentMoney, pot, amountToSee);
+        }
+    };
+    
+    /**
+     * The binary format for the changes between two states:  a byte containing
+     * the bits that say which variables changed, followed by the values of those
+     * variables.  For a complete hand, the format is given by HAND_FORMAT; for
+     * changed cards, it is a byte containing the card mask followed by the cards.
+     */
+    private final static BinaryCodec.Encoder<Changes> CHANGES_FORMAT = new BinaryCodec.Encoder<Changes>() {
+        public void write(Changes changes, DataOutputStream out) throws IOException {
+            int f = changes.fields;
+            out.writeByte(f);
+            if ((f & Changes.HAND) != 0)
+                HAND_FORMAT.write(changes.cards, out);
+            if ((f & Changes.CARDS) != 0) {
+                out.writeByte(changes.cardMask);
+                for (PokerCard card : changes.cards)
+                    writeCard(card, out);
+            }
+            if ((f & Changes.STATUS) != 0)
+                out.writeByte(changes.status);
+            if ((f & Changes.MONEY) != 0)
+                out.writeInt(changes.money);
+            if ((f & Changes.OPPONENT_MONEY) != 0)
+                out.writeInt(changes.opponentMoney);
+            if ((f & Changes.POT) != 0)
+                out.writeInt(changes.pot);
+            if ((f & Changes.AMOUNT_TO_SEE) != 0)
+                out.writeInt(changes.amountToSee);
+        }
+        public Changes read(DataInputStream in) throws IOException {
+            Changes changes = new Changes();
+            int f = in.readByte();
+            changes.fields = f;
+            if ((f & Changes.HAND) != 0)
+                changes.cards = HAND_FORMAT.read(in);
+            if ((f & Changes.CARDS) != 0) {
+                changes.cardMask = in.readByte() & 0xFF;
+                changes.cards = new PokerCard[Integer.bitCount(changes.cardMask)];
+                for (int i = 0; i < changes.cards.length; i++)
+                    changes.cards[i] = readCard(in);
+            }
+            if ((f & Changes.STATUS) != 0)
+                changes.status = in.readByte();
+            if ((f & Changes.MONEY) != 0)
+                changes.money = in.readInt();
+            if ((f & Changes.OPPONENT_MONEY) != 0)
+                changes.opponentMoney = in.readInt();
+            if ((f & Changes.POT) != 0)
+                changes.pot = in.readInt();
+            if ((f & Changes.AMOUNT_TO_SEE) != 0)
+                changes.amountToSee = in.readInt();
+            return changes;
+        }
+    };
 
 }
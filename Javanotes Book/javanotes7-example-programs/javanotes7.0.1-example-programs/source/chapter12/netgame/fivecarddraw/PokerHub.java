@@ -34,9 +34,20 @@ import netgame.common.*;
  * to reset the ObjectOutputStreams that are used to send messages.
  * (See the reset() and setAutoreset() methods in the Hub class for
  * information about this issue.)
+ * <p>Messages are sent using a BinaryCodec, with the formats for poker
+ * messages that are defined in the PokerGameState class.  By default, the
+ * game states are sent by a StateSender, which means that each player gets
+ * a complete PokerGameState in a StateUpdate message the first time, and only
+ * the changes from the previous state after that.  The PokerWindow handles
+ * both forms.  (A PokerHub that sends complete PokerGameStates every time can
+ * be created with the two-parameter constructor.)
  */
 public class PokerHub extends Hub {
     
+    static {
+        PokerGameState.registerBinaryFormats();
+    }
+    
     private PokerDeck deck = new PokerDeck();  // The deck of 52 playing cards.
     
     // The next five variables are possible values of the status variable.
@@ -80,11 +91,34 @@ public class PokerHub extends Hub {
                       // game that has just finished.
     
 
+    private final StateSender<PokerGameState> stateSender;  // Null if complete states are sent.
+
+
     /**
-     * Creates a PokerHub listening on a specified port.
+     * Creates a PokerHub listening on a specified port, which sends the changes
+     * in the game state rather than complete states.
      */
     public PokerHub(int port) throws IOException {
+        this(port, true);
+    }
+    
+    /**
+     * Creates a PokerHub listening on a specified port.  At most 100 messages
+     * can wait to be sent to a player.  If a slow player's queue fills up, an
+     * older game state is discarded, since it is made obsolete by the newer one.
+     * (When only changes are sent, a client that misses an update asks for a
+     * complete state; see StateSender.)
+     * @param sendChanges if true, a StateSender is used to send only the changes
+     *    in the game state to the players; if false, a complete PokerGameState
+     *    is sent every time.
+     */
+    public PokerHub(int port, boolean sendChanges) throws IOException {
         super(port);
+        setMessageCodec(new BinaryCodec());
+        setOutgoingQueueLimit(100);
+        setOverflowPolicy(OverflowPolicy.COALESCE);
+        addSnapshotType(PokerGameState.class);
+        stateSender = sendChanges ? new StateSender<PokerGameState>(this) : null;
     }
     
 
@@ -102,8 +136,8 @@ public class PokerHub extends Hub {
             currentPlayer = 1;
             money[0] = 1000;
             money[1] = 1000;
-            sendToOne(1, new PokerGameState(null,PokerGameState.DEAL,1000,1000,0));
-            sendToOne(2, new PokerGameState(null,PokerGameState.WAIT_FOR_DEAL,1000,1000,0));
+            sendGameState(1, new PokerGameState(null,PokerGameState.DEAL,1000,1000,0));
+            sendGameState(2, new PokerGameState(null,PokerGameState.WAIT_FOR_DEAL,1000,1000,0));
             sendToAll("Ready to start the first game!");
         }
     }
@@ -130,6 +164,8 @@ public class PokerHub extends Hub {
      * displayed to that player.
      */
     protected void messageReceived(int playerID, Object message) {
+        if (stateSender != null && stateSender.handleMessage(playerID, message))
+            return;  // The message was a request for a complete state, which has been sent.
         if (playerID != currentPlayer) {
                // This should not happen, assuming there are no bugs and the
                // connected clients are in fact PokerClients.  This test and
@@ -338,14 +374,26 @@ public class PokerHub extends Hub {
             player1State = opponentState;
         }
         if (status == WAITING_FOR_BET_OR_SEE) {  // Send a state message including an amount needed to see.
-            sendToOne(1, new PokerGameState(hand[0].clone(),player1State,money[0],money[1],pot,amountNeededToSee));
-            sendToOne(2, new PokerGameState(hand[1].clone(),player2State,money[1],money[0],pot,amountNeededToSee));
+            sendGameState(1, new PokerGameState(hand[0].clone(),player1State,money[0],money[1],pot,amountNeededToSee));
+            sendGameState(2, new PokerGameState(hand[1].clone(),player2State,money[1],money[0],pot,amountNeededToSee));
         }
         else { // Send a state message without an amount needed to see.
-            sendToOne(1, new PokerGameState(hand[0].clone(),player1State,money[0],money[1],pot));
-            sendToOne(2, new PokerGameState(hand[1].clone(),player2State,money[1],money[0],pot));
+            sendGameState(1, new PokerGameState(hand[0].clone(),player1State,money[0],money[1],pot));
+            sendGameState(2, new PokerGameState(hand[1].clone(),player2State,money[1],money[0],pot));
         }
     }
     
     
+    /**
+     * Sends a game state to one player, either through the StateSender or,
+     * if complete states are being sent, directly.
+     */
+    private void sendGameState(int playerID, PokerGameState state) {
+        if (stateSender != null)
+            stateSender.sendToOne(playerID, state);
+        else
+            sendToOne(playerID, state);
+    }
+    
+    
 }
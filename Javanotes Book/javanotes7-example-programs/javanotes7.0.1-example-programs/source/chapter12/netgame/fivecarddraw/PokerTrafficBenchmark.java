@@ -0,0 +1,177 @@
+package netgame.fivecarddraw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import netgame.common.*;
+
+/**
+ * Measures how many bytes a PokerHub sends to its players for each hand of
+ * poker, when it sends a complete PokerGameState every time the state changes
+ * and when it sends only the changes (see StateSender).  Each measurement is
+ * made with both SerializationCodec and BinaryCodec.  The players are two
+ * simple robots that never fold:  they always bet $10 when it is their turn
+ * to bet first, match the opponent's bet otherwise, and discard their first
+ * two cards.  The program reports, per hand, the number of bytes in game state
+ * messages, the total number of bytes in all messages from the hub (including
+ * strings for the user and the opponent's hand at the end of a game), and the
+ * number of state messages.  The byte counts include the four-byte length
+ * that precedes each message on the network.
+ * <p>Usage:  java netgame.fivecarddraw.PokerTrafficBenchmark [hands]
+ * <br>The default is 100 hands.
+ */
+public class PokerTrafficBenchmark {
+
+    private static volatile Run currentRun;  // The run that the robots are taking part in.
+
+    public static void main(String[] args) throws Exception {
+        int hands = 100;
+        if (args.length > 0)
+            hands = Integer.parseInt(args[0]);
+        System.out.printf("%d hands of poker for each test.%n%n", hands);
+        System.out.printf("%-16s %-14s %14s %14s %12s%n", "States sent as", "Codec",
+                                  "State bytes", "Total bytes", "States");
+        int port = 37880;
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+        for (int test = 0; test < 4; test++) {
+            boolean sendChanges = test >= 2;
+            MessageCodec codec = (test % 2 == 0) ? new SerializationCodec() : new BinaryCodec();
+            System.setOut(discard);  // Hide the hub's messages about connections.
+            Run run = run(port++, sendChanges, codec, hands);
+            System.setOut(console);
+            System.out.printf("%-16s %-14s %14.1f %14.1f %12.1f%n",
+                    sendChanges ? "changes" : "complete states", codec.getClass().getSimpleName(),
+                    (double)run.stateBytes / run.hands, (double)run.totalBytes / run.hands,
+                    (double)run.stateMessages / run.hands);
+        }
+        System.out.println("\n(Per hand.)");
+        System.exit(0);
+    }
+
+    /**
+     * Plays the specified number of hands between two robots, and returns the counts.
+     */
+    private static Run run(int port, boolean sendChanges, MessageCodec codec, int hands) throws Exception {
+        PokerHub hub = new PokerHub(port, sendChanges);
+        hub.setMessageCodec(codec);
+        Run run = new Run(codec, hands);
+        currentRun = run;
+        Robot player1 = new Robot("localhost", port);
+        Robot player2 = new Robot("localhost", port);
+        synchronized(run) {
+            run.started = true;  // The robots can now send messages.
+            run.notifyAll();
+            while ( ! run.finished )
+                run.wait();
+        }
+        player1.disconnect();
+        player2.disconnect();
+        hub.shutDownHub();
+        return run;
+    }
+
+    /**
+     * The counts for one test.  The robots synchronize on this object.
+     */
+    private static class Run {
+        final MessageCodec codec;  // The codec used by the hub, for computing message sizes.
+        final int hands;           // The number of hands to play.
+        boolean started;           // Set to true when both robots have been created.
+        boolean finished;          // Set to true when the last hand is over.
+        int handsDealt;
+        long stateBytes, totalBytes, stateMessages;
+        Run(MessageCodec codec, int hands) {
+            this.codec = codec;
+            this.hands = hands;
+        }
+    }
+
+    /**
+     * A client that plays poker without a user.  Note that messages can arrive before
+     * the constructor has finished, so none of the variables have initializers.
+     */
+    private static class Robot extends Client {
+
+        private StateReceiver<PokerGameState> stateReceiver;  // Created when the first message arrives.
+
+        Robot(String host, int port) throws IOException {
+            super(host, port);
+            setMessageCodec(new BinaryCodec());
+        }
+
+        protected void messageReceived(Object message) {
+            Run run = currentRun;
+            int size;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                run.codec.writeMessage(message, new DataOutputStream(bytes));
+                size = bytes.size() + 4;
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            PokerGameState state = null;
+            if (message instanceof StateUpdate) {
+                if (stateReceiver == null)
+                    stateReceiver = new StateReceiver<PokerGameState>();
+                state = stateReceiver.receive((StateUpdate)message, this);
+            }
+            else if (message instanceof PokerGameState)
+                state = (PokerGameState)message;
+            synchronized(run) {
+                run.totalBytes += size;
+                if (state != null || message instanceof StateUpdate) {
+                    run.stateBytes += size;
+                    run.stateMessages++;
+                }
+                while ( ! run.started ) {
+                    try {
+                        run.wait();
+                    }
+                    catch (InterruptedException e) {
+                    }
+                }
+                if (state != null && state.status == PokerGameState.DEAL) {
+                    if (run.handsDealt == run.hands) {
+                        run.finished = true;
+                        run.notifyAll();
+                        return;
+                    }
+                    run.handsDealt++;
+                }
+            }
+            if (state != null)
+                play(state);
+        }
+
+        /**
+         * Sends the message, if any, that is called for by the status in a new state.
+         */
+        private void play(PokerGameState state) {
+            switch (state.status) {
+            case PokerGameState.DEAL:
+                send("deal");
+                break;
+            case PokerGameState.BET_OR_FOLD:
+                send(10);
+                break;
+            case PokerGameState.RAISE_SEE_OR_FOLD_ROUND_1:
+            case PokerGameState.RAISE_CALL_OR_FOLD_ROUND_2:
+                send(state.amountToSee);
+                break;
+            case PokerGameState.DRAW:
+                send(new int[] { 0, 1 });
+                break;
+            }
+        }
+
+    }
+
+}
@@ -37,6 +37,10 @@ import java.net.URL;
  */
 public class PokerWindow extends JFrame {
     
+    static {
+        PokerGameState.registerBinaryFormats();  // Must be done before messages are received.
+    }
+    
     
     /**
      * The constructor sets up the window and makes it visible on the screen.  
@@ -117,13 +121,16 @@ public class PokerWindow extends JFrame {
          */
         public PokerClient(String hubHostName, int hubPort) throws IOException {
             super(hubHostName, hubPort);
+            setMessageCodec(new BinaryCodec());
         }
 
         /**
          * This method is called when a message from the hub is received 
          * by this client.  If the message is of type PokerGameState,
          * then the newState() method in the PokerWindow class is called
-         * to handle the change in the state of the game.  If the message
+         * to handle the change in the state of the game.  The same is
+         * done for a StateUpdate, after the stateReceiver has used it
+         * to compute the new state.  If the message
          * is of type String, it represents a message that is to be
          * displayed to the user; the string is displayed in the JLabel
          * messageFromServer.  If the message is of type PokerCard[],
@@ -134,7 +141,14 @@ public class PokerWindow extends JFrame {
          * issues, this method uses SwingUtilties.invokeLater() to carry 
          * out its task in the GUI event thread.
          */
-        protected void messageReceived(final Object message) {
+        protected void messageReceived(Object received) {
+            if (received instanceof StateUpdate) {
+                    // The update must be applied here, in the order in which updates arrive.
+                received = stateReceiver.receive((StateUpdate)received, this);
+                if (received == null)
+                    return;  // The update could not be applied; a complete state has been requested.
+            }
+            final Object message = received;
             SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
                     if (message instanceof PokerGameState)
@@ -411,6 +425,11 @@ public class PokerWindow extends JFrame {
                                       //   received as a message from the hub whenever the state changes.  This
                                       //   variable changes only in the newState() method.
     
+    private final StateReceiver<PokerGameState> stateReceiver = new StateReceiver<PokerGameState>();
+                                      // Computes the new state from each StateUpdate that is received.
+                                      //   (This is not in the PokerClient, because messages can arrive
+                                      //   before the PokerClient's own variables have been initialized.)
+    
     private boolean[] discard;        // When the player is discarding cards, this array tells which cards the
                                       //   player wants to discard.  discard[i] is true if player is discarding 
                                       //   the i-th card in the hand.
@@ -2,7 +2,9 @@ package netgame.tictactoe;
 
 import java.io.IOException;
 
+import netgame.common.BinaryCodec;
 import netgame.common.Hub;
+import netgame.common.StateSender;
 
 /**
  * A "Hub" for the network TicTacToe game.  There is only one Hub
@@ -10,18 +12,28 @@ import netgame.common.Hub;
  * Official information about the state of the game is maintained
  * on the Hub.  When the state changes, the Hub sends the new 
  * state to both players, ensuring that both players see the
- * same state.
+ * same state.  Messages are sent using a BinaryCodec.  The state is
+ * sent by a StateSender, so after the first complete state, each player
+ * gets only the changes from the previous version.
  */
 public class TicTacToeGameHub extends Hub {
     
+    static {
+        TicTacToeGameState.registerBinaryFormat();
+    }
+    
     private TicTacToeGameState state;  // Records the state of the game.
+    
+    private StateSender<TicTacToeGameState> stateSender;  // Sends the state to the players.
 
     /**
      * Create a hub, listening on the specified port.  Note that this
      * method calls setAutoreset(true), which will cause the output stream
      * to each client to be reset before sending each message.  This is
      * essential since the same state object will be transmitted over and
-     * over, with changes between each transmission.
+     * over, with changes between each transmission.  At most 100 messages
+     * can wait to be sent to a player; if that limit is reached, an older
+     * game state is discarded in favor of the newer one.
      * @param port the port number on which the hub will listen.
      * @throws IOException if a listener cannot be opened on the specified port.
      */
@@ -29,16 +41,25 @@ public class TicTacToeGameHub extends Hub {
         super(port);
         state = new TicTacToeGameState();
         setAutoreset(true);
+        setMessageCodec(new BinaryCodec());
+        setOutgoingQueueLimit(100);
+        setOverflowPolicy(OverflowPolicy.COALESCE);
+        addSnapshotType(TicTacToeGameState.class);
+        stateSender = new StateSender<TicTacToeGameState>(this);
     }
 
     /**
      * Responds when a message is received from a client.  In this case,
      * the message is applied to the game state, by calling state.applyMessage().
      * Then the possibly changed state is transmitted to all connected players.
+     * (A request from a player for a complete copy of the state is handled
+     * by the StateSender.)
      */
     protected void messageReceived(int playerID, Object message) {
+        if (stateSender.handleMessage(playerID, message))
+            return;
         state.applyMessage(playerID, message);
-        sendToAll(state);
+        stateSender.sendToAll(state);
     }
 
     /**
@@ -52,7 +73,7 @@ public class TicTacToeGameHub extends Hub {
         if (getPlayerList().length == 2) {
             shutdownServerSocket();
             state.startFirstGame();
-            sendToAll(state);
+            stateSender.sendToAll(state);
         }
     }
 
@@ -64,7 +85,8 @@ public class TicTacToeGameHub extends Hub {
      * there is one, to notify that player that the game is over.
      */
     protected void playerDisconnected(int playerID) {
+        stateSender.forget(playerID);
         state.playerDisconnected = true;
-        sendToAll(state);
+        stateSender.sendToAll(state);
     }
 }
@@ -1,7 +1,12 @@
 package netgame.tictactoe;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 
+import netgame.common.BinaryCodec;
+import netgame.common.DeltaState;
 
 
 /**
@@ -18,8 +23,13 @@ import java.io.Serializable;
  * simple, each time a game is started, this class decides at random 
  * which of the two players will play 'X' and which will play 'O'.  
  * X always makes the first move.
+ * <p>This class also defines a compact binary format for TicTacToeGameState
+ * messages, for use with BinaryCodec.  See registerBinaryFormat().  And it is
+ * a DeltaState, so that the hub can send only the changes in the state,
+ * which after a move are usually just one square of the board and the
+ * current player.
  */
-public class TicTacToeGameState implements Serializable {
+public class TicTacToeGameState implements Serializable, DeltaState<TicTacToeGameState> {
     
     //-------------- state variables recording the state of the game -------------------
     
@@ -96,6 +106,263 @@ public class TicTacToeGameState implements Serializable {
     }
     
     
+    /**
+     * Returns a copy of this state, with its own copy of the board.
+     */
+    public TicTacToeGameState copy() {
+        TicTacToeGameState state = new TicTacToeGameState();
+        state.playerDisconnected = playerDisconnected;
+        if (board != null) {
+            state.board = new char[3][];
+            for (int i = 0; i < 3; i++)
+                state.board[i] = board[i].clone();
+        }
+        state.gameInProgress = gameInProgress;
+        state.playerPlayingX = playerPlayingX;
+        state.playerPlayingO = playerPlayingO;
+        state.currentPlayer = currentPlayer;
+        state.gameEndedInTie = gameEndedInTie;
+        state.winner = winner;
+        return state;
+    }
+    
+    /**
+     * Returns the changes from a previous state, or null if nothing has changed.
+     * If both states have a board, only the squares that are different are included.
+     */
+    public Object changesFrom(TicTacToeGameState previous) {
+        Changes changes = new Changes();
+        int flags = flags();
+        if (flags != previous.flags()) {
+            changes.fields |= Changes.FLAGS;
+            changes.flags = flags;
+        }
+        if (board == null || previous.board == null) {
+            if (board != previous.board) {
+                changes.fields |= Changes.BOARD;
+                changes.squares = board == null ? null : new char[9];
+            }
+        }
+        else {
+            int count = 0;
+            for (int i = 0; i < 9; i++) {
+                if (board[i/3][i%3] != previous.board[i/3][i%3]) {
+                    changes.squareMask |= 1 << i;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                changes.fields |= Changes.SQUARES;
+                changes.squares = new char[count];
+            }
+        }
+        if (changes.squares != null) {  // Fill in the squares that are included.
+            int j = 0;
+            for (int i = 0; i < 9; i++) {
+                if ((changes.fields & Changes.BOARD) != 0 || (changes.squareMask & (1 << i)) != 0)
+                    changes.squares[j++] = board[i/3][i%3];
+            }
+        }
+        if (playerPlayingX != previous.playerPlayingX) {
+            changes.fields |= Changes.PLAYER_X;
+            changes.playerPlayingX = playerPlayingX;
+        }
+        if (playerPlayingO != previous.playerPlayingO) {
+            changes.fields |= Changes.PLAYER_O;
+            changes.playerPlayingO = playerPlayingO;
+        }
+        if (currentPlayer != previous.currentPlayer) {
+            changes.fields |= Changes.CURRENT_PLAYER;
+            changes.currentPlayer = currentPlayer;
+        }
+        if (winner != previous.winner) {
+            changes.fields |= Changes.WINNER;
+            changes.winner = winner;
+        }
+        return changes.fields == 0 ? null : changes;
+    }
+    
+    /**
+     * Returns a new state made by applying changes from changesFrom() to this state.
+     */
+    public TicTacToeGameState withChanges(Object changeObject) {
+        Changes changes = (Changes)changeObject;
+        TicTacToeGameState state = copy();
+        int f = changes.fields;
+        if ((f & Changes.FLAGS) != 0)
+            state.setFlags(changes.flags);
+        if ((f & Changes.BOARD) != 0) {
+            if (changes.squares == null)
+                state.board = null;
+            else {
+                state.board = new char[3][3];
+                for (int i = 0; i < 9; i++)
+                    state.board[i/3][i%3] = changes.squares[i];
+            }
+        }
+        if ((f & Changes.SQUARES) != 0) {
+            int j = 0;
+            for (int i = 0; i < 9; i++) {
+                if ((changes.squareMask & (1 << i)) != 0)
+                    state.board[i/3][i%3] = changes.squares[j++];
+            }
+        }
+        if ((f & Changes.PLAYER_X) != 0)
+            state.playerPlayingX = changes.playerPlayingX;
+        if ((f & Changes.PLAYER_O) != 0)
+            state.playerPlayingO = changes.playerPlayingO;
+        if ((f & Changes.CURRENT_PLAYER) != 0)
+            state.currentPlayer = changes.currentPlayer;
+        if ((f & Changes.WINNER) != 0)
+            state.winner = changes.winner;
+        return state;
+    }
+    
+    
+    /**
+     * Registers the binary formats for TicTacToeGameState, and for the changes
+     * between two states, with BinaryCodec.  This must be called in both the hub
+     * and the clients before any messages are received.  (It is called in static
+     * initializers in the TicTacToeGameHub and TicTacToeWindow classes.)  Calling
+     * it more than once has no effect.
+     */
+    public static void registerBinaryFormat() {
+        BinaryCodec.register(66, TicTacToeGameState.class, BINARY_FORMAT);
+        BinaryCodec.register(68, Changes.class, CHANGES_FORMAT);
+    }
+    
+    /**
+     * Returns the three boolean variables packed into the low three bits of an int.
+     */
+    private int flags() {
+        return (playerDisconnected ? 1 : 0) | (gameInProgress ? 2 : 0) | (gameEndedInTie ? 4 : 0);
+    }
+    
+    /**
+     * Sets the three boolean variables from the bits of a value returned by flags().
+     */
+    private void setFlags(int flags) {
+        playerDisconnected = (flags & 1) != 0;
+        gameInProgress = (flags & 2) != 0;
+        gameEndedInTie = (flags & 4) != 0;
+    }
+    
+    /**
+     * The changes between two states, as returned by changesFrom().  Only
+     * the variables that are named by the bits in fields are meaningful.
+     */
+    private static class Changes implements Serializable {
+        final static int FLAGS = 1;      // The boolean variables, as returned by flags().
+        final static int BOARD = 2;      // squares holds the whole board, row by row, or is null if the board is null.
+        final static int SQUARES = 4;    // squares holds the squares that changed, in order; see squareMask.
+        final static int PLAYER_X = 8;
+        final static int PLAYER_O = 16;
+        final static int CURRENT_PLAYER = 32;
+        final static int WINNER = 64;
+        int fields;          // The OR of the above constants for the variables that changed.
+        int flags;
+        char[] squares;
+        int squareMask;      // For SQUARES, bit i is set if square i (numbered row by row) changed.
+        int playerPlayingX, playerPlayingO, currentPlayer, winner;
+    }
+    
+    /**
+     * The binary format for a TicTacToeGameState.  The three boolean variables
+     * are packed into one byte.  The board, if it is non-null, is written as
+     * nine chars, row by row.
+     */
+    private final static BinaryCodec.Encoder<TicTacToeGameState> BINARY_FORMAT = 
+                                       new BinaryCodec.Encoder<TicTacToeGameState>() {
+        public void write(TicTacToeGameState state, DataOutputStream out) throws IOException {
+            out.writeByte(state.flags() | (state.board != null ? 8 : 0));
+            if (state.board != null) {
+                for (int i = 0; i < 3; i++)
+                    for (int j = 0; j < 3; j++)
+                        out.writeByte(state.board[i][j]);
+            }
+            out.writeInt(state.playerPlayingX);
+            out.writeInt(state.playerPlayingO);
+            out.writeInt(state.currentPlayer);
+            out.writeInt(state.winner);
+        }
+        public TicTacToeGameState read(DataInputStream in) throws IOException {
+            TicTacToeGameState state = new TicTacToeGameState();
+            int flags = in.readByte();
+            state.setFlags(flags);
+            if ((flags & 8) != 0) {
+                state.board = new char[3][3];
+                for (int i = 0; i < 3; i++)
+                    for (int j = 0; j < 3; j++)
+                        state.board[i][j] = (char)in.readByte();
+            }
+            state.playerPlayingX = in.readInt();
+            state.playerPlayingO = in.readInt();
+            state.currentPlayer = in.readInt();
+            state.winner = in.readInt();
+            return state;
+        }
+    };
+    
+    /**
+     * The binary format for the changes between two states:  a byte containing the
+     * bits that say which variables changed, followed by the values of those variables.
+     * For the whole board, there is a byte saying whether the board is non-null,
+     * followed by nine chars if it is.  For changed squares, there is a short that
+     * holds the square mask, followed by the new contents of those squares.  Each
+     * char is written as one byte.
+     */
+    private final static BinaryCodec.Encoder<Changes> CHANGES_FORMAT = new BinaryCodec.Encoder<Changes>() {
+        public void write(Changes changes, DataOutputStream out) throws IOException {
+            int f = changes.fields;
+            out.writeByte(f);
+            if ((f & Changes.FLAGS) != 0)
+                out.writeByte(changes.flags);
+            if ((f & Changes.BOARD) != 0)
+                out.writeBoolean(changes.squares != null);
+            if ((f & Changes.SQUARES) != 0)
+                out.writeShort(changes.squareMask);
+            if (changes.squares != null) {
+                for (char c : changes.squares)
+                    out.writeByte(c);
+            }
+            if ((f & Changes.PLAYER_X) != 0)
+                out.writeInt(changes.playerPlayingX);
+            if ((f & Changes.PLAYER_O) != 0)
+                out.writeInt(changes.playerPlayingO);
+            if ((f & Changes.CURRENT_PLAYER) != 0)
+                out.writeInt(changes.currentPlayer);
+            if ((f & Changes.WINNER) != 0)
+                out.writeInt(changes.winner);
+        }
+        public Changes read(DataInputStream in) throws IOException {
+            Changes changes = new Changes();
+            int f = in.readByte();
+            changes.fields = f;
+            if ((f & Changes.FLAGS) != 0)
+                changes.flags = in.readByte();
+            if ((f & Changes.BOARD) != 0 && in.readBoolean())
+                changes.squares = new char[9];
+            if ((f & Changes.SQUARES) != 0) {
+                changes.squareMask = in.readShort() & 0x1FF;
+                changes.squares = new char[Integer.bitCount(changes.squareMask)];
+            }
+            if (changes.squares != null) {
+                for (int i = 0; i < changes.squares.length; i++)
+                    changes.squares[i] = (char)in.readByte();
+            }
+            if ((f & Changes.PLAYER_X) != 0)
+                changes.playerPlayingX = in.readInt();
+            if ((f & Changes.PLAYER_O) != 0)
+                changes.playerPlayingO = in.readInt();
+            if ((f & Changes.CURRENT_PLAYER) != 0)
+                changes.currentPlayer = in.readInt();
+            if ((f & Changes.WINNER) != 0)
+                changes.winner = in.readInt();
+            return changes;
+        }
+    };
+    
+    
     //------------------- Some private utility methods used by the apply() method ---------------
     
     /**
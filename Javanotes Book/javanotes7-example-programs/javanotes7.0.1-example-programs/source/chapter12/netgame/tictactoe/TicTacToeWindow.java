@@ -15,6 +15,10 @@ import netgame.common.*;
  */
 public class TicTacToeWindow extends JFrame {
     
+    static {
+        TicTacToeGameState.registerBinaryFormat();  // Must be done before messages are received.
+    }
+    
     /**
      * The state of the game.  This state is a copy of the official
      * state, which is stored on the server.  When the state changes,
@@ -28,6 +32,13 @@ public class TicTacToeWindow extends JFrame {
      */
     private TicTacToeGameState state;
     
+    /**
+     * Computes the new state from each StateUpdate that is received from the hub.
+     * (This is not in the TicTacToeClient, because messages can arrive before the
+     * TicTacToeClient's own variables have been initialized.)
+     */
+    private final StateReceiver<TicTacToeGameState> stateReceiver = new StateReceiver<TicTacToeGameState>();
+    
     
     private Board board;     // A panel that displays the board.  The user
                              // makes moves by clicking on this panel.
@@ -49,16 +60,21 @@ public class TicTacToeWindow extends JFrame {
          */
         public TicTacToeClient(String hubHostName,int hubPort) throws IOException {
             super(hubHostName, hubPort);
+            setMessageCodec(new BinaryCodec());
         }
 
         /**
          * Responds to a message received from the Hub.  The only messages that
-         * are supported are TicTacToeGameState objects.  When one is received,
-         * the newState() method in the TicTacToeWindow class is called.  To avoid
-         * problems with synchronization, that method is called using
+         * are supported are TicTacToeGameState objects, and StateUpdates, from
+         * which the stateReceiver computes TicTacToeGameStates.  When a state is
+         * received, the newState() method in the TicTacToeWindow class is called.
+         * To avoid problems with synchronization, that method is called using
          * SwingUtilities.invokeLater() so that it will run in the GUI event thread.
          */
-        protected void messageReceived(final Object message) {
+        protected void messageReceived(Object received) {
+            if (received instanceof StateUpdate)
+                received = stateReceiver.receive((StateUpdate)received, this);
+            final Object message = received;
             if (message instanceof TicTacToeGameState) {
                 SwingUtilities.invokeLater(new Runnable(){
                     public void run() {  // calls a method at the end of the TicTacToeWindow class
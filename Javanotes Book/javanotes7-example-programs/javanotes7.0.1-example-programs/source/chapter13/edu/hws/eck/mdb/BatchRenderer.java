@@ -0,0 +1,584 @@
+package edu.hws.eck.mdb;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.*;
+
+/**
+ * A command-line program that renders a Mandelbrot image from a settings file of
+ * the kind that is saved by the Save Params command of the Mandelbrot Viewer (see
+ * Menus.currentSettingsAsXML()), at any size, without a display.  It is meant for
+ * very large images, such as posters, that can take hours to compute and that are
+ * much too big to fit in memory.  The image is computed in horizontal strips.
+ * Each strip is computed by a TileRenderer, using all the available processors,
+ * and is colored by an ImageColorer.  Then it is written to the output file by
+ * a separate thread, while the next strip is being computed, so that only two
+ * strips are ever in memory.  The output can be:
+ * <ul>
+ * <li><b>png</b> -- a single PNG image file.  The file is written a row at
+ *     a time, since the standard ImageIO classes need the whole image in memory.
+ * <li><b>raw</b> -- a binary PPM file ("P6" format), which is just a short text
+ *     header followed by the red, green, and blue bytes of each pixel.  This is
+ *     faster to write than PNG, and many programs can read it.
+ * <li><b>tiles</b> -- a directory containing the image cut into square PNG
+ *     files, named tile_ROW_COLUMN.png, where ROW and COLUMN count tiles.
+ * </ul>
+ * <p>The region of the plane that is shown is computed from the settings in the
+ * same way as in MandelbrotDisplay, so the image shows the same picture as the
+ * program did when the settings were saved, but with more pixels.  A deep zoom
+ * (saved with a "view" element) is computed by perturbation, as in the program.
+ * <p>Usage:  java -Djava.awt.headless=true edu.hws.eck.mdb.BatchRenderer [options] settingsFile outputFile
+ * <br>The options are:
+ * <ul>
+ * <li>-size WIDTHxHEIGHT -- the size of the image.  The default is the image size from
+ *     the settings file.
+ * <li>-format png|raw|tiles -- the type of output.  The default is tiles if the output
+ *     file is a directory, raw if its name ends with ".ppm" or ".raw", and png otherwise.
+ * <li>-tile N -- the size of the tiles, for the tiles format.  The default is 1024.
+ * <li>-threads N -- the number of threads used for computing.  The default is the
+ *     number of available processors.
+ * </ul>
+ */
+public class BatchRenderer {
+
+    /**
+     * The approximate number of pixels in a strip, for the png and raw formats.  A strip
+     * takes about 12 bytes per pixel:  4 for the counts, and 8 for two buffers of colors.
+     */
+    private final static int STRIP_PIXELS = 1 << 21;
+
+    private final static int DEFAULT_TILE_SIZE = 1024;
+
+    public static void main(String[] args) {
+        String format = null;
+        int width = -1, height = -1;
+        int tileSize = DEFAULT_TILE_SIZE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String settingsFileName = null, outputFileName = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-size") && i < args.length - 1) {
+                    String[] size = explode(args[++i], "x,");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                }
+                else if (args[i].equals("-format") && i < args.length - 1)
+                    format = args[++i].toLowerCase();
+                else if (args[i].equals("-tile") && i < args.length - 1)
+                    tileSize = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-threads") && i < args.length - 1)
+                    threads = Integer.parseInt(args[++i]);
+                else if (settingsFileName == null)
+                    settingsFileName = args[i];
+                else if (outputFileName == null)
+                    outputFileName = args[i];
+                else
+                    throw new IllegalArgumentException();
+            }
+            if (outputFileName == null || tileSize < 16 || threads < 1)
+                throw new IllegalArgumentException();
+        }
+        catch (Exception e) {
+            System.out.println("Usage:  java -Djava.awt.headless=true edu.hws.eck.mdb.BatchRenderer [options] settingsFile outputFile");
+            System.out.println("Options:  -size WIDTHxHEIGHT, -format png|raw|tiles, -tile N, -threads N");
+            System.exit(1);
+        }
+        File outputFile = new File(outputFileName);
+        if (format == null) {
+            String name = outputFileName.toLowerCase();
+            if (outputFile.isDirectory())
+                format = "tiles";
+            else if (name.endsWith(".ppm") || name.endsWith(".raw"))
+                format = "raw";
+            else
+                format = "png";
+        }
+        try {
+            BatchRenderer renderer = new BatchRenderer(new File(settingsFileName));
+            if (width > 0)
+                renderer.setImageSize(width, height);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            StripWriter writer;
+            int stripHeight;
+            if (format.equals("tiles")) {
+                writer = new TileWriter(outputFile, renderer.width, tileSize);
+                stripHeight = tileSize;
+            }
+            else {
+                if (format.equals("raw"))
+                    writer = new RawWriter(outputFile, renderer.width, renderer.height);
+                else if (format.equals("png"))
+                    writer = new PngWriter(outputFile, renderer.width, renderer.height);
+                else
+                    throw new IllegalArgumentException("Unknown format: " + format);
+                stripHeight = Math.max(16, Math.min(1024, STRIP_PIXELS / renderer.width));
+            }
+            System.out.printf("%d-by-%d image; maxIterations = %d; %d threads; %s output to %s.%n",
+                                  renderer.width, renderer.height, renderer.maxIterations,
+                                  threads, format, outputFile.getPath());
+            if (renderer.centerX != null)
+                System.out.println("Deep zoom, computed by perturbation.");
+            renderer.render(pool, stripHeight, writer);
+            pool.shutdown();
+        }
+        catch (Exception e) {
+            System.out.println("Error:  " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+            System.exit(1);
+        }
+    }
+
+
+    //------------------------------- The settings -----------------------------------
+
+    private double xmin = -2.5, xmax = 1.1;      // The limits, from the "limits" element;
+    private double ymin = -1.35, ymax = 1.35;    //    the defaults are the same as in MandelbrotDisplay.
+    private BigDecimal viewX, viewY;             // The center and pixel size from the "view" element,
+    private double viewPixelSize;                //    if there is one (only for deep zooms).
+    private int savedWidth = 800;                // The size of the image when the settings were saved,
+    private int savedHeight = 600;               //    from the "imagesize" element.
+    private int maxIterations = 50;
+    private int paletteType = MandelbrotDisplay.PALETTE_SPECTRUM;
+    private Color gradientColor1, gradientColor2;  // Only for PALETTE_GRADIENT.
+    private int paletteLength = 0;
+
+    private int width, height;          // The size of the image that is rendered.
+    private long firstColumn, firstRow; // The position of the image in the grid used by TileRenderer.
+    private double pixelSize;           // The width and height of a pixel.
+    private BigDecimal centerX, centerY;  // For a deep zoom, the origin of the grid; null otherwise.
+
+
+    /**
+     * Reads the settings from a file, which must be in the format produced by
+     * Menus.currentSettingsAsXML().  The image size is set to the size from the file.
+     * @throws IllegalArgumentException if the file does not contain legal settings.
+     * @throws Exception if the file can't be read or is not an XML document.
+     */
+    public BatchRenderer(File settingsFile) throws Exception {
+        Document xmlDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(settingsFile);
+        Element docElement = xmlDoc.getDocumentElement();
+        String docName = docElement.getTagName();
+        if (! docName.equalsIgnoreCase("mandelbrot_settings"))
+            throw new IllegalArgumentException(message("xml.error.wrongType",docName));
+        String version = docElement.getAttribute("version");
+        if ( ! version.equalsIgnoreCase("edu.hws.eck.mdb/1.0"))
+            throw new IllegalArgumentException(message("xml.error.wrongSettingsVersion"));
+        NodeList nodes = docElement.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node instanceof Element) {
+                String name = ((Element)node).getTagName();
+                String value = ((Element)node).getAttribute("value");
+                try {
+                    if (name.equalsIgnoreCase("palettetype"))
+                        setPaletteFromString(value);
+                    else if (name.equalsIgnoreCase("palettelength")) {
+                        paletteLength = Integer.parseInt(value);
+                        if (paletteLength < 0 || paletteLength > 500000)
+                            throw new IllegalArgumentException();
+                    }
+                    else if (name.equalsIgnoreCase("maxiterations")) {
+                        maxIterations = Integer.parseInt(value);
+                        if (maxIterations < 1)
+                            throw new IllegalArgumentException();
+                    }
+                    else if (name.equalsIgnoreCase("limits")) {
+                        String[] limitStrings = explode(value,",");
+                        xmin = Double.parseDouble(limitStrings[0]);
+                        xmax = Double.parseDouble(limitStrings[1]);
+                        ymin = Double.parseDouble(limitStrings[2]);
+                        ymax = Double.parseDouble(limitStrings[3]);
+                    }
+                    else if (name.equalsIgnoreCase("view")) {
+                        String[] viewStrings = explode(value,",");
+                        viewX = new BigDecimal(viewStrings[0]);
+                        viewY = new BigDecimal(viewStrings[1]);
+                        viewPixelSize = Double.parseDouble(viewStrings[2]);
+                    }
+                    else if (name.equalsIgnoreCase("imagesize")) {
+                        String[] sizeStrings = explode(value,",");
+                        savedWidth = Integer.parseInt(sizeStrings[0]);
+                        savedHeight = Integer.parseInt(sizeStrings[1]);
+                    }
+                }
+                catch (Exception e) {
+                    throw new IllegalArgumentException(message("xml.error.illegalSettingsValue",name,value));
+                }
+            }
+        }
+        setImageSize(savedWidth, savedHeight);
+    }
+
+
+    /**
+     * Sets the size of the image that will be rendered.  The image shows the same
+     * region of the plane as the program showed when the settings were saved,
+     * possibly with some extra space on the sides or at the top and bottom if
+     * the shape of the image is different.
+     */
+    public void setImageSize(int width, int height) {
+        if (width < 2 || height < 2)
+            throw new IllegalArgumentException("The image must be at least 2 pixels wide and high.");
+        this.width = width;
+        this.height = height;
+        fitView();
+    }
+
+
+    /**
+     * Computes the image and sends it to a StripWriter, one strip at a time.  Each
+     * strip is written by a separate thread while the next one is computed.
+     */
+    private void render(ForkJoinPool pool, int stripHeight, final StripWriter writer) throws Exception {
+        int[] palette = MandelbrotDisplay.makePalette(paletteType, gradientColor1, gradientColor2,
+                                               paletteLength == 0 ? maxIterations + 1 : paletteLength);
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        Future<?> write = null;
+        int[][] pixels = new int[2][];  // Two buffers; one is written while the other is filled.
+        long startTime = System.nanoTime();
+        try {
+            for (int y = 0, strip = 0; y < height; y += stripHeight, strip++) {
+                final int rows = Math.min(stripHeight, height - y);
+                int[][] counts = new int[rows][width];
+                TileRenderer renderer = new TileRenderer(firstColumn, firstRow + y, pixelSize, pixelSize,
+                                                               maxIterations, counts, null);
+                if (centerX != null)
+                    renderer.usePerturbation(centerX, centerY);
+                renderer.render(pool);
+                if (pixels[strip % 2] == null || pixels[strip % 2].length != rows*width)
+                    pixels[strip % 2] = new int[rows*width];
+                final int[] stripPixels = pixels[strip % 2];
+                ImageColorer.colorImage(pool, counts, palette, 1, stripPixels);
+                if (write != null)
+                    write.get();  // Wait for the previous strip to be written.
+                write = writerThread.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws IOException {
+                        writer.writeStrip(stripPixels, rows);
+                        return null;
+                    }
+                });
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                System.out.printf("Computed rows %d to %d of %d; %.1f seconds.%n",
+                                      y, y + rows - 1, height, seconds);
+            }
+            if (write != null)
+                write.get();
+            writer.close();
+        }
+        finally {
+            writerThread.shutdown();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("Finished in %.1f seconds (%.2f megapixels per second).%n",
+                              seconds, (double)width * height / seconds / 1e6);
+    }
+
+
+    /**
+     * Computes the position of the image in the grid that TileRenderer uses, in the
+     * same way as MandelbrotDisplay.checkAspect().  If the pixel size is less than
+     * MandelbrotDisplay.DEEP_ZOOM_PIXEL_SIZE, the image is a deep zoom, with the origin
+     * of the grid at the center of the image.
+     */
+    private void fitView() {
+        double left, right, bottom, top;
+        if (viewX != null) {
+            double size = Math.max(viewPixelSize * (savedWidth - 1) / (width - 1),
+                                   viewPixelSize * (savedHeight - 1) / (height - 1));
+            if (size < MandelbrotDisplay.DEEP_ZOOM_PIXEL_SIZE) {
+                setDeepView(viewX, viewY, size);
+                return;
+            }
+            left = viewX.doubleValue() - (width/2)*size;
+            right = left + (width - 1)*size;
+            top = viewY.doubleValue() + (height/2)*size;
+            bottom = top - (height - 1)*size;
+        }
+        else {  // Fit the limits to the shape of the image, as in MandelbrotDisplay.fitRequestedLimits().
+            left = Math.min(xmin, xmax);
+            right = Math.max(xmin, xmax);
+            bottom = Math.min(ymin, ymax);
+            top = Math.max(ymin, ymax);
+            double aspect = (right - left) / (top - bottom);
+            double imageAspect = (double)width / height;
+            if (aspect < imageAspect) {
+                double newWidth = (right - left) * imageAspect / aspect;
+                double center = (right + left) / 2;
+                right = center + newWidth/2;
+                left = center - newWidth/2;
+            }
+            else if (aspect > imageAspect) {
+                double newHeight = (top - bottom) * aspect / imageAspect;
+                double center = (top + bottom) / 2;
+                top = center + newHeight/2;
+                bottom = center - newHeight/2;
+            }
+        }
+        pixelSize = TileCache.roundPixelSize( (right - left) / (width - 1) );
+        if (pixelSize < MandelbrotDisplay.DEEP_ZOOM_PIXEL_SIZE) {
+            setDeepView(new BigDecimal((left + right)/2), new BigDecimal((top + bottom)/2),
+                                                    (right - left) / (width - 1));
+            return;
+        }
+        centerX = centerY = null;
+        firstColumn = Math.round(left / pixelSize);
+        firstRow = Math.round(-top / pixelSize);
+    }
+
+
+    /**
+     * Used by fitView() for a deep zoom, with the given center and pixel size.
+     */
+    private void setDeepView(BigDecimal centerX, BigDecimal centerY, double size) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        pixelSize = size;
+        firstColumn = -(width/2);
+        firstRow = -(height/2);
+    }
+
+
+    /**
+     * Sets the palette from a value that was saved by the Save Params command.  The
+     * names are the ones used by the PaletteManager in Menus.
+     */
+    private void setPaletteFromString(String str) {
+        String[] names = { "Spectrum", "PaleSpectrum", "Grayscale", "ReverseGrayscale" };
+        int[] types = { MandelbrotDisplay.PALETTE_SPECTRUM, MandelbrotDisplay.PALETTE_PALE_SPECTRUM,
+                        MandelbrotDisplay.PALETTE_GRAYSCALE, MandelbrotDisplay.PALETTE_REVERSE_GRAYSCALE };
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(str)) {
+                paletteType = types[i];
+                return;
+            }
+        }
+        paletteType = MandelbrotDisplay.PALETTE_GRADIENT;
+        if (str.equalsIgnoreCase("BlackToRed")) {
+            gradientColor1 = Color.BLACK;
+            gradientColor2 = Color.RED;
+        }
+        else if (str.equalsIgnoreCase("RedToCyan")) {
+            gradientColor1 = Color.RED;
+            gradientColor2 = Color.CYAN;
+        }
+        else if (str.equalsIgnoreCase("OrangeToBlue")) {
+            gradientColor1 = new Color(255,130,20);
+            gradientColor2 = new Color(0,0,255);
+        }
+        else {
+            String[] tokens = explode(str,"/,");
+            if ( ! tokens[0].equalsIgnoreCase("custom"))
+                throw new IllegalArgumentException();
+            gradientColor1 = new Color( Integer.parseInt(tokens[1]),
+                    Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]) );
+            gradientColor2 = new Color( Integer.parseInt(tokens[4]),
+                    Integer.parseInt(tokens[5]), Integer.parseInt(tokens[6]) );
+        }
+    }
+
+
+    /**
+     * Gets a message from I18n, as one line.  (The messages are written for dialog boxes.)
+     */
+    private static String message(String key, Object... args) {
+        return I18n.tr(key, args).replace('\n', ' ');
+    }
+
+
+    /**
+     * Breaks up a string into tokens, where the tokens are substrings separated by
+     * specified delimiters; the same as the method of the same name in Menus.
+     */
+    private static String[] explode(String str, String separators) {
+        StringTokenizer tokenizer = new StringTokenizer(str, separators);
+        int ct = tokenizer.countTokens();
+        String[] tokens = new String[ct];
+        for (int i = 0; i < ct; i++)
+            tokens[i] = tokenizer.nextToken();
+        return tokens;
+    }
+
+
+    //------------------------------- The output formats -----------------------------------
+
+    /**
+     * Writes an image that arrives in strips, from top to bottom.
+     */
+    private static abstract class StripWriter {
+        /**
+         * Writes the next strip.  The pixels are RGB color codes, with the pixel in row r
+         * and column c of the strip in element r*width + c of the array.
+         */
+        abstract void writeStrip(int[] pixels, int rows) throws IOException;
+        /**
+         * Finishes the output, after the last strip.
+         */
+        abstract void close() throws IOException;
+    }
+
+
+    /**
+     * Writes the image to a binary PPM file.
+     */
+    private static class RawWriter extends StripWriter {
+        OutputStream out;
+        byte[] row;
+        RawWriter(File file, int width, int height) throws IOException {
+            out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+            out.write(("P6\n" + width + " " + height + "\n255\n").getBytes("US-ASCII"));
+            row = new byte[3*width];
+        }
+        void writeStrip(int[] pixels, int rows) throws IOException {
+            int width = row.length / 3;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0, i = r*width; c < width; c++, i++) {
+                    int rgb = pixels[i];
+                    row[3*c] = (byte)(rgb >> 16);
+                    row[3*c+1] = (byte)(rgb >> 8);
+                    row[3*c+2] = (byte)rgb;
+                }
+                out.write(row);
+            }
+        }
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Writes the image to a PNG file, a row at a time.  The image is stored as 8-bit
+     * RGB, with no interlacing.  Each row uses the "Sub" filter, which stores each
+     * byte as the difference from the same color component of the pixel to its left;
+     * this makes the large areas of smoothly changing color in a Mandelbrot image
+     * compress much better.  The compressed data is divided into IDAT chunks of at
+     * most 64 KB.  (See the PNG specification for the format.)
+     */
+    private static class PngWriter extends StripWriter {
+        DataOutputStream file;
+        Deflater deflater;
+        DeflaterOutputStream out;
+        byte[] row;
+        PngWriter(File outputFile, int width, int height) throws IOException {
+            file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16));
+            file.write(new byte[] { (byte)137, 80, 78, 71, 13, 10, 26, 10 });  // PNG signature.
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(header);
+            data.writeInt(width);
+            data.writeInt(height);
+            data.write(new byte[] { 8, 2, 0, 0, 0 });  // 8 bits per sample, RGB, and the standard methods.
+            writeChunk("IHDR", header.toByteArray(), header.size());
+            OutputStream idat = new OutputStream() {  // Sends data to the file as IDAT chunks.
+                byte[] buffer = new byte[1 << 16];
+                int count;
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+                public void write(byte[] b, int offset, int length) throws IOException {
+                    while (length > 0) {
+                        int n = Math.min(length, buffer.length - count);
+                        System.arraycopy(b, offset, buffer, count, n);
+                        count += n;
+                        offset += n;
+                        length -= n;
+                        if (count == buffer.length)
+                            flush();
+                    }
+                }
+                public void flush() throws IOException {
+                    if (count > 0)
+                        writeChunk("IDAT", buffer, count);
+                    count = 0;
+                }
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+                // Fast compression is used, so that writing does not hold up the computation
+                // on machines with many processors; the difference in size is small.
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            out = new DeflaterOutputStream(idat, deflater, 1 << 16);
+            row = new byte[1 + 3*width];
+            row[0] = 1;  // The filter type for the row, Sub.
+        }
+        void writeStrip(int[] pixels, int rows) throws IOException {
+            int width = (row.length - 1) / 3;
+            for (int r = 0; r < rows; r++) {
+                int previous = 0;
+                for (int c = 0, i = r*width; c < width; c++, i++) {
+                    int rgb = pixels[i];
+                    row[3*c+1] = (byte)((rgb >> 16) - (previous >> 16));
+                    row[3*c+2] = (byte)((rgb >> 8) - (previous >> 8));
+                    row[3*c+3] = (byte)(rgb - previous);
+                    previous = rgb;
+                }
+                out.write(row);
+            }
+        }
+        void close() throws IOException {
+            out.finish();
+            out.close();  // Flushes the last IDAT chunk.
+            deflater.end();
+            writeChunk("IEND", new byte[0], 0);
+            file.close();
+        }
+        private void writeChunk(String type, byte[] data, int length) throws IOException {
+            byte[] typeBytes = type.getBytes("US-ASCII");
+            CRC32 crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(data, 0, length);
+            file.writeInt(length);
+            file.write(typeBytes);
+            file.write(data, 0, length);
+            file.writeInt((int)crc.getValue());
+        }
+    }
+
+
+    /**
+     * Writes the image as a directory of square PNG files.  The strips must be one
+     * tile high.  The tiles in the last row and column can be smaller.
+     */
+    private static class TileWriter extends StripWriter {
+        File directory;
+        int width;
+        int tileSize;
+        int tileRow;
+        TileWriter(File directory, int width, int tileSize) throws IOException {
+            if ( ! directory.isDirectory() && ! directory.mkdirs() )
+                throw new IOException("Can't create directory " + directory);
+            this.directory = directory;
+            this.width = width;
+            this.tileSize = tileSize;
+        }
+        void writeStrip(int[] pixels, int rows) throws IOException {
+            for (int x = 0; x < width; x += tileSize) {
+                int columns = Math.min(tileSize, width - x);
+                BufferedImage tile = new BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB);
+                int[] tilePixels = ImageColorer.pixelsOf(tile);
+                for (int r = 0; r < rows; r++)
+                    System.arraycopy(pixels, r*width + x, tilePixels, r*columns, columns);
+                File file = new File(directory, "tile_" + tileRow + "_" + (x / tileSize) + ".png");
+                if ( ! ImageIO.write(tile, "PNG", file) )
+                    throw new IOException("Can't write " + file);
+            }
+            tileRow++;
+        }
+        void close() {
+        }
+    }
+
+}
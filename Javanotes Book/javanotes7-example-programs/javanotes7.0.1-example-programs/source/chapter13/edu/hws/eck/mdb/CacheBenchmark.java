@@ -0,0 +1,149 @@
+package edu.hws.eck.mdb;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the effect of the TileCache that MandelbrotDisplay uses, by following
+ * a sequence of changes to the view like those a user might make:  moving the
+ * view, zooming in and out by a factor of two, and going back to earlier views.
+ * Each view is computed with a TileRenderer, once without the cache, and once
+ * with the counts that can be found in the cache (after which the new counts
+ * are added to the cache, as in MandelbrotDisplay).  The program reports both
+ * times, the percentage of the pixels that came from the cache, and the number
+ * of pixels where the two images are different.  The only possible differences
+ * are at details thinner than a pixel, which can be filled in differently when
+ * some of the pixels in a tile are already known; see TileRenderer.  Each time
+ * is the best of several runs through the whole sequence, each starting with
+ * an empty cache.
+ * <p>Usage:  java edu.hws.eck.mdb.CacheBenchmark [maxIterations]
+ * <br>The default for maxIterations is 1000.  The image size is 800 by 600.
+ */
+public class CacheBenchmark {
+
+    private final static int WIDTH = 800, HEIGHT = 600;
+
+    /**
+     * The steps:  a description, and the change to the view.  For "move", the
+     * two numbers are the number of pixels to move in the x and y directions.
+     * For "zoom", the first number is the power of two by which the pixel size
+     * is multiplied (so -1 means zoom in by a factor of two); the view keeps the
+     * same center.  For "back", the first number is the index of an earlier step
+     * whose view is restored.
+     */
+    private final static String[] NAMES = {
+        "First view", "Move right 100 pixels", "Move down 50 pixels", "Move left 300 pixels",
+        "Zoom in x2", "Zoom out x2", "Zoom out x2", "Back to first view", "Zoom in x4"
+    };
+    private final static String[] ACTIONS = {
+        "first", "move", "move", "move", "zoom", "zoom", "zoom", "back", "zoom"
+    };
+    private final static int[][] CHANGES = {
+        { 0, 0 }, { 100, 0 }, { 0, 50 }, { -300, 0 }, { -1, 0 }, { 1, 0 }, { 1, 0 }, { 0, 0 }, { -2, 0 }
+    };
+
+    private final static int RUNS = 3;
+
+    private static ForkJoinPool pool = new ForkJoinPool();
+
+    public static void main(String[] args) {
+        int maxIterations = 1000;
+        if (args.length > 0)
+            maxIterations = Integer.parseInt(args[0]);
+        int steps = NAMES.length;
+        double[] plainTimes = new double[steps];
+        double[] cachedTimes = new double[steps];
+        int[] found = new int[steps];
+        int[] different = new int[steps];
+        java.util.Arrays.fill(plainTimes, Double.MAX_VALUE);
+        java.util.Arrays.fill(cachedTimes, Double.MAX_VALUE);
+        runSession(maxIterations, plainTimes, cachedTimes, found, different);  // Get everything compiled first.
+        java.util.Arrays.fill(plainTimes, Double.MAX_VALUE);
+        java.util.Arrays.fill(cachedTimes, Double.MAX_VALUE);
+        for (int run = 0; run < RUNS; run++)
+            runSession(maxIterations, plainTimes, cachedTimes, found, different);
+        System.out.printf("%d-by-%d image; maxIterations = %d; %d threads; best of %d runs.%n%n",
+                                  WIDTH, HEIGHT, maxIterations, pool.getParallelism(), RUNS);
+        System.out.printf("%-24s %12s %12s %12s %10s%n", "Step", "No cache", "Cache", "From cache", "Different");
+        double totalPlain = 0, totalCached = 0;
+        for (int step = 0; step < steps; step++) {
+            totalPlain += plainTimes[step];
+            totalCached += cachedTimes[step];
+            System.out.printf("%-24s %9.1f ms %9.1f ms %11.1f%% %10d%n", NAMES[step], plainTimes[step],
+                                  cachedTimes[step], 100.0 * found[step] / (WIDTH*HEIGHT), different[step]);
+        }
+        System.out.printf("%-24s %9.1f ms %9.1f ms%n", "Total", totalPlain, totalCached);
+    }
+
+    /**
+     * Goes through all the steps once, with a new cache.  For each step, the times
+     * are stored in plainTimes and cachedTimes, if they are smaller than the times
+     * that are already there.  The number of pixels that were found in the cache and
+     * the number that are different in the two images are stored in found and different.
+     */
+    private static void runSession(int maxIterations, double[] plainTimes, double[] cachedTimes,
+                                                         int[] found, int[] different) {
+        double pixelSize = TileCache.roundPixelSize(0.1 / WIDTH);  // Seahorse valley.
+        long firstColumn = Math.round(-0.75 / pixelSize) - WIDTH/2;
+        long firstRow = Math.round(-0.1 / pixelSize) - HEIGHT/2;
+        TileCache cache = new TileCache(64L << 20);
+        int[][] plain = new int[HEIGHT][WIDTH];
+        int[][] cached = new int[HEIGHT][WIDTH];
+        long[][] views = new long[NAMES.length][];
+        double[] sizes = new double[NAMES.length];
+        for (int step = 0; step < NAMES.length; step++) {
+            if (ACTIONS[step].equals("move")) {
+                firstColumn += CHANGES[step][0];
+                firstRow += CHANGES[step][1];
+            }
+            else if (ACTIONS[step].equals("zoom")) {
+                long centerColumn = firstColumn + WIDTH/2;
+                long centerRow = firstRow + HEIGHT/2;
+                int scale = CHANGES[step][0];
+                pixelSize = Math.scalb(pixelSize, scale);
+                if (scale < 0) {
+                    centerColumn <<= -scale;
+                    centerRow <<= -scale;
+                }
+                else {
+                    centerColumn >>= scale;
+                    centerRow >>= scale;
+                }
+                firstColumn = centerColumn - WIDTH/2;
+                firstRow = centerRow - HEIGHT/2;
+            }
+            else if (ACTIONS[step].equals("back")) {
+                firstColumn = views[CHANGES[step][0]][0];
+                firstRow = views[CHANGES[step][0]][1];
+                pixelSize = sizes[CHANGES[step][0]];
+            }
+            views[step] = new long[] { firstColumn, firstRow };
+            sizes[step] = pixelSize;
+            long start = System.nanoTime();
+            render(firstColumn, firstRow, pixelSize, maxIterations, plain);
+            plainTimes[step] = Math.min(plainTimes[step], (System.nanoTime() - start) / 1e6);
+            start = System.nanoTime();
+            TileRenderer renderer = new TileRenderer(firstColumn, firstRow, pixelSize, pixelSize,
+                                                         maxIterations, cached, null);
+            found[step] = cache.fetch(firstColumn, firstRow, pixelSize, maxIterations, cached);
+            renderer.render(pool);
+            cache.store(firstColumn, firstRow, pixelSize, maxIterations, cached);
+            cachedTimes[step] = Math.min(cachedTimes[step], (System.nanoTime() - start) / 1e6);
+            different[step] = 0;
+            for (int r = 0; r < HEIGHT; r++) {
+                for (int c = 0; c < WIDTH; c++) {
+                    if (plain[r][c] != cached[r][c])
+                        different[step]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes an image with a TileRenderer, without the cache.
+     */
+    private static void render(long firstColumn, long firstRow, double pixelSize,
+                                                     int maxIterations, int[][] counts) {
+        new TileRenderer(firstColumn, firstRow, pixelSize, pixelSize, maxIterations, counts, null).render(pool);
+    }
+
+}
@@ -0,0 +1,111 @@
+package edu.hws.eck.mdb;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the time needed to compute deep zooms by perturbation (see ReferenceOrbit
+ * and TileRenderer.usePerturbation()), and checks the results.  The program zooms in
+ * from a pixel size of 1e-12 to 1e-52, by a factor of 10000 at each step.  The
+ * new center at each step is the pixel near the center of the previous image
+ * that has the largest count among the pixels that escape, which keeps the images
+ * near the boundary of the Mandelbrot set, where the interesting details are.  For
+ * each image, the program reports the time to compute it, the number of reference
+ * orbits, the number of pixels that were glitched with the first reference orbit
+ * and the number that were never resolved.  Then some randomly chosen pixels are
+ * computed directly with BigDecimal arithmetic (with the same precision as the
+ * reference orbit); the program reports the number of those pixels whose counts
+ * are different, and an estimate of the time it would take to compute the whole
+ * image with BigDecimal arithmetic.
+ * <p>Usage:  java edu.hws.eck.mdb.DeepZoomBenchmark [maxIterations [width height]]
+ * <br>The default for maxIterations is 5000, and the default image size is 800 by 600.
+ */
+public class DeepZoomBenchmark {
+
+    private final static String START_X = "-0.743643887037158704752191506114774";
+    private final static String START_Y = "0.131825904205311970493132056385139";
+    private final static double START_PIXEL_SIZE = 1e-12;
+    private final static double ZOOM_FACTOR = 1e-4;
+    private final static int STEPS = 11;
+    private final static int CHECKED_PIXELS = 12;
+
+    private static ForkJoinPool pool = new ForkJoinPool();
+
+    public static void main(String[] args) {
+        int maxIterations = 5000;
+        int width = 800;
+        int height = 600;
+        if (args.length > 0)
+            maxIterations = Integer.parseInt(args[0]);
+        if (args.length == 3) {
+            width = Integer.parseInt(args[1]);
+            height = Integer.parseInt(args[2]);
+        }
+        int[][] counts = new int[height][width];
+        for (int i = 0; i < 3; i++)   // Get everything compiled first.
+            render(new BigDecimal(START_X), new BigDecimal(START_Y), START_PIXEL_SIZE, maxIterations, counts);
+        System.out.printf("%d-by-%d image; maxIterations = %d; %d threads.%n%n",
+                                  width, height, maxIterations, pool.getParallelism());
+        System.out.printf("%10s %7s %10s %11s %9s %11s %9s %14s%n", "Pixel size", "Digits", "Time (ms)",
+                              "References", "Glitched", "Unresolved", "Wrong", "BigDecimal (s)");
+        BigDecimal centerX = new BigDecimal(START_X);
+        BigDecimal centerY = new BigDecimal(START_Y);
+        double pixelSize = START_PIXEL_SIZE;
+        Random random = new Random(1);
+        for (int step = 0; step < STEPS; step++) {
+            long start = System.nanoTime();
+            TileRenderer renderer = render(centerX, centerY, pixelSize, maxIterations, counts);
+            double time = (System.nanoTime() - start) / 1e6;
+            int[] stats = renderer.getPerturbationStatistics();
+            MathContext mc = new MathContext(ReferenceOrbit.digitsFor(pixelSize));
+            int wrong = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < CHECKED_PIXELS; i++) {
+                int r = random.nextInt(height);
+                int c = random.nextInt(width);
+                BigDecimal x = centerX.add(new BigDecimal((c - width/2) * pixelSize));
+                BigDecimal y = centerY.subtract(new BigDecimal((r - height/2) * pixelSize));
+                if (ReferenceOrbit.countIterations(x, y, maxIterations, mc) != counts[r][c])
+                    wrong++;
+            }
+            double bigDecimalTime = (System.nanoTime() - start) / 1e9 / CHECKED_PIXELS * width * height;
+            System.out.printf("%10.0e %7d %10.1f %11d %9d %11d %6d/%-2d %14.0f%n", pixelSize, mc.getPrecision(),
+                                  time, stats[0], stats[1], stats[2], wrong, CHECKED_PIXELS, bigDecimalTime);
+                // Move to the pixel near the center with the largest count, and zoom in.
+            int best = 0, bestRow = height/2, bestColumn = width/2;
+            for (int r = height/4; r < 3*height/4; r++) {
+                for (int c = width/4; c < 3*width/4; c++) {
+                    if (counts[r][c] > best) {
+                        best = counts[r][c];
+                        bestRow = r;
+                        bestColumn = c;
+                    }
+                }
+            }
+            centerX = centerX.add(new BigDecimal((bestColumn - width/2) * pixelSize));
+            centerY = centerY.subtract(new BigDecimal((bestRow - height/2) * pixelSize));
+            pixelSize *= ZOOM_FACTOR;
+            int scale = ReferenceOrbit.digitsFor(pixelSize);
+            centerX = centerX.setScale(scale, RoundingMode.HALF_EVEN);
+            centerY = centerY.setScale(scale, RoundingMode.HALF_EVEN);
+        }
+        System.out.println();
+        System.out.println("Final center:  " + centerX.toPlainString() + ", " + centerY.toPlainString());
+    }
+
+    /**
+     * Computes an image, centered on (centerX,centerY), by perturbation.
+     */
+    private static TileRenderer render(BigDecimal centerX, BigDecimal centerY, double pixelSize,
+                                                          int maxIterations, int[][] counts) {
+        TileRenderer renderer = new TileRenderer(-(counts[0].length/2), -(counts.length/2),
+                                                 pixelSize, pixelSize, maxIterations, counts, null);
+        renderer.usePerturbation(centerX, centerY);
+        renderer.render(pool);
+        return renderer;
+    }
+
+}
@@ -0,0 +1,148 @@
+package edu.hws.eck.mdb;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a palette to iteration counts, producing the colors of the pixels in
+ * an image.  This is done separately from computing the counts, so that the
+ * colors can be changed without computing anything again.  The colors are
+ * written directly into the int array that holds the pixels of a BufferedImage
+ * of type TYPE_INT_RGB (see pixelsOf()), which is much faster than calling
+ * setRGB() on the image.  A whole image can be colored in parallel, by dividing
+ * it into bands of rows that are processed as fork/join tasks.
+ * <p>The palette is an array of RGB color codes.  A pixel with count ct gets
+ * color palette[ct % palette.length].  Pixels in the Mandelbrot set (count -1)
+ * are black, and pixels whose counts are not known yet (TileRenderer.NOT_COMPUTED
+ * or ReferenceOrbit.GLITCHED) are light gray.
+ */
+class ImageColorer {
+
+    /**
+     * The color of a pixel that has not been computed:  light gray.
+     */
+    final static int UNFINISHED_COLOR = 0xC0C0C0;
+
+    /**
+     * The color of a pixel in the Mandelbrot set:  black.
+     */
+    final static int MANDELBROT_COLOR = 0;
+
+    /**
+     * The number of rows in the smallest task of a parallel pass.
+     */
+    private final static int BAND_SIZE = 16;
+
+
+    /**
+     * Returns the array that holds the pixels of an image of type TYPE_INT_RGB.
+     * The pixel in row r and column c is element r*width + c.  (Note that after
+     * this, the image can no longer be "managed" by Java2D, which can make drawing
+     * it to the screen slower on some systems; it is still much faster than
+     * coloring the image with setRGB().)
+     */
+    static int[] pixelsOf(BufferedImage image) {
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+
+    /**
+     * Returns the color for an iteration count.
+     */
+    static int colorFor(int ct, int[] palette) {
+        if (ct >= 0)
+            return palette[ct % palette.length];
+        else if (ct == -1)
+            return MANDELBROT_COLOR;
+        else
+            return UNFINISHED_COLOR;
+    }
+
+
+    /**
+     * Colors a rectangle of pixels, using the count for each pixel.  This is done
+     * in the calling thread.
+     * @param counts the counts; the first index is the row number.
+     * @param palette the palette, as described in the comment on this class.
+     * @param pixels the pixels of the image, as returned by pixelsOf(); the image
+     *    must have the same size as the counts array.
+     */
+    static void colorRect(int[][] counts, int[] palette, int x, int y, int w, int h, int[] pixels) {
+        colorRect(counts, palette, x, y, w, h, 1, pixels);
+    }
+
+
+    /**
+     * Colors a rectangle of pixels as for colorRect(counts,palette,x,y,w,h,pixels),
+     * except that, if step is greater than 1, a pixel whose count is NOT_COMPUTED is
+     * given the color of the pixel at the top left corner of its step-by-step block
+     * (which is how a preview pass is shown; see TileRenderer).
+     */
+    static void colorRect(int[][] counts, int[] palette, int x, int y, int w, int h,
+                                                        int step, int[] pixels) {
+        int width = counts[0].length;
+        int paletteLength = palette.length;
+        for (int r = y; r < y + h; r++) {
+            int[] row = counts[r];
+            int[] blockRow = counts[r - r % step];
+            int offset = r*width;
+            for (int c = x; c < x + w; c++) {
+                int ct = row[c];
+                if (ct == TileRenderer.NOT_COMPUTED && step > 1)
+                    ct = blockRow[c - c % step];
+                int color;
+                if (ct >= 0)
+                    color = palette[ct < paletteLength ? ct : ct % paletteLength];
+                else if (ct == -1)
+                    color = MANDELBROT_COLOR;
+                else
+                    color = UNFINISHED_COLOR;
+                pixels[offset + c] = color;
+            }
+        }
+    }
+
+
+    /**
+     * Colors a whole image in parallel, using a ForkJoinPool.  This returns when
+     * the image has been colored.
+     * @param step 1 to use only the pixels' own counts, or the step of a preview
+     *    pass to fill in the unknown pixels as described for colorRect().
+     */
+    static void colorImage(ForkJoinPool pool, int[][] counts, int[] palette, int step, int[] pixels) {
+        pool.invoke(new BandTask(counts, palette, step, pixels, 0, counts.length));
+    }
+
+
+    /**
+     * The task for coloring the rows from startRow up to endRow of an image, by
+     * dividing them in half until there are only a few.
+     */
+    private static class BandTask extends RecursiveAction {
+        int[][] counts;
+        int[] palette;
+        int step;
+        int[] pixels;
+        int startRow, endRow;
+        BandTask(int[][] counts, int[] palette, int step, int[] pixels, int startRow, int endRow) {
+            this.counts = counts;
+            this.palette = palette;
+            this.step = step;
+            this.pixels = pixels;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+        protected void compute() {
+            if (endRow - startRow > BAND_SIZE) {
+                int middle = (startRow + endRow) / 2;
+                invokeAll(new BandTask(counts, palette, step, pixels, startRow, middle),
+                          new BandTask(counts, palette, step, pixels, middle, endRow));
+            }
+            else
+                colorRect(counts, palette, 0, startRow, counts[0].length, endRow - startRow, step, pixels);
+        }
+    }
+
+}
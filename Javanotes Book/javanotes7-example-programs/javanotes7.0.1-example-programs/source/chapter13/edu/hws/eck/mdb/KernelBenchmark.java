@@ -0,0 +1,82 @@
+package edu.hws.eck.mdb;
+
+import java.util.Arrays;
+
+/**
+ * Compares the speed of the two versions of the Mandelbrot iteration loop in
+ * TileRenderer:  computeRow(), which works on four pixels at a time, and
+ * computeRowScalar(), which works on one pixel at a time.  An image is computed
+ * with each version for several zoom depths, centered on a point near the edge
+ * of the Mandelbrot set, and for several values of maxIterations.  Each
+ * measurement is the best of several runs, after warm-up runs, so that the
+ * times are not affected by the JIT compiler.  The program also checks that
+ * both versions produce exactly the same iteration counts.
+ * <p>Usage:  java edu.hws.eck.mdb.KernelBenchmark [width height]
+ * <br>The default image size is 400 by 300.
+ */
+public class KernelBenchmark {
+
+    private final static double CENTER_X = -0.743643887037151;  // Near the edge of the set.
+    private final static double CENTER_Y = 0.131825904205330;
+    private final static double[] WIDTHS = { 3.0, 1e-2, 1e-6, 1e-10 };  // Width of the region.
+    private final static int[] MAX_ITERATIONS = { 100, 1000, 10000 };
+    private final static int RUNS = 3;
+
+    public static void main(String[] args) {
+        int width = 400;
+        int height = 300;
+        if (args.length == 2) {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+        }
+        System.out.printf("%d-by-%d image; best of %d runs.%n%n", width, height, RUNS);
+        System.out.printf("%12s %14s %14s %14s %10s%n", "Width", "maxIterations",
+                                    "Scalar (ms)", "4 lanes (ms)", "Speedup");
+        int[][] warmUp = new int[height][width];
+        time(false, WIDTHS[1], MAX_ITERATIONS[1], warmUp);  // Get both loops compiled first.
+        time(true, WIDTHS[1], MAX_ITERATIONS[1], warmUp);
+        boolean allEqual = true;
+        for (double regionWidth : WIDTHS) {
+            for (int maxIterations : MAX_ITERATIONS) {
+                int[][] scalar = new int[height][width];
+                int[][] lanes = new int[height][width];
+                double scalarTime = time(false, regionWidth, maxIterations, scalar);
+                double lanesTime = time(true, regionWidth, maxIterations, lanes);
+                boolean equal = Arrays.deepEquals(scalar, lanes);
+                allEqual = allEqual && equal;
+                System.out.printf("%12.0e %14d %14.1f %14.1f %9.2fx%s%n", regionWidth, maxIterations,
+                                scalarTime, lanesTime, scalarTime / lanesTime, equal ? "" : "  (DIFFERENT)");
+            }
+        }
+        System.out.println();
+        System.out.println(allEqual ? "The results were identical." : "THE RESULTS WERE DIFFERENT.");
+    }
+
+    /**
+     * Computes an image with one version of the loop, RUNS+1 times, and returns
+     * the shortest time, in milliseconds, not counting the first run.
+     */
+    private static double time(boolean useLanes, double regionWidth, int maxIterations, int[][] counts) {
+        int height = counts.length;
+        int width = counts[0].length;
+        double dx = regionWidth / width;
+        long firstColumn = Math.round((CENTER_X - regionWidth/2) / dx);  // See TileRenderer.
+        long firstRow = Math.round(-(CENTER_Y + dx*height/2) / dx);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            for (int row = 0; row < height; row++) {
+                double y = -(firstRow + row)*dx;
+                if (useLanes)
+                    TileRenderer.computeRow(firstColumn, dx, y, width, maxIterations, counts[row]);
+                else
+                    TileRenderer.computeRowScalar(firstColumn, dx, y, width, maxIterations, counts[row]);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (run > 0)
+                best = Math.min(best, elapsed);
+        }
+        return best / 1e6;
+    }
+
+}
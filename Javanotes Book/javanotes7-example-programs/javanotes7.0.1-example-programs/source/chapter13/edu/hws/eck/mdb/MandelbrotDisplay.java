@@ -4,8 +4,12 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 /**
  * A MandelbrotDisplay is a panel that shows a region of the xy-plane that
@@ -22,6 +26,35 @@ import java.util.LinkedList;
  * 
  * Because the computation of an image can take quite a while, the computation is
  * done in separate threads (one thread is used for each available processor).
+ * The threads belong to a ForkJoinPool, and the work is done by a TileRenderer,
+ * which divides the image into tiles and avoids computing most of the pixels
+ * inside large regions that have the same color.  A new image is shown
+ * progressively:  First, some low-resolution "previews" are computed and shown,
+ * each one finer than the one before, and then the full-resolution image is
+ * filled in, tile by tile.  When the image is changed, any computation that is
+ * underway for the old image is cancelled immediately.  (If the system property
+ * edu.hws.eck.mdb.timing is set, the time until the first preview is shown and the
+ * time until the image is complete are printed to standard output for each image.)
+ * 
+ * The iteration counts that have been computed are saved in a TileCache, and
+ * are used again when possible.  For that to work, the pixels of every image
+ * lie on a grid that covers the whole plane (see TileRenderer), and the size of
+ * a pixel is rounded to 20 significant bits, so that zooming in or out by a factor
+ * of two, or returning to an earlier view, gives exactly the same pixel size.
+ * The limits of the image are adjusted by less than half a pixel to fit the grid.
+ * When the image is moved, only the part that was not visible before has to be
+ * computed.
+ * 
+ * When the size of a pixel is less than DEEP_ZOOM_PIXEL_SIZE, numbers of type
+ * double are no longer accurate enough for the coordinates of the pixels.  The
+ * display then switches to "deep zoom" mode, where the center of the image is
+ * stored as a pair of BigDecimals and the image is computed by perturbation from
+ * a high-precision reference orbit (see TileRenderer.usePerturbation()).  Zooming
+ * with the mouse works the same in this mode, but it has to use setView() instead
+ * of setLimits(), and getXmin(), getLimits(), and so on, only return approximate
+ * values.  The cache is not used for deep zooms.  (In principle, this works for
+ * pixels as small as about 1e-290; below that, the offsets of the pixels from the
+ * reference point can't be represented as doubles.)
  * 
  * The display is also capable of drawing a "zoom box" on top of the image.  This
  * is just a box whose position and location are given by the drawZoomBox() method.
@@ -57,6 +90,19 @@ public class MandelbrotDisplay extends JPanel {
      */
     public final static String LIMITS_PROPERTY = "MandelbrotLimits";
     
+    /**
+     * The property name for the property change event that is generated, along with
+     * the LIMITS_PROPERTY event, when the view is changed.  The values associated with
+     * the property change are the arrays returned by getView(), which are exact even
+     * for deep zooms.
+     */
+    public final static String VIEW_PROPERTY = "MandelbrotView";
+    
+    /**
+     * Images whose pixels are smaller than this are computed in "deep zoom" mode.
+     */
+    public final static double DEEP_ZOOM_PIXEL_SIZE = 1e-12;
+    
     /**
      * The property name for the property change that is generated when
      * the status of the display changes.  The possible status values are
@@ -77,6 +123,27 @@ public class MandelbrotDisplay extends JPanel {
     public final static String STATUS_OUT_OF_MEMORY  = "out of memory";
     
     
+    //------------------------- PRIVATE CONSTANTS ----------------------------------
+    
+    
+    /**
+     * The steps for the preview passes; see TileRenderer.setPreviewSteps().  The
+     * first preview costs less than 1/256 of a full computation.
+     */
+    private final static int[] PREVIEW_STEPS = { 16, 8, 4 };
+    
+    /**
+     * Tells whether the times for each computation are printed.
+     */
+    private final static boolean REPORT_TIMES = System.getProperty("edu.hws.eck.mdb.timing") != null;
+    
+    /**
+     * The memory budget for the cache of iteration counts:  64 megabytes, or
+     * one-eighth of the maximum memory available to Java, whichever is smaller.
+     */
+    private final static long CACHE_BUDGET = Math.min(64L << 20, Runtime.getRuntime().maxMemory() / 8);
+    
+    
     //------------------------- PRIVATE INSTANCE VARIABLES --------------------------
     
     private String status = STATUS_READY;  // Current value of the STATUS property.
@@ -100,6 +167,7 @@ public class MandelbrotDisplay extends JPanel {
     
     private double xmin, xmax, ymin, ymax; // Ranges of xy values currently visible in the image.
     private double dx, dy;                 // Width and height of one pixel in xy-coords (should be the same).
+    private long firstColumn, firstRow;    // The grid column and row of the top left pixel; see TileRenderer.
     
     private double xmin_requested = -2.5;  // These are the values that were requested in the setLimits()
     private double xmax_requested = 1.1;   //   command.  They are adjusted in the checkAspect() method to
@@ -108,6 +176,11 @@ public class MandelbrotDisplay extends JPanel {
                                            //   and ymax.  If the image changes size, the REQUESTED values
                                            //   are re-applied.
     
+    private BigDecimal centerX_requested;  // If non-null, the requested view is given by these values, from
+    private BigDecimal centerY_requested;  //   setView(), instead of the requested limits.  If the image
+    private double pixelSize_requested;    //   changes size, the center and pixel size stay the same.
+    private BigDecimal centerX, centerY;   // The exact center of the image in deep zoom mode; null otherwise.
+    
     private Rectangle zoomBox;             // If non-null, then this rectangle is drawn on top of the
                                            //   the image.  The image can be zoomed into or out of this box.
     
@@ -118,34 +191,32 @@ public class MandelbrotDisplay extends JPanel {
     
 
     private volatile boolean computing;    // True when a computation is underway.
-    private ComputeThread[] workerThreads; // The threads that do the actual computing.  Worker threads
-                                           //    perform the "jobs" that make up an image computation.
-    private int jobs;                      // The number of jobs that make up a computation. Same as
-                                           //    the height of the image, since each job consists of
-                                           //    computing iteration counts for one row of pixels.
-    private int jobsAssigned;              // The number of jobs that have been assigned to threads so far
-                                           //    during the current computation.
-    private int jobsCompleted;             // The number of jobs that have been completed so far.
-    private LinkedList<Job> finishedJobs;  // When a job is completed, it is placed in this list, which
-                                           //    is used as a queue.  A finished job contains data for
-                                           //    part of the image.  Every so often, the main thread
-                                           //    applies the data from any finished jobs to the image.
-    private int computationNumber;         // Each time a computation is started, this variable is
-                                           //    incremented.  Because computations are done by threads,
-                                           //    when a computation is aborted and a new one started,
-                                           //    it's possible that a thread might continue working on
-                                           //    part of the previous computation.  When that happens,
-                                           //    the result of that computation should be discarded and
-                                           //    not applied to the current picture.  By associating each
-                                           //    job with a computation number, out-of-date jobs can be
-                                           //    recognized.
-    private boolean shutDown;              // Used to send a message to the threads to tell them to shut down.
-    private int[] rgb;                     // Used for applying color to the BufferedImage; this could be 
-                                           //    a local variable.
-    
-    private Timer applyJobsToImageTimer;   // A Timer that generates events every 1/2 second during a computation.
+    private ForkJoinPool pool;             // The threads that do the actual computing.  The pool is
+                                           //    created when the first computation is started.
+    private TileRenderer renderer;         // The renderer for the current computation.  It fills the
+                                           //    iterationCounts array, one tile at a time.  When a
+                                           //    computation is aborted and a new one started, a task
+                                           //    from the old renderer might still finish a tile; the
+                                           //    tile is discarded, since its renderer is out of date.
+    private LinkedList<Rectangle> finishedTiles;  // When a tile is finished, its rectangle is placed in
+                                           //    this list, which is used as a queue.  Every so often, the
+                                           //    main thread applies the data for any finished tiles to the image.
+    private int finishedPreviewStep;       // When a preview pass is finished, its step is stored here, until
+                                           //    the main thread applies the preview to the image.
+    private int previewStep;               // The step of the last preview that was applied to the image,
+                                           //    or 0 if there is none.
+    private TileCache cache = new TileCache(CACHE_BUDGET);  // Counts from previous computations.
+    private long computeStartTime;         // The time when the current computation was started, from
+                                           //    System.nanoTime(), used for the timing methods.
+    private double timeToFirstFrame = -1;  // The times reported by getTimeToFirstFrame() and
+    private double timeToFullQuality = -1; //    getTimeToFullQuality().
+    private boolean shutDown;              // Set to true when the threads have been shut down.
+    private int[] pixels;                  // The array that holds the pixels of OSC; colors are written
+                                           //    directly into this array by an ImageColorer.
+    
+    private Timer applyTilesToImageTimer;  // A Timer that generates events every 1/2 second during a computation.
                                            //   These events wake up the main thread so it can apply completed
-                                           //   jobs to the image.
+                                           //   tiles to the image.
 
     
     
@@ -180,9 +251,9 @@ public class MandelbrotDisplay extends JPanel {
                 }
             }
         });
-        applyJobsToImageTimer = new Timer(500, new ActionListener() {
+        applyTilesToImageTimer = new Timer(500, new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                applyFinishedJobsToImage();
+                applyFinishedTilesToImage();
             }
         });
     }
@@ -208,6 +279,25 @@ public class MandelbrotDisplay extends JPanel {
     }
     
     
+    /**
+     * Returns the time, in milliseconds, from the start of the most recent computation
+     * until the first part of the new image (normally the coarsest preview) was
+     * drawn, or -1 if that has not happened yet.
+     */
+    public double getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+    
+    
+    /**
+     * Returns the time, in milliseconds, from the start of the most recent computation
+     * until it was finished, or -1 if it has not finished.
+     */
+    public double getTimeToFullQuality() {
+        return timeToFullQuality;
+    }
+    
+    
     /**
      * Set the desired range of xy-values to be visible in the image.  The values
      * might be adjusted to reflect the aspect ratio of the display.  When the
@@ -221,21 +311,103 @@ public class MandelbrotDisplay extends JPanel {
         if (xmin == this.xmin && xmax == this.xmax && ymin == this.ymin && ymax == this.ymax)
             return;
         double[] oldLimits = { this.xmin, this.xmax, this.ymin, this.ymax };
+        BigDecimal[] oldView = getView();
         stopComputing();
         xmin_requested = xmin;
         xmax_requested = xmax;
         ymin_requested = ymin;
         ymax_requested = ymax;
+        centerX_requested = centerY_requested = null;
         startComputing(); // Calls checkAspect, which sets new values for this.xmin, etc.
         repaint();
         double[] newLimits = { this.xmin, this.xmax, this.ymin, this.ymax };
         firePropertyChange(LIMITS_PROPERTY, oldLimits, newLimits);
+        firePropertyChange(VIEW_PROPERTY, oldView, getView());
+    }
+    
+    
+    /**
+     * Sets the view by giving the point at the center of the image and the size of a
+     * pixel.  Unlike setLimits(), this can specify views that are too deeply zoomed
+     * for numbers of type double.  The pixel in column getWidth()/2 and row getHeight()/2
+     * (using integer division) will be at (centerX,centerY).  The center is rounded to
+     * a number of decimal places that is more than enough for the pixel size.  When
+     * the image changes size, the center and the pixel size are kept.  As for setLimits(),
+     * property change events are generated and a new computation is started.
+     */
+    public void setView(BigDecimal centerX, BigDecimal centerY, double pixelSize) {
+        int scale = ReferenceOrbit.digitsFor(pixelSize);
+        centerX = centerX.setScale(scale, RoundingMode.HALF_EVEN);
+        centerY = centerY.setScale(scale, RoundingMode.HALF_EVEN);
+        if (centerX.equals(centerX_requested) && centerY.equals(centerY_requested)
+                                                  && pixelSize == pixelSize_requested)
+            return;
+        double[] oldLimits = { this.xmin, this.xmax, this.ymin, this.ymax };
+        BigDecimal[] oldView = getView();
+        stopComputing();
+        centerX_requested = centerX;
+        centerY_requested = centerY;
+        pixelSize_requested = pixelSize;
+        startComputing();
+        repaint();
+        double[] newLimits = { this.xmin, this.xmax, this.ymin, this.ymax };
+        firePropertyChange(LIMITS_PROPERTY, oldLimits, newLimits);
+        firePropertyChange(VIEW_PROPERTY, oldView, getView());
+    }
+    
+    
+    /**
+     * Returns the current view as an array of three BigDecimals:  the x- and
+     * y-coordinates of the center of the image, and the size of a pixel.  The
+     * center is the pixel in column getWidth()/2 and row getHeight()/2, as in setView().
+     */
+    public BigDecimal[] getView() {
+        return new BigDecimal[] { getCenterX(), getCenterY(), new BigDecimal(dx) };
+    }
+    
+    
+    /**
+     * Returns the exact x-coordinate of the center of the image, as in setView().
+     */
+    public BigDecimal getCenterX() {
+        if (centerX != null)
+            return centerX;
+        else
+            return new BigDecimal( (firstColumn + getWidth()/2) * dx );
+    }
+    
+    
+    /**
+     * Returns the exact y-coordinate of the center of the image, as in setView().
+     */
+    public BigDecimal getCenterY() {
+        if (centerY != null)
+            return centerY;
+        else
+            return new BigDecimal( -(firstRow + getHeight()/2) * dy );
+    }
+    
+    
+    /**
+     * Returns the size of one pixel.
+     */
+    public double getPixelSize() {
+        return dx;
+    }
+    
+    
+    /**
+     * Tells whether the display is in "deep zoom" mode, where the image is computed
+     * by perturbation.  See the comment on this class.
+     */
+    public boolean isDeepZoom() {
+        return centerX != null;
     }
     
     
     /**
      * Return the current xy limits as an array of four doubles containing
-     * xmin, xmax, ymin, and ymax.
+     * xmin, xmax, ymin, and ymax.  (In deep zoom mode, these are only approximate.)
      */
     public double[] getLimits() {
         return new double[] { xmin, xmax, ymin, ymax };
@@ -440,6 +612,24 @@ public class MandelbrotDisplay extends JPanel {
             repaint();
             return;
         }
+        if (centerX != null) {
+                // In deep zoom mode, compute the new center with BigDecimals.  The
+                // center of the zoom box is (boxX,boxY) pixels from the center of the image.
+            double boxX = zoomBox.x + zoomBox.width/2.0 - getWidth()/2;
+            double boxY = zoomBox.y + zoomBox.height/2.0 - getHeight()/2;
+            double scale = (double)zoomBox.width / getWidth();
+            zoomBox = null;
+            if (zoomOut) {
+                double newSize = dx / scale;
+                setView(centerX.subtract(new BigDecimal(boxX*newSize)),
+                        centerY.add(new BigDecimal(boxY*newSize)), newSize);
+            }
+            else {
+                setView(centerX.add(new BigDecimal(boxX*dx)),
+                        centerY.subtract(new BigDecimal(boxY*dx)), dx*scale);
+            }
+            return;
+        }
         double x1, x2, y1, y2;  // coordinates of corners of zoombox
         double cx, cy;   // coordinates of center of zoombox
         double newWidth, newHeight;
@@ -473,8 +663,10 @@ public class MandelbrotDisplay extends JPanel {
      *
      */
     synchronized public void shutDownThreads() {
+        stopComputing();
         shutDown = true;
-        notifyAll();
+        if (pool != null)
+            pool.shutdown();
     }
     
     
@@ -548,7 +740,7 @@ public class MandelbrotDisplay extends JPanel {
                 int height = getHeight();
                 OSC = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
                 iterationCounts = new int[height][width];  // Note that first index is pixel row number.
-                rgb = new int[width];
+                pixels = ImageColorer.pixelsOf(OSC);
                 imageWidth = width;
                 startComputing();
             }
@@ -557,6 +749,7 @@ public class MandelbrotDisplay extends JPanel {
                    // No image can be displayed.  The paintComponent method will show an error message.
                 OSC = null;
                 iterationCounts = null;
+                pixels = null;
                 setStatus(STATUS_OUT_OF_MEMORY);
             }
         }
@@ -565,80 +758,106 @@ public class MandelbrotDisplay extends JPanel {
 
     /**
      * This is the method that is called periodically (in response to a timer event)
-     * to check the queue of finished jobs.  All finished jobs are removed from the
-     * queue and are applied to the image.
+     * to check the queue of finished tiles.  All finished tiles are removed from the
+     * queue and are applied to the image.  If a preview pass has been finished, the
+     * preview is applied first.  (It is also called as soon as a preview is finished.)
      */
-    synchronized void applyFinishedJobsToImage() {
-        ArrayList<Job> temp;
+    synchronized void applyFinishedTilesToImage() {
+        ArrayList<Rectangle> temp;
+        int step;
         synchronized(this) {
-            if (finishedJobs == null)
+            if (finishedTiles == null)
                 return;
-            // First, get the jobs from the queue; has to be done in synchronized part of the method.
-            temp = new ArrayList<Job>();
-            while (!finishedJobs.isEmpty())
-                temp.add(finishedJobs.removeFirst());
+            // First, get the tiles from the queue; has to be done in synchronized part of the method.
+            temp = new ArrayList<Rectangle>(finishedTiles);
+            finishedTiles.clear();
+            step = finishedPreviewStep;
+            finishedPreviewStep = 0;
         }
-        // Now apply the data from the jobs to the image; this doesn't have to be synchronized
+        // Now apply the data for the tiles to the image; this doesn't have to be synchronized
         //   since this method is the only one that touches the image.
-        for (Job job : temp) {
-            iterationCounts[job.rowNumber] = job.iterationCounts;
-            if (palette == null)
-                createPalette();
-            for (int i = 0; i < imageWidth; i++)
-                rgb[i] = getColorForIterationCount(job.iterationCounts[i]);
-            OSC.setRGB(0, job.rowNumber, imageWidth, 1, rgb, 0, imageWidth);
-            repaint(0,job.rowNumber,imageWidth,1);
+        if (palette == null)
+            createPalette();
+        if (step > 0) {
+            applyPreview(step);
+            previewStep = step;
+            repaint();
+        }
+        for (Rectangle tile : temp) {
+            applyTile(tile);
+            repaint(tile);
         }
+        if (timeToFirstFrame < 0 && (step > 0 || temp.size() > 0))
+            timeToFirstFrame = (System.nanoTime() - computeStartTime) / 1e6;
     }
     
     
     /**
-     * Get the correct color from the palette to color a point with the given
-     * Iteration count.
+     * Colors the image using the pixels from a preview pass.  Each pixel whose row
+     * and column numbers are multiples of step is drawn as a step-by-step block,
+     * except that pixels whose counts are already known (because they came from
+     * the cache or from finished tiles) are drawn with their own colors.  The
+     * whole image is colored in parallel; see applyAll().
      */
-    private int getColorForIterationCount(int ct) {
-        if (ct < 0)    // Only -1 is possible, representing the Mandelbrot set.
-            return 0;  // RGB code for black
-        else if (paletteLength == 0)
-            return palette[ct];
-        else {
-            ct = ct % paletteLength;
-            return palette[ct];
-        }
+    private void applyPreview(int step) {
+        ImageColorer.colorImage(ForkJoinPool.commonPool(), iterationCounts, palette, step, pixels);
+    }
+    
+    
+    /**
+     * Colors a rectangle in the image, using the iteration counts for each of its pixels.
+     * This is used for finished tiles, which are small, so it is done in the calling thread.
+     */
+    private void applyTile(Rectangle tile) {
+        ImageColorer.colorRect(iterationCounts, palette, tile.x, tile.y, tile.width, tile.height, pixels);
+    }
+    
+    
+    /**
+     * Colors the whole image, using the iteration counts for each of its pixels.
+     * This is done in parallel by the threads of the common ForkJoinPool rather
+     * than the pool that computes the counts, so that it is not held up by a
+     * computation that is in progress.  (Those threads also have normal priority,
+     * so they get to run before the threads that are computing.)
+     */
+    private void applyAll() {
+        ImageColorer.colorImage(ForkJoinPool.commonPool(), iterationCounts, palette, 1, pixels);
     }
     
     
     /**
      * Applies current palette to the image, or to any part of the image
-     * that has been completed, if a computation is in progress.
+     * that has been completed, if a computation is in progress.  This only
+     * colors the pixels again, using the counts that have already been
+     * computed; it never starts a new computation.
      */
     synchronized private void recomputeColors() {
         if (OSC == null)
             return;
         if (palette == null)
             createPalette();
-        for (int i = 0; i < iterationCounts.length; i++) {
-            if (iterationCounts[i] != null) {
-                for (int j = 0; j < imageWidth; j++)
-                    rgb[j] = getColorForIterationCount(iterationCounts[i][j]);
-                OSC.setRGB(0, i, imageWidth, 1, rgb, 0, imageWidth);
-            }
-        }
+        if (computing && previewStep > 0)
+            applyPreview(previewStep);  // Redraws the preview and the pixels that are known.
+        else
+            applyAll();
         repaint();
     }
 
 
     /**
      * This is called to abort the current computation, if any.  Note that this method
-     * calls applyFinishedJobsToImage() to get the data from any outstanding finished
-     * jobs and apply it to the image.
+     * calls applyFinishedTilesToImage() to get the data from any outstanding finished
+     * tiles and apply it to the image.
      */
     synchronized private void stopComputing() {
         if (!computing || OSC == null)
             return;
-        applyJobsToImageTimer.stop();
-        applyFinishedJobsToImage();
-        finishedJobs = null;
+        renderer.cancel();
+        applyTilesToImageTimer.stop();
+        applyFinishedTilesToImage();
+        if (centerX == null)  // (Deep zooms are not on the grid that the cache uses.)
+            cache.store(firstColumn, firstRow, dx, maxIterations, iterationCounts);
+        finishedTiles = null;
         computing = false;
         setStatus(STATUS_READY);
     }
@@ -649,7 +868,7 @@ public class MandelbrotDisplay extends JPanel {
      *
      */
     synchronized private void startComputing()  {
-        if (OSC == null)
+        if (OSC == null || shutDown)
             return;
         stopComputing();
         Graphics g = OSC.getGraphics();
@@ -657,43 +876,59 @@ public class MandelbrotDisplay extends JPanel {
         g.fillRect(0,0,getWidth(),getHeight());
         g.dispose();
         repaint();
-        int processCount = Runtime.getRuntime().availableProcessors();
-        if (workerThreads == null) {
+        if (pool == null) {
+            int processCount = Runtime.getRuntime().availableProcessors();
             System.out.println("Creating " + processCount + " threads.");
-            workerThreads = new ComputeThread[processCount];
-            int priority = Thread.currentThread().getPriority() - 1;
-            for (int i = 0; i < processCount; i++) {
-                workerThreads[i] = new ComputeThread();
-                try {  // Setting the thread to be a "daemon" means that the
-                       // program can terminate even if this thread is still running.
-                    workerThreads[i].setDaemon(true);
-                }
-                catch (Exception e) {
-                    System.out.println("Can't set thread to daemaon.");
-                }
-                try {  // By reducing the priority of the thread, we ensure that
-                       // the user interface thread will be responsive.  Threads 
-                       // of lower priority only run when no thread of higher
-                       // priority wants to run.
-                    workerThreads[i].setPriority(priority);
-                }
-                catch (Exception e) {
-                    System.out.println("Can't reduce worker thread priority?");
+            final int priority = Thread.currentThread().getPriority() - 1;
+            pool = new ForkJoinPool(processCount, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        // The threads in a ForkJoinPool are "daemon" threads, which means
+                        // that the program can terminate even if they are still running.
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    try {  // By reducing the priority of the thread, we ensure that
+                           // the user interface thread will be responsive.  Threads 
+                           // of lower priority only run when no thread of higher
+                           // priority wants to run.
+                        thread.setPriority(priority);
+                    }
+                    catch (Exception e) {
+                        System.out.println("Can't reduce worker thread priority?");
+                    }
+                    return thread;
                 }
-                workerThreads[i].start();
-            }
+            }, null, false);
         }
         checkAspect();
-        computationNumber++;
-        jobs = iterationCounts.length;
-        jobsAssigned = 0;
-        jobsCompleted = 0;
         computing = true;
-        finishedJobs = new LinkedList<Job>();
-        for (int i = 0; i < iterationCounts.length; i++)
-            iterationCounts[i] = null;
-        notifyAll();
-        applyJobsToImageTimer.start();
+        finishedTiles = new LinkedList<Rectangle>();
+        finishedPreviewStep = 0;
+        previewStep = 0;
+        computeStartTime = System.nanoTime();
+        timeToFirstFrame = -1;
+        timeToFullQuality = -1;
+        iterationCounts = new int[iterationCounts.length][imageWidth];  // (Old tasks might still be using the old array.)
+        renderer = new TileRenderer(firstColumn, firstRow, dx, dy, maxIterations, iterationCounts, new TileRenderer.Listener() {
+            public void previewFinished(TileRenderer renderer, int step) {
+                finishPreview(renderer, step);
+            }
+            public void tileFinished(TileRenderer renderer, int x, int y, int width, int height) {
+                finishTile(renderer, new Rectangle(x, y, width, height));
+            }
+            public void renderingFinished(TileRenderer renderer) {
+                finishRendering(renderer);
+            }
+        });
+        if (centerX != null)
+            renderer.usePerturbation(centerX, centerY);
+        else if (cache.fetch(firstColumn, firstRow, dx, maxIterations, iterationCounts) > 0) {
+                // Show the pixels that were found in the cache right away.
+            if (palette == null)
+                createPalette();
+            applyAll();
+        }
+        renderer.setPreviewSteps(PREVIEW_STEPS);
+        renderer.start(pool);
+        applyTilesToImageTimer.start();
         setStatus(STATUS_WORKING);
     }
     
@@ -704,9 +939,49 @@ public class MandelbrotDisplay extends JPanel {
      * then either the range of x values or the range of y values will be increased
      * to make the shapes match.  Note that the full requested ranges are always shown.
      * There just might be some extra parts of the plane visible on the top and bottom
-     * or sides.
+     * or sides.  Finally, the size of a pixel is rounded to 20 significant bits, and
+     * the limits are moved to the nearest grid lines, so that previously computed
+     * counts can be found in the cache.  If the view was set with setView(), the
+     * limits are computed from the requested center and pixel size instead.  If
+     * the pixels are too small, the display goes into deep zoom mode.
      */
     private void checkAspect() {
+        if (centerX_requested != null) {
+            if (pixelSize_requested < DEEP_ZOOM_PIXEL_SIZE) {
+                setDeepView(centerX_requested, centerY_requested, pixelSize_requested);
+                return;
+            }
+            double size = pixelSize_requested;
+            xmin = centerX_requested.doubleValue() - (getWidth()/2)*size;
+            xmax = xmin + (getWidth() - 1)*size;
+            ymax = centerY_requested.doubleValue() + (getHeight()/2)*size;
+            ymin = ymax - (getHeight() - 1)*size;
+        }
+        else
+            fitRequestedLimits();
+        dx = TileCache.roundPixelSize( (xmax - xmin) / (getWidth() - 1) );
+        dy = dx;
+        if (dx < DEEP_ZOOM_PIXEL_SIZE) {
+            setDeepView(new BigDecimal((xmin + xmax)/2), new BigDecimal((ymin + ymax)/2),
+                                                    (xmax - xmin) / (getWidth() - 1));
+            return;
+        }
+        centerX = centerY = null;
+        firstColumn = Math.round(xmin / dx);
+        firstRow = Math.round(-ymax / dy);
+        xmin = firstColumn * dx;
+        xmax = (firstColumn + getWidth() - 1) * dx;
+        ymax = -firstRow * dy;
+        ymin = -(firstRow + getHeight() - 1) * dy;
+    }
+    
+    
+    /**
+     * Used by checkAspect() to set the xy limits to the requested limits, with either
+     * the range of x values or the range of y values increased to fit the shape of
+     * the display.
+     */
+    private void fitRequestedLimits() {
         xmin = xmin_requested;
         xmax = xmax_requested;
         if (xmax < xmin) {
@@ -737,8 +1012,25 @@ public class MandelbrotDisplay extends JPanel {
             ymax = center + newHeight/2;
             ymin = center - newHeight/2;
         }
-        dx = (xmax - xmin) / (getWidth() - 1);
-        dy = (ymax - ymin) / (getHeight() - 1);
+    }
+    
+    
+    /**
+     * Used by checkAspect() to go into deep zoom mode, with the given center and
+     * pixel size.  The origin of the grid that TileRenderer uses is at the center,
+     * in column getWidth()/2 and row getHeight()/2 of the image.  The limits are
+     * set to approximate values.
+     */
+    private void setDeepView(BigDecimal centerX, BigDecimal centerY, double pixelSize) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        dx = dy = pixelSize;
+        firstColumn = -(getWidth()/2);
+        firstRow = -(getHeight()/2);
+        xmin = centerX.doubleValue() + firstColumn * dx;
+        xmax = centerX.doubleValue() + (firstColumn + getWidth() - 1) * dx;
+        ymax = centerY.doubleValue() - firstRow * dy;
+        ymin = centerY.doubleValue() - (firstRow + getHeight() - 1) * dy;
     }
     
     
@@ -746,10 +1038,24 @@ public class MandelbrotDisplay extends JPanel {
      * Builds the array that holds the palette colors, based on current settings.
      */
     private void createPalette() {
-        if (paletteLength == 0)
-            palette = new int[maxIterations+1];
-        else
-            palette = new int[paletteLength];
+        int length = (paletteLength == 0) ? maxIterations + 1 : paletteLength;
+        palette = makePalette(paletteType, gradientPaletteColor1, gradientPaletteColor2, length);
+    }
+    
+    
+    /**
+     * Builds a palette of a given type and length.  This is used by createPalette()
+     * and by BatchRenderer.
+     * @param paletteType one of the constants MandelbrotDisplay.PALETTE_SPECTRUM,
+     *    MandelbrotDisplay.PALETTE_PALE_SPECTRUM, MandelbrotDisplay.PALETTE_GRAYSCALE,
+     *    MandelbrotDisplay.PALETTE_REVERSE_GRAYSCALE, or MandelbrotDisplay.PALETTE_GRADIENT
+     * @param gradientPaletteColor1 the start color, for a gradient palette; otherwise ignored
+     * @param gradientPaletteColor2 the end color, for a gradient palette; otherwise ignored
+     * @param length the number of colors in the palette
+     */
+    static int[] makePalette(int paletteType, Color gradientPaletteColor1,
+                                     Color gradientPaletteColor2, int length) {
+        int[] palette = new int[length];
         for (int i = 0; i < palette.length; i++) {
             float fraction = ((float)i)/(palette.length-1);
             Color color;
@@ -781,114 +1087,54 @@ public class MandelbrotDisplay extends JPanel {
             }
             palette[i] = color.getRGB();
         }
+        return palette;
     }
     
     
     /**
-     * Called by worker threads to get the next available job.  Computation of an
-     * image is broken up into a set of jobs that are performed by worker threads.
-     * This method is used to assign a new job to a thread each time it completes
-     * a job.  When no jobs are available (between computations or before any computation
-     * is begun), this method will block, which will keep the threads idle.
-     * @return
+     * This is called by a thread in the pool when the renderer finishes a preview pass.
+     * Since the user is waiting to see something, the preview is applied to the image
+     * right away, instead of waiting for the timer.
      */
-    synchronized private Job getNextJob() {
-        while (!computing && !shutDown) {
-            try {
-                wait();
-            }
-            catch (InterruptedException e) {
+    synchronized private void finishPreview(TileRenderer renderer, int step) {
+        if (renderer != this.renderer || finishedTiles == null)
+            return;
+        finishedPreviewStep = step;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                applyFinishedTilesToImage();
             }
-        }
-        if (shutDown)
-            return null;
-        else if (jobsAssigned >= jobs)
-            return null;
-        else {
-            Job job = new Job();
-            job.rowNumber = jobsAssigned;
-            job.xmin = xmin;
-            job.dx = dx;
-            job.y = ymax - jobsAssigned*dy;
-            job.maxIterations = maxIterations;
-            job.count = imageWidth;
-            job.computationNumber = computationNumber;
-            jobsAssigned++;
-            return job;
-        }
+        });
     }
     
     
     /**
-     * This is called by a worker thread when it finishes a job.  The job is added to
-     * the queue of finished jobs.  If all jobs have been completed, the stopComputing()
-     * method is called.
+     * This is called by a thread in the pool when the renderer finishes a tile.  The tile
+     * is added to the queue of finished tiles, unless it belongs to an old computation.
      */
-    synchronized private void finish(Job job) {
-        if (job.computationNumber != computationNumber)
+    synchronized private void finishTile(TileRenderer renderer, Rectangle tile) {
+        if (renderer != this.renderer || finishedTiles == null)
             return;
-        finishedJobs.addLast(job);
-        jobsCompleted++;
-        if (jobsCompleted == jobs)
-            stopComputing();
-    }
-    
-    
-    /**
-     * This class represents one job, which consists of doing the Mandelbrot computation 
-     * loop and counting the iterations for each pixel in one row of pixels.  All the
-     * data necessary for the computation is stored in the job object.  The
-     * computationNumber identifies which computation this job is part of.  The output
-     * of the jobs, consisting of an array of iteration counts, is stored in the
-     * iterationCounts instance variable when the job finishes.
-     */
-    private class Job {
-        double xmin;
-        double dx;
-        double y;
-        int count;
-        int maxIterations;
-        int rowNumber;
-        int computationNumber;
-        int[] iterationCounts;
-        void compute() {
-            iterationCounts = new int[count];
-            for (int i = 0; i < count; i++) {
-                double x0 = xmin + i * dx;
-                double y0 = y;
-                double a = x0;
-                double b = y0;
-                int ct = 0;
-                while (a*a + b*b < 4.1) {
-                    ct++;
-                    if (ct > maxIterations) {
-                        ct = -1;
-                        break;
-                    }
-                    double newa = a*a - b*b + x0;
-                    b = 2*a*b + y0;
-                    a = newa;
-                }
-                iterationCounts[i] = ct;
-            }
-        }
+        finishedTiles.addLast(tile);
     }
     
     
     /**
-     * Class that defines the worker threads.  The thread is very simple.  It just
-     * loops forever, getting jobs to do and carrying out each job. 
+     * This is called by a thread in the pool when the renderer has finished the whole
+     * image.  The stopComputing() method is called, which applies the remaining tiles.
      */
-    private class ComputeThread extends Thread {
-        public void run() {
-            while (true) {
-                Job job = getNextJob();  // blocks until a job is available.
-                if (shutDown)
-                    break;
-                if (job != null) {
-                    job.compute();  // does the work.
-                    finish(job);
-                }
+    synchronized private void finishRendering(TileRenderer renderer) {
+        if (renderer != this.renderer)
+            return;
+        stopComputing();
+        timeToFullQuality = (System.nanoTime() - computeStartTime) / 1e6;
+        if (REPORT_TIMES) {
+            System.out.printf("Image computed:  first frame in %.1f ms, full quality in %.1f ms.%n",
+                                  timeToFirstFrame, timeToFullQuality);
+            if (centerX != null) {
+                int[] stats = renderer.getPerturbationStatistics();
+                System.out.printf("Deep zoom:  %d reference orbits, %d pixels glitched, %d not resolved.%n",
+                                      stats[0], stats[1], stats[2]);
             }
         }
     }
@@ -3,16 +3,16 @@ package edu.hws.eck.mdb;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
+import java.math.BigDecimal;
 
 /**
  * A MandelbrotPanel contains a MandelbrotDisplay and a status bar.  The display
  * computes and displays a visualization of the Mandelbrot Set.  The status bar is
  * a JLabel that is used to display information that the user might be interested
  * in.  A mouse listener is installed on the display that enables the user to
- * zoom in and out on the image.  Nothing is done to stop the user from zooming
- * in beyond the limited accuracy of numbers of type double -- when this happens,
- * the picture will first become "blocky" and with even further zooms will become
- * meaningless.
+ * zoom in and out on the image.  When the user zooms in beyond the limited accuracy
+ * of numbers of type double, the display goes into "deep zoom" mode, and the zooming
+ * is done with BigDecimal coordinates (see MandelbrotDisplay.setView()).
  * 
  * <p>Mouse actions on the display:
  * <ul>
@@ -90,6 +90,19 @@ public class MandelbrotPanel extends JPanel {
      *   and all the other points move towards or away from that one.
      */
     public void zoom(int x, int y, double factor, boolean movePointToCenter) {
+        if (display.isDeepZoom()) {
+                // The clicked point is (offsetX,offsetY) from the center of the image.
+            double size = display.getPixelSize();
+            double offsetX = (x - display.getWidth()/2) * size;
+            double offsetY = -(y - display.getHeight()/2) * size;
+            if (!movePointToCenter) {
+                offsetX *= 1 - factor;
+                offsetY *= 1 - factor;
+            }
+            display.setView(display.getCenterX().add(new BigDecimal(offsetX)),
+                            display.getCenterY().add(new BigDecimal(offsetY)), size*factor);
+            return;
+        }
         double xmin = display.getXmin();
         double xmax = display.getXmax();
         double ymin = display.getYmin();
@@ -133,8 +146,19 @@ public class MandelbrotPanel extends JPanel {
                 diff *= 10;
             }
         }
-        String xStr = String.format("%1." + scale + "f", xCoord);
-        String yStr = String.format("%1." + scale + "f", yCoord);
+        String xStr, yStr;
+        if (display.isDeepZoom()) {
+                // xCoord and yCoord are not accurate enough; use the exact center instead.
+            double size = display.getPixelSize();
+            xStr = String.format("%1." + scale + "f",
+                    display.getCenterX().add(new BigDecimal((x - display.getWidth()/2) * size)));
+            yStr = String.format("%1." + scale + "f",
+                    display.getCenterY().subtract(new BigDecimal((y - display.getHeight()/2) * size)));
+        }
+        else {
+            xStr = String.format("%1." + scale + "f", xCoord);
+            yStr = String.format("%1." + scale + "f", yCoord);
+        }
         statusBar.setText(I18n.tr("status.mouseCoords",xStr,yStr));
     }
      
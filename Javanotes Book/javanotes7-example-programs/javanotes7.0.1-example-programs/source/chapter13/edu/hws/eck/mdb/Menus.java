@@ -12,6 +12,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import java.util.StringTokenizer;
+import java.math.BigDecimal;
 
 import org.w3c.dom.*;
 
@@ -169,6 +170,15 @@ public class Menus extends JMenuBar {
                         }
                     }
                 });
+        owner.getDisplay().addPropertyChangeListener(MandelbrotDisplay.VIEW_PROPERTY, 
+                new PropertyChangeListener() {
+                        // The exact old view, which is needed to undo a change
+                        // of limits in deep zoom mode.
+                    public void propertyChange(PropertyChangeEvent e) {
+                        if (e.getPropertyName() == MandelbrotDisplay.VIEW_PROPERTY)
+                            previousView = (BigDecimal[])e.getOldValue();
+                    }
+                });
         owner.getDisplay().addPropertyChangeListener(MandelbrotDisplay.STATUS_PROPERTY, 
                 new PropertyChangeListener() {
                         // This listener responds when the "status" of the display
@@ -267,6 +277,13 @@ public class Menus extends JMenuBar {
                         double ymax = Double.parseDouble(limitStrings[3]);
                         owner.getDisplay().setLimits(xmin,xmax,ymin,ymax);
                     }
+                    else if (name.equalsIgnoreCase("view")) {  // Written only for deep zooms.
+                        String[] viewStrings = explode(value,",");
+                        BigDecimal centerX = new BigDecimal(viewStrings[0]);
+                        BigDecimal centerY = new BigDecimal(viewStrings[1]);
+                        double pixelSize = Double.parseDouble(viewStrings[2]);
+                        owner.getDisplay().setView(centerX,centerY,pixelSize);
+                    }
                 }
                 catch (Exception e) {
                     throw new IllegalArgumentException(I18n.tr("xml.error.illegalSettingsValue",name,value));
@@ -279,7 +296,8 @@ public class Menus extends JMenuBar {
     /**
      * This is used by the Save Params action to create an XML representation of 
      * the current settings.  (It is not currently used outside this class in the Mandelbrot
-     * Viewer program.)
+     * Viewer program.  The files that it writes can also be rendered at any size,
+     * without a display, by BatchRenderer.)
      */
     public String currentSettingsAsXML() {
         StringBuffer buffer = new StringBuffer();
@@ -288,6 +306,13 @@ public class Menus extends JMenuBar {
         double[] limits = owner.getDisplay().getLimits();
         String limitString = limits[0] + "," + limits[1] + "," + limits[2] + "," + limits[3];
         buffer.append("<limits value='"+ limitString + "'/>\n");
+        if (owner.getDisplay().isDeepZoom()) {
+                // The limits are only approximate, so the exact view is saved too.
+            String viewString = owner.getDisplay().getCenterX().toPlainString() + ","
+                                    + owner.getDisplay().getCenterY().toPlainString() + ","
+                                    + owner.getDisplay().getPixelSize();
+            buffer.append("<view value='"+ viewString + "'/>\n");
+        }
         String sizeString = owner.getDisplay().getWidth() + "," + owner.getDisplay().getHeight();
         buffer.append("<imagesize value='"+ sizeString + "'/>\n");
         buffer.append("<maxiterations value='" + maxIterationsManager.valueAsString() + "'/>\n");
@@ -311,6 +336,7 @@ public class Menus extends JMenuBar {
 
     private JFileChooser fileDialog;  // File dialog for open and save commands.
     private double[] previousLimits;  // For the Restore Previous Limits command.
+    private BigDecimal[] previousView;  // Also for Restore Previous Limits, when the previous view was a deep zoom.
     private String commandKey; // "ctrl " or "meta ", depending on platform; used only in makeAccelerator()
 
     
@@ -560,7 +586,11 @@ public class Menus extends JMenuBar {
             // the limits change.  The listener stores the old limits in the previousLimits
             // instance variable.
         public void actionPerformed(ActionEvent evt) {
-            if (previousLimits != null)
+            if (previousView != null
+                    && previousView[2].doubleValue() < MandelbrotDisplay.DEEP_ZOOM_PIXEL_SIZE)
+                owner.getDisplay().setView(previousView[0],previousView[1],
+                                                 previousView[2].doubleValue());
+            else if (previousLimits != null)
                 owner.getDisplay().setLimits(previousLimits[0],previousLimits[1],
                                                  previousLimits[2],previousLimits[3]);
         }
@@ -0,0 +1,120 @@
+package edu.hws.eck.mdb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the effect of the preview passes that MandelbrotDisplay uses.  For
+ * several views, an image is computed by a TileRenderer with no previews and
+ * with previews at steps 16, 8, and 4, and the program reports the time until
+ * the first frame can be shown (the first preview, or the whole image if there
+ * are no previews) and the time until the image is complete.  The complete
+ * images are compared, and the number of pixels where they differ is shown.
+ * (They can differ only at details that are thinner than a pixel; see
+ * TileRenderer.)  Each time is the median of several runs, after warm-up runs.
+ * <p>Then the program measures how quickly a computation stops when it is
+ * cancelled:  An expensive image is started, it is cancelled after a short
+ * delay, and the program measures the time until the pool is idle again.
+ * <p>Usage:  java edu.hws.eck.mdb.ProgressiveBenchmark [width height]
+ * <br>The default image size is 800 by 600, the default size of the display.
+ */
+public class ProgressiveBenchmark {
+
+    private final static String[] NAMES = { "Full set", "Seahorse valley", "Spiral", "Deep spiral" };
+    private final static double[][] VIEWS = {   // center x, center y, width, maxIterations
+        { -0.7, 0, 3.6, 1000 },
+        { -0.75, 0.1, 0.1, 1000 },
+        { -0.743643887037151, 0.131825904205330, 1e-3, 1000 },
+        { -0.743643887037151, 0.131825904205330, 1e-8, 10000 }
+    };
+    private final static int[] PREVIEW_STEPS = { 16, 8, 4 };
+    private final static int RUNS = 5;
+
+    private static ForkJoinPool pool = new ForkJoinPool();
+
+    public static void main(String[] args) throws InterruptedException {
+        int width = 800;
+        int height = 600;
+        if (args.length == 2) {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+        }
+        System.out.printf("%d-by-%d image; %d threads; median of %d runs.%n%n",
+                                  width, height, pool.getParallelism(), RUNS);
+        System.out.printf("%-16s %14s %14s %14s %14s %10s%n", "", "No previews", "",
+                                  "Previews", "", "");
+        System.out.printf("%-16s %14s %14s %14s %14s %10s%n", "View", "First (ms)", "Full (ms)",
+                                  "First (ms)", "Full (ms)", "Different");
+        int[][] plain = new int[height][width];
+        int[][] progressive = new int[height][width];
+        for (int i = 0; i < 3; i++) {  // Get everything compiled first.
+            render(VIEWS[1], false, plain);
+            render(VIEWS[1], true, progressive);
+        }
+        for (int v = 0; v < VIEWS.length; v++) {
+            double[][] plainTimes = new double[2][RUNS];
+            double[][] progressiveTimes = new double[2][RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                TileRenderer renderer = render(VIEWS[v], false, plain);
+                plainTimes[0][run] = renderer.getTimeToFirstFrame();
+                plainTimes[1][run] = renderer.getTimeToFullQuality();
+                renderer = render(VIEWS[v], true, progressive);
+                progressiveTimes[0][run] = renderer.getTimeToFirstFrame();
+                progressiveTimes[1][run] = renderer.getTimeToFullQuality();
+            }
+            int different = 0;
+            for (int r = 0; r < height; r++) {
+                for (int c = 0; c < width; c++) {
+                    if (plain[r][c] != progressive[r][c])
+                        different++;
+                }
+            }
+            System.out.printf("%-16s %14.1f %14.1f %14.1f %14.1f %10d%n", NAMES[v],
+                                 median(plainTimes[0]), median(plainTimes[1]),
+                                 median(progressiveTimes[0]), median(progressiveTimes[1]), different);
+        }
+        System.out.println();
+        System.out.printf("%-16s %14s %14s%n", "Cancel after", "maxIter", "Stopped in");
+        for (int delay : new int[] { 1, 20, 100 }) {
+            for (int maxIterations : new int[] { 10000, 500000 }) {
+                double[] view = VIEWS[3].clone();
+                view[3] = maxIterations;
+                double dx = view[2] / width;
+                TileRenderer renderer = new TileRenderer(Math.round((view[0] - view[2]/2) / dx),
+                                                         Math.round(-(view[1] + dx*height/2) / dx),
+                                                         dx, dx, maxIterations, plain, null);
+                renderer.setPreviewSteps(PREVIEW_STEPS);
+                renderer.start(pool);
+                Thread.sleep(delay);
+                long start = System.nanoTime();
+                renderer.cancel();
+                pool.awaitQuiescence(1, TimeUnit.MINUTES);
+                System.out.printf("%13d ms %14d %11.2f ms%n", delay, maxIterations,
+                                                 (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Computes an image with a TileRenderer, with or without the preview passes.
+     */
+    private static TileRenderer render(double[] view, boolean previews, int[][] counts) {
+        double dx = view[2] / counts[0].length;
+        TileRenderer renderer = new TileRenderer(Math.round((view[0] - view[2]/2) / dx),
+                                                 Math.round(-(view[1] + dx*counts.length/2) / dx),
+                                                 dx, dx, (int)view[3], counts, null);
+        if (previews)
+            renderer.setPreviewSteps(PREVIEW_STEPS);
+        renderer.render(pool);
+        return renderer;
+    }
+
+    /**
+     * Returns the median of an array of numbers.  (The array is sorted.)
+     */
+    private static double median(double[] values) {
+        java.util.Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+}
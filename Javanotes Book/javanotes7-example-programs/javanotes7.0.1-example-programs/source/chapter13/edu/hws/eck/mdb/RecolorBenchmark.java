@@ -0,0 +1,92 @@
+package edu.hws.eck.mdb;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the time needed to color an image again after the palette has been
+ * changed, for several image sizes up to 3840-by-2160 ("4K").  The counts are
+ * computed once for each size with a TileRenderer; then the image is colored
+ * in three ways:  as MandelbrotDisplay used to do it, by filling an array with
+ * the colors for one row at a time and copying each row into the image with
+ * setRGB(); by an ImageColorer in one thread, writing directly into the
+ * image's DataBufferInt; and by an ImageColorer in parallel, using the common
+ * ForkJoinPool, as MandelbrotDisplay does now.  The program checks that the
+ * three images are the same, and reports the best time for each method.
+ * <p>Usage:  java edu.hws.eck.mdb.RecolorBenchmark [paletteLength]
+ * <br>The default for paletteLength is 250, which is less than maxIterations
+ * (1000), so that the palette is repeated as in the "Palette Length" menu.
+ */
+public class RecolorBenchmark {
+
+    private final static int[][] SIZES = {
+        { 800, 600 }, { 1920, 1080 }, { 2560, 1440 }, { 3840, 2160 }
+    };
+
+    private final static int MAX_ITERATIONS = 1000;
+    private final static int RUNS = 10;
+
+    private static ForkJoinPool pool = new ForkJoinPool();
+
+    public static void main(String[] args) {
+        int paletteLength = 250;
+        if (args.length > 0)
+            paletteLength = Integer.parseInt(args[0]);
+        int[] palette = new int[paletteLength];
+        for (int i = 0; i < paletteLength; i++)
+            palette[i] = java.awt.Color.HSBtoRGB(i / (float)paletteLength, 1, 1) & 0xFFFFFF;
+        System.out.printf("maxIterations = %d; paletteLength = %d; %d threads; best of %d runs.%n%n",
+                              MAX_ITERATIONS, paletteLength, ForkJoinPool.commonPool().getParallelism(), RUNS);
+        System.out.printf("%-12s %12s %12s %12s %12s %10s%n", "Size", "Pixels", "setRGB",
+                                  "Serial", "Parallel", "Same");
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            int[][] counts = new int[height][width];
+            double pixelSize = 3.0 / width;
+            new TileRenderer(Math.round(-2.2 / pixelSize), Math.round(-1.5 * height / width / pixelSize),
+                                 pixelSize, pixelSize, MAX_ITERATIONS, counts, null).render(pool);
+            BufferedImage oldImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            BufferedImage newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ImageColorer.pixelsOf(newImage);
+            double oldTime = Double.MAX_VALUE, serialTime = Double.MAX_VALUE, parallelTime = Double.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                colorWithSetRGB(counts, palette, oldImage);
+                oldTime = Math.min(oldTime, (System.nanoTime() - start) / 1e6);
+                start = System.nanoTime();
+                ImageColorer.colorRect(counts, palette, 0, 0, width, height, pixels);
+                serialTime = Math.min(serialTime, (System.nanoTime() - start) / 1e6);
+                start = System.nanoTime();
+                ImageColorer.colorImage(ForkJoinPool.commonPool(), counts, palette, 1, pixels);
+                parallelTime = Math.min(parallelTime, (System.nanoTime() - start) / 1e6);
+            }
+            boolean same = true;
+            for (int r = 0; r < height && same; r++) {
+                for (int c = 0; c < width; c++) {
+                    if ((oldImage.getRGB(c, r) & 0xFFFFFF) != pixels[r*width + c]) {
+                        same = false;
+                        break;
+                    }
+                }
+            }
+            System.out.printf("%-12s %12d %9.2f ms %9.2f ms %9.2f ms %10s%n", width + "x" + height,
+                                  width*height, oldTime, serialTime, parallelTime, same ? "yes" : "NO");
+        }
+    }
+
+    /**
+     * Colors an image in the way that MandelbrotDisplay did before it used an
+     * ImageColorer:  one row at a time, using setRGB().
+     */
+    private static void colorWithSetRGB(int[][] counts, int[] palette, BufferedImage image) {
+        int width = counts[0].length;
+        int[] rgb = new int[width];
+        for (int row = 0; row < counts.length; row++) {
+            for (int i = 0; i < width; i++)
+                rgb[i] = ImageColorer.colorFor(counts[row][i], palette);
+            image.setRGB(0, row, width, 1, rgb, 0, width);
+        }
+    }
+
+}
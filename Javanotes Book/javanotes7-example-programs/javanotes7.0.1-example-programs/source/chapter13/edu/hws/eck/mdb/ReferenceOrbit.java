@@ -0,0 +1,267 @@
+package edu.hws.eck.mdb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * A ReferenceOrbit is used by TileRenderer for images that are so deeply zoomed
+ * that the coordinates of neighboring pixels can't be told apart in type double.
+ * It holds the orbit Z(1) = C, Z(n+1) = Z(n)*Z(n) + C of one "reference" point C,
+ * computed with high precision.  (The computation uses fixed-point numbers:  a
+ * BigInteger N stands for N / 2^bits.  This is several times faster than using
+ * BigDecimal, since no decimal rounding is needed.)  Each Z(n) is then rounded to type double,
+ * which is fine because the Z(n) are never much larger than 2.  For a pixel
+ * at the point C + d, the orbit z(n) is written as Z(n) + e(n), and the small
+ * "perturbation" e(n) is computed in type double, using the formula
+ * e(n+1) = 2*Z(n)*e(n) + e(n)*e(n) + d.  The offset d and the values e(n) are
+ * tiny, but doubles can represent tiny numbers accurately (down to about 1e-300);
+ * it is only sums such as C + d that need more precision than a double has.  So
+ * after the reference orbit has been computed, slowly, every pixel costs about
+ * as much as it does in an ordinary image.
+ * <p>This does not always work.  When z(n) comes very close to 0 while Z(n)
+ * does not, the rounding errors in Z(n) are large compared to z(n), and the
+ * result for the pixel can be wrong (a "glitch", which typically shows up as a
+ * blob of the wrong color).  Such pixels are detected with the test
+ * |z(n)| &lt; 0.001*|Z(n)|.  The count for such a pixel is GLITCHED, and the
+ * pixel has to be computed again using a different reference point (see
+ * TileRenderer).
+ * <p>A ReferenceOrbit is immutable after it has been constructed, so it can be
+ * used by several threads.
+ */
+class ReferenceOrbit {
+
+    /**
+     * The count for a pixel that could not be computed correctly from this
+     * reference orbit.
+     */
+    final static int GLITCHED = Integer.MIN_VALUE + 1;
+
+    /**
+     * A pixel is glitched if |z(n)|^2 < GLITCH_TOLERANCE * |Z(n)|^2.
+     */
+    private final static double GLITCH_TOLERANCE = 1e-6;
+
+    /**
+     * The number of extra decimal digits, beyond those needed to tell
+     * neighboring pixels apart, that are used for the reference orbit.
+     */
+    private final static int EXTRA_DIGITS = 12;
+
+
+    private final double offsetX, offsetY;  // Position of the reference point, relative to the image's origin.
+    private final double[] zx, zy;          // zx[n] and zy[n] are the coordinates of Z(n+1).
+    private final double[] glitchLimit;     // GLITCH_TOLERANCE * |Z(n+1)|^2.
+    private final int length;               // The number of points of the orbit that are stored.
+
+
+    /**
+     * Computes the reference orbit for the point (originX + offsetX, originY + offsetY).
+     * The orbit is computed until it escapes or until it has maxIterations + 1
+     * points, the number needed to compute any pixel.
+     * @param originX the x-coordinate of the point that the offsets are measured from.
+     * @param originY the y-coordinate of the point that the offsets are measured from.
+     * @param offsetX the x-offset of the reference point from the origin.  (In
+     *    TileRenderer, this is the x-coordinate of a pixel.)
+     * @param offsetY the y-offset of the reference point from the origin.
+     * @param pixelSize the size of a pixel, which determines the precision that is used.
+     * @param renderer if this is non-null, the computation is abandoned if the renderer
+     *    is cancelled, leaving a shorter orbit.
+     */
+    ReferenceOrbit(BigDecimal originX, BigDecimal originY, double offsetX, double offsetY,
+                          double pixelSize, int maxIterations, TileRenderer renderer) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        int bits = (int)Math.ceil(digitsFor(pixelSize) * 3.33);  // (log2(10) is about 3.32.)
+        BigInteger cx = toFixedPoint(originX.add(new BigDecimal(offsetX)), bits);
+        BigInteger cy = toFixedPoint(originY.add(new BigDecimal(offsetY)), bits);
+        zx = new double[maxIterations + 1];
+        zy = new double[maxIterations + 1];
+        glitchLimit = new double[maxIterations + 1];
+        BigInteger a = cx;
+        BigInteger b = cy;
+        int n = 0;
+        while (n <= maxIterations) {
+            double x = Math.scalb(a.doubleValue(), -bits);
+            double y = Math.scalb(b.doubleValue(), -bits);
+            zx[n] = x;
+            zy[n] = y;
+            glitchLimit[n] = GLITCH_TOLERANCE * (x*x + y*y);
+            n++;
+            if (x*x + y*y >= TileRenderer.ESCAPE_LIMIT)
+                break;   // Later points are never needed, and would soon be huge.
+            if (renderer != null && n % 1000 == 0 && renderer.isCancelled())
+                break;
+            BigInteger aa = a.multiply(a).shiftRight(bits);
+            BigInteger bb = b.multiply(b).shiftRight(bits);
+            BigInteger ab2 = a.multiply(b).shiftRight(bits - 1);  // 2*a*b
+            a = aa.subtract(bb).add(cx);
+            b = ab2.add(cy);
+        }
+        length = n;
+    }
+
+
+    /**
+     * Converts a number to fixed-point form, rounding it to a multiple of 2^(-bits).
+     */
+    private static BigInteger toFixedPoint(BigDecimal x, int bits) {
+        return new BigDecimal(BigInteger.ONE.shiftLeft(bits)).multiply(x)
+                                  .setScale(0, RoundingMode.HALF_EVEN).toBigInteger();
+    }
+
+
+    /**
+     * Returns the number of decimal digits that are used for reference orbits
+     * in an image with a given pixel size.
+     */
+    static int digitsFor(double pixelSize) {
+        return Math.max(16, (int)Math.ceil(-Math.log10(pixelSize))) + EXTRA_DIGITS;
+    }
+
+
+    /**
+     * Returns the number of points of the orbit that were computed.  This is
+     * less than maxIterations + 1 if the reference point escaped (or if the
+     * computation was cancelled).
+     */
+    int getLength() {
+        return length;
+    }
+
+
+    /**
+     * Computes the counts for four pixels, like TileRenderer.iterate4(), but using
+     * perturbation from the reference orbit.  The results are the same as the
+     * counts that would be computed with exact arithmetic (that is, with enough
+     * precision), except for pixels whose result is GLITCHED.  The coordinates
+     * of the pixels are given relative to the same origin as the reference point.
+     * <p>As in TileRenderer.iterate4(), the computations for the four pixels are
+     * interleaved, and a pixel that has escaped (or glitched) is masked out.
+     * <p>When a pixel is still being iterated at the last point of the reference
+     * orbit (because the reference point escaped), it goes back to the start of the
+     * orbit:  Since z(n+1) = z(n)*z(n) + C + d = Z(1) + (z(n)*z(n) + d), the
+     * computation continues with Z(1) and the perturbation z(n)*z(n) + d.  This is
+     * exact, so it is not a glitch, but it means that each of the four pixels needs
+     * its own position, k0 to k3, in the reference orbit.
+     * @param detectGlitches if false, the test for glitches is not applied, and
+     *    the result is never GLITCHED.
+     */
+    void iterate4(double x0, double y0, double x1, double y1,
+                  double x2, double y2, double x3, double y3,
+                  int maxIterations, boolean detectGlitches, int[] results) {
+        double[] zx = this.zx, zy = this.zy, glitchLimit = this.glitchLimit;
+        int last = length - 1;
+        double d0 = x0 - offsetX, d1 = x1 - offsetX, d2 = x2 - offsetX, d3 = x3 - offsetX;  // Offsets from
+        double f0 = y0 - offsetY, f1 = y1 - offsetY, f2 = y2 - offsetY, f3 = y3 - offsetY;  //   the reference.
+        double a0 = d0, a1 = d1, a2 = d2, a3 = d3;   // The perturbation e(n) = (a,b); e(1) = d.
+        double b0 = f0, b1 = f1, b2 = f2, b3 = f3;
+        int k0 = 0, k1 = 0, k2 = 0, k3 = 0;  // The position in the reference orbit for each pixel.
+        int m0 = 1, m1 = 1, m2 = 1, m3 = 1;  // 1 for a pixel that is still being iterated.
+        int g0 = 0, g1 = 0, g2 = 0, g3 = 0;  // 1 for a pixel that is glitched.
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        double tolerance = detectGlitches ? 1 : 0;
+        for (int n = 0; n <= maxIterations; n++) {
+            double p0 = zx[k0] + a0, q0 = zy[k0] + b0;   // z(n+1) = (p,q)
+            double p1 = zx[k1] + a1, q1 = zy[k1] + b1;
+            double p2 = zx[k2] + a2, q2 = zy[k2] + b2;
+            double p3 = zx[k3] + a3, q3 = zy[k3] + b3;
+            double r0 = p0*p0 + q0*q0, r1 = p1*p1 + q1*q1;
+            double r2 = p2*p2 + q2*q2, r3 = p3*p3 + q3*q3;
+            m0 = (r0 < TileRenderer.ESCAPE_LIMIT) ? m0 : 0;
+            m1 = (r1 < TileRenderer.ESCAPE_LIMIT) ? m1 : 0;
+            m2 = (r2 < TileRenderer.ESCAPE_LIMIT) ? m2 : 0;
+            m3 = (r3 < TileRenderer.ESCAPE_LIMIT) ? m3 : 0;
+            g0 |= (r0 < tolerance*glitchLimit[k0]) ? m0 : 0;
+            g1 |= (r1 < tolerance*glitchLimit[k1]) ? m1 : 0;
+            g2 |= (r2 < tolerance*glitchLimit[k2]) ? m2 : 0;
+            g3 |= (r3 < tolerance*glitchLimit[k3]) ? m3 : 0;
+            m0 &= ~g0;
+            m1 &= ~g1;
+            m2 &= ~g2;
+            m3 &= ~g3;
+            if ((m0 | m1 | m2 | m3) == 0)
+                break;
+            c0 += m0;
+            c1 += m1;
+            c2 += m2;
+            c3 += m3;
+            double na;
+            if (k0 < last) {   // e = 2*Z*e + e*e + d
+                na = 2*(zx[k0]*a0 - zy[k0]*b0) + a0*a0 - b0*b0 + d0;
+                b0 = 2*(zx[k0]*b0 + zy[k0]*a0) + 2*a0*b0 + f0;
+                a0 = na;
+                k0++;
+            }
+            else {   // Go back to the start of the orbit; e = z*z + d
+                a0 = p0*p0 - q0*q0 + d0;
+                b0 = 2*p0*q0 + f0;
+                k0 = 0;
+            }
+            if (k1 < last) {
+                na = 2*(zx[k1]*a1 - zy[k1]*b1) + a1*a1 - b1*b1 + d1;
+                b1 = 2*(zx[k1]*b1 + zy[k1]*a1) + 2*a1*b1 + f1;
+                a1 = na;
+                k1++;
+            }
+            else {
+                a1 = p1*p1 - q1*q1 + d1;
+                b1 = 2*p1*q1 + f1;
+                k1 = 0;
+            }
+            if (k2 < last) {
+                na = 2*(zx[k2]*a2 - zy[k2]*b2) + a2*a2 - b2*b2 + d2;
+                b2 = 2*(zx[k2]*b2 + zy[k2]*a2) + 2*a2*b2 + f2;
+                a2 = na;
+                k2++;
+            }
+            else {
+                a2 = p2*p2 - q2*q2 + d2;
+                b2 = 2*p2*q2 + f2;
+                k2 = 0;
+            }
+            if (k3 < last) {
+                na = 2*(zx[k3]*a3 - zy[k3]*b3) + a3*a3 - b3*b3 + d3;
+                b3 = 2*(zx[k3]*b3 + zy[k3]*a3) + 2*a3*b3 + f3;
+                a3 = na;
+                k3++;
+            }
+            else {
+                a3 = p3*p3 - q3*q3 + d3;
+                b3 = 2*p3*q3 + f3;
+                k3 = 0;
+            }
+        }
+        results[0] = (g0 != 0) ? GLITCHED : (m0 != 0) ? -1 : c0;
+        results[1] = (g1 != 0) ? GLITCHED : (m1 != 0) ? -1 : c1;
+        results[2] = (g2 != 0) ? GLITCHED : (m2 != 0) ? -1 : c2;
+        results[3] = (g3 != 0) ? GLITCHED : (m3 != 0) ? -1 : c3;
+    }
+
+
+    /**
+     * Computes the count for a single point in the straightforward way, using
+     * BigDecimal arithmetic with the given precision.  This is extremely slow;
+     * it is used only for checking the results of perturbation (see DeepZoomBenchmark).
+     */
+    static int countIterations(BigDecimal x0, BigDecimal y0, int maxIterations, MathContext mc) {
+        BigDecimal limit = new BigDecimal(TileRenderer.ESCAPE_LIMIT);
+        BigDecimal a = x0;
+        BigDecimal b = y0;
+        int ct = 0;
+        while (true) {
+            BigDecimal aa = a.multiply(a, mc);
+            BigDecimal bb = b.multiply(b, mc);
+            if (aa.add(bb).compareTo(limit) >= 0)
+                return ct;
+            ct++;
+            if (ct > maxIterations)
+                return -1;
+            BigDecimal ab = a.multiply(b, mc);
+            a = aa.subtract(bb, mc).add(x0, mc);
+            b = ab.add(ab, mc).add(y0, mc);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package edu.hws.eck.mdb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compares the time needed to compute a complete image with TileRenderer and
+ * with the straightforward method that was used before TileRenderer, which
+ * computes every pixel, one row at a time, with TileRenderer.computeRow().
+ * Both methods use the same ForkJoinPool, with one thread for each available
+ * processor.  Several views are used, from the full Mandelbrot set to deep
+ * zooms, with several values of maxIterations.  Each measurement is the best
+ * of several runs, after warm-up runs.  For each image, the program also
+ * reports the percentage of pixels that TileRenderer actually iterated, and
+ * the number of pixels where the two images are different.  (In principle,
+ * a detail that is thinner than a pixel can pass through a tile without
+ * touching the pixels on its border, so that it is filled in; this should
+ * be very rare.)
+ * <p>Usage:  java edu.hws.eck.mdb.RenderBenchmark [width height]
+ * <br>The default image size is 800 by 600, the default size of the display.
+ */
+public class RenderBenchmark {
+
+    /**
+     * The views:  a name, the x and y coordinates of the center, the width of
+     * the region, and the values of maxIterations.
+     */
+    private final static String[] NAMES = { "Full set", "Seahorse valley", "Spiral", "Deep spiral", "Mini-brot" };
+    private final static double[][] VIEWS = {
+        { -0.7, 0, 3.6 },
+        { -0.75, 0.1, 0.1 },
+        { -0.743643887037151, 0.131825904205330, 1e-3 },
+        { -0.743643887037151, 0.131825904205330, 1e-8 },
+        { -1.7687788, 0.0017389, 2e-5 }
+    };
+    private final static int[] MAX_ITERATIONS = { 100, 1000, 10000 };
+    private final static int RUNS = 3;
+
+    private static ForkJoinPool pool = new ForkJoinPool();
+
+    public static void main(String[] args) {
+        int width = 800;
+        int height = 600;
+        if (args.length == 2) {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+        }
+        System.out.printf("%d-by-%d image; %d threads; best of %d runs.%n%n",
+                                  width, height, pool.getParallelism(), RUNS);
+        System.out.printf("%-16s %8s %12s %12s %9s %10s %10s%n", "View", "maxIter",
+                              "Rows (ms)", "Tiles (ms)", "Speedup", "Iterated", "Different");
+        int[][] rows = new int[height][width];
+        int[][] tiles = new int[height][width];
+        for (int i = 0; i < 2; i++) {  // Get everything compiled first.
+            time(false, VIEWS[1], 1000, rows);
+            time(true, VIEWS[1], 1000, tiles);
+        }
+        long totalDifferent = 0;
+        for (int v = 0; v < VIEWS.length; v++) {
+            for (int maxIterations : MAX_ITERATIONS) {
+                double rowsTime = time(false, VIEWS[v], maxIterations, rows);
+                double tilesTime = time(true, VIEWS[v], maxIterations, tiles);
+                long[] stats = render(VIEWS[v], maxIterations, tiles).getStatistics();
+                int different = 0;
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        if (rows[r][c] != tiles[r][c])
+                            different++;
+                    }
+                }
+                totalDifferent += different;
+                System.out.printf("%-16s %8d %12.1f %12.1f %8.2fx %9.1f%% %10d%n", NAMES[v], maxIterations,
+                                  rowsTime, tilesTime, rowsTime / tilesTime,
+                                  100.0 * stats[0] / (width*height), different);
+            }
+        }
+        System.out.println();
+        System.out.println(totalDifferent + " pixels were different in all.");
+    }
+
+    /**
+     * Computes an image with one of the methods, RUNS times, and returns the
+     * shortest time, in milliseconds.
+     */
+    private static double time(boolean useTiles, double[] view, int maxIterations, int[][] counts) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            if (useTiles)
+                render(view, maxIterations, counts);
+            else
+                pool.invoke(new RowsTask(view, maxIterations, counts, 0, counts.length));
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * Computes an image with a TileRenderer.
+     */
+    private static TileRenderer render(double[] view, int maxIterations, int[][] counts) {
+        double dx = view[2] / counts[0].length;
+        TileRenderer renderer = new TileRenderer(Math.round((view[0] - view[2]/2) / dx),
+                                                 Math.round(-(view[1] + dx*counts.length/2) / dx),
+                                                 dx, dx, maxIterations, counts, null);
+        renderer.render(pool);
+        return renderer;
+    }
+
+    /**
+     * Computes the rows from startRow up to endRow, by dividing them in half
+     * until there are only a few rows.
+     */
+    private static class RowsTask extends RecursiveAction {
+        double[] view;
+        int maxIterations;
+        int[][] counts;
+        int startRow, endRow;
+        RowsTask(double[] view, int maxIterations, int[][] counts, int startRow, int endRow) {
+            this.view = view;
+            this.maxIterations = maxIterations;
+            this.counts = counts;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+        protected void compute() {
+            if (endRow - startRow > 4) {
+                int middle = (startRow + endRow) / 2;
+                invokeAll(new RowsTask(view, maxIterations, counts, startRow, middle),
+                          new RowsTask(view, maxIterations, counts, middle, endRow));
+                return;
+            }
+            int width = counts[0].length;
+            double dx = view[2] / width;
+            long firstColumn = Math.round((view[0] - view[2]/2) / dx);
+            long firstRow = Math.round(-(view[1] + dx*counts.length/2) / dx);
+            for (int row = startRow; row < endRow; row++)
+                TileRenderer.computeRow(firstColumn, dx, -(firstRow + row)*dx, width, maxIterations, counts[row]);
+        }
+    }
+
+}
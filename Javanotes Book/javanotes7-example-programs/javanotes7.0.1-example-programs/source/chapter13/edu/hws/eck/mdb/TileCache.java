@@ -0,0 +1,270 @@
+package edu.hws.eck.mdb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A TileCache holds iteration counts that have already been computed, so that
+ * they can be used again when the user returns to a view, moves the view a
+ * little, or zooms in or out by a factor of two.  The counts are kept in
+ * square tiles of TILE_SIZE by TILE_SIZE pixels on the grid that is used by
+ * TileRenderer, where column number i of the grid is at x = i*pixelSize and
+ * row number j is at y = -j*pixelSize.  A tile is identified by the pixel size,
+ * the value of maxIterations, and its position on the grid.  Pixels in a tile
+ * that have not been computed have the value TileRenderer.NOT_COMPUTED.
+ * <p>When the total size of the tiles is more than the memory budget, the
+ * tiles that were least recently used are discarded.
+ * <p>Because x = i*pixelSize, the point for column i of a grid is the same
+ * point as column 2*i of the grid whose pixel size is pixelSize/2, exactly.
+ * So fetch() can also use tiles whose pixel size is a power of two times
+ * larger or smaller than the requested one.  The pixels of a smaller grid give
+ * values for all the pixels of a larger grid, while a larger grid gives only
+ * every second (or fourth) row and column of a smaller one.
+ * <p>All the methods are synchronized, so a cache can be shared by several threads.
+ */
+class TileCache {
+
+    /**
+     * The width and height of a tile.
+     */
+    final static int TILE_SIZE = 64;
+
+    /**
+     * The number of bytes that are counted for each tile.
+     */
+    private final static long TILE_BYTES = 4L*TILE_SIZE*TILE_SIZE + 100;
+
+    /**
+     * The pixel sizes that fetch() tries, as powers of two times the requested
+     * size.  Smaller sizes come first, since they can fill in all the pixels.
+     */
+    private final static int[] SCALES = { 0, -1, -2, 1, 2 };
+
+
+    /**
+     * Identifies a tile.  The tile contains grid columns from tileColumn*TILE_SIZE
+     * to tileColumn*TILE_SIZE + TILE_SIZE - 1, and similarly for rows.
+     */
+    private static class Key {
+        double pixelSize;
+        int maxIterations;
+        long tileColumn, tileRow;
+        Key(double pixelSize, int maxIterations, long tileColumn, long tileRow) {
+            this.pixelSize = pixelSize;
+            this.maxIterations = maxIterations;
+            this.tileColumn = tileColumn;
+            this.tileRow = tileRow;
+        }
+        public boolean equals(Object obj) {
+            if ( ! (obj instanceof Key) )
+                return false;
+            Key key = (Key)obj;
+            return key.pixelSize == pixelSize && key.maxIterations == maxIterations
+                      && key.tileColumn == tileColumn && key.tileRow == tileRow;
+        }
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(pixelSize) + 31*maxIterations
+                           + 961*tileColumn + 29791*tileRow;
+            return (int)(bits ^ (bits >>> 32));
+        }
+    }
+
+
+    private final long memoryBudget;
+    private final LinkedHashMap<Key,int[]> tiles;  // In access order, so the eldest is least recently used.
+
+    private long pixelsStored;   // For getStatistics().
+    private long pixelsFetched;
+    private long tilesEvicted;
+
+
+    /**
+     * Creates a cache that uses at most about memoryBudget bytes.
+     */
+    TileCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        tiles = new LinkedHashMap<Key,int[]>(16, 0.75F, true);
+    }
+
+
+    /**
+     * Adds the known counts from an image to the cache.  Pixels that are
+     * NOT_COMPUTED are ignored, so the image can be incomplete.  Tiles that are
+     * already in the cache are merged with the new data.
+     * @param firstColumn the grid column of the left edge of the image.
+     * @param firstRow the grid row of the top edge of the image.
+     * @param counts the counts for the image; the first index is the row number.
+     */
+    synchronized void store(long firstColumn, long firstRow, double pixelSize,
+                                              int maxIterations, int[][] counts) {
+        int height = counts.length;
+        int width = (height == 0) ? 0 : counts[0].length;
+        long firstTileRow = Math.floorDiv(firstRow, TILE_SIZE);
+        long lastTileRow = Math.floorDiv(firstRow + height - 1, TILE_SIZE);
+        long firstTileColumn = Math.floorDiv(firstColumn, TILE_SIZE);
+        long lastTileColumn = Math.floorDiv(firstColumn + width - 1, TILE_SIZE);
+        for (long tr = firstTileRow; tr <= lastTileRow; tr++) {
+            for (long tc = firstTileColumn; tc <= lastTileColumn; tc++) {
+                Key key = new Key(pixelSize, maxIterations, tc, tr);
+                int[] tile = tiles.get(key);
+                boolean isNew = (tile == null);
+                if (isNew) {
+                    tile = new int[TILE_SIZE*TILE_SIZE];
+                    Arrays.fill(tile, TileRenderer.NOT_COMPUTED);
+                }
+                    // The part of the image that is inside this tile:
+                int r0 = (int)Math.max(0, tr*TILE_SIZE - firstRow);
+                int r1 = (int)Math.min(height, (tr + 1)*TILE_SIZE - firstRow);
+                int c0 = (int)Math.max(0, tc*TILE_SIZE - firstColumn);
+                int c1 = (int)Math.min(width, (tc + 1)*TILE_SIZE - firstColumn);
+                int stored = 0;
+                for (int r = r0; r < r1; r++) {
+                    int[] row = counts[r];
+                    int offset = (int)(firstRow + r - tr*TILE_SIZE)*TILE_SIZE
+                                         + (int)(firstColumn - tc*TILE_SIZE);
+                    for (int c = c0; c < c1; c++) {
+                        if (row[c] != TileRenderer.NOT_COMPUTED && tile[offset + c] == TileRenderer.NOT_COMPUTED) {
+                            tile[offset + c] = row[c];
+                            stored++;
+                        }
+                    }
+                }
+                if (isNew && stored > 0)
+                    tiles.put(key, tile);
+                pixelsStored += stored;
+            }
+        }
+        while (tiles.size()*TILE_BYTES > memoryBudget && tiles.size() > 0) {
+            Iterator<Map.Entry<Key,int[]>> iter = tiles.entrySet().iterator();
+            iter.next();
+            iter.remove();
+            tilesEvicted++;
+        }
+    }
+
+
+    /**
+     * Copies counts from the cache into an image, for pixels that are NOT_COMPUTED
+     * in the image.  Tiles with the same pixel size are used first, then tiles
+     * whose pixel size is smaller or larger by a factor of two or four.
+     * @param firstColumn the grid column of the left edge of the image.
+     * @param firstRow the grid row of the top edge of the image.
+     * @param counts the counts for the image; the first index is the row number.
+     * @return the number of pixels whose counts were found in the cache.
+     */
+    synchronized int fetch(long firstColumn, long firstRow, double pixelSize,
+                                              int maxIterations, int[][] counts) {
+        int found = 0;
+        for (int scale : SCALES) {
+            double size = Math.scalb(pixelSize, scale);
+            if (hasTilesFor(size, maxIterations))
+                found += fetch(firstColumn, firstRow, size, scale, maxIterations, counts);
+        }
+        pixelsFetched += found;
+        return found;
+    }
+
+
+    /**
+     * Copies counts from the tiles with a given pixel size, which is 2 to the power
+     * scale times the pixel size of the image.  Image column c is at grid column
+     * firstColumn + c, which is at column (firstColumn + c) * 2^(-scale) of the
+     * cached grid; this must be an integer.  Rows are treated in the same way.
+     */
+    private int fetch(long firstColumn, long firstRow, double size, int scale,
+                                              int maxIterations, int[][] counts) {
+        int height = counts.length;
+        int width = (height == 0) ? 0 : counts[0].length;
+        int step = 1;          // Only every step-th row and column of the image can be found.
+        int multiplier = 1;    // Cached grid position = image grid position * multiplier / step.
+        if (scale > 0)
+            step = 1 << scale;
+        else
+            multiplier = 1 << -scale;
+        int found = 0;
+        int rStart = (int)Math.floorMod(-firstRow, (long)step);  // First row whose grid row is a multiple of step.
+        int cStart = (int)Math.floorMod(-firstColumn, (long)step);
+        for (int r = rStart; r < height; r += step) {
+            long cachedRow = (firstRow + r) * multiplier / step;
+            long tileRow = Math.floorDiv(cachedRow, TILE_SIZE);
+            int rowOffset = (int)(cachedRow - tileRow*TILE_SIZE)*TILE_SIZE;
+            int[] row = counts[r];
+            int c = cStart;
+            while (c < width) {
+                    // Process the pixels in this row that lie in one cached tile.
+                long cachedColumn = (firstColumn + c) * multiplier / step;
+                long tileColumn = Math.floorDiv(cachedColumn, TILE_SIZE);
+                int k = (int)(cachedColumn - tileColumn*TILE_SIZE);  // Column within the tile.
+                int end = Math.min(width, c + (TILE_SIZE - k + multiplier - 1) / multiplier * step);
+                int[] tile = tiles.get(new Key(size, maxIterations, tileColumn, tileRow));
+                if (tile != null) {
+                    for ( ; c < end; c += step, k += multiplier) {
+                        if (row[c] == TileRenderer.NOT_COMPUTED) {
+                            int value = tile[rowOffset + k];
+                            if (value != TileRenderer.NOT_COMPUTED) {
+                                row[c] = value;
+                                found++;
+                            }
+                        }
+                    }
+                }
+                c = end;
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Tells whether there are any tiles with a given pixel size and maxIterations.
+     */
+    private boolean hasTilesFor(double pixelSize, int maxIterations) {
+        for (Key key : tiles.keySet()) {
+            if (key.pixelSize == pixelSize && key.maxIterations == maxIterations)
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Rounds a pixel size to 20 significant bits.  If two pixel sizes differ by a
+     * factor that is very close to a power of two, then the rounded sizes differ
+     * by exactly that power of two, so that the cache can be used for both.  (The
+     * rounding changes the size by less than one part in a million.)
+     */
+    static double roundPixelSize(double size) {
+        double unit = Math.scalb(1.0, Math.getExponent(size) - 20);
+        return Math.rint(size / unit) * unit;
+    }
+
+
+    /**
+     * Removes all the tiles from the cache.
+     */
+    synchronized void clear() {
+        tiles.clear();
+    }
+
+
+    /**
+     * Returns the number of bytes that are used by the tiles in the cache
+     * (approximately).
+     */
+    synchronized long getMemoryUsed() {
+        return tiles.size()*TILE_BYTES;
+    }
+
+
+    /**
+     * Returns the number of pixels that have been stored in the cache, the
+     * number that have been fetched from it, and the number of tiles that have
+     * been discarded to stay within the memory budget, in an array of length three.
+     */
+    synchronized long[] getStatistics() {
+        return new long[] { pixelsStored, pixelsFetched, tilesEvicted };
+    }
+
+}
@@ -0,0 +1,774 @@
+package edu.hws.eck.mdb;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TileRenderer computes the iteration counts for all the pixels in an image
+ * of a region of the xy-plane, using a ForkJoinPool.  The pixels lie on a
+ * grid that covers the whole plane:  Column number i of the grid is at
+ * x = i*dx, and row number j is at y = -j*dy (so that row numbers increase
+ * downwards, as they do in the image).  The image starts at grid column
+ * firstColumn and grid row firstRow, so the pixel in row r and column c of
+ * the image corresponds to the point ((firstColumn+c)*dx, -(firstRow+r)*dy),
+ * and its iteration count is stored in counts[r][c].  Because each point is
+ * computed from its grid position in the same way, no matter where the image
+ * starts, a pixel that appears in two images of the same grid has exactly the
+ * same count in both (which is what makes TileCache possible).  The counts are the
+ * same as those computed by computeRowScalar():  the number of iterations
+ * needed to take the point outside the circle of radius sqrt(ESCAPE_LIMIT),
+ * or -1 for a point that does not escape in maxIterations iterations.
+ * <p>The image is divided into square tiles, and each tile is processed by
+ * a fork/join task that works as follows.  First, the pixels on the border
+ * of the tile are computed.  If they all have the same iteration count, then
+ * all the pixels inside the tile are given that count, without computing them.
+ * (This works because the set of points with a given iteration count can't
+ * have "holes" in it.  The only exception is a tile that surrounds the whole
+ * Mandelbrot set, so a tile that contains the origin is only filled if the
+ * border is in the set.  Of course, a feature that is so thin that it passes
+ * between the pixels on the border can still be missed.)  Otherwise, if
+ * the tile is small, its interior is computed pixel by pixel.  If not, it is
+ * cut in half by computing a line of pixels across the middle, and the two
+ * halves, whose borders are now known, are processed as separate tasks.
+ * <p>Furthermore, points in the main cardioid and in the period-2 bulb of the
+ * Mandelbrot set, which are known to be in the set, are detected by a simple
+ * formula and are never iterated.  Other pixels are computed four at a time
+ * by iterate4().
+ * <p>Before the tiles are processed, the renderer can make some "preview" passes
+ * (see setPreviewSteps()).  A preview pass with step s computes only the pixels
+ * whose row and column numbers are multiples of s, which is enough to show a
+ * rough version of the image, with each computed pixel drawn as an s-by-s block.
+ * The pixels that are computed in preview passes are not computed again later,
+ * so a preview pass costs only about 1/(s*s) of a full computation.  A tile is
+ * not filled in if a pixel inside it is already known to be different from its
+ * border.
+ * <p>A renderer is used for just one image.  It can be cancelled, in which case
+ * its tasks stop as soon as possible and the counts array is left incomplete.
+ * (The tasks check for cancellation after every four pixels, so they stop
+ * within a few milliseconds, even for large values of maxIterations.)
+ * Pixels that have not been computed contain the value NOT_COMPUTED.
+ * <p>For deep zooms, where the coordinates of neighboring pixels can't be told
+ * apart in type double, the renderer can use perturbation (see usePerturbation()
+ * and ReferenceOrbit).  In that case, the grid is centered on a point whose
+ * coordinates are given with high precision, and xCoord() and yCoord() are offsets
+ * from that point.  The pixels are computed from a reference orbit for the pixel
+ * at the origin of the grid.  After the tiles have been processed, the pixels
+ * that were glitched are computed again with a reference orbit for one of those
+ * pixels, and this is repeated until there are no glitched pixels, or until
+ * MAX_REFERENCES reference orbits have been used.  (The last one is used without
+ * the test for glitches, so no pixels are left with the value ReferenceOrbit.GLITCHED,
+ * although a few of them might be wrong.)
+ */
+class TileRenderer {
+
+    /**
+     * The value of a pixel in the counts array that has not yet been computed.
+     */
+    final static int NOT_COMPUTED = Integer.MIN_VALUE;
+
+    /**
+     * The square of the distance from (0,0) at which a point is considered to
+     * have escaped.
+     */
+    final static double ESCAPE_LIMIT = 4.1;
+
+    /**
+     * The size of the tiles that the image is first divided into.
+     */
+    private final static int TILE_SIZE = 64;
+
+    /**
+     * A tile that is no larger than this in either direction, and whose border
+     * is not all the same, is computed pixel by pixel instead of being divided.
+     */
+    private final static int LEAF_SIZE = 12;
+
+    /**
+     * The number of grid rows in each task of a preview pass.
+     */
+    private final static int PREVIEW_BAND = 4;
+
+    /**
+     * The maximum number of reference orbits that are used for an image, when
+     * perturbation is used.
+     */
+    private final static int MAX_REFERENCES = 32;
+
+
+
+    /**
+     * An object that is notified as the rendering progresses.  The methods
+     * are called by the threads in the ForkJoinPool.  They are not called
+     * after the renderer has been cancelled.
+     */
+    interface Listener {
+        /**
+         * Called when a preview pass is finished, so that the counts are known
+         * for all the pixels whose row and column numbers are multiples of step.
+         */
+        void previewFinished(TileRenderer renderer, int step);
+        /**
+         * Called when all the counts in a rectangle of pixels are known.  (A pixel
+         * on the edge of a tile can be reported more than once.)
+         */
+        void tileFinished(TileRenderer renderer, int x, int y, int width, int height);
+        /**
+         * Called when all the counts in the image are known.
+         */
+        void renderingFinished(TileRenderer renderer);
+    }
+
+
+    private final long firstColumn, firstRow;
+    private final double dx, dy;
+    private final int maxIterations;
+    private final int[][] counts;
+    private final int width, height;
+    private final Listener listener;
+    private volatile boolean cancelled;
+    private int[] previewSteps = new int[0];
+    private BigDecimal centerX, centerY;   // The origin of the grid, if perturbation is used.
+    private volatile ReferenceOrbit orbit; // The reference orbit that is currently used, if any.
+
+    private volatile long startTime;       // For getTimeToFirstFrame() and getTimeToFullQuality().
+    private volatile long firstFrameTime;
+    private volatile long fullQualityTime;
+
+    private final AtomicLong pixelsIterated = new AtomicLong();  // For getStatistics().
+    private final AtomicLong pixelsFilled = new AtomicLong();
+    private final AtomicLong pixelsInCardioidOrBulb = new AtomicLong();
+    private int referencesUsed;            // For getPerturbationStatistics().
+    private int pixelsGlitched;
+    private int pixelsUnresolved;
+
+
+    /**
+     * Creates a renderer for an image.  The counts array is filled with NOT_COMPUTED.
+     * Before the computation is started, known counts can be stored in the array
+     * (for example, by TileCache.fetch()); those pixels will not be computed.
+     * @param firstColumn the grid column of the left edge of the image
+     * @param firstRow the grid row of the top edge of the image
+     * @param dx the width of a pixel
+     * @param dy the height of a pixel
+     * @param counts the array that will hold the results.  It must not be ragged,
+     *    and its first index is the row number.
+     * @param listener an object to be notified as tiles are finished.  Can be null.
+     */
+    TileRenderer(long firstColumn, long firstRow, double dx, double dy, int maxIterations,
+                                                  int[][] counts, Listener listener) {
+        this.firstColumn = firstColumn;
+        this.firstRow = firstRow;
+        this.dx = dx;
+        this.dy = dy;
+        this.maxIterations = maxIterations;
+        this.counts = counts;
+        this.height = counts.length;
+        this.width = (height == 0) ? 0 : counts[0].length;
+        this.listener = listener;
+        for (int[] row : counts)
+            java.util.Arrays.fill(row, NOT_COMPUTED);
+    }
+
+
+    /**
+     * Specifies the preview passes that are made before the full-resolution
+     * computation.  For example, with steps 16, 8, and 4, a preview is computed
+     * using every 16th row and column of pixels, then every 8th, then every 4th.
+     * The default is to make no preview passes.  This must be called before
+     * the computation is started.
+     */
+    void setPreviewSteps(int... steps) {
+        previewSteps = steps.clone();
+    }
+
+
+    /**
+     * Makes the renderer use perturbation, with the origin of the grid at the point
+     * (centerX,centerY) instead of (0,0).  That is, the pixel in grid column i and
+     * grid row j is at (centerX + i*dx, centerY - j*dy).  The main cardioid and bulb
+     * test is not used.  This must be called before the computation is started.
+     */
+    void usePerturbation(BigDecimal centerX, BigDecimal centerY) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+    }
+
+
+    /**
+     * Starts the computation in a pool, and returns at once.
+     * @return the ForkJoinTask that does the work, which can be used to wait for
+     *    it to finish.
+     */
+    ForkJoinTask<?> start(ForkJoinPool pool) {
+        startTime = System.nanoTime();
+        return pool.submit(new ImageTask());
+    }
+
+
+    /**
+     * Does the computation in a pool, and returns when it is finished.
+     */
+    void render(ForkJoinPool pool) {
+        startTime = System.nanoTime();
+        pool.invoke(new ImageTask());
+    }
+
+
+    /**
+     * Stops the computation as soon as possible.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+
+    /**
+     * Tells whether cancel() has been called.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * Returns the array that holds the results.
+     */
+    int[][] getCounts() {
+        return counts;
+    }
+
+
+    /**
+     * Returns the time, in milliseconds, from the start of the computation until
+     * the first preview pass was finished, or until the computation was finished
+     * if there are no preview passes.  The value is -1 if that has not happened.
+     */
+    double getTimeToFirstFrame() {
+        return firstFrameTime == 0 ? -1 : (firstFrameTime - startTime) / 1e6;
+    }
+
+
+    /**
+     * Returns the time, in milliseconds, from the start of the computation until it
+     * was finished, or -1 if it has not finished (or was cancelled).
+     */
+    double getTimeToFullQuality() {
+        return fullQualityTime == 0 ? -1 : (fullQualityTime - startTime) / 1e6;
+    }
+
+
+    /**
+     * Returns the number of pixels that were iterated, the number that were filled
+     * in from the border of their tile, and the number that were found to be in the
+     * main cardioid or the period-2 bulb, in an array of length three.
+     */
+    long[] getStatistics() {
+        return new long[] { pixelsIterated.get(), pixelsFilled.get(), pixelsInCardioidOrBulb.get() };
+    }
+
+
+    /**
+     * Returns the number of reference orbits that were used, the number of pixels
+     * that were glitched with the first reference orbit, and the number that were
+     * still glitched when the last reference orbit was used (and which might be
+     * wrong), in an array of length three.  (All zero if
+     * perturbation was not used.)
+     */
+    int[] getPerturbationStatistics() {
+        return new int[] { referencesUsed, pixelsGlitched, pixelsUnresolved };
+    }
+
+
+    /**
+     * The task for the whole image, which makes the preview passes and then
+     * divides the image into tiles and processes them in parallel.
+     */
+    private class ImageTask extends RecursiveAction {
+        protected void compute() {
+            if (centerX != null) {
+                orbit = new ReferenceOrbit(centerX, centerY, 0, 0, dx, maxIterations, TileRenderer.this);
+                referencesUsed = 1;
+                if (cancelled)
+                    return;
+            }
+            for (int step : previewSteps) {
+                ArrayList<PreviewTask> bands = new ArrayList<PreviewTask>();
+                for (int y = 0; y < height; y += step*PREVIEW_BAND)
+                    bands.add(new PreviewTask(y, Math.min(height, y + step*PREVIEW_BAND), step));
+                invokeAll(bands);
+                if (cancelled)
+                    return;
+                if (firstFrameTime == 0)
+                    firstFrameTime = System.nanoTime();
+                if (listener != null)
+                    listener.previewFinished(TileRenderer.this, step);
+            }
+            processTiles();
+            if (cancelled)
+                return;
+            if (centerX != null) {
+                fixGlitches();
+                if (cancelled)
+                    return;
+            }
+            fullQualityTime = System.nanoTime();
+            if (firstFrameTime == 0)
+                firstFrameTime = fullQualityTime;
+            if (listener != null)
+                listener.renderingFinished(TileRenderer.this);
+        }
+        /**
+         * Divides the image into tiles and processes them in parallel.  Tiles whose
+         * counts are all known are skipped.
+         */
+        void processTiles() {
+            ArrayList<TileTask> tiles = new ArrayList<TileTask>();
+            for (int y = 0; y < height; y += TILE_SIZE) {
+                for (int x = 0; x < width; x += TILE_SIZE)
+                    tiles.add(new TileTask(x, y, Math.min(TILE_SIZE, width - x),
+                                                 Math.min(TILE_SIZE, height - y), false));
+            }
+            invokeAll(tiles);
+        }
+        /**
+         * Computes the glitched pixels again, as described in the comment on the
+         * TileRenderer class.  The glitched pixels are marked as NOT_COMPUTED, and
+         * the tiles are processed again, so that large glitched regions can be filled
+         * in from their borders.  Each new reference point is the glitched pixel that
+         * is closest to the center of all the glitched pixels, which is usually
+         * in the middle of a glitched blob.  (The reference pixel itself can't be
+         * glitched, so each round makes some progress.)
+         */
+        void fixGlitches() {
+            while (true) {
+                int n = 0;
+                long sumX = 0, sumY = 0;
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        if (counts[r][c] == ReferenceOrbit.GLITCHED) {
+                            n++;
+                            sumX += c;
+                            sumY += r;
+                        }
+                    }
+                }
+                if (referencesUsed == 1)
+                    pixelsGlitched = n;
+                if (n == 0 || referencesUsed == MAX_REFERENCES)
+                    return;
+                double meanX = (double)sumX / n;
+                double meanY = (double)sumY / n;
+                int bestRow = 0, bestColumn = 0;
+                double bestDistance = Double.MAX_VALUE;
+                for (int r = 0; r < height; r++) {
+                    for (int c = 0; c < width; c++) {
+                        if (counts[r][c] == ReferenceOrbit.GLITCHED) {
+                            counts[r][c] = NOT_COMPUTED;
+                            double distance = (c - meanX)*(c - meanX) + (r - meanY)*(r - meanY);
+                            if (distance < bestDistance) {
+                                bestRow = r;
+                                bestColumn = c;
+                                bestDistance = distance;
+                            }
+                        }
+                    }
+                }
+                orbit = new ReferenceOrbit(centerX, centerY, xCoord(bestColumn), yCoord(bestRow),
+                                                    dx, maxIterations, TileRenderer.this);
+                referencesUsed++;
+                if (referencesUsed == MAX_REFERENCES)
+                    pixelsUnresolved = n;  // They will be computed without the test for glitches.
+                if (cancelled)
+                    return;
+                processTiles();
+                if (cancelled)
+                    return;
+            }
+        }
+    }
+
+
+    /**
+     * The task for part of a preview pass, which computes the pixels in every
+     * step-th column of the rows from startRow up to endRow whose row numbers
+     * are multiples of step.
+     */
+    private class PreviewTask extends RecursiveAction {
+        int startRow, endRow, step;
+        PreviewTask(int startRow, int endRow, int step) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.step = step;
+        }
+        protected void compute() {
+            if (!cancelled)
+                computePixels(0, startRow, width, endRow - startRow, step);
+        }
+    }
+
+
+    /**
+     * The task for one tile, as described in the comment on the TileRenderer class.
+     */
+    private class TileTask extends RecursiveAction {
+        int x, y, w, h;          // The rectangle of pixels.
+        boolean borderIsKnown;   // True if the pixels on the border have been computed.
+        TileTask(int x, int y, int w, int h, boolean borderIsKnown) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.borderIsKnown = borderIsKnown;
+        }
+        protected void compute() {
+            if (cancelled)
+                return;
+            if (!borderIsKnown && isComplete(x, y, w, h)) {
+                finished(x, y, w, h);  // All the counts were already known.
+                return;
+            }
+            if (!borderIsKnown) {
+                computePixels(x, y, w, 1);           // top
+                computePixels(x, y + h - 1, w, 1);   // bottom
+                computePixels(x, y + 1, 1, h - 2);   // left
+                computePixels(x + w - 1, y + 1, 1, h - 2);   // right
+                if (cancelled)
+                    return;
+            }
+            if (w <= 2 || h <= 2) {
+                finished(x, y, w, h);  // There are no pixels inside the border.
+                return;
+            }
+            int value = borderValue(x, y, w, h);
+            if (value != NOT_COMPUTED && (value == -1 || !containsOrigin(x, y, w, h))
+                                              && interiorAgrees(value, x, y, w, h)) {
+                for (int r = y + 1; r < y + h - 1; r++)
+                    java.util.Arrays.fill(counts[r], x + 1, x + w - 1, value);
+                pixelsFilled.addAndGet((w - 2) * (h - 2));
+                finished(x, y, w, h);
+            }
+            else if (w <= LEAF_SIZE && h <= LEAF_SIZE) {
+                computePixels(x + 1, y + 1, w - 2, h - 2);
+                finished(x, y, w, h);
+            }
+            else if (w >= h) {  // Split with a vertical line.
+                int middle = x + w/2;
+                computePixels(middle, y + 1, 1, h - 2);
+                invokeAll(new TileTask(x, y, middle - x + 1, h, true),
+                          new TileTask(middle, y, x + w - middle, h, true));
+            }
+            else {  // Split with a horizontal line.
+                int middle = y + h/2;
+                computePixels(x + 1, middle, w - 2, 1);
+                invokeAll(new TileTask(x, y, w, middle - y + 1, true),
+                          new TileTask(x, middle, w, y + h - middle, true));
+            }
+        }
+    }
+
+
+    /**
+     * Notifies the listener, if any, that a tile is finished.
+     */
+    private void finished(int x, int y, int w, int h) {
+        if (!cancelled && listener != null)
+            listener.tileFinished(this, x, y, w, h);
+    }
+
+
+    /**
+     * Returns the count that is shared by all the pixels on the border of a tile,
+     * or NOT_COMPUTED if they are not all the same.
+     */
+    private int borderValue(int x, int y, int w, int h) {
+        int value = counts[y][x];
+        int[] top = counts[y];
+        int[] bottom = counts[y + h - 1];
+        for (int c = x; c < x + w; c++) {
+            if (top[c] != value || bottom[c] != value)
+                return NOT_COMPUTED;
+        }
+        for (int r = y + 1; r < y + h - 1; r++) {
+            if (counts[r][x] != value || counts[r][x + w - 1] != value)
+                return NOT_COMPUTED;
+        }
+        return value;
+    }
+
+
+    /**
+     * Tells whether the counts of all the pixels in a tile are already known.
+     */
+    private boolean isComplete(int x, int y, int w, int h) {
+        for (int r = y; r < y + h; r++) {
+            int[] row = counts[r];
+            for (int c = x; c < x + w; c++) {
+                if (row[c] == NOT_COMPUTED)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Tells whether all the pixels inside the border of a tile that have already
+     * been computed (in a preview pass) have a given count.
+     */
+    private boolean interiorAgrees(int value, int x, int y, int w, int h) {
+        for (int r = y + 1; r < y + h - 1; r++) {
+            int[] row = counts[r];
+            for (int c = x + 1; c < x + w - 1; c++) {
+                if (row[c] != value && row[c] != NOT_COMPUTED)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Tells whether the point (0,0) is inside the part of the plane covered by a tile.
+     */
+    private boolean containsOrigin(int x, int y, int w, int h) {
+        if (centerX != null)
+            return false;  // The origin of the grid is not (0,0), and the tile is too small to matter.
+        return xCoord(x) <= 0 && xCoord(x + w - 1) >= 0
+                  && yCoord(y + h - 1) <= 0 && yCoord(y) >= 0;
+    }
+
+
+    /**
+     * Returns the x-coordinate of the pixels in column c of the image.  (If
+     * perturbation is used, this is relative to centerX.)
+     */
+    private double xCoord(int c) {
+        return (firstColumn + c)*dx;
+    }
+
+
+    /**
+     * Returns the y-coordinate of the pixels in row r of the image.  (If
+     * perturbation is used, this is relative to centerY.)
+     */
+    private double yCoord(int r) {
+        return -(firstRow + r)*dy;
+    }
+
+
+    /**
+     * Computes the count for every pixel in a rectangle that has not already been
+     * computed.  Pixels in the main cardioid or the period-2 bulb are set to -1
+     * (unless perturbation is used).  The others are computed four at a time.
+     */
+    private void computePixels(int x, int y, int w, int h) {
+        computePixels(x, y, w, h, 1);
+    }
+
+
+    /**
+     * Computes the count for every pixel in a rectangle whose row and column
+     * numbers are multiples of step, as for computePixels(x,y,w,h).  The rectangle
+     * must start at a multiple of step.
+     */
+    private void computePixels(int x, int y, int w, int h, int step) {
+        if (w <= 0 || h <= 0)
+            return;
+        int size = ((w + step - 1) / step) * ((h + step - 1) / step);
+        int[] cols = new int[size];  // The pixels that have to be iterated.
+        int[] rows = new int[size];
+        int n = 0;
+        int inside = 0;
+        for (int r = y; r < y + h; r += step) {
+            double py = yCoord(r);
+            int[] row = counts[r];
+            for (int c = x; c < x + w; c += step) {
+                if (row[c] != NOT_COMPUTED)
+                    continue;
+                if (centerX == null && inCardioidOrBulb(xCoord(c), py)) {
+                    row[c] = -1;
+                    inside++;
+                }
+                else {
+                    cols[n] = c;
+                    rows[n] = r;
+                    n++;
+                }
+            }
+        }
+        pixelsInCardioidOrBulb.addAndGet(inside);
+        iteratePixels(cols, rows, 0, n);
+    }
+
+
+    /**
+     * Computes the counts for the pixels numbered start up to end in the arrays
+     * cols and rows, four at a time, with iterate4() or, if perturbation is used,
+     * with the current reference orbit.  When the last reference orbit is used,
+     * glitches are no longer detected; see fixGlitches().
+     */
+    private void iteratePixels(int[] cols, int[] rows, int start, int end) {
+        ReferenceOrbit orbit = this.orbit;
+        boolean detectGlitches = referencesUsed < MAX_REFERENCES;
+        int[] results = new int[4];
+        for (int i = start; i < end; i += 4) {
+            if (cancelled)
+                return;
+            int i1 = Math.min(i + 1, end - 1);  // (Extra lanes repeat the last pixel.)
+            int i2 = Math.min(i + 2, end - 1);
+            int i3 = Math.min(i + 3, end - 1);
+            if (orbit == null)
+                iterate4(xCoord(cols[i]), yCoord(rows[i]), xCoord(cols[i1]), yCoord(rows[i1]),
+                         xCoord(cols[i2]), yCoord(rows[i2]), xCoord(cols[i3]), yCoord(rows[i3]),
+                         maxIterations, results);
+            else
+                orbit.iterate4(xCoord(cols[i]), yCoord(rows[i]), xCoord(cols[i1]), yCoord(rows[i1]),
+                               xCoord(cols[i2]), yCoord(rows[i2]), xCoord(cols[i3]), yCoord(rows[i3]),
+                               maxIterations, detectGlitches, results);
+            for (int j = 0; j < 4 && i + j < end; j++)
+                counts[rows[i + j]][cols[i + j]] = results[j];
+        }
+        pixelsIterated.addAndGet(end - start);
+    }
+
+
+    //----------------------------- The iteration loops ---------------------------------
+
+
+    /**
+     * Tells whether a point is in the main cardioid or the period-2 bulb of
+     * the Mandelbrot set.  Such points never escape, so they don't have to
+     * be iterated.
+     */
+    static boolean inCardioidOrBulb(double x, double y) {
+        double xq = x - 0.25;
+        double q = xq*xq + y*y;
+        if (q*(q + xq) <= 0.25*y*y)
+            return true;
+        double xb = x + 1;
+        return xb*xb + y*y <= 0.0625;
+    }
+
+
+    /**
+     * Computes the iteration counts for four points, (x0,y0) through (x3,y3), and
+     * stores them in results[0] through results[3].
+     * <p>The four computations are interleaved in one loop.  The loop for a
+     * single point is slow because each step depends on the result of the
+     * previous step, so the processor spends most of its time waiting for
+     * multiplications to finish; four independent computations can keep it busy.
+     * A point that has escaped is "masked out":  its variable m becomes 0, so
+     * that its count stops increasing, although the loop goes on computing values
+     * for it (which become infinite, and then NaN, but are never used).  The loop
+     * ends when all four points have escaped or maxIterations is reached.  Since
+     * each point goes through exactly the same arithmetic as in countIterations(),
+     * the results are identical.
+     */
+    static void iterate4(double x0, double y0, double x1, double y1,
+                         double x2, double y2, double x3, double y3,
+                         int maxIterations, int[] results) {
+        double a0 = x0, a1 = x1, a2 = x2, a3 = x3;
+        double b0 = y0, b1 = y1, b2 = y2, b3 = y3;
+        int m0 = 1, m1 = 1, m2 = 1, m3 = 1;  // 1 for a point that has not escaped.
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double aa0 = a0*a0, bb0 = b0*b0, aa1 = a1*a1, bb1 = b1*b1;
+            double aa2 = a2*a2, bb2 = b2*b2, aa3 = a3*a3, bb3 = b3*b3;
+            m0 = (aa0 + bb0 < ESCAPE_LIMIT) ? m0 : 0;
+            m1 = (aa1 + bb1 < ESCAPE_LIMIT) ? m1 : 0;
+            m2 = (aa2 + bb2 < ESCAPE_LIMIT) ? m2 : 0;
+            m3 = (aa3 + bb3 < ESCAPE_LIMIT) ? m3 : 0;
+            if ((m0 | m1 | m2 | m3) == 0)
+                break;
+            c0 += m0;
+            c1 += m1;
+            c2 += m2;
+            c3 += m3;
+            b0 = 2*a0*b0 + y0;
+            a0 = aa0 - bb0 + x0;
+            b1 = 2*a1*b1 + y1;
+            a1 = aa1 - bb1 + x1;
+            b2 = 2*a2*b2 + y2;
+            a2 = aa2 - bb2 + x2;
+            b3 = 2*a3*b3 + y3;
+            a3 = aa3 - bb3 + x3;
+        }
+        results[0] = finalCount(m0, c0, a0, b0);
+        results[1] = finalCount(m1, c1, a1, b1);
+        results[2] = finalCount(m2, c2, a2, b2);
+        results[3] = finalCount(m3, c3, a3, b3);
+    }
+
+
+    /**
+     * Used by iterate4() to find the result for one of the four points.  If the
+     * point had not escaped after maxIterations iterations, it is in the Mandelbrot
+     * set unless the final point (a,b) is outside the limit.
+     */
+    private static int finalCount(int m, int count, double a, double b) {
+        if (m == 0 || a*a + b*b >= ESCAPE_LIMIT)
+            return count;
+        else
+            return -1;
+    }
+
+
+    /**
+     * Computes the iteration counts for one row of pixels, with the x-coordinates
+     * of grid columns firstColumn, firstColumn + 1, ..., that is firstColumn*dx,
+     * (firstColumn + 1)*dx, ..., and y-coordinate y0, using iterate4().
+     * This does not use the cardioid and bulb test or the tiles.
+     */
+    static void computeRow(long firstColumn, double dx, double y0, int count, int maxIterations, int[] counts) {
+        int[] results = new int[4];
+        int i = 0;
+        for ( ; i + 4 <= count; i += 4) {
+            iterate4((firstColumn + i)*dx, y0, (firstColumn + i + 1)*dx, y0, (firstColumn + i + 2)*dx, y0,
+                                              (firstColumn + i + 3)*dx, y0, maxIterations, results);
+            counts[i] = results[0];
+            counts[i+1] = results[1];
+            counts[i+2] = results[2];
+            counts[i+3] = results[3];
+        }
+        for ( ; i < count; i++)  // The last few pixels, if count is not a multiple of 4.
+            counts[i] = countIterations((firstColumn + i)*dx, y0, maxIterations);
+    }
+
+
+    /**
+     * Computes the iteration counts for one row of pixels one pixel at a time,
+     * in the straightforward way.  This gives the same results as computeRow(),
+     * but more slowly; it is kept for comparison (see KernelBenchmark).
+     */
+    static void computeRowScalar(long firstColumn, double dx, double y0, int count, int maxIterations, int[] counts) {
+        for (int i = 0; i < count; i++)
+            counts[i] = countIterations((firstColumn + i)*dx, y0, maxIterations);
+    }
+
+
+    /**
+     * Returns the iteration count for the single point (x0,y0).
+     */
+    static int countIterations(double x0, double y0, int maxIterations) {
+        double a = x0;
+        double b = y0;
+        int ct = 0;
+        while (a*a + b*b < ESCAPE_LIMIT) {
+            ct++;
+            if (ct > maxIterations) {
+                ct = -1;
+                break;
+            }
+            double newa = a*a - b*b + x0;
+            b = 2*a*b + y0;
+            a = newa;
+        }
+        return ct;
+    }
+
+
+}
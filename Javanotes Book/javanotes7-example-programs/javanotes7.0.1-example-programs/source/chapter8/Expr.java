@@ -38,8 +38,43 @@
      test whether the double value v is the special NaN value.  For technical
      reasons, you can't just use the == operator to test for this value.)
 
+     Normally, value() works by interpreting a list of stack operations that
+     is made from the definition.  An Expr can also be "compiled", by passing
+     true as the second parameter to a constructor.  In that case, the
+     operations are combined into a single MethodHandle, which the Java
+     virtual machine can translate into machine code, just as it would
+     for an ordinary Java method that computes the same formula.  This takes
+     some extra time when the Expr is created (a few milliseconds), but value()
+     becomes about as fast as a Java method written by hand for the same
+     formula -- often twice as fast as the interpreter -- which is worthwhile
+     when an expression will be evaluated millions of times.  Both ways give
+     the same results.
+
+     The list of operations is optimized before it is used:  Parts of the
+     expression that don't depend on x are computed once, when the Expr is
+     created (so "sin(2*3)*x" becomes "-0.279*x"), a subexpression that
+     occurs more than once is only computed once each time the expression is
+     evaluated, and some operations are replaced by simpler ones (such as
+     x^2 by x*x, and x/2 by x*0.5).  Only changes that give exactly the same
+     results are made.
+
+     To evaluate an expression at many points, it is better to put the
+     values of x into an array and call values(), which evaluates the
+     expression at all of the points together.  Each operation is
+     applied to a whole "column" of values, in a simple loop that the
+     Java virtual machine can run very efficiently, instead of going
+     through the whole list of operations for each point.  Unlike value(),
+     which uses a stack that belongs to the Expr object, values() can be
+     called by several threads at the same time for the same Expr.
+
  */
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+
 public class Expr {
 
     //----------------- public interface ---------------------------------------
@@ -50,7 +85,37 @@ public class Expr {
      * does not contain a legal expression.
      */
     public Expr(String definition) {
-        parse(definition);
+        parse(definition, true);
+    }
+
+    /**
+     * Construct an expression, given its definition as a string, and
+     * optionally compile it for faster evaluation.
+     * This will throw an IllegalArgumentException if the string
+     * does not contain a legal expression.
+     * @param definition the definition of the expression
+     * @param compile if true, the expression is compiled into a MethodHandle,
+     *     which is then used by the value() method.
+     */
+    public Expr(String definition, boolean compile) {
+        parse(definition, true);
+        if (compile)
+            compile();
+    }
+
+    /**
+     * Construct an expression, as for the two-parameter constructor, but
+     * optionally without optimizing it.  This is mainly useful for testing
+     * the optimization, since it never changes the values of the expression.
+     * @param definition the definition of the expression
+     * @param compile if true, the expression is compiled into a MethodHandle.
+     * @param optimize if false, the operations in the expression are used
+     *     exactly as they are found in the definition.
+     */
+    public Expr(String definition, boolean compile, boolean optimize) {
+        parse(definition, optimize);
+        if (compile)
+            compile();
     }
 
     /**
@@ -61,9 +126,49 @@ public class Expr {
      * @return the computed value of the expression
      */
     public double value(double x) {
+        if (compiled != null) {
+            try {
+                return (double)compiled.invokeExact(x);
+            }
+            catch (Throwable e) {  // Can't actually happen.
+                return Double.NaN;
+            }
+        }
         return eval(x);
     }
 
+    /**
+     * Computes the value of this expression for each of the numbers in an
+     * array, and puts the results into another array.  That is, results[i]
+     * is set to value(xValues[i]).  This is much faster than calling value()
+     * for each number.  It is safe to call this method from several threads
+     * at the same time.
+     * @param xValues the values to be used for the variable x
+     * @param results the array where the values are stored.  Its length must be
+     *     at least xValues.length.  It can be the same array as xValues.
+     */
+    public void values(double[] xValues, double[] results) {
+        values(xValues, results, 0, xValues.length);
+    }
+
+    /**
+     * Computes the value of this expression for the numbers xValues[start],
+     * xValues[start+1], ..., xValues[end-1], and puts the results into the
+     * same positions in the results array.  This can be used, for example, to
+     * divide the work of filling a large array among several threads.
+     */
+    public void values(double[] xValues, double[] results, int start, int end) {
+        evalColumns(xValues, results, start, end);
+    }
+
+    /**
+     * Tells whether this expression was compiled, that is, whether it was
+     * constructed with the second parameter of the constructor set to true.
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
     /**
      * Return the original definition string of this expression.  This
      *  is the same string that was provided in the constructor.
@@ -85,13 +190,20 @@ public class Expr {
 
     private double[] constants; // An array containing all the constants found in the expression.
 
+    private double[] temps;     // Temporary storage for subexpressions that are used more than once.
+
+    private MethodHandle compiled;  // If the expression has been compiled, this is a handle
+                                    //   of type (double)double that computes its value.
+
 
     private static final byte  // values for code array; values >= 0 are indices into constants array
     PLUS = -1,   MINUS = -2,   TIMES = -3,   DIVIDE = -4,  POWER = -5,
     SIN = -6,    COS = -7,     TAN = -8,     COT = -9,     SEC = -10,
     CSC = -11,   ARCSIN = -12, ARCCOS = -13, ARCTAN = -14, EXP = -15,    
     LN = -16,    LOG10 = -17,  LOG2 = -18,   ABS = -19,   SQRT = -20,
-    UNARYMINUS = -21, VARIABLE = -22;
+    UNARYMINUS = -21, VARIABLE = -22,
+    LOAD = -23,  STORE = -24,  // each of these is followed in the code by the index of a temp
+    SQUARE = -25;              // y*y; used only by the optimizer, for y^2
 
 
     private static String[] functionNames =  {  // names of standard functions, used during parsing
@@ -109,14 +221,7 @@ public class Expr {
                 else if (code[i] >= POWER) {
                     double y = stack[--top];
                     double x = stack[--top];
-                    double ans = Double.NaN;
-                    switch (code[i]) {
-                    case PLUS:    ans = x + y;  break;
-                    case MINUS:   ans = x - y;  break;
-                    case TIMES:   ans = x * y;  break;
-                    case DIVIDE:  ans = x / y;  break;
-                    case POWER:   ans = Math.pow(x,y);  break;
-                    }
+                    double ans = binary(code[i], x, y);
                     if (Double.isNaN(ans))
                         return ans;
                     stack[top++] = ans;
@@ -124,27 +229,15 @@ public class Expr {
                 else if (code[i] == VARIABLE) {
                     stack[top++] = variable;
                 }
+                else if (code[i] == LOAD) {
+                    stack[top++] = temps[code[++i]];
+                }
+                else if (code[i] == STORE) {
+                    temps[code[++i]] = stack[top-1];
+                }
                 else {
                     double x = stack[--top];
-                    double ans = Double.NaN;
-                    switch (code[i]) {
-                    case SIN: ans = Math.sin(x);  break;
-                    case COS: ans = Math.cos(x);  break;
-                    case TAN: ans = Math.tan(x);  break;
-                    case COT: ans = Math.cos(x)/Math.sin(x);  break;
-                    case SEC: ans = 1.0/Math.cos(x);  break;
-                    case CSC: ans = 1.0/Math.sin(x);  break;
-                    case ARCSIN: if (Math.abs(x) <= 1.0) ans = Math.asin(x);  break;
-                    case ARCCOS: if (Math.abs(x) <= 1.0) ans = Math.acos(x);  break;
-                    case ARCTAN: ans = Math.atan(x);  break;
-                    case EXP: ans = Math.exp(x);  break;
-                    case LN: if (x > 0.0) ans = Math.log(x);  break;
-                    case LOG2: if (x > 0.0) ans = Math.log(x)/Math.log(2);  break;
-                    case LOG10: if (x > 0.0) ans = Math.log(x)/Math.log(10);  break;
-                    case ABS: ans = Math.abs(x);  break;
-                    case SQRT: if (x >= 0.0) ans = Math.sqrt(x);  break;
-                    case UNARYMINUS: ans = -x; break;
-                    }
+                    double ans = unary(code[i], x);
                     if (Double.isNaN(ans))
                         return ans;
                     stack[top++] = ans;
@@ -161,6 +254,406 @@ public class Expr {
             return stack[0];               
     }      
 
+    private static final int COLUMN_SIZE = 256;  // number of values processed together by evalColumns()
+
+    private void evalColumns(double[] xs, double[] results, int start, int end) {
+            // Computes results[i] = eval(xs[i]) for start <= i < end.  The values are
+            // processed in groups of COLUMN_SIZE.  For each group, the code is run on a
+            // stack of columns, where each operation is applied to all the values in a
+            // column before going on to the next operation.  The columns are local
+            // variables, so several threads can use this method at the same time.
+            // The results are the same as for eval(), for the same reasons as for
+            // the compiled code (see below), with POWER done by the method power().
+        double[][] columns = new double[stack.length][COLUMN_SIZE];
+        double[][] tempColumns = new double[temps.length][COLUMN_SIZE];
+        for (int first = start; first < end; first += COLUMN_SIZE) {
+            int n = Math.min(COLUMN_SIZE, end - first);
+            int top = 0;
+            for (int i = 0; i < codeSize; i++) {
+                byte op = code[i];
+                if (op >= 0) {
+                    double[] a = columns[top++];
+                    double c = constants[op];
+                    for (int j = 0; j < n; j++)
+                        a[j] = c;
+                }
+                else if (op == VARIABLE)
+                    System.arraycopy(xs, first, columns[top++], 0, n);
+                else if (op == LOAD)
+                    System.arraycopy(tempColumns[code[++i]], 0, columns[top++], 0, n);
+                else if (op == STORE)
+                    System.arraycopy(columns[top-1], 0, tempColumns[code[++i]], 0, n);
+                else if (op >= POWER) {
+                    double[] b = columns[--top];
+                    double[] a = columns[top-1];
+                    switch (op) {
+                    case PLUS:    for (int j = 0; j < n; j++) a[j] = a[j] + b[j];  break;
+                    case MINUS:   for (int j = 0; j < n; j++) a[j] = a[j] - b[j];  break;
+                    case TIMES:   for (int j = 0; j < n; j++) a[j] = a[j] * b[j];  break;
+                    case DIVIDE:  for (int j = 0; j < n; j++) a[j] = a[j] / b[j];  break;
+                    default:      for (int j = 0; j < n; j++) a[j] = power(a[j], b[j]);  break;
+                    }
+                }
+                else {
+                    double[] a = columns[top-1];
+                    switch (op) {
+                    case UNARYMINUS:  for (int j = 0; j < n; j++) a[j] = -a[j];  break;
+                    case SQUARE:      for (int j = 0; j < n; j++) a[j] = a[j] * a[j];  break;
+                    case ABS:         for (int j = 0; j < n; j++) a[j] = Math.abs(a[j]);  break;
+                    case SQRT:        for (int j = 0; j < n; j++) a[j] = (a[j] >= 0.0) ? Math.sqrt(a[j]) : Double.NaN;  break;
+                    case SIN:         for (int j = 0; j < n; j++) a[j] = Math.sin(a[j]);  break;
+                    case COS:         for (int j = 0; j < n; j++) a[j] = Math.cos(a[j]);  break;
+                    case EXP:         for (int j = 0; j < n; j++) a[j] = Math.exp(a[j]);  break;
+                    case LN:          for (int j = 0; j < n; j++) a[j] = (a[j] > 0.0) ? Math.log(a[j]) : Double.NaN;  break;
+                    default:          for (int j = 0; j < n; j++) a[j] = unary(op, a[j]);  break;
+                    }
+                }
+            }
+            double[] a = columns[0];
+            for (int j = 0; j < n; j++)
+                results[first + j] = Double.isInfinite(a[j]) ? Double.NaN : a[j];
+        }
+    }
+
+    private static double binary(byte op, double x, double y) {  // apply a binary operator
+        switch (op) {
+        case PLUS:    return x + y;
+        case MINUS:   return x - y;
+        case TIMES:   return x * y;
+        case DIVIDE:  return x / y;
+        case POWER:   return power(x,y);
+        default:      return Double.NaN;
+        }
+    }
+
+    private static double unary(byte op, double x) {  // apply a function or unary minus
+        switch (op) {
+        case SIN: return Math.sin(x);
+        case COS: return Math.cos(x);
+        case TAN: return Math.tan(x);
+        case COT: return Math.cos(x)/Math.sin(x);
+        case SEC: return 1.0/Math.cos(x);
+        case CSC: return 1.0/Math.sin(x);
+        case ARCSIN: return (Math.abs(x) <= 1.0) ? Math.asin(x) : Double.NaN;
+        case ARCCOS: return (Math.abs(x) <= 1.0) ? Math.acos(x) : Double.NaN;
+        case ARCTAN: return Math.atan(x);
+        case EXP: return Math.exp(x);
+        case LN: return (x > 0.0) ? Math.log(x) : Double.NaN;
+        case LOG2: return (x > 0.0) ? Math.log(x)/Math.log(2) : Double.NaN;
+        case LOG10: return (x > 0.0) ? Math.log(x)/Math.log(10) : Double.NaN;
+        case ABS: return Math.abs(x);
+        case SQRT: return (x >= 0.0) ? Math.sqrt(x) : Double.NaN;
+        case UNARYMINUS: return -x;
+        case SQUARE: return x*x;
+        default: return Double.NaN;
+        }
+    }
+
+
+    //------------------- compilation into a MethodHandle ----------------------------------
+
+    // The compiled code is built from the code array by "running" it with a stack of
+    // MethodHandles instead of a stack of numbers.  Every handle on the stack has type
+    // (double)double; it computes the value of part of the expression from the value
+    // of x.  A constant becomes a handle that ignores x, and the variable becomes the
+    // identity function.  A function is applied to the handle on top of the stack
+    // with filterReturnValue().  A binary operator is applied to the top two handles
+    // by using them to compute the two parameters of the operator (with the method
+    // collectArguments()), which makes a handle
+    // of type (double,double)double, and then passing x as both of the parameters.
+    // The operators are the same methods that eval() uses, with the opcode inserted as
+    // a constant, so the JIT compiler can eliminate the switch statements.  The code
+    // does not stop as soon as a value is NaN, as eval() does, but that makes no
+    // difference, since NaN is passed on by all the operations, except that Math.pow(NaN,0)
+    // is 1.  That is why POWER is handled by the separate method power().
+    //    When the code uses k temps, every handle instead has type (double,...,double)double
+    // with k+1 parameters:  the values of temps number k-1 down to 0, followed by x.  A LOAD
+    // becomes a handle that just returns one of those parameters.  At the end, the value
+    // of each temp is computed once and passed to the handle for the whole expression with
+    // foldArguments(), starting with the last temp, which can depend on all of the others.
+
+    private static final MethodType DOUBLE_FUNCTION = MethodType.methodType(double.class, double.class);
+    private static final MethodHandle BINARY, UNARY, POWER_HANDLE, FINISH;
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            BINARY = lookup.findStatic(Expr.class, "binary", 
+                    MethodType.methodType(double.class, byte.class, double.class, double.class));
+            UNARY = lookup.findStatic(Expr.class, "unary", 
+                    MethodType.methodType(double.class, byte.class, double.class));
+            POWER_HANDLE = lookup.findStatic(Expr.class, "power", 
+                    MethodType.methodType(double.class, double.class, double.class));
+            FINISH = lookup.findStatic(Expr.class, "finish", DOUBLE_FUNCTION);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);  // Can't happen, since the methods exist.
+        }
+    }
+
+    private static double power(double x, double y) {  // Math.pow, but NaN if x or y is NaN
+        if (Double.isNaN(x) || Double.isNaN(y))
+            return Double.NaN;
+        return Math.pow(x,y);
+    }
+
+    private static double finish(double value) {  // infinite values are converted to NaN, as in eval()
+        return Double.isInfinite(value) ? Double.NaN : value;
+    }
+
+    private void compile() {  // create the compiled handle; call after parse()
+        int k = temps.length;
+        Class<?>[] tempTypes = new Class<?>[k];
+        Arrays.fill(tempTypes, double.class);
+        MethodType type = DOUBLE_FUNCTION.insertParameterTypes(0, tempTypes);
+        int[] twice = new int[2*(k+1)];  // for passing the k+1 parameters to both operands
+        for (int i = 0; i <= k; i++)
+            twice[i] = twice[i+k+1] = i;
+        MethodHandle[] handles = new MethodHandle[stack.length];
+        MethodHandle[] tempHandles = new MethodHandle[k];
+        int top = 0;
+        for (int i = 0; i < codeSize; i++) {
+            MethodHandle h;
+            if (code[i] == STORE) {
+                tempHandles[code[++i]] = handles[top-1];
+                continue;
+            }
+            else if (code[i] == LOAD)
+                h = MethodHandles.permuteArguments(MethodHandles.identity(double.class), type, k-1-code[++i]);
+            else if (code[i] >= 0) {
+                h = MethodHandles.constant(double.class, constants[code[i]]);
+                h = MethodHandles.dropArguments(h, 0, type.parameterList());
+            }
+            else if (code[i] == VARIABLE)
+                h = MethodHandles.dropArguments(MethodHandles.identity(double.class), 0, tempTypes);
+            else if (code[i] >= POWER) {
+                MethodHandle y = handles[--top];
+                MethodHandle x = handles[--top];
+                MethodHandle op = (code[i] == POWER) ? POWER_HANDLE
+                                        : MethodHandles.insertArguments(BINARY, 0, code[i]);
+                h = MethodHandles.collectArguments(op, 1, y);
+                h = MethodHandles.collectArguments(h, 0, x);
+                h = MethodHandles.permuteArguments(h, type, twice);
+            }
+            else
+                h = MethodHandles.filterReturnValue(handles[--top],
+                                        MethodHandles.insertArguments(UNARY, 0, code[i]));
+            handles[top++] = h;
+        }
+        MethodHandle h = handles[0];
+        for (int t = k-1; t >= 0; t--) {
+                // h has parameters for temps t down to 0 and x.  The handle for temp t
+                // has parameters for all k temps and x, but only uses temps t-1 down to 0
+                // and x, so the others are filled in with zeros.
+            Object[] unused = new Object[k-t];
+            Arrays.fill(unused, 0.0);
+            MethodHandle temp = MethodHandles.insertArguments(tempHandles[t], 0, unused);
+            h = MethodHandles.foldArguments(h, temp);
+        }
+        compiled = MethodHandles.filterReturnValue(h, FINISH);
+    }
+
+
+    //------------------- optimization ---------------------------------------------------
+
+    // The optimizer "runs" the code produced by the parser with a stack of Nodes, which
+    // builds a tree that represents the expression.  Every Node is made by the method
+    // node(), which computes any operation whose operands are constants and applies some
+    // simple rules, such as replacing x^2 by x*x (which is the unary operation SQUARE).  All the rules give exactly the same
+    // result as the original operation for every value, including NaN, infinity, and -0.
+    // (That is why, for example, x*0 is not replaced by 0, since x*0 is NaN when x is
+    // infinite.)  A map is used to make sure that there is only one Node for each
+    // distinct operation, so a subexpression that occurs more than once turns into a
+    // single Node that is used more than once.  The new code is then produced from the
+    // tree.  The value of a Node that is used more than once is saved in a temp with a
+    // STORE the first time it is computed and pushed onto the stack with a LOAD after that.
+
+    private static final byte CONSTANT = 0;  // op for a Node that represents a constant
+
+    private static class Node {
+        byte op;           // CONSTANT, VARIABLE, or one of the operation codes
+        double value;      // for a constant, its value
+        Node left, right;  // operands; right is null for a unary operation
+        int id;            // a unique number for this Node, used to make keys for the map
+        int uses;          // number of times this Node is used in the expression
+        int index = -1;    // constant number or temp number, assigned when code is made
+    }
+
+    private HashMap<String,Node> nodes;  // data for use during optimization
+    private int tempCt;
+
+    private void optimize() {  // replace the code from parse() with optimized code
+        nodes = new HashMap<String,Node>();
+        Node[] nodeStack = new Node[codeSize];
+        int top = 0;
+        for (int i = 0; i < codeSize; i++) {
+            if (code[i] >= 0)
+                nodeStack[top++] = constant(constants[code[i]]);
+            else if (code[i] == VARIABLE)
+                nodeStack[top++] = node(VARIABLE, null, null);
+            else if (code[i] >= POWER) {
+                Node y = nodeStack[--top];
+                Node x = nodeStack[--top];
+                nodeStack[top++] = node(code[i], x, y);
+            }
+            else {
+                Node x = nodeStack[--top];
+                nodeStack[top++] = node(code[i], x, null);
+            }
+        }
+        Node root = nodeStack[0];
+        if (countUses(root) > Byte.MAX_VALUE) {
+            nodes = null;  // Too many constants and temps to number with bytes; keep the old code.
+            temps = new double[0];
+            return;
+        }
+        code = new byte[7*nodes.size()];  // Each Node takes at most 3 bytes, plus 2 for each LOAD.
+        constants = new double[nodes.size()];
+        codeSize = 0;
+        constantCt = 0;
+        tempCt = 0;
+        emit(root);
+        temps = new double[tempCt];
+        nodes = null;
+    }
+
+    private int countUses(Node n) {  // count uses of the nodes in the tree; returns
+                                     // the number of constants and temps needed
+        n.uses++;
+        if (n.uses > 1)
+            return (n.uses == 2 && n.left != null) ? 1 : 0;
+        int ct = (n.op == CONSTANT) ? 1 : 0;
+        if (n.left != null)
+            ct += countUses(n.left);
+        if (n.right != null)
+            ct += countUses(n.right);
+        return ct;
+    }
+
+    private void emit(Node n) {  // add code to compute the value of n
+        if (n.op == CONSTANT) {
+            if (n.index < 0) {
+                n.index = constantCt;
+                constants[constantCt++] = n.value;
+            }
+            code[codeSize++] = (byte)n.index;
+        }
+        else if (n.index >= 0) {
+            code[codeSize++] = LOAD;
+            code[codeSize++] = (byte)n.index;
+        }
+        else {
+            if (n.left != null)
+                emit(n.left);
+            if (n.right != null)
+                emit(n.right);
+            code[codeSize++] = n.op;
+            if (n.uses > 1 && n.left != null) {
+                n.index = tempCt++;
+                code[codeSize++] = STORE;
+                code[codeSize++] = (byte)n.index;
+            }
+        }
+    }
+
+    private Node constant(double value) {  // get the Node for a constant
+        String key = "c" + Double.doubleToLongBits(value);
+        Node n = nodes.get(key);
+        if (n == null) {
+            n = new Node();
+            n.op = CONSTANT;
+            n.value = value;
+            n.id = nodes.size();
+            nodes.put(key, n);
+        }
+        return n;
+    }
+
+    private Node node(byte op, Node left, Node right) {  // get the Node for an operation,
+                                                         // after simplifying it if possible
+        if (isConstant(left, Double.NaN) || isConstant(right, Double.NaN))
+            return constant(Double.NaN);
+        if (right == null && left != null) {  // a unary operation
+            if (left.op == CONSTANT)
+                return constant(unary(op, left.value));
+            if (op == UNARYMINUS && left.op == UNARYMINUS)
+                return left.left;                             // -(-y) = y
+            if (op == ABS && left.op == ABS)
+                return left;                                  // abs(abs(y)) = abs(y)
+            if (op == ABS && left.op == UNARYMINUS)
+                return node(ABS, left.left, null);            // abs(-y) = abs(y)
+        }
+        else if (right != null) {  // a binary operation
+            if (left.op == CONSTANT && right.op == CONSTANT)
+                return constant(op == POWER ? power(left.value, right.value)
+                                        : binary(op, left.value, right.value));
+            switch (op) {
+            case PLUS:
+                if (right.op == UNARYMINUS)
+                    return node(MINUS, left, right.left);     // a + (-b) = a - b
+                if (left.op == UNARYMINUS)
+                    return node(MINUS, right, left.left);     // (-a) + b = b - a
+                break;
+            case MINUS:
+                if (isConstant(right, 0))
+                    return left;                              // a - 0 = a
+                if (right.op == UNARYMINUS)
+                    return node(PLUS, left, right.left);      // a - (-b) = a + b
+                break;
+            case TIMES:
+                if (isConstant(right, 1))
+                    return left;                              // a * 1 = a
+                if (left == right)
+                    return node(SQUARE, left, null);          // a * a = square(a)
+                if (isConstant(left, 1))
+                    return right;                             // 1 * b = b
+                if (left.op == UNARYMINUS && right.op == UNARYMINUS)
+                    return node(TIMES, left.left, right.left);  // (-a) * (-b) = a * b
+                break;
+            case DIVIDE:
+                if (isConstant(right, 1))
+                    return left;                              // a / 1 = a
+                if (left.op == UNARYMINUS && right.op == UNARYMINUS)
+                    return node(DIVIDE, left.left, right.left);  // (-a) / (-b) = a / b
+                if (right.op == CONSTANT && isPowerOfTwo(right.value))
+                    return node(TIMES, left, constant(1 / right.value));  // a / 4 = a * 0.25
+                break;
+            case POWER:
+                if (isConstant(right, 1))
+                    return left;                              // a ^ 1 = a
+                if (isConstant(right, 2))
+                    return node(SQUARE, left, null);          // a ^ 2 = a * a
+                break;
+            }
+            if ((op == PLUS || op == TIMES) && left.id > right.id) {
+                Node temp = left;   // Put the operands in a standard order, so that
+                left = right;       //   a+b and b+a will get the same Node.
+                right = temp;
+            }
+        }
+        String key = op + " " + (left == null ? "" : left.id) + " " + (right == null ? "" : right.id);
+        Node n = nodes.get(key);
+        if (n == null) {
+            n = new Node();
+            n.op = op;
+            n.left = left;
+            n.right = right;
+            n.id = nodes.size();
+            nodes.put(key, n);
+        }
+        return n;
+    }
+
+    private static boolean isConstant(Node n, double value) {  // is n the constant value?
+        return n != null && n.op == CONSTANT &&
+                  Double.doubleToLongBits(n.value) == Double.doubleToLongBits(value);
+    }
+
+    private static boolean isPowerOfTwo(double d) {  // is d a power of two whose reciprocal
+                                                     // can be represented exactly?
+        return Math.abs(d) >= Double.MIN_NORMAL && !Double.isInfinite(d)
+                  && (Double.doubleToLongBits(d) & 0xFFFFFFFFFFFFFL) == 0;
+    }
+
 
     private int pos = 0, constantCt = 0, codeSize = 0;  // data for use during parsing
 
@@ -172,18 +665,31 @@ public class Expr {
         int s = 0;   // stack size after each operation
         int max = 0; // maximum stack size seen
         for (int i = 0; i < codeSize; i++) {
-            if (code[i] >= 0 || code[i] == VARIABLE) {
+            if (code[i] >= 0 || code[i] == VARIABLE || code[i] == LOAD) {
                 s++;
                 if (s > max)
                     max = s;
             }
             else if (code[i] >= POWER)
                 s--;
+            if (code[i] == LOAD || code[i] == STORE)
+                i++;  // skip the temp number
         }
         return max;
     }
 
-    private void parse(String definition) { // Parse the definition and produce all
+    int getOperationCount() {  // the number of operations in the code; used by ExprBenchmark
+        int ct = 0;
+        for (int i = 0; i < codeSize; i++) {
+            if (code[i] == LOAD || code[i] == STORE)
+                i++;
+            ct++;
+        }
+        return ct;
+    }
+
+    private void parse(String definition, boolean optimize) {
+                                            // Parse the definition and produce all
                                             // the data that represents the expression
                                             // internally;  can throw IllegalArgumentException
         if (definition == null || definition.trim().equals(""))
@@ -195,6 +701,10 @@ public class Expr {
         skip();
         if (next() != 0)
             error("Extra data found after the end of the expression.");
+        if (optimize)
+            optimize();
+        else
+            temps = new double[0];
         int stackSize = computeStackUsage();
         stack = new double[stackSize];
         byte[] c = new byte[codeSize];
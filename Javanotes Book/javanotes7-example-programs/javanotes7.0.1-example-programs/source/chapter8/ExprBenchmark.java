@@ -0,0 +1,115 @@
+
+/**
+ * Compares the speed of interpreted and compiled expressions (see the class
+ * Expr), for some formulas like the ones that might be graphed with
+ * SimpleGrapher.  For each formula, the program creates an interpreted Expr
+ * and a compiled Expr, and reports the time to create each one and the average
+ * time for one call to value(), for points evenly spaced between -5 and 5.  It
+ * also reports the average time per point when all the points are evaluated
+ * together by the values() method, in one thread.  The program checks that
+ * all three ways give the same values.  Each time is the best
+ * of several runs, after a warm-up run to give the Java virtual machine a chance
+ * to compile everything.
+ *
+ * Usage:  java ExprBenchmark [points]
+ * The default number of points is 1000000.
+ */
+public class ExprBenchmark {
+
+   private final static String[] FORMULAS = {
+      "x^2 + x + 1",
+      "sin(2.3*x-7.1) - cos(7.1*x-2.3)",
+      "exp(x^2) - 1",
+      "(x^3 - 3*x + 1) / (x^2 + 1)",
+      "sqrt(abs(x)) * ln(x^2 + 1) + arctan(5*x)",
+      "sin(x)/x + 0.1*x^2*cos(3*x) - log10(abs(x) + 1)"
+   };
+
+   private final static int RUNS = 5;
+
+   private static double sum;  // The sum of all the values, so the computation can't be skipped.
+
+   public static void main(String[] args) {
+      int points = 1000000;
+      if (args.length > 0)
+         points = Integer.parseInt(args[0]);
+      System.out.printf("%d points from -5 to 5; best of %d runs.%n%n", points, RUNS);
+      double[] xValues = new double[points];
+      for (int i = 0; i < points; i++)
+         xValues[i] = -5 + 10.0 * i / (points - 1);
+      double[] results = new double[points];
+      System.out.printf("%-48s %10s %10s %12s %12s %12s %10s%n", "Formula", "Create", "Compile",
+                             "Interpreted", "Compiled", "Batch", "Different");
+      for (String formula : FORMULAS) {
+         long start = System.nanoTime();
+         Expr interpreted = new Expr(formula);
+         double createTime = (System.nanoTime() - start) / 1e3;
+         start = System.nanoTime();
+         Expr compiled = new Expr(formula, true);
+         double compileTime = (System.nanoTime() - start) / 1e3;
+         run(interpreted, points);  // warm up
+         run(compiled, points);
+         runBatch(interpreted, xValues, results);
+         double interpretedTime = Double.MAX_VALUE, compiledTime = Double.MAX_VALUE;
+         double batchTime = Double.MAX_VALUE;
+         for (int i = 0; i < RUNS; i++) {
+            interpretedTime = Math.min(interpretedTime, run(interpreted, points));
+            compiledTime = Math.min(compiledTime, run(compiled, points));
+            batchTime = Math.min(batchTime, runBatch(interpreted, xValues, results));
+         }
+         int different = 0;
+         for (int i = 0; i < points; i++) {
+            double x = -5 + 10.0 * i / (points - 1);
+            double a = interpreted.value(x);
+            if (!same(a, compiled.value(x)) || !same(a, results[i]))
+               different++;
+         }
+         System.out.printf("%-48s %7.0f us %7.0f us %9.1f ns %9.1f ns %9.1f ns %10d%n", formula,
+                              createTime, compileTime, interpretedTime, compiledTime,
+                              batchTime, different);
+      }
+      if (sum == 42)
+         System.out.println();  // (Just so that sum is used.)
+   }
+
+   /**
+    * Tests whether two values are the same, counting all NaN values as the same.
+    */
+   private static boolean same(double a, double b) {
+      return a == b || (Double.isNaN(a) && Double.isNaN(b));
+   }
+
+   /**
+    * Evaluates the expression at all the points with one call to values(), and
+    * returns the average time per point, in nanoseconds.
+    */
+   private static double runBatch(Expr expr, double[] xValues, double[] results) {
+      long start = System.nanoTime();
+      expr.values(xValues, results);
+      double total = 0;
+      for (double y : results) {
+         if (!Double.isNaN(y))
+            total += y;
+      }
+      sum += total;
+      return (double)(System.nanoTime() - start) / xValues.length;
+   }
+
+   /**
+    * Evaluates the expression at the given number of points, and returns the
+    * average time for one evaluation, in nanoseconds.
+    */
+   private static double run(Expr expr, int points) {
+      long start = System.nanoTime();
+      double total = 0;
+      for (int i = 0; i < points; i++) {
+         double x = -5 + 10.0 * i / (points - 1);
+         double y = expr.value(x);
+         if (!Double.isNaN(y))
+            total += y;
+      }
+      sum += total;
+      return (double)(System.nanoTime() - start) / points;
+   }
+
+}
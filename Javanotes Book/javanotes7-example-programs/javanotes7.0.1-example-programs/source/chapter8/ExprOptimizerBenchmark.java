@@ -0,0 +1,130 @@
+
+/**
+ * Shows the effect of the optimization that is done when an Expr is created,
+ * for some formulas like the ones that might be graphed with SimpleGrapher.
+ * For each formula, the program creates an Expr without optimization and one
+ * with optimization, and reports the number of operations in each one and the
+ * average time per point for evaluating it at points evenly spaced between -5
+ * and 5, using value() and using values().  The same is then done for
+ * compiled expressions.  The program checks that the optimized expressions
+ * give exactly the same values as the unoptimized one.  Each time is the best
+ * of several runs, after a warm-up run to give the Java virtual machine a
+ * chance to compile everything.
+ *
+ * Usage:  java ExprOptimizerBenchmark [points]
+ * The default number of points is 1000000.
+ */
+public class ExprOptimizerBenchmark {
+
+   private final static String[] FORMULAS = {
+      "x^2 + x + 1",
+      "sin(x)^2 + cos(x)^2",
+      "(x^2 - 1) / (x^2 + 1)",
+      "exp(-x^2/2) / sqrt(2*3.14159265)",
+      "sin(2*3.14159265*x/4) + 0.5*sin(2*3.14159265*x/4)^2",
+      "(x^3 - 3*x + 1) / (x^3 - 3*x + 2)",
+      "sqrt(abs(x)) * ln(x^2 + 1) + arctan(5*x)",
+      "sin(x)/x + 0.1*x^2*cos(3*x) - log10(abs(x) + 1)",
+      "abs(sin(3*x) - cos(3*x)) / (1 + abs(sin(3*x) - cos(3*x)))"
+   };
+
+   private final static int RUNS = 5;
+
+   private static double sum;  // The sum of all the values, so the computation can't be skipped.
+
+   public static void main(String[] args) {
+      int points = 1000000;
+      if (args.length > 0)
+         points = Integer.parseInt(args[0]);
+      System.out.printf("%d points from -5 to 5; best of %d runs; times are per point.%n%n",
+                             points, RUNS);
+      double[] xValues = new double[points];
+      for (int i = 0; i < points; i++)
+         xValues[i] = -5 + 10.0 * i / (points - 1);
+      double[] results = new double[points];
+      System.out.printf("%-58s %7s %19s %19s %19s %10s%n", "Formula", "Ops",
+                             "Interpreted", "Batch", "Compiled", "Different");
+      for (String formula : FORMULAS) {
+         Expr plain = new Expr(formula, false, false);
+         Expr optimized = new Expr(formula, false, true);
+         Expr plainCompiled = new Expr(formula, true, false);
+         Expr optimizedCompiled = new Expr(formula, true, true);
+         Expr[] exprs = { plain, optimized, plainCompiled, optimizedCompiled };
+         double[] valueTimes = new double[4];
+         double[] batchTimes = new double[2];
+         java.util.Arrays.fill(valueTimes, Double.MAX_VALUE);
+         java.util.Arrays.fill(batchTimes, Double.MAX_VALUE);
+         for (int run = 0; run <= RUNS; run++) {  // (run 0 is the warm-up)
+            for (int i = 0; i < 4; i++) {
+               double t = run(exprs[i], xValues);
+               if (run > 0)
+                  valueTimes[i] = Math.min(valueTimes[i], t);
+            }
+            for (int i = 0; i < 2; i++) {
+               double t = runBatch(exprs[i], xValues, results);
+               if (run > 0)
+                  batchTimes[i] = Math.min(batchTimes[i], t);
+            }
+         }
+         optimized.values(xValues, results);
+         int different = 0;
+         for (int i = 0; i < points; i++) {
+            double x = xValues[i];
+            double a = plain.value(x);
+            if (!same(a, optimized.value(x)) || !same(a, optimizedCompiled.value(x))
+                                             || !same(a, results[i]))
+               different++;
+         }
+         System.out.printf("%-58s %3d/%-3d %7.1f/%5.1f ns %7.1f/%5.1f ns %7.1f/%5.1f ns %10d%n",
+                              formula, plain.getOperationCount(), optimized.getOperationCount(),
+                              valueTimes[0], valueTimes[1], batchTimes[0], batchTimes[1],
+                              valueTimes[2], valueTimes[3], different);
+      }
+      System.out.println();
+      System.out.println("Each column shows \"without optimization/with optimization\".");
+      if (sum == 42)
+         System.out.println();  // (Just so that sum is used.)
+   }
+
+   /**
+    * Tests whether two values are the same, counting all NaN values as the same.
+    * Unlike ==, this says that 0 and -0 are different.
+    */
+   private static boolean same(double a, double b) {
+      return Double.doubleToLongBits(a) == Double.doubleToLongBits(b)
+                   || (Double.isNaN(a) && Double.isNaN(b));
+   }
+
+   /**
+    * Evaluates the expression at all the points with one call to values(), and
+    * returns the average time per point, in nanoseconds.
+    */
+   private static double runBatch(Expr expr, double[] xValues, double[] results) {
+      long start = System.nanoTime();
+      expr.values(xValues, results);
+      double total = 0;
+      for (double y : results) {
+         if (!Double.isNaN(y))
+            total += y;
+      }
+      sum += total;
+      return (double)(System.nanoTime() - start) / xValues.length;
+   }
+
+   /**
+    * Evaluates the expression at each of the points by calling value(), and
+    * returns the average time for one evaluation, in nanoseconds.
+    */
+   private static double run(Expr expr, double[] xValues) {
+      long start = System.nanoTime();
+      double total = 0;
+      for (double x : xValues) {
+         double y = expr.value(x);
+         if (!Double.isNaN(y))
+            total += y;
+      }
+      sum += total;
+      return (double)(System.nanoTime() - start) / xValues.length;
+   }
+
+}
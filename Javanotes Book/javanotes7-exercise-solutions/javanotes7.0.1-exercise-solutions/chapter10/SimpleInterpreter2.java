@@ -37,12 +37,34 @@
     This program demonstrates the use of a HashMap as a symbol
     table.
 
+    Each command is "compiled" before it is executed:  The expression in
+    the command is translated into a FlatExpr (see FlatExpr.java), in which
+    each variable is represented by its position in an array that holds
+    the values of all the variables, so the symbol table is only used while
+    the command is being read.  This makes it possible to read a whole
+    script of commands from a file once and then to execute it as many
+    times as necessary, much faster than reading the commands again each
+    time.  If the name of a file is given as a command-line argument,
+    the program runs the commands from that file, instead of reading
+    commands from the user.  When a script is run, the output is the
+    output from the print commands.  (See also SimpleInterpreter2Benchmark.)
+
+    A command that is typed by the user is executed as soon as it has been
+    compiled, so the current values of the variables are put into its
+    FlatExpr as constants.  This means that an illegal use of the ^ operator,
+    such as (-1)^0.5, is found while the command is being read, and the rest
+    of the line is discarded.  In a script, where the values of the variables
+    are not known until the script is run, such an error is found when the
+    script is run, unless both operands of the ^ are constants.
+
     SimpleInterpreter2.java is based on the program SimpleInterpreter.java,
     which did not handle standard functions in expressions.
     
     This program depends on the non-standard class, TextIO.
  */
 
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 public class SimpleInterpreter2 {
@@ -57,91 +79,133 @@ public class SimpleInterpreter2 {
    } // end nested class ParseError
    
    
-   /**
-    * An enumerated type whose values represent the possible
-    * standard functions.
-    */
-   private enum Functions { SIN, COS, TAN, ABS, SQRT, LOG }
-   
-   
    /**
     * An object of this class represents one of the standard functions.
     * Objects of this type are stored in the symbol table, associated
-    * with the name of the standard functions.  Note that an object
-    * of this type also knows how to evaluate the corresponding function.
+    * with the name of the standard functions.
     */
    private static class StandardFunction {
 
       /**
-       * Tells which function this is.
+       * Tells which function this is, as one of the operation codes
+       * FlatExpr.SIN, FlatExpr.COS, FlatExpr.TAN, FlatExpr.ABS,
+       * FlatExpr.SQRT, or FlatExpr.LOG.
        */
-      Functions functionCode; 
+      int functionCode; 
 
       /**
        * Constructor creates an object to represent one of 
        * the standard functions
        * @param code which function is represented.
        */
-      StandardFunction(Functions code) {
+      StandardFunction(int code) {
          functionCode = code;
       }
 
+   } // end class StandardFunction
+
+
+   /**
+    * Represents one compiled command.
+    */
+   private static class Command {
+      String variableName;  // For a let command, the name of the variable; null for print.
+      int variable;         // For a let command in a Script, the number of the variable.
+      FlatExpr expression;  // The expression in the command.
+   }
+
+
+   /**
+    * A Script is a list of commands that have been read and compiled, and that
+    * can be executed any number of times.
+    */
+   static class Script {
+
+      private Command[] commands;
+
+      private Script(Command[] commands) {
+         this.commands = commands;
+      }
+
       /**
-       * Finds the value of this function for the specified 
-       * parameter value, x.
+       * Returns the number of commands in the script.
        */
-      double evaluate(double x) {
-         switch(functionCode) {
-         case SIN:
-            return Math.sin(x);
-         case COS:
-            return Math.cos(x);
-         case TAN:
-            return Math.tan(x);
-         case ABS:
-            return Math.abs(x);
-         case SQRT:
-            return Math.sqrt(x);
-         default:
-            return Math.log(x);
+      int getCommandCount() {
+         return commands.length;
+      }
+
+      /**
+       * Executes the commands in the script, in order.  The value from a print
+       * command is output to the specified stream.
+       * @throws ArithmeticException if an error occurs while evaluating an
+       *    expression.  (The only error is an illegal use of the ^ operator.)
+       */
+      void run(PrintStream out) {
+         for (Command command : commands) {
+            double val = command.expression.value(variables);
+            if (command.variableName == null)
+               out.println("Value is " + val);
+            else
+               variables[command.variable] = val;
          }
       }
 
-   } // end class StandardFunction
+   } // end class Script
 
 
 
    /**
     * The symbolTable contains information about the values of variables.  When a variable 
     * is assigned a value, it is recorded in the symbol table. The key is the name of the 
-    * variable, and the  value is an object of type Double that contains the value of the 
-    * variable.  
+    * variable, and the  value is an object of type Integer that contains the number of the 
+    * variable, which is its position in the array, variables.  
     *    The symbol table can also contain standard functions.  The key is the name of
     * of the function, and the value is the corresponding StandardFunction object.
     */
    private static HashMap<String,Object> symbolTable;
 
+   /**
+    * The values of the variables.  variables[n] is the value of the variable whose
+    * number in the symbol table is n.  The array is made bigger when necessary.
+    */
+   private static double[] variables;
 
-   public static void main(String[] args) {
-      
-      // Create the map that represents symbol table.
-      
-      symbolTable = new HashMap<String,Object>();
+   /**
+    * The number of variables that have been defined.
+    */
+   private static int variableCount;
+
+   /**
+    * When this is true, primaryCode() uses the current value of a variable
+    * as a constant, instead of taking the value from the variables array
+    * when the expression is evaluated.  It is set to true for commands that
+    * are typed by the user, which are executed as soon as they are compiled.
+    */
+   private static boolean useCurrentValues;
 
-      // To start, add variables named "pi" and "e" to the symbol
-      // table.  Their values are the usual mathematical constants.
 
-      symbolTable.put("pi", Math.PI);
-      symbolTable.put("e", Math.E);
+   public static void main(String[] args) {
       
-      // Add the standard functions to the hash table.
+      createSymbolTable();
       
-      symbolTable.put("sin", new StandardFunction(Functions.SIN));
-      symbolTable.put("cos", new StandardFunction(Functions.COS));
-      symbolTable.put("tan", new StandardFunction(Functions.TAN));
-      symbolTable.put("abs", new StandardFunction(Functions.ABS));
-      symbolTable.put("sqrt", new StandardFunction(Functions.SQRT));
-      symbolTable.put("log", new StandardFunction(Functions.LOG));
+      if (args.length > 0) {
+            // Run the commands from the file named by args[0].
+         try {
+            TextIO.readFile(args[0]);
+            Script script = compileScript();
+            script.run(System.out);
+         }
+         catch (IllegalArgumentException e) {
+            System.out.println("Can't read from the file " + args[0] + ".");
+         }
+         catch (ParseError e) {
+            System.out.println("*** Error in script:  " + e.getMessage());
+         }
+         catch (ArithmeticException e) {
+            System.out.println("*** Error while running script:  " + e.getMessage());
+         }
+         return;
+      }
 
       System.out.println("\n\nEnter commands; press return to end.");
       System.out.println("Commands must have the form:\n");
@@ -149,6 +213,7 @@ public class SimpleInterpreter2 {
       System.out.println("  or");
       System.out.println("      let <variable> = <expression>");
 
+      useCurrentValues = true;
       while (true) {
          System.out.print("\n?  ");
          TextIO.skipBlanks();
@@ -156,19 +221,24 @@ public class SimpleInterpreter2 {
             break;  // A blank input line ends the while loop and the program.
          }
          try {
-            String command = TextIO.getWord();
-            if (command.equalsIgnoreCase("print"))
-               doPrintCommand();
-            else if (command.equalsIgnoreCase("let"))
-               doLetCommand();
-            else
-               throw new ParseError("Command must begin with 'print' or 'let'.");
+            Command command = compileCommand();
+            double val = command.expression.value(variables);
+            if (command.variableName == null)
+               System.out.println("Value is " + val);
+            else {
+               variables[ variableNumber(command.variableName) ] = val;
+               System.out.println("ok");
+            }
             TextIO.getln();
          }
          catch (ParseError e) {
             System.out.println("\n*** Error in input:    " + e.getMessage());
             System.out.println("*** Discarding input:  " + TextIO.getln());
          }
+         catch (ArithmeticException e) {
+            System.out.println("\n*** Error in input:    " + e.getMessage());
+            System.out.println("*** Discarding input:  " + TextIO.getln());
+         }
       }
 
       System.out.println("\n\nDone.");
@@ -177,12 +247,106 @@ public class SimpleInterpreter2 {
 
 
    /**
-    * Process a command of the form  let <variable> = <expression>.
+    * Creates the symbol table, containing only the standard functions and the
+    * variables pi and e.  This must be called before any commands are compiled.
+    */
+   static void createSymbolTable() {
+      
+      // Create the map that represents symbol table.
+      
+      symbolTable = new HashMap<String,Object>();
+      variables = new double[16];
+      variableCount = 0;
+
+      // To start, add variables named "pi" and "e" to the symbol
+      // table.  Their values are the usual mathematical constants.
+
+      variables[ variableNumber("pi") ] = Math.PI;
+      variables[ variableNumber("e") ] = Math.E;
+      
+      // Add the standard functions to the hash table.
+      
+      symbolTable.put("sin", new StandardFunction(FlatExpr.SIN));
+      symbolTable.put("cos", new StandardFunction(FlatExpr.COS));
+      symbolTable.put("tan", new StandardFunction(FlatExpr.TAN));
+      symbolTable.put("abs", new StandardFunction(FlatExpr.ABS));
+      symbolTable.put("sqrt", new StandardFunction(FlatExpr.SQRT));
+      symbolTable.put("log", new StandardFunction(FlatExpr.LOG));
+
+   }
+
+
+   /**
+    * Reads commands from the current TextIO input source, up to the end of the
+    * input, and compiles them into a Script.  Blank lines are ignored.  The
+    * variables that are assigned values by let commands are added to the symbol
+    * table, so that they can be used in later commands.
+    * @throws ParseError if there is an error in one of the commands.  The
+    *    message says which line contains the error.
+    */
+   static Script compileScript() throws ParseError {
+      ArrayList<Command> commands = new ArrayList<Command>();
+      int lineNumber = 0;
+      while (true) {
+         TextIO.skipBlanks();
+         if (TextIO.eof())
+            break;
+         lineNumber++;
+         if ( TextIO.peek() != '\n' ) {
+            try {
+               Command command = compileCommand();
+               if (command.variableName != null)
+                  command.variable = variableNumber(command.variableName);
+               commands.add(command);
+            }
+            catch (ParseError e) {
+               throw new ParseError("Line " + lineNumber + ":  " + e.getMessage());
+            }
+         }
+         TextIO.getln();
+      }
+      return new Script( commands.toArray(new Command[commands.size()]) );
+   }
+
+
+   /**
+    * Returns the number of the variable with a given name, first adding it
+    * to the symbol table if it is not already there.  (If the name is
+    * the name of a standard function, the function is replaced by the variable.)
+    */
+   private static int variableNumber(String varName) {
+      Object obj = symbolTable.get(varName);
+      if (obj instanceof Integer)
+         return (Integer)obj;
+      if (variableCount == variables.length)
+         variables = java.util.Arrays.copyOf(variables, 2*variableCount);
+      symbolTable.put(varName, variableCount);
+      return variableCount++;
+   }
+
+
+   /**
+    * Reads one command from the current line of input and compiles it.
+    */
+   private static Command compileCommand() throws ParseError {
+      String command = TextIO.getWord();
+      if (command.equalsIgnoreCase("print"))
+         return compilePrintCommand();
+      else if (command.equalsIgnoreCase("let"))
+         return compileLetCommand();
+      else
+         throw new ParseError("Command must begin with 'print' or 'let'.");
+   }
+
+
+   /**
+    * Compile a command of the form  let <variable> = <expression>.
     * When this method is called, the word "let" has already
-    * been read.  Read the variable name and the expression, and
-    * store the value of the variable in the symbol table.
+    * been read.  Read the variable name and the expression.  The
+    * variable is not added to the symbol table here; that is done
+    * when the command is executed or added to a Script.
     */
-   private static void doLetCommand() throws ParseError {
+   private static Command compileLetCommand() throws ParseError {
       TextIO.skipBlanks();
       if ( ! Character.isLetter(TextIO.peek()) )
          throw new ParseError("Expected variable name after 'let'.");
@@ -191,33 +355,54 @@ public class SimpleInterpreter2 {
       if ( TextIO.peek() != '=' )
          throw new ParseError("Expected '=' operator for 'let' command.");
       TextIO.getChar();
-      double val = expressionValue();  // The value of the variable.
+      Command command = new Command();
+      command.expression = compileExpression();  // The value of the variable.
       TextIO.skipBlanks();
       if ( TextIO.peek() != '\n' )
          throw new ParseError("Extra data after end of expression.");
-      symbolTable.put( varName, val );  // Add to symbol table.
-      System.out.println("ok");
+      command.variableName = varName;
+      return command;
    }
 
 
    /**
-    * Process a command of the form  print <expression>.
+    * Compile a command of the form  print <expression>.
     * When this method is called, the word "print" has already
-    * been read.  Evaluate the expression and print the value.
+    * been read.
     */
-   private static void doPrintCommand() throws ParseError {
-      double val = expressionValue();
+   private static Command compilePrintCommand() throws ParseError {
+      Command command = new Command();
+      command.expression = compileExpression();
       TextIO.skipBlanks();
       if ( TextIO.peek() != '\n' )
          throw new ParseError("Extra data after end of expression.");
-      System.out.println("Value is " + val);
+      return command;
+   }
+
+
+   /**
+    * Read an expression from the current line of input and return
+    * a FlatExpr that can be used to evaluate it.
+    */
+   private static FlatExpr compileExpression() throws ParseError {
+      FlatExpr code = new FlatExpr();
+      code.finish( expressionCode(code) );
+      return code;
    }
 
 
+   /*
+    * The following methods read part of an expression from the current line
+    * of input and add the code for computing its value to a FlatExpr.  Each
+    * one returns the number of the register in the FlatExpr that will hold
+    * the value.
+    */
+
+
    /**
-    * Read an expression from the current line of input and return its value.
+    * Read an expression from the current line of input and add its code.
     */
-   private static double expressionValue() throws ParseError {
+   private static int expressionCode(FlatExpr code) throws ParseError {
       TextIO.skipBlanks();
       boolean negative;  // True if there is a leading minus sign.
       negative = false;
@@ -225,122 +410,131 @@ public class SimpleInterpreter2 {
          TextIO.getAnyChar();
          negative = true;
       }
-      double val;  // Value of the expression.
-      val = termValue();  // An expression must start with a term.
+      int val;  // Register for the value of the expression.
+      val = termCode(code);  // An expression must start with a term.
       if (negative)
-         val = -val; // Apply the leading minus sign
+         val = code.unary(FlatExpr.NEGATE, val); // Apply the leading minus sign
       TextIO.skipBlanks();
       while ( TextIO.peek() == '+' || TextIO.peek() == '-' ) {
             // Read the next term and add it to or subtract it from
             // the value of previous terms in the expression.
          char op = TextIO.getAnyChar();
-         double nextVal = termValue();
+         int nextVal = termCode(code);
          if (op == '+')
-            val += nextVal;
+            val = code.binary(FlatExpr.PLUS, val, nextVal);
          else
-            val -= nextVal;
+            val = code.binary(FlatExpr.MINUS, val, nextVal);
          TextIO.skipBlanks();
       }
       return val;
-   } // end expressionValue()
+   } // end expressionCode()
 
 
    /**
-    * Read a term from the current line of input and return its value.
+    * Read a term from the current line of input and add its code.
     */
-   private static double termValue() throws ParseError {
+   private static int termCode(FlatExpr code) throws ParseError {
       TextIO.skipBlanks();
-      double val;  // The value of the term.
-      val = factorValue();  // A term must start with a factor.
+      int val;  // Register for the value of the term.
+      val = factorCode(code);  // A term must start with a factor.
       TextIO.skipBlanks();
       while ( TextIO.peek() == '*' || TextIO.peek() == '/' ) {
             // Read the next factor, and multiply or divide
             // the value-so-far by the value of this factor.
          char op = TextIO.getAnyChar();
-         double nextVal = factorValue();
+         int nextVal = factorCode(code);
          if (op == '*')
-            val *= nextVal;
+            val = code.binary(FlatExpr.TIMES, val, nextVal);
          else
-            val /= nextVal;
+            val = code.binary(FlatExpr.DIVIDE, val, nextVal);
          TextIO.skipBlanks();
       }
       return val;
-   } // end termValue()
+   } // end termCode()
 
 
    /**
-    * Read a factor from the current line of input and return its value.
+    * Read a factor from the current line of input and add its code.
     */
-   private static double factorValue() throws ParseError {
+   private static int factorCode(FlatExpr code) throws ParseError {
       TextIO.skipBlanks();
-      double val;  // Value of the factor.
-      val = primaryValue();  // A factor must start with a primary.
+      int val;  // Register for the value of the factor.
+      val = primaryCode(code);  // A factor must start with a primary.
       TextIO.skipBlanks();
       while ( TextIO.peek() == '^' ) {
             // Read the next primary, and exponentiate
             // the value-so-far by the value of this primary.
+            // (If the result is undefined and the values of both
+            // operands are already known, it is an error now;
+            // otherwise, the FlatExpr will throw an ArithmeticException
+            // when it is evaluated.)
          TextIO.getChar();
-         double nextVal = primaryValue();
-         val = Math.pow(val,nextVal);
-         if (Double.isNaN(val))
+         int nextVal = primaryCode(code);
+         if ( code.isConstant(val) && code.isConstant(nextVal)
+                 && Double.isNaN(Math.pow(code.getConstant(val), code.getConstant(nextVal))) )
             throw new ParseError("Illegal values for ^ operator.");
+         val = code.binary(FlatExpr.POWER, val, nextVal);
          TextIO.skipBlanks();
       }
       return val;
-   } // end termValue()
+   } // end factorCode()
 
 
    /**
     *  Read a primary from the current line of input and
-    *  return its value.  A primary must be a number,
+    *  add its code.  A primary must be a number,
     *  a variable, or an expression enclosed in parentheses.
     */
-   private static double primaryValue() throws ParseError {
+   private static int primaryCode(FlatExpr code) throws ParseError {
       TextIO.skipBlanks();
       char ch = TextIO.peek();
       if ( Character.isDigit(ch) ) {
             // The factor is a number.  Read it and
-            // return its value.
-         return TextIO.getDouble();
+            // put it into a register.
+         return code.constant( TextIO.getDouble() );
       }
       else if ( Character.isLetter(ch) ) {
             // The factor is a variable or a standard function.  Read its name and
-            // look up its value in the symbol table.  If the name is not in the symbol table,
+            // look it up in the symbol table.  If the name is not in the symbol table,
             // an error occurs.  (Note that the values in the symbol table are objects of type 
-            // Double or StandardFunction.)
+            // Integer or StandardFunction.)
          String name = readWord();
          Object obj = symbolTable.get(name);
          if (obj == null)
             throw new ParseError("Unknown word \"" + name + "\"");
-         assert (obj instanceof Double || obj instanceof StandardFunction);
-         if (obj instanceof Double) {
-               // The name is a variable; return value of that variable.
-            Double val = (Double)obj;
-            return val.doubleValue();
+         assert (obj instanceof Integer || obj instanceof StandardFunction);
+         if (obj instanceof Integer) {
+               // The name is a variable; its value will be taken from
+               // the variables array when the expression is evaluated,
+               // unless its current value can be used.
+            Integer variableNumber = (Integer)obj;
+            if (useCurrentValues)
+               return code.constant(variables[variableNumber]);
+            return code.variable(variableNumber);
          }
          else {
                // The name is a standard function.  Read the argument
-               // of the function and return the value of the function
-               // at that argument.  The argument must be an expression
+               // of the function and add the code for applying the function
+               // to that argument.  The argument must be an expression
                // in parentheses.
             StandardFunction func = (StandardFunction)obj;
             TextIO.skipBlanks();
             if ( TextIO.peek() != '(' )
                throw new ParseError("Parenthesis missing after standard function");
             TextIO.getChar(); // discard the '('
-            double argument = expressionValue();  // read and evaluate expression
+            int argument = expressionCode(code);  // read and compile expression
             TextIO.skipBlanks();
             if ( TextIO.peek() != ')' )
                throw new ParseError("Missing right parenthesis.");
             TextIO.getChar(); // discard the ')'
-            return func.evaluate(argument);
+            return code.unary(func.functionCode, argument);
          }
       }
       else if ( ch == '(' ) {
             // The factor is an expression in parentheses.
-            // Return the value of the expression.
+            // Return the register for the value of the expression.
          TextIO.getAnyChar();  // Read the "("
-         double val = expressionValue();
+         int val = expressionCode(code);
          TextIO.skipBlanks();
          if ( TextIO.peek() != ')' )
             throw new ParseError("Missing right parenthesis.");
@@ -0,0 +1,297 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Measures how much faster it is to run a script for SimpleInterpreter2 that
+ * has already been compiled than it is to read the script again each time it
+ * is run, as the original version of SimpleInterpreter2 did.  For each of
+ * several sizes, the program makes a long random script, consisting mostly of
+ * let commands, with a print command every 100 lines.  The expressions use
+ * variables that were defined on earlier lines, numbers, all the operators, and
+ * the standard functions, and every value is between -5 and 5, so that there
+ * are no errors.  It reports the best time for reading and running the script
+ * with a copy of the original interpreter (see the nested class
+ * ReadAndEvaluate), for reading, compiling, and running the script with
+ * SimpleInterpreter2, and for running the compiled script again.  The
+ * output of the compiled script is checked to make sure that it is the same
+ * as the output of the original interpreter.
+ *
+ * Usage:  java SimpleInterpreter2Benchmark
+ */
+public class SimpleInterpreter2Benchmark {
+
+   private final static int[] SIZES = { 1000, 10000, 100000 };
+
+   private final static int RUNS = 5;
+
+   private final static String[] FUNCTIONS = { "sin", "cos", "tan", "abs", "sqrt", "log" };
+
+   private static Random random = new Random(42);
+
+   public static void main(String[] args) {
+      PrintStream discard = new PrintStream(new OutputStream() {
+         public void write(int b) { }
+         public void write(byte[] b, int offset, int length) { }
+      });
+      System.out.printf("Best of %d runs.%n%n", RUNS);
+      System.out.printf("%10s %12s %18s %18s %18s %10s %6s%n", "Lines", "Variables",
+                           "Read and run", "Compile and run", "Run compiled", "Speedup", "Same");
+      for (int lines : SIZES) {
+         int variableCount = Math.max(10, lines / 20);
+         String script = makeScript(lines, variableCount);
+         double readTime = Double.MAX_VALUE, compileTime = Double.MAX_VALUE;
+         double runTime = Double.MAX_VALUE;
+         for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            ReadAndEvaluate.run(script, discard);
+            readTime = Math.min(readTime, (System.nanoTime() - start) / 1e6);
+         }
+         SimpleInterpreter2.Script compiled = null;
+         for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            compiled = compile(script);
+            compiled.run(discard);
+            compileTime = Math.min(compileTime, (System.nanoTime() - start) / 1e6);
+         }
+         for (int i = 0; i <= RUNS; i++) {  // (The first run is a warm-up.)
+            long start = System.nanoTime();
+            compiled.run(discard);
+            if (i > 0)
+               runTime = Math.min(runTime, (System.nanoTime() - start) / 1e6);
+         }
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ReadAndEvaluate.run(script, new PrintStream(bytes));
+         String expected = bytes.toString();
+         boolean same = expected.equals(output(compile(script))) && expected.equals(output(compiled));
+         System.out.printf("%10d %12d %15.2f ms %15.2f ms %15.3f ms %9.0fx %6s%n", lines, variableCount,
+                              readTime, compileTime, runTime, readTime/runTime, same ? "yes" : "NO");
+      }
+      TextIO.readStandardInput();
+   }
+
+   /**
+    * Starts SimpleInterpreter2 with a new symbol table, reads the script
+    * through TextIO, and compiles it.
+    */
+   private static SimpleInterpreter2.Script compile(String script) {
+      SimpleInterpreter2.createSymbolTable();
+      TextIO.readStream(new StringReader(script));
+      try {
+         return SimpleInterpreter2.compileScript();
+      }
+      catch (Exception e) {  // Can't happen, since the scripts have no errors.
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Runs a compiled script and returns its output as a string.
+    */
+   private static String output(SimpleInterpreter2.Script script) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      script.run(new PrintStream(bytes));
+      return bytes.toString();
+   }
+
+   /**
+    * Makes a random script with the specified number of lines.  The first lines
+    * define variables v0, v1, ..., with values that don't depend on other variables.
+    * After that, each line either assigns a new value to one of the variables or
+    * prints a value.  Each value that is assigned is 5*sin(something), so that
+    * all the values stay between -5 and 5.
+    */
+   private static String makeScript(int lines, int variableCount) {
+      StringBuilder script = new StringBuilder();
+      for (int i = 0; i < variableCount; i++)
+         script.append("let v" + i + " = " + (i % 7) + "." + (i % 10) + " - 3\n");
+      for (int i = variableCount; i < lines; i++) {
+         if (i % 100 == 0)
+            script.append("print " + expression(variableCount, 3) + "\n");
+         else
+            script.append("let v" + random.nextInt(variableCount) + " = 5*sin("
+                               + expression(variableCount, 3) + ")\n");
+      }
+      return script.toString();
+   }
+
+   /**
+    * Returns a random expression whose value is finite, using variables whose
+    * values are between -5 and 5.  The depth tells how deeply subexpressions can
+    * be nested.
+    */
+   private static String expression(int variableCount, int depth) {
+      if (depth == 0 || random.nextInt(4) == 0) {
+         if (random.nextInt(3) == 0)
+            return "" + (1 + random.nextInt(9)) + "." + random.nextInt(10);
+         else
+            return "v" + random.nextInt(variableCount);
+      }
+      String a = expression(variableCount, depth - 1);
+      String b = expression(variableCount, depth - 1);
+      switch (random.nextInt(8)) {
+      case 0:  return a + " + " + b;
+      case 1:  return a + " - " + b;
+      case 2:  return "(" + a + ") * (" + b + ")";
+      case 3:  return "(" + a + ") / (1 + (" + b + ")^2)";
+      case 4:  return "(-(" + a + "))";
+      case 5:  return "abs(" + a + ")^0.5";
+      default:
+         String f = FUNCTIONS[random.nextInt(FUNCTIONS.length)];
+         if (f.equals("tan"))
+            return "tan(" + a + "/10)";
+         else if (f.equals("sqrt") || f.equals("log"))
+            return f + "(abs(" + a + ") + 1)";
+         else
+            return f + "(" + a + ")";
+      }
+   }
+
+
+   /**
+    * A copy of the way the original version of SimpleInterpreter2 ran commands:
+    * each command is read through TextIO and evaluated as it is read, with the
+    * values of the variables kept in a HashMap.  It is used as the reference for
+    * checking the output of compiled scripts and for timing.  Since the scripts
+    * have no errors, error checking is left out, except for the check for an
+    * illegal use of ^, and the values of let commands are not reported.
+    */
+   private static class ReadAndEvaluate {
+
+      private static HashMap<String,Double> variables;
+
+      /**
+       * Reads and executes all the commands in a script, sending the output
+       * from print commands to out.
+       */
+      static void run(String script, PrintStream out) {
+         variables = new HashMap<String,Double>();
+         variables.put("pi", Math.PI);
+         variables.put("e", Math.E);
+         TextIO.readStream(new StringReader(script));
+         while ( ! TextIO.eof() ) {
+            TextIO.skipBlanks();
+            if ( TextIO.peek() != '\n' ) {
+               String command = TextIO.getWord();
+               if (command.equalsIgnoreCase("print"))
+                  out.println("Value is " + expressionValue());
+               else {
+                  TextIO.skipBlanks();
+                  String varName = readWord();
+                  TextIO.skipBlanks();
+                  TextIO.getChar();  // Read the "="
+                  variables.put(varName, expressionValue());
+               }
+            }
+            TextIO.getln();
+         }
+         TextIO.readStandardInput();
+      }
+
+      private static double expressionValue() {
+         TextIO.skipBlanks();
+         boolean negative = false;
+         if (TextIO.peek() == '-') {
+            TextIO.getAnyChar();
+            negative = true;
+         }
+         double val = termValue();
+         if (negative)
+            val = -val;
+         TextIO.skipBlanks();
+         while ( TextIO.peek() == '+' || TextIO.peek() == '-' ) {
+            char op = TextIO.getAnyChar();
+            double nextVal = termValue();
+            if (op == '+')
+               val += nextVal;
+            else
+               val -= nextVal;
+            TextIO.skipBlanks();
+         }
+         return val;
+      }
+
+      private static double termValue() {
+         TextIO.skipBlanks();
+         double val = factorValue();
+         TextIO.skipBlanks();
+         while ( TextIO.peek() == '*' || TextIO.peek() == '/' ) {
+            char op = TextIO.getAnyChar();
+            double nextVal = factorValue();
+            if (op == '*')
+               val *= nextVal;
+            else
+               val /= nextVal;
+            TextIO.skipBlanks();
+         }
+         return val;
+      }
+
+      private static double factorValue() {
+         TextIO.skipBlanks();
+         double val = primaryValue();
+         TextIO.skipBlanks();
+         while ( TextIO.peek() == '^' ) {
+            TextIO.getChar();
+            double nextVal = primaryValue();
+            val = Math.pow(val,nextVal);
+            if (Double.isNaN(val))
+               throw new IllegalArgumentException("Illegal values for ^ operator.");
+            TextIO.skipBlanks();
+         }
+         return val;
+      }
+
+      private static double primaryValue() {
+         TextIO.skipBlanks();
+         char ch = TextIO.peek();
+         if ( Character.isDigit(ch) )
+            return TextIO.getDouble();
+         else if ( Character.isLetter(ch) ) {
+            String name = readWord();
+            Double val = variables.get(name);
+            if (val != null)
+               return val;
+            TextIO.skipBlanks();
+            TextIO.getChar(); // Read the "("
+            double argument = expressionValue();
+            TextIO.skipBlanks();
+            TextIO.getChar(); // Read the ")"
+            if (name.equals("sin"))
+               return Math.sin(argument);
+            else if (name.equals("cos"))
+               return Math.cos(argument);
+            else if (name.equals("tan"))
+               return Math.tan(argument);
+            else if (name.equals("abs"))
+               return Math.abs(argument);
+            else if (name.equals("sqrt"))
+               return Math.sqrt(argument);
+            else
+               return Math.log(argument);
+         }
+         else {
+            TextIO.getAnyChar();  // Read the "("
+            double val = expressionValue();
+            TextIO.skipBlanks();
+            TextIO.getAnyChar();  // Read the ")"
+            return val;
+         }
+      }
+
+      private static String readWord() {
+         String word = "";
+         char ch = TextIO.peek();
+         while (Character.isLetter(ch) || Character.isDigit(ch)) {
+            word += TextIO.getChar();
+            ch = TextIO.peek();
+         }
+         return word;
+      }
+
+   } // end nested class ReadAndEvaluate
+
+}
@@ -1,9 +1,15 @@
 
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.IllegalFormatException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -38,6 +44,17 @@ public class TextIO {
      * source to be read after the new source has been selected.
      */
 
+    /* Modified to read input into a large character array, instead of reading one line
+     * at a time, and to read numbers and words directly from that array, without using
+     * regular expressions and without making a string for every number.  This makes it
+     * practical to use TextIO for reading large amounts of data from files.
+     */
+
+    /* Modified to read a large file by mapping it into memory, instead of reading it
+     * through a FileReader, when the file is opened by readFile() or readUserSelectedFile().
+     * This makes no difference to the programs that use TextIO, except for speed.
+     */
+
     /**
      * The value returned by the peek() method when the input is at end-of-file.
      * (The value of this constant is (char)0xFFFF.)
@@ -60,15 +77,23 @@ public class TextIO {
         if (readingStandardInput)
             return;
         try {
-            in.close();
+            if (in != null)
+                in.close();
         }
         catch (Exception e) {
         }
-        emptyBuffer();  // Added November 2007
+        discardInput();  // Added November 2007
         in = standardInput;
         inputFileName = null;
         readingStandardInput = true;
         inputErrorCount = 0;
+        if (standardInputSaved != null) {  // Restore input that was read ahead from standard input.
+            System.arraycopy(standardInputSaved, 0, buffer, 0, standardInputSaved.length);
+            count = standardInputSaved.length;
+            skipLF = standardInputSkipLF;
+            discardLine = standardInputDiscardLine;
+            standardInputSaved = null;
+        }
     }
     
     /**
@@ -94,11 +119,11 @@ public class TextIO {
         if (inputStream == null)
             readStandardInput();
         else {
+            discardInput();  // Added November 2007
             if ( inputStream instanceof BufferedReader)
                 in = (BufferedReader)inputStream;
             else
                 in = new BufferedReader(inputStream);
-            emptyBuffer();  // Added November 2007
             inputFileName = null;
             readingStandardInput = false;
             inputErrorCount = 0;
@@ -112,15 +137,20 @@ public class TextIO {
      * error occurs while trying to open the file, an exception of type IllegalArgumentException
      * is thrown, and the input source is not changed.  If the file is opened 
      * successfully, then after this method is called, all of the input routines will read 
-     * from the file, instead of from standard input.
+     * from the file, instead of from standard input.  (A large file is read by mapping
+     * it into memory, which is faster than reading it through a FileReader.  The characters
+     * that are read are the same either way.)
      */
     public static void readFile(String fileName) {
         if (fileName == null) // Go back to reading standard input
             readStandardInput();
         else {
-            BufferedReader newin;
+            BufferedReader newin = null;
+            FileChannel newMappedFile;
             try {
-                newin = new BufferedReader( new FileReader(fileName) );
+                newMappedFile = openMappedFile(new File(fileName));
+                if (newMappedFile == null)
+                    newin = new BufferedReader( new FileReader(fileName) );
             }
             catch (Exception e) {
                 throw new IllegalArgumentException("Can't open file \"" + fileName + "\" for input.\n"
@@ -128,13 +158,15 @@ public class TextIO {
             }
             if (! readingStandardInput) { // close current input stream
                 try {
-                    in.close();
+                    if (in != null)
+                        in.close();
                 }
                 catch (Exception e) {
                 }
             }
-            emptyBuffer();  // Added November 2007
+            discardInput();  // Added November 2007
             in = newin;
+            mappedFile = newMappedFile;
             readingStandardInput = false;
             inputErrorCount = 0;
             inputFileName = fileName;
@@ -164,9 +196,12 @@ public class TextIO {
         if (option != JFileChooser.APPROVE_OPTION)
             return false;
         File selectedFile = fileDialog.getSelectedFile();
-        BufferedReader newin;
+        BufferedReader newin = null;
+        FileChannel newMappedFile;
         try {
-            newin = new BufferedReader( new FileReader(selectedFile) );
+            newMappedFile = openMappedFile(selectedFile);
+            if (newMappedFile == null)
+                newin = new BufferedReader( new FileReader(selectedFile) );
         }
         catch (Exception e) {
             throw new IllegalArgumentException("Can't open file \"" + selectedFile.getName() + "\" for input.\n"
@@ -174,13 +209,15 @@ public class TextIO {
         }
         if (!readingStandardInput) { // close current file
             try {
-                in.close();
+                if (in != null)
+                    in.close();
             }
             catch (Exception e) {
             }
         }
-        emptyBuffer();  // Added November 2007
+        discardInput();  // Added November 2007
         in = newin;
+        mappedFile = newMappedFile;
         inputFileName = selectedFile.getName();
         readingStandardInput = false;
         inputErrorCount = 0;
@@ -643,13 +680,14 @@ public class TextIO {
      * In other cases, an IllegalArgumentException will be thrown if an end-of-file is encountered.
      */
     public static String getln() {
-        StringBuffer s = new StringBuffer(100);
-        char ch = readChar();
-        while (ch != '\n') {
-            s.append(ch);
-            ch = readChar();
-        }
-        return s.toString();
+        if (lookChar() == EOF)
+            readChar();  // throws an exception for reading past end-of-file
+        int length = 0;
+        while (lookAhead(length) != '\n')
+            length++;
+        String s = readString(length);
+        pos++;  // discard the end-of-line
+        return s;
     }
     
     /**
@@ -747,25 +785,26 @@ public class TextIO {
     public static double getDouble() {
         double x = 0.0;
         while (true) {
-            String str = readRealString();
-            if (str == null) {
+            int length = realLength();
+            if (length == 0) {
                 errorMessage("Floating point number not found.",
                         "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
             }
             else {
                 try { 
-                    x = Double.parseDouble(str); 
+                    x = parseReal(buffer, pos, length); 
                 }
                 catch (NumberFormatException e) {
-                    errorMessage("Illegal floating point input, " + str + ".",
+                    errorMessage("Illegal floating point input, " + readString(length) + ".",
                             "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
                     continue;
                 }
                 if (Double.isInfinite(x)) {
-                    errorMessage("Floating point input outside of legal range, " + str + ".",
+                    errorMessage("Floating point input outside of legal range, " + readString(length) + ".",
                             "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
                     continue;
                 }
+                pos += length;
                 break;
             }
         }
@@ -782,13 +821,12 @@ public class TextIO {
      */
     public static String getWord() {
         skipWhitespace();
-        StringBuffer str = new StringBuffer(50);
-        char ch = lookChar();
-        while (ch == EOF || !Character.isWhitespace(ch)) {
-            str.append(readChar());
-            ch = lookChar();
-        }
-        return str.toString();
+        if (lookChar() == EOF)
+            readChar();  // throws an exception for reading past end-of-file
+        int length = 0;
+        while ( ! Character.isWhitespace(lookAhead(length)) )
+            length++;
+        return readString(length);
     }
     
     /**
@@ -835,6 +873,7 @@ public class TextIO {
     private final static PrintWriter standardOutput = new PrintWriter(System.out);  // wraps standard output stream
 
     private static BufferedReader in = standardInput;  // Stream that data is read from; the current input source.
+                                                       //   (This is null when the input source is a mapped file.)
     private static PrintWriter out = standardOutput;   // Stream that data is written to; the current output destination.
     
     private static boolean readingStandardInput = true;
@@ -843,69 +882,128 @@ public class TextIO {
     private static int inputErrorCount;  // Number of consecutive errors on standard input; reset to 0 when a successful read occurs.
     private static int outputErrorCount;  // Number of errors on standard output since it was selected as the output destination.
     
-    private static Matcher integerMatcher;  // Used for reading integer numbers; created from the integer Regex Pattern.
-    private static Matcher floatMatcher;   // Used for reading floating point numbers; created from the floatRegex Pattern.
-    private final static Pattern integerRegex = Pattern.compile("(\\+|-)?[0-9]+");
-    private final static Pattern floatRegex = Pattern.compile("(\\+|-)?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))((e|E)(\\+|-)?[0-9]+)?");
+    private static char[] buffer = new char[65536];  // Characters that have been read from input.  Ends-of-line
+                                                     //   in the buffer are always '\n', even if they were "\r\n" or
+                                                     //   "\r" in the input.  The buffer gets bigger if necessary.
+    private static int pos = 0;           // Position in buffer of next char that has not yet been processed.
+    private static int count = 0;         // Number of chars in the buffer; the chars after pos have not been processed.
+    private static char charBeforeBuffer = '\n';  // The character before buffer[0], or '\n' at the start of input.
+    private static boolean skipLF;        // True if the last input char was '\r'; a '\n' after it is not a new line.
+    private static boolean discardLine;   // Set by emptyBuffer(); the rest of the line will be discarded by lookChar().
+    private static int lookPos = -1;      // Position in buffer of the last char that was returned by lookChar().
     
-    private static String buffer = null;  // One line read from input.
-    private static int pos = 0;           // Position of next char in input line that has not yet been processed.
+    private static char[] standardInputSaved;    // Chars from standard input that were read into the buffer but not used
+    private static boolean standardInputSkipLF;  //    before switching to a different input source, and its skipLF.
+    private static boolean standardInputDiscardLine;  // True if the end of a line that was being read from standard input
+                                                      //    had not been read yet; the rest of it is discarded later.
+
+    private static FileChannel mappedFile;     // When the input source is a large file, it is read by mapping it
+    private static long mappedFileSize;        //   into memory, instead of through in.  mappedBytes holds the part 
+    private static MappedByteBuffer mappedBytes;  // of the file that is mapped now, starting at position mappedStart.
+    private static long mappedStart;
+    private static CharsetDecoder mappedDecoder;  // Used for decoding any non-ASCII chars in the mapped file.
+    private static byte[] mappedChunk = new byte[65536];  // Bytes from mappedBytes are copied into this array.
+    
+    private final static long mapMinimumSize = 1 << 20;  // Smaller files are read with a FileReader.  (Note that on some 
+                                                         //   systems, a file can't be deleted while it is mapped.)
+    private final static int mapRegionSize = 1 << 28;    // The largest part of a file that is mapped at one time.
+
+    private final static double[] powersOfTen = {  // All the powers of ten that can be represented exactly as doubles.
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
     
     private static String readRealString() {   // read chars from input following syntax of real numbers
-        skipWhitespace();
-        if (lookChar() == EOF)
+        int length = realLength();
+        if (length == 0)
             return null;
-        if (floatMatcher == null)
-            floatMatcher = floatRegex.matcher(buffer);
-        floatMatcher.region(pos,buffer.length());
-        if (floatMatcher.lookingAt()) {
-            String str = floatMatcher.group();
-            pos = floatMatcher.end();
-            return str;
-        }
         else 
-            return null;
+            return readString(length);
     }
     
-    private static String readIntegerString() {  // read chars from input following syntax of integers
+    private static String readString(int length) {  // read the specified number of chars from input, as a String
+        String str = new String(buffer, pos, length);
+        pos += length;
+        return str;
+    }
+    
+    private static int realLength() {  // Skip whitespace, then return the number of chars at the start of the input that
+                                       //   follow the syntax of real numbers, without reading them.  Returns 0 if none.
         skipWhitespace();
-        if (lookChar() == EOF)
-            return null;
-        if (integerMatcher == null)
-            integerMatcher = integerRegex.matcher(buffer);
-        integerMatcher.region(pos,buffer.length());
-        if (integerMatcher.lookingAt()) {
-            String str = integerMatcher.group();
-            pos = integerMatcher.end();
-            return str;
+        int k = 0;
+        char ch = lookAhead(0);
+        if (ch == '+' || ch == '-')
+            k++;
+        int digits = digitCount(k);
+        k += digits;
+        if (lookAhead(k) == '.') {
+            int fractionDigits = digitCount(k+1);
+            if (digits == 0 && fractionDigits == 0)
+                return 0;
+            k += 1 + fractionDigits;
         }
-        else 
-            return null;
+        else if (digits == 0)
+            return 0;
+        ch = lookAhead(k);
+        if (ch == 'e' || ch == 'E') {  // An exponent is part of the number only if it has at least one digit.
+            int e = k + 1;
+            ch = lookAhead(e);
+            if (ch == '+' || ch == '-')
+                e++;
+            int exponentDigits = digitCount(e);
+            if (exponentDigits > 0)
+                k = e + exponentDigits;
+        }
+        return k;
+    }
+    
+    private static int integerLength() {  // Skip whitespace, then return the number of chars at the start of the input that
+                                          //   follow the syntax of integers, without reading them.  Returns 0 if none.
+        skipWhitespace();
+        int k = 0;
+        char ch = lookAhead(0);
+        if (ch == '+' || ch == '-')
+            k++;
+        int digits = digitCount(k);
+        if (digits == 0)
+            return 0;
+        else
+            return k + digits;
+    }
+    
+    private static int digitCount(int k) {  // the number of digits in the input, starting k chars after the next char
+        int digits = 0;
+        char ch = lookAhead(k);
+        while (ch >= '0' && ch <= '9') {
+            digits++;
+            ch = lookAhead(k + digits);
+        }
+        return digits;
     }
     
     private static long readInteger(long min, long max) {  // read long integer, limited to specified range
         long x=0;
         while (true) {
-            String s = readIntegerString();
-            if (s == null){
+            int length = integerLength();
+            if (length == 0){
                 errorMessage("Integer value not found in input.",
                         "Integer in the range " + min + " to " + max);
             }
             else {
-                String str = s.toString();
                 try { 
-                    x = Long.parseLong(str);
+                    x = parseInteger(buffer, pos, length);
                 }
                 catch (NumberFormatException e) {
-                    errorMessage("Illegal integer input, " + str + ".",
+                    errorMessage("Illegal integer input, " + readString(length) + ".",
                             "Integer in the range " + min + " to " + max);
                     continue;
                 }
                 if (x < min || x > max) {
-                    errorMessage("Integer input outside of legal range, " + str + ".",
+                    errorMessage("Integer input outside of legal range, " + readString(length) + ".",
                             "Integer in the range " + min + " to " + max);
                     continue;
                 }
+                pos += length;
                 break;
             }
         }
@@ -913,6 +1011,88 @@ public class TextIO {
         return x;
     }
     
+    private static long parseInteger(char[] chars, int start, int length) {  // Does the same thing as Long.parseLong(),
+                                                                             //   for an integer that is stored in chars.
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (chars[i] == '+' || chars[i] == '-') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long x = 0;  // The value is built up as a negative number, since -Long.MIN_VALUE is too big for a long.
+        while (i < end) {
+            int digit = chars[i] - '0';
+            if (x < limit / 10 || 10*x < limit + digit)
+                throw new NumberFormatException("Integer too big.");
+            x = 10*x - digit;
+            i++;
+        }
+        return negative ? x : -x;
+    }
+    
+    private static double parseReal(char[] chars, int start, int length) {  // Does the same thing as Double.parseDouble(),
+                                                                            //   for a real number that is stored in chars.
+        /* When there are at most 15 significant digits, they can be stored exactly in a double.  If the
+         * exponent is also at most 22, so that the power of ten can be stored exactly, then the answer
+         * can be computed with one multiplication or division, and it is correctly rounded, exactly
+         * as it would be by Double.parseDouble().  Other numbers are passed to Double.parseDouble().
+         */
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (chars[i] == '+' || chars[i] == '-') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        long digits = 0;      // The significant digits of the number, without leading zeros.
+        int digitCount = 0;   // The number of significant digits.
+        int exponent = 0;     // The power of ten that multiplies the digits.
+        boolean afterPoint = false;
+        while (i < end && chars[i] != 'e' && chars[i] != 'E') {
+            char ch = chars[i];
+            if (ch == '.')
+                afterPoint = true;
+            else {
+                if (digits != 0 || ch != '0') {
+                    if (digitCount == 15)
+                        return Double.parseDouble(new String(chars, start, length));
+                    digits = 10*digits + (ch - '0');
+                    digitCount++;
+                }
+                if (afterPoint)
+                    exponent--;
+            }
+            i++;
+        }
+        if (i < end) {  // There is an exponent.
+            i++;
+            boolean negativeExponent = false;
+            if (chars[i] == '+' || chars[i] == '-') {
+                negativeExponent = (chars[i] == '-');
+                i++;
+            }
+            int e = 0;
+            while (i < end) {
+                if (e < 100000)  // (A bigger exponent would only give zero or infinity anyway.)
+                    e = 10*e + (chars[i] - '0');
+                i++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double x;
+        if (digits == 0)
+            x = 0;
+        else if (exponent >= 0 && exponent < powersOfTen.length)
+            x = digits * powersOfTen[exponent];
+        else if (exponent < 0 && -exponent < powersOfTen.length)
+            x = digits / powersOfTen[-exponent];
+        else
+            return Double.parseDouble(new String(chars, start, length));
+        return negative ? -x : x;
+    }
+    
     
     private static void errorMessage(String message, String expecting) {  // Report error on input.
         if (readingStandardInput && writingStandardOutput) {
@@ -944,19 +1124,24 @@ public class TextIO {
     }
     
     private static char lookChar() {  // return next character from input
-        if (buffer == null || pos > buffer.length())
-            fillBuffer();
-        if (buffer == null)
-            return EOF;
-        else if (pos == buffer.length())
-            return '\n';
-        else 
-            return buffer.charAt(pos);
+        if (discardLine)
+            skipLine();
+        char ch = lookAhead(0);
+        lookPos = pos;
+        return ch;
+    }
+    
+    private static char lookAhead(int k) {  // return the char k places after the next char, without reading it
+        while (pos + k >= count) {
+            if ( ! fillBuffer() )
+                return EOF;
+        }
+        return buffer[pos + k];
     }
     
     private static char readChar() {  // return and discard next character from input
         char ch = lookChar();
-        if (buffer == null) {
+        if (pos == count) {
             if (readingStandardInput)
                 throw new IllegalArgumentException("Attempt to read past end-of-file in standard input???");
             else
@@ -966,25 +1151,170 @@ public class TextIO {
         return ch;
     }
         
-    private static void fillBuffer() {    // Wait for user to type a line and press return,
+    private static boolean fillBuffer() {    // Read more chars into the buffer, waiting for the user to type a line
+                                             //   and press return, if necessary.  Returns false at end-of-file.
+        if (pos > 0) {  // Move the unprocessed chars to the start of the buffer, to make room.
+            charBeforeBuffer = buffer[pos-1];
+            System.arraycopy(buffer, pos, buffer, 0, count - pos);
+            count -= pos;
+            lookPos -= pos;
+            pos = 0;
+        }
+        if (count >= buffer.length - 1)  // (Room for two chars is needed, for a surrogate pair from a mapped file.)
+            buffer = Arrays.copyOf(buffer, 2*buffer.length);
+        int start = count;
+        while (count == start) {
+            int n;
+            try {
+                if (mappedFile == null)
+                    n = in.read(buffer, start, buffer.length - start);
+                else
+                    n = readMapped(buffer, start, buffer.length - start);
+            }
+            catch (Exception e) {
+                if (readingStandardInput)
+                    throw new IllegalArgumentException("Error while reading standard input???");
+                else if (inputFileName != null)
+                    throw new IllegalArgumentException("Error while attempting to read from file \"" + inputFileName + "\".");
+                else
+                    throw new IllegalArgumentException("Errow while attempting to read form an input stream.");
+            }
+            if (n < 0) {  // End-of-file.  If the last line didn't end with an end-of-line, add one.
+                char last = (count > 0)? buffer[count-1] : charBeforeBuffer;
+                if (last == '\n')
+                    return false;
+                buffer[count++] = '\n';
+                return true;
+            }
+            for (int i = start; i < start + n; i++) {  // Change "\r\n" and "\r" into '\n'.
+                char ch = buffer[i];
+                if (skipLF) {
+                    skipLF = false;
+                    if (ch == '\n')
+                        continue;
+                }
+                if (ch == '\r') {
+                    ch = '\n';
+                    skipLF = true;
+                }
+                buffer[count++] = ch;
+            }
+        }
+        return true;
+    }
+    
+    private static int readMapped(char[] chars, int offset, int length) throws IOException {
+            // Does the same thing as in.read(), when the input is a mapped file.  ASCII chars are copied
+            // directly from the file.  Other chars are decoded using the default charset, as they would be 
+            // by a FileReader.  The file is mapped one region at a time.
+        if (mappedBytes == null) {
+            mappedFileSize = mappedFile.size();
+            mappedDecoder = Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mapRegion(0);
+        }
+        else if (mappedBytes.remaining() < 16 && mappedStart + mappedBytes.limit() < mappedFileSize)
+            mapRegion(mappedStart + mappedBytes.position());  // (So that a char is never split between two regions.)
+        int n = Math.min(Math.min(length, mappedBytes.remaining()), mappedChunk.length);
+        if (n == 0)
+            return -1;
+        int start = mappedBytes.position();
+        mappedBytes.get(mappedChunk, 0, n);
+        int i = 0;
+        while (i < n && mappedChunk[i] >= 0) {
+            chars[offset + i] = (char)mappedChunk[i];
+            i++;
+        }
+        if (i < n) {  // A non-ASCII byte was found.  Return the chars before it, or decode the next few bytes.
+            mappedBytes.position(start + i);
+            if (i == 0) {
+                int limit = mappedBytes.limit();
+                mappedBytes.limit(Math.min(limit, start + 16));
+                CharBuffer out = CharBuffer.wrap(chars, offset, length);
+                mappedDecoder.decode(mappedBytes, out, mappedStart + mappedBytes.limit() == mappedFileSize);
+                mappedBytes.limit(limit);
+                i = out.position() - offset;
+            }
+        }
+        return i;
+    }
+    
+    private static void mapRegion(long position) throws IOException {  // map the part of the file that starts at position
+        long size = Math.min(mapRegionSize, mappedFileSize - position);
+        mappedBytes = mappedFile.map(FileChannel.MapMode.READ_ONLY, position, size);
+        mappedStart = position;
+    }
+    
+    private static FileChannel openMappedFile(File file) {  // Returns a channel for reading a large file by mapping it,
+                                                            //   or null if the file should be read with a FileReader.
+        Charset charset = Charset.defaultCharset();
+        boolean asciiCharset = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                                       || charset.equals(StandardCharsets.ISO_8859_1);
+        if ( ! asciiCharset || ! file.isFile() || file.length() < mapMinimumSize )
+            return null;
         try {
-            buffer = in.readLine();
+            return new FileInputStream(file).getChannel();
         }
-        catch (Exception e) {
-            if (readingStandardInput)
-                throw new IllegalArgumentException("Error while reading standard input???");
-            else if (inputFileName != null)
-                throw new IllegalArgumentException("Error while attempting to read from file \"" + inputFileName + "\".");
-            else
-                throw new IllegalArgumentException("Errow while attempting to read form an input stream.");
+        catch (IOException e) {
+            return null;  // The FileReader will report the error.
         }
-        pos = 0;
-        floatMatcher = null;
-        integerMatcher = null;
     }
     
-    private static void emptyBuffer() {   // discard the rest of the current line of input
-        buffer = null;
+    private static void skipLine() {  // discard chars up to and including the next end-of-line
+        discardLine = false;
+        while (true) {
+            for (int i = pos; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    pos = i + 1;
+                    return;
+                }
+            }
+            pos = count;
+            if ( ! fillBuffer() )
+                return;
+        }
+    }
+    
+    private static void emptyBuffer() {   // discard the rest of the current line of input (the next time a char is needed)
+        discardLine = true;
+    }
+    
+    private static void discardInput() {  // discard everything in the buffer, before switching to a new input source
+        if (readingStandardInput) {
+               // Save any chars after the current line, since the BufferedReader for standard input would have 
+               // kept them when input was read one line at a time, and they can be used if the program 
+               // switches back to standard input.  The current line is discarded if any of it has been looked 
+               // at, since it would have been read from the BufferedReader.  If its end has not been read yet, 
+               // the rest of it is discarded when standard input is used again, so this never waits for input.
+            char previous = (pos > 0)? buffer[pos-1] : charBeforeBuffer;
+            boolean discard = discardLine || previous != '\n' || lookPos == pos;
+            if (discard) {
+                while (pos < count && buffer[pos] != '\n')
+                    pos++;
+                if (pos < count) {
+                    pos++;
+                    discard = false;
+                }
+            }
+            standardInputSaved = Arrays.copyOfRange(buffer, pos, count);
+            standardInputSkipLF = skipLF;
+            standardInputDiscardLine = discard;
+        }
+        if (mappedFile != null) {
+            try {
+                mappedFile.close();
+            }
+            catch (Exception e) {
+            }
+            mappedFile = null;
+            mappedBytes = null;
+        }
+        pos = 0;
+        count = 0;
+        charBeforeBuffer = '\n';
+        skipLF = false;
+        discardLine = false;
+        lookPos = -1;
     }
     
     private static void outputError(String message) {  // Report an error on output.
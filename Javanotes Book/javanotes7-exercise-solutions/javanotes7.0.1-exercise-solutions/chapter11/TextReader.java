@@ -1,8 +1,7 @@
 
 
 import java.io.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 /**
  * The TextReader class provides methods for reading data expressed in human-readable
@@ -30,6 +29,11 @@ public class TextReader implements AutoCloseable{
     // TextReader as a resource in try..catch.  This did not require any
     // other change to the class.
 
+    // Input is now read into a large character array, instead of one line at a time,
+    // and numbers and words are read directly from that array, without using regular
+    // expressions and without making a string for every number.  This makes it
+    // practical to use a TextReader for reading large amounts of data.
+
     /**
      * The value returned by the peek() method when the input is at end-of-stream.
      * (The value of this constant is (char)0xFFFF.)
@@ -314,13 +318,14 @@ public class TextReader implements AutoCloseable{
      * read data from the input source.
      */
     public String getln() throws IOException {
-        StringBuffer s = new StringBuffer(100);
-        char ch = readChar();
-        while (ch != '\n') {
-            s.append(ch);
-            ch = readChar();
-        }
-        return s.toString();
+        if (lookChar() == EOF)
+            readChar();  // throws an EndOfStreamException
+        int length = 0;
+        while (lookAhead(length) != '\n')
+            length++;
+        String s = readString(length);
+        pos++;  // discard the end-of-line
+        return s;
     }
 
     /**
@@ -424,25 +429,26 @@ public class TextReader implements AutoCloseable{
     public double getDouble() throws IOException {
         double x = 0.0;
         while (true) {
-            String str = readRealString();
-            if (str == null) {
+            int length = realLength();
+            if (length == 0) {
                 errorMessage("Floating point number not found.",
                         "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
             }
             else {
                 try { 
-                    x = Double.parseDouble(str); 
+                    x = parseReal(buffer, pos, length); 
                 }
                 catch (NumberFormatException e) {
-                    errorMessage("Illegal floating point input, " + str + ".",
+                    errorMessage("Illegal floating point input, " + readString(length) + ".",
                             "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
                     continue;
                 }
                 if (Double.isInfinite(x)) {
-                    errorMessage("Floating point input outside of legal range, " + str + ".",
+                    errorMessage("Floating point input outside of legal range, " + readString(length) + ".",
                             "Real number in the range " + (-Double.MAX_VALUE) + " to " + Double.MAX_VALUE);
                     continue;
                 }
+                pos += length;
                 break;
             }
         }
@@ -458,13 +464,12 @@ public class TextReader implements AutoCloseable{
      */
     public String getWord() throws IOException {
         skipWhitespace();
-        StringBuffer str = new StringBuffer(50);
-        char ch = lookChar();
-        while (ch == EOF || !Character.isWhitespace(ch)) {
-            str.append(readChar());
-            ch = lookChar();
-        }
-        return str.toString();
+        if (lookChar() == EOF)
+            readChar();  // throws an EndOfStreamException
+        int length = 0;
+        while ( ! Character.isWhitespace(lookAhead(length)) )
+            length++;
+        return readString(length);
     }
 
 
@@ -506,110 +511,281 @@ public class TextReader implements AutoCloseable{
 
     private BufferedReader in;  // The actual source of the input.
 
-    private Matcher integerMatcher;  // Used for reading integer numbers; created from the integer Regex Pattern.
-    private Matcher floatMatcher;   // Used for reading floating point numbers; created from the floatRegex Pattern.
-    private final Pattern integerRegex = Pattern.compile("(\\+|-)?[0-9]+");
-    private final Pattern floatRegex = Pattern.compile("(\\+|-)?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))((e|E)(\\+|-)?[0-9]+)?");
-
-    private String buffer = null;  // One line read from input.
-    private int pos = 0;           // Position of next char in input line that has not yet been processed.
-
+    private char[] buffer = new char[65536];  // Characters that have been read from input.  Ends-of-line
+                                              //   in the buffer are always '\n', even if they were "\r\n" or
+                                              //   "\r" in the input.  The buffer gets bigger if necessary.
+    private int pos = 0;      // Position in buffer of next char that has not yet been processed.
+    private int count = 0;    // Number of chars in the buffer; the chars after pos have not been processed.
+    private char charBeforeBuffer = '\n';  // The character before buffer[0], or '\n' at the start of input.
+    private boolean skipLF;       // True if the last input char was '\r'; a '\n' after it is not a new line.
+    private boolean discardLine;  // Set by emptyBuffer(); the rest of the line will be discarded by lookChar().
+
+    private final static double[] powersOfTen = {  // All the powers of ten that can be represented exactly as doubles.
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
     private String readRealString() throws IOException {   // read chars from input following syntax of real numbers
-        skipWhitespace();
-        if (lookChar() == EOF)
+        int length = realLength();
+        if (length == 0)
             return null;
-        if (floatMatcher == null)
-            floatMatcher = floatRegex.matcher(buffer);
-        floatMatcher.region(pos,buffer.length());
-        if (floatMatcher.lookingAt()) {
-            String str = floatMatcher.group();
-            pos = floatMatcher.end();
-            return str;
-        }
         else 
-            return null;
+            return readString(length);
     }
-
-    private String readIntegerString() throws IOException {  // read chars from input following syntax of integers
+    
+    private String readString(int length) {  // read the specified number of chars from input, as a String
+        String str = new String(buffer, pos, length);
+        pos += length;
+        return str;
+    }
+    
+    private int realLength() throws IOException {  // Skip whitespace, then return the number of chars at the start of the input that
+                                       //   follow the syntax of real numbers, without reading them.  Returns 0 if none.
         skipWhitespace();
-        if (lookChar() == EOF)
-            return null;
-        if (integerMatcher == null)
-            integerMatcher = integerRegex.matcher(buffer);
-        integerMatcher.region(pos,buffer.length());
-        if (integerMatcher.lookingAt()) {
-            String str = integerMatcher.group();
-            pos = integerMatcher.end();
-            return str;
+        int k = 0;
+        char ch = lookAhead(0);
+        if (ch == '+' || ch == '-')
+            k++;
+        int digits = digitCount(k);
+        k += digits;
+        if (lookAhead(k) == '.') {
+            int fractionDigits = digitCount(k+1);
+            if (digits == 0 && fractionDigits == 0)
+                return 0;
+            k += 1 + fractionDigits;
         }
-        else 
-            return null;
+        else if (digits == 0)
+            return 0;
+        ch = lookAhead(k);
+        if (ch == 'e' || ch == 'E') {  // An exponent is part of the number only if it has at least one digit.
+            int e = k + 1;
+            ch = lookAhead(e);
+            if (ch == '+' || ch == '-')
+                e++;
+            int exponentDigits = digitCount(e);
+            if (exponentDigits > 0)
+                k = e + exponentDigits;
+        }
+        return k;
     }
-
+    
+    private int integerLength() throws IOException {  // Skip whitespace, then return the number of chars at the start of the input that
+                                          //   follow the syntax of integers, without reading them.  Returns 0 if none.
+        skipWhitespace();
+        int k = 0;
+        char ch = lookAhead(0);
+        if (ch == '+' || ch == '-')
+            k++;
+        int digits = digitCount(k);
+        if (digits == 0)
+            return 0;
+        else
+            return k + digits;
+    }
+    
+    private int digitCount(int k) throws IOException {  // the number of digits in the input, starting k chars after the next char
+        int digits = 0;
+        char ch = lookAhead(k);
+        while (ch >= '0' && ch <= '9') {
+            digits++;
+            ch = lookAhead(k + digits);
+        }
+        return digits;
+    }
+    
     private long readInteger(long min, long max) throws IOException {  // read long integer, limited to specified range
         long x=0;
         while (true) {
-            String s = readIntegerString();
-            if (s == null){
+            int length = integerLength();
+            if (length == 0){
                 errorMessage("Integer value not found in input.",
                         "Integer in the range " + min + " to " + max);
             }
             else {
-                String str = s.toString();
                 try { 
-                    x = Long.parseLong(str);
+                    x = parseInteger(buffer, pos, length);
                 }
                 catch (NumberFormatException e) {
-                    errorMessage("Illegal integer input, " + str + ".",
+                    errorMessage("Illegal integer input, " + readString(length) + ".",
                             "Integer in the range " + min + " to " + max);
                     continue;
                 }
                 if (x < min || x > max) {
-                    errorMessage("Integer input outside of legal range, " + str + ".",
+                    errorMessage("Integer input outside of legal range, " + readString(length) + ".",
                             "Integer in the range " + min + " to " + max);
                     continue;
                 }
+                pos += length;
                 break;
             }
         }
         return x;
     }
-
-
+    
+    private static long parseInteger(char[] chars, int start, int length) {  // Does the same thing as Long.parseLong(),
+                                                                             //   for an integer that is stored in chars.
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (chars[i] == '+' || chars[i] == '-') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long x = 0;  // The value is built up as a negative number, since -Long.MIN_VALUE is too big for a long.
+        while (i < end) {
+            int digit = chars[i] - '0';
+            if (x < limit / 10 || 10*x < limit + digit)
+                throw new NumberFormatException("Integer too big.");
+            x = 10*x - digit;
+            i++;
+        }
+        return negative ? x : -x;
+    }
+    
+    private static double parseReal(char[] chars, int start, int length) {  // Does the same thing as Double.parseDouble(),
+                                                                            //   for a real number that is stored in chars.
+        /* When there are at most 15 significant digits, they can be stored exactly in a double.  If the
+         * exponent is also at most 22, so that the power of ten can be stored exactly, then the answer
+         * can be computed with one multiplication or division, and it is correctly rounded, exactly
+         * as it would be by Double.parseDouble().  Other numbers are passed to Double.parseDouble().
+         */
+        int i = start;
+        int end = start + length;
+        boolean negative = false;
+        if (chars[i] == '+' || chars[i] == '-') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        long digits = 0;      // The significant digits of the number, without leading zeros.
+        int digitCount = 0;   // The number of significant digits.
+        int exponent = 0;     // The power of ten that multiplies the digits.
+        boolean afterPoint = false;
+        while (i < end && chars[i] != 'e' && chars[i] != 'E') {
+            char ch = chars[i];
+            if (ch == '.')
+                afterPoint = true;
+            else {
+                if (digits != 0 || ch != '0') {
+                    if (digitCount == 15)
+                        return Double.parseDouble(new String(chars, start, length));
+                    digits = 10*digits + (ch - '0');
+                    digitCount++;
+                }
+                if (afterPoint)
+                    exponent--;
+            }
+            i++;
+        }
+        if (i < end) {  // There is an exponent.
+            i++;
+            boolean negativeExponent = false;
+            if (chars[i] == '+' || chars[i] == '-') {
+                negativeExponent = (chars[i] == '-');
+                i++;
+            }
+            int e = 0;
+            while (i < end) {
+                if (e < 100000)  // (A bigger exponent would only give zero or infinity anyway.)
+                    e = 10*e + (chars[i] - '0');
+                i++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double x;
+        if (digits == 0)
+            x = 0;
+        else if (exponent >= 0 && exponent < powersOfTen.length)
+            x = digits * powersOfTen[exponent];
+        else if (exponent < 0 && -exponent < powersOfTen.length)
+            x = digits / powersOfTen[-exponent];
+        else
+            return Double.parseDouble(new String(chars, start, length));
+        return negative ? -x : x;
+    }
+    
+    
     private void errorMessage(String message, String expecting) throws IOException {  // Report error on input.
         throw new BadDataException("Error in input:  " + message + 
                 "; Expecting " + expecting);
     }
 
     private char lookChar() throws IOException {  // return next character from input
-        if (buffer == null || pos > buffer.length())
-            fillBuffer();
-        if (buffer == null)
-            return EOF;
-        else if (pos == buffer.length())
-            return '\n';
-        else 
-            return buffer.charAt(pos);
+        if (discardLine)
+            skipLine();
+        return lookAhead(0);
+    }
+    
+    private char lookAhead(int k) throws IOException {  // return the char k places after the next char, without reading it
+        while (pos + k >= count) {
+            if ( ! fillBuffer() )
+                return EOF;
+        }
+        return buffer[pos + k];
     }
-
+    
     private char readChar() throws IOException {  // return and discard next character from input
         char ch = lookChar();
-        if (buffer == null) {
+        if (pos == count) {
             throw new EndOfStreamException();
         }
         pos++;
         return ch;
     }
 
-    private void fillBuffer() throws IOException {    // Wait for user to type a line and press return,
-        buffer = in.readLine();
-        pos = 0;
-        floatMatcher = null;
-        integerMatcher = null;
+    private boolean fillBuffer() throws IOException {    // Read more chars into the buffer; returns false at end-of-stream.
+        if (pos > 0) {  // Move the unprocessed chars to the start of the buffer, to make room.
+            charBeforeBuffer = buffer[pos-1];
+            System.arraycopy(buffer, pos, buffer, 0, count - pos);
+            count -= pos;
+            pos = 0;
+        }
+        if (count == buffer.length)
+            buffer = Arrays.copyOf(buffer, 2*buffer.length);
+        int start = count;
+        while (count == start) {
+            int n = in.read(buffer, start, buffer.length - start);
+            if (n < 0) {  // End-of-stream.  If the last line didn't end with an end-of-line, add one.
+                char last = (count > 0)? buffer[count-1] : charBeforeBuffer;
+                if (last == '\n')
+                    return false;
+                buffer[count++] = '\n';
+                return true;
+            }
+            for (int i = start; i < start + n; i++) {  // Change "\r\n" and "\r" into '\n'.
+                char ch = buffer[i];
+                if (skipLF) {
+                    skipLF = false;
+                    if (ch == '\n')
+                        continue;
+                }
+                if (ch == '\r') {
+                    ch = '\n';
+                    skipLF = true;
+                }
+                buffer[count++] = ch;
+            }
+        }
+        return true;
     }
-
-    private void emptyBuffer() {   // discard the rest of the current line of input
-        buffer = null;
+    
+    private void skipLine() throws IOException {  // discard chars up to and including the next end-of-line
+        discardLine = false;
+        while (true) {
+            for (int i = pos; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    pos = i + 1;
+                    return;
+                }
+            }
+            pos = count;
+            if ( ! fillBuffer() )
+                return;
+        }
+    }
+    
+    private void emptyBuffer() {   // discard the rest of the current line of input (the next time a char is needed)
+        discardLine = true;
     }
 
 
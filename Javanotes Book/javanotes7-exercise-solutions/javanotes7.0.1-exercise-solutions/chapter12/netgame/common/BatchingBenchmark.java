@@ -0,0 +1,148 @@
+package netgame.common;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Measures the effect of message batching (see Hub.setBatching() and
+ * Client.setBatching()) on small-message traffic.  For each batching setting,
+ * two tests are run, with the same setting in the hub and in the clients:
+ * <ul>
+ * <li>Throughput:  A number of clients are connected to a hub that, like a
+ * chat server, forwards every message that it receives to all of the clients.
+ * Every client sends the same number of short chat lines as fast as it can.
+ * The program reports the number of lines delivered per second.</li>
+ * <li>Latency:  A single client sends Integer "bets" to a hub that answers
+ * each one, and waits for the answer before sending the next bet.  The
+ * program reports the average and the 99th percentile of the round-trip time.
+ * Since only one message is ever waiting, a batching window shows up here as
+ * added delay.</li>
+ * </ul>
+ * <p>Usage:  java netgame.common.BatchingBenchmark [clients] [linesPerClient] [bets]
+ * <br>The defaults are 8 clients, 2000 lines per client, and 2000 bets.  The
+ * transport is selected by the netgame.hub.transport system property, as usual.
+ */
+public class BatchingBenchmark {
+
+    private final static int[][] SETTINGS = {  // Pairs of maxMessages and windowMicros.
+            { 1, 0 }, { 16, 0 }, { 64, 0 }, { 16, 200 }, { 64, 1000 }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int clients = 8;
+        int lines = 2000;
+        int bets = 2000;
+        if (args.length > 0)
+            clients = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            lines = Integer.parseInt(args[1]);
+        if (args.length > 2)
+            bets = Integer.parseInt(args[2]);
+        System.out.printf("%d clients sending %d chat lines each; %d bets for latency; transport %s.%n%n",
+                               clients, lines, bets, Hub.defaultTransport());
+        System.out.printf("%10s %10s %16s %16s %16s%n", "Batch", "Window", "Lines/sec", "Mean RTT (us)", "99% RTT (us)");
+        int port = 37900;
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+        for (int[] setting : SETTINGS) {
+            System.setOut(discard);  // Hide the messages about connections and threads.
+            double linesPerSecond = throughput(port++, setting[0], setting[1], clients, lines);
+            double[] rtt = latency(port++, setting[0], setting[1], bets);
+            System.setOut(console);
+            System.out.printf("%10d %10d %16.0f %16.1f %16.1f%n", setting[0], setting[1],
+                                                     linesPerSecond, rtt[0], rtt[1]);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs the throughput test, and returns the number of lines delivered per second.
+     */
+    private static double throughput(int port, int maxMessages, int windowMicros,
+                                                  int clientCount, int lines) throws Exception {
+        Hub hub = new Hub(port) {
+            protected void messageReceived(int playerID, Object message) {
+                sendToAll(new ForwardedMessage(playerID, message));
+            }
+        };
+        hub.setBatching(maxMessages, windowMicros);
+        final Counter received = new Counter();
+        Client[] clients = new Client[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new Client("localhost", port) {
+                protected void messageReceived(Object message) {
+                    received.increment();
+                }
+            };
+            clients[i].setBatching(maxMessages, windowMicros);
+        }
+        Thread.sleep(200);  // Let the connections settle down.
+        long start = System.nanoTime();
+        for (int line = 0; line < lines; line++) {
+            for (Client client : clients)
+                client.send("This is line number " + line + " of the chat.");
+        }
+        long expected = (long)clientCount * lines * clientCount;
+        received.waitFor(expected);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (Client client : clients)
+            client.disconnect();
+        hub.shutDownHub();
+        return expected / seconds;
+    }
+
+    /**
+     * Runs the latency test, and returns the mean and the 99th percentile of the
+     * round trip time, in microseconds.
+     */
+    private static double[] latency(int port, int maxMessages, int windowMicros, int bets) throws Exception {
+        Hub hub = new Hub(port) {
+            protected void messageReceived(int playerID, Object message) {
+                sendToOne(playerID, message);
+            }
+        };
+        hub.setBatching(maxMessages, windowMicros);
+        final Counter received = new Counter();
+        Client client = new Client("localhost", port) {
+            protected void messageReceived(Object message) {
+                received.increment();
+            }
+        };
+        client.setBatching(maxMessages, windowMicros);
+        Thread.sleep(200);
+        long[] times = new long[bets];
+        for (int i = 0; i < bets; i++) {
+            long start = System.nanoTime();
+            client.send(10);
+            received.waitFor(i + 1);
+            times[i] = System.nanoTime() - start;
+        }
+        client.disconnect();
+        hub.shutDownHub();
+        Arrays.sort(times);
+        long total = 0;
+        for (long t : times)
+            total += t;
+        return new double[] { total / 1000.0 / bets, times[(int)(bets * 0.99)] / 1000.0 };
+    }
+
+    /**
+     * Counts the messages received by the clients in a test.
+     */
+    private static class Counter {
+        private long count;
+        synchronized void increment() {
+            count++;
+            notifyAll();
+        }
+        synchronized void waitFor(long target) throws InterruptedException {
+            while (count < target)
+                wait();
+        }
+    }
+
+}
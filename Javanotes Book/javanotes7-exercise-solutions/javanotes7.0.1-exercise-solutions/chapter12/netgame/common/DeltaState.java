@@ -0,0 +1,42 @@
+package netgame.common;
+
+/**
+ * A DeltaState is a game state that can be sent to clients as a series of
+ * small changes instead of as a complete copy of the state each time it
+ * changes.  A hub sends states to its clients using a StateSender, and each
+ * client keeps its copy of the state up to date using a StateReceiver.  The
+ * objects that represent the changes are created and applied by the state
+ * class itself, so only that class needs to know what they contain; they
+ * must, of course, be Serializable, and for efficiency they should have a
+ * format registered with BinaryCodec.
+ * <p>The type parameter, S, should be the class that implements this
+ * interface.  The netgame.fivecarddraw and netgame.tictactoe packages show
+ * how this is done.
+ */
+public interface DeltaState<S> {
+
+    /**
+     * Returns a copy of this state that will not be affected by later changes
+     * to this object.  A StateSender keeps such a copy of the last state that
+     * it sent to each player.
+     */
+    public S copy();
+
+    /**
+     * Returns an object describing how this state differs from an older state.
+     * Applying the changes to the older state, by calling its withChanges() method,
+     * must give a state equal to this one.
+     * @param previous the older state, which is not null.
+     * @return the changes, or null if there are no differences.
+     */
+    public Object changesFrom(S previous);
+
+    /**
+     * Returns a new state, made by applying changes to this state.  This object
+     * itself is not modified.
+     * @param changes an object that was returned by changesFrom(), called for a
+     *    newer state with a state equal to this one as its parameter.
+     */
+    public S withChanges(Object changes);
+
+}
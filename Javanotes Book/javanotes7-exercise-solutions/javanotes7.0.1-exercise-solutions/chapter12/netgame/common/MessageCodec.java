@@ -0,0 +1,41 @@
+package netgame.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A MessageCodec says how a message is turned into bytes for transmission
+ * between a Hub and its Clients, and how those bytes are turned back into
+ * a message.  Each message is written into its own frame (see the
+ * MessageFraming class), so a codec only has to deal with one message at
+ * a time, and it does not need to know where the message ends.
+ * <p>Two codecs are provided.  SerializationCodec uses ordinary Java
+ * serialization, which works for any Serializable object.  BinaryCodec uses
+ * a compact binary format for the message types that have been registered
+ * with it, and falls back to serialization for other objects.  BinaryCodec
+ * can read anything that SerializationCodec writes, and Hubs and Clients
+ * always use it for reading, so the codec that is used for sending can be
+ * chosen separately at each end of a connection.
+ * <p>The codec that is used for sending is set by calling setMessageCodec()
+ * in the Hub or the Client.  The default is taken from the system property
+ * netgame.codec, which can be "serialization" (the default) or "binary".
+ */
+public interface MessageCodec {
+
+    /**
+     * Writes a message to a stream.
+     * @param message the non-null message that is to be written.
+     * @param out the stream, which contains only this message.
+     * @throws IOException if the message cannot be encoded.
+     */
+    public void writeMessage(Object message, DataOutputStream out) throws IOException;
+
+    /**
+     * Reads a message that was written by writeMessage().
+     * @param in a stream that contains the data for exactly one message.
+     * @throws IOException if the data does not represent a message that this codec understands.
+     */
+    public Object readMessage(DataInputStream in) throws IOException;
+
+}
@@ -0,0 +1,390 @@
+package netgame.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A RoomHub is a Hub in which the players can gather in any number of
+ * independent "rooms", such as the rooms of a chat server.  A client joins
+ * or leaves a room by sending a RoomRequest to the hub, and it posts a
+ * message in a room by sending a RoomMessage.  Each room is represented in
+ * the hub by an object of type RoomHub.Room.  By default, a Room simply
+ * forwards every message that is posted in it to all of the room's members;
+ * subclasses of RoomHub can change that by overriding createRoom() to return
+ * objects belonging to a subclass of Room.
+ * <p>In an ordinary Hub, all received messages are handled, one at a time,
+ * by a single message processing thread, so the Hub can only use one
+ * processor no matter how many unrelated conversations it is carrying.  A
+ * RoomHub has several "shards", each with its own thread and its own queue
+ * of work, and every room belongs to one shard.  Messages for a room are
+ * handled in that room's shard, in the order in which they were received,
+ * so the methods of a Room are never called by two threads at the same time.
+ * But different rooms are handled in parallel.  New rooms are assigned to
+ * shards in rotation.  By default, there is one shard for each available
+ * processor.
+ * <p>Messages that are not RoomMessages or RoomRequests are handled in the
+ * same way as in any other Hub, by calling messageReceived(playerID,message)
+ * in the Hub's message processing thread.
+ */
+public class RoomHub extends Hub {
+
+    private final Shard[] shards;
+
+    /**
+     * The rooms that currently exist, by name.  Rooms are added and removed only
+     * while holding roomsLock, but they can be looked up without locking.  A room
+     * is not removed while a join is on its way to it, so a player who has asked
+     * to join a room can count on finding the room when posting messages in it.
+     */
+    private final ConcurrentHashMap<String,Room> rooms = new ConcurrentHashMap<String,Room>();
+    private final Object roomsLock = new Object();
+    private int nextShard;  // Used for assigning new rooms to shards; protected by roomsLock.
+
+    /**
+     * Creates a RoomHub listening on a specified port, with one shard for each
+     * available processor.  The transport is given by the netgame.hub.transport
+     * system property, as for Hub(port).
+     * @param port  the port on which the server will listen.
+     * @throws IOException if it is not possible to create a listening socket on the specified port.
+     */
+    public RoomHub(int port) throws IOException {
+        this(port, defaultTransport(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a RoomHub listening on a specified port, using a specified transport
+     * and a specified number of shards.
+     * @param port  the port on which the server will listen.
+     * @param transport  the transport that is used to communicate with clients.
+     * @param shardCount  the number of threads that handle the messages for rooms.
+     *    This should usually be the number of available processors.  It must be
+     *    at least 1.
+     * @throws IOException if it is not possible to create a listening socket on the specified port.
+     */
+    public RoomHub(int port, Transport transport, int shardCount) throws IOException {
+        super(port, transport);
+        if (shardCount < 1)
+            throw new IllegalArgumentException("There must be at least one shard.");
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i+1);
+            shards[i].start();
+        }
+    }
+
+    /**
+     * Creates the object that represents a new room.  This method is called when
+     * a player asks to join a room that does not yet exist.  The method in this
+     * class returns an object of type Room.  Subclasses can override this method
+     * to return objects belonging to a subclass of Room.
+     * @param name the name of the room.
+     */
+    protected Room createRoom(String name) {
+        return new Room(name);
+    }
+
+    /**
+     * Returns the number of shards that are used by this hub.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the names of the rooms that currently exist.  The array is newly
+     * created each time this method is called.
+     */
+    public String[] getRoomNames() {
+        return rooms.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * Represents one room in a RoomHub.  All the methods of a Room are called in
+     * the thread of the shard that the room belongs to, so they are never called
+     * at the same time by two threads, and a Room does not need to synchronize
+     * its own data.  For the same reason, the sendToAll() and sendToOne() methods
+     * of a room should only be called from inside the room's own methods.
+     */
+    public class Room {
+
+        private final String name;
+        private Shard shard;  // Set by the hub when the room is created.
+        private final TreeMap<Integer,PlayerConnection> members = new TreeMap<Integer,PlayerConnection>();
+        private int pendingJoins;  // Joins given to the shard but not yet done; protected by roomsLock.
+
+        /**
+         * Creates a room.  Rooms are created by the createRoom() method of the RoomHub.
+         * @param name the name of the room.
+         */
+        protected Room(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of this room.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the ID numbers of the players who are in this room, in increasing order.
+         * The array is newly created each time this method is called.
+         */
+        public int[] getMembers() {
+            int[] players = new int[members.size()];
+            int i = 0;
+            for (int p : members.keySet())
+                players[i++] = p;
+            return players;
+        }
+
+        /**
+         * Tests whether a given player is a member of this room.
+         */
+        public boolean isMember(int playerID) {
+            return members.containsKey(playerID);
+        }
+
+        /**
+         * Sends a message to every member of this room.  The message is encoded
+         * only once, as in the Hub's sendToAll() method.
+         * @param message the non-null message that is to be sent.
+         */
+        public void sendToAll(Object message) {
+            if (message == null)
+                throw new IllegalArgumentException("Null cannot be sent as a message.");
+            if ( ! members.isEmpty() )
+                broadcast(message, members.values(), null);
+        }
+
+        /**
+         * Sends a message to one member of this room.
+         * @param playerID the ID of the player who is to receive the message.
+         * @param message the non-null message that is to be sent.
+         * @return true if the specified player is a member of the room, false if not.
+         */
+        public boolean sendToOne(int playerID, Object message) {
+            if ( ! members.containsKey(playerID) )
+                return false;
+            return RoomHub.this.sendToOne(playerID, message);
+        }
+
+        /**
+         * This method is called when a message is posted in this room by one of
+         * its members.  The method in this class sends a RoomMessage, containing
+         * the message and the ID of its sender, to all members of the room.
+         * @param playerID the ID of the player who posted the message.
+         * @param message the message.  This is the message field of the RoomMessage
+         *    that was sent by the player, not the RoomMessage itself.
+         */
+        protected void messageReceived(int playerID, Object message) {
+            sendToAll(new RoomMessage(name, playerID, message));
+        }
+
+        /**
+         * This method is called just after a player has joined this room.  The
+         * method in this class tells all members of the room, including the new
+         * member, about the new member.
+         */
+        protected void playerJoined(int playerID) {
+            sendToAll(new RoomMessage(name, playerID, new RoomRequest(name, true)));
+        }
+
+        /**
+         * This method is called just after a player has left this room, either
+         * by request or by disconnecting from the hub.  The method in this class
+         * tells the remaining members of the room that the player has left.  It
+         * is not called when the last member leaves.
+         */
+        protected void playerLeft(int playerID) {
+            sendToAll(new RoomMessage(name, playerID, new RoomRequest(name, false)));
+        }
+
+        /**
+         * This method is called when the room is discarded because it has no members,
+         * usually just after the last member has left.  The method in this class does
+         * nothing.
+         */
+        protected void roomClosed() {
+        }
+
+        /**
+         * Adds a player to the room.  Called in the room's shard thread.
+         */
+        private void join(PlayerConnection player) {
+            int playerID = player.getPlayer();
+            synchronized(roomsLock) {
+                pendingJoins--;
+            }
+            if (getPlayerConnection(playerID) != player) {
+                closeIfEmpty();  // The player has already disconnected from the hub.
+                return;
+            }
+            if (members.isEmpty())
+                shard.rooms.add(this);
+            if (members.put(playerID, player) == null)
+                playerJoined(playerID);
+        }
+
+        /**
+         * Removes a player from the room, and discards the room if it is empty.
+         * Called in the room's shard thread.
+         */
+        private void leave(int playerID) {
+            if (members.remove(playerID) == null)
+                return;
+            if ( ! members.isEmpty() ) {
+                playerLeft(playerID);
+                return;
+            }
+            shard.rooms.remove(this);
+            closeIfEmpty();
+        }
+
+        /**
+         * Discards the room if it has no members and no player is about to join it.
+         * Called in the room's shard thread.
+         */
+        private void closeIfEmpty() {
+            if ( ! members.isEmpty() )
+                return;
+            synchronized(roomsLock) {
+                if (pendingJoins > 0)
+                    return;  // The joins are already in the shard's queue.
+                rooms.remove(name, this);
+            }
+            roomClosed();
+        }
+
+    } // end nested class Room
+
+
+    //------------------------- private implementation part ---------------------------------------
+
+    /**
+     * Handles RoomMessages and RoomRequests by passing them to the rooms' shards.  Other
+     * messages go into the Hub's ordinary queue of incoming messages.  This is called
+     * in a transport thread.
+     */
+    void queueIncomingMessage(final PlayerConnection fromConnection, Object message) {
+        if (message instanceof RoomMessage) {
+            final RoomMessage rm = (RoomMessage)message;
+            final Room room = (rm.room == null) ? null : rooms.get(rm.room);
+            if (room != null) {  // (If there is no such room, the sender can't be in it.)
+                room.shard.execute(new Runnable() {
+                    public void run() {
+                        int playerID = fromConnection.getPlayer();
+                        if (room.members.get(playerID) == fromConnection)
+                            room.messageReceived(playerID, rm.message);
+                    }
+                });
+            }
+        }
+        else if (message instanceof RoomRequest) {
+            RoomRequest request = (RoomRequest)message;
+            if (request.room == null)
+                return;
+            if (request.join)
+                joinRoom(fromConnection, request.room);
+            else {
+                final Room room = rooms.get(request.room);
+                if (room != null) {
+                    room.shard.execute(new Runnable() {
+                        public void run() {
+                            if (room.members.get(fromConnection.getPlayer()) == fromConnection)
+                                room.leave(fromConnection.getPlayer());
+                        }
+                    });
+                }
+            }
+        }
+        else
+            super.queueIncomingMessage(fromConnection, message);
+    }
+
+    /**
+     * When a player leaves the hub, a task is given to each shard that removes the
+     * player from all the rooms in that shard.  Since this is called after the player's
+     * last message was passed to the shards, the player's messages are handled first.
+     */
+    void playerRemoved(final PlayerConnection playerConnection) {
+        super.playerRemoved(playerConnection);
+        for (final Shard shard : shards) {
+            shard.execute(new Runnable() {
+                public void run() {
+                    int playerID = playerConnection.getPlayer();
+                    for (Room room : new ArrayList<Room>(shard.rooms)) {
+                        if (room.members.get(playerID) == playerConnection)
+                            room.leave(playerID);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Finds the room with a given name, creating it if necessary, and gives its shard
+     * the job of adding a player to the room.  The room is looked up and its count of
+     * pending joins is increased under the same lock that is used for removing rooms,
+     * so the room cannot be discarded before the player has joined it.  Any message
+     * that the player posts in the room after this will find the room, and will be
+     * handled by its shard after the join.
+     */
+    private void joinRoom(final PlayerConnection player, String name) {
+        Room room;
+        synchronized(roomsLock) {
+            room = rooms.get(name);
+            if (room == null) {
+                room = createRoom(name);
+                room.shard = shards[nextShard];
+                nextShard = (nextShard + 1) % shards.length;
+                rooms.put(name, room);
+            }
+            room.pendingJoins++;
+        }
+        final Room theRoom = room;
+        room.shard.execute(new Runnable() {
+            public void run() {
+                theRoom.join(player);
+            }
+        });
+    }
+
+    /**
+     * A thread that does all the work for the rooms that belong to it, one task at
+     * a time, in the order in which the tasks were submitted.
+     */
+    private static class Shard extends Thread {
+
+        private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+        private final ArrayList<Room> rooms = new ArrayList<Room>();  // Rooms that have members; used only by this thread.
+
+        Shard(int number) {
+            super("netgame room shard " + number);
+            setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    tasks.take().run();
+                }
+                catch (Exception e) {
+                    System.out.println("Exception while handling a message for a room:");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+    } // end nested class Shard
+
+}
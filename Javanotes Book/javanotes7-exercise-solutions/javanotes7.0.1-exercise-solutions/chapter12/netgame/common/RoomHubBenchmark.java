@@ -0,0 +1,102 @@
+package netgame.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures how the throughput of a RoomHub grows with the number of shards.
+ * The traffic is like that of a chat server such as the NewChatRoomHub
+ * exercise:  many rooms, each with a few members, where every line of chat
+ * that is posted by a member is sent to all the members of the room.  The
+ * messages are encoded with Java serialization, as they are by default in
+ * the chat programs.  For each number of shards, from 1 up to the number of
+ * available processors, the program starts a RoomHub, connects the simulated
+ * clients (see the SimulatedClients class), has each of them join a room,
+ * and then has every client post the same number of messages, interleaved
+ * among the clients.  It reports the number of messages posted per second
+ * and the number of messages delivered to clients per second.
+ * <p>Usage:  java netgame.common.RoomHubBenchmark [rooms] [membersPerRoom] [messagesPerClient]
+ * <br>The defaults are 64 rooms, 4 members per room, and 500 messages per client.
+ * <p>Note that the simulated clients run in the same JVM as the hub, so they
+ * take some of the available processing power.
+ */
+public class RoomHubBenchmark {
+
+    private final static int CHUNK = 10;  // Messages sent by a client at one time.
+
+    public static void main(String[] args) throws Exception {
+        int rooms = 64;
+        int members = 4;
+        int messages = 500;
+        if (args.length > 0)
+            rooms = Integer.parseInt(args[0]);
+        if (args.length > 1)
+            members = Integer.parseInt(args[1]);
+        if (args.length > 2)
+            messages = Math.max(CHUNK, Integer.parseInt(args[2]) / CHUNK * CHUNK);
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d rooms, %d members per room, %d messages per client, %d processors.%n%n",
+                                   rooms, members, messages, processors);
+        System.out.printf("%8s %14s %16s %12s%n", "Shards", "Posts/sec", "Deliveries/sec", "Time (s)");
+        int port = 37860;
+        PrintStream console = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+        for (int shards = 1; ; shards *= 2) {
+            if (shards > processors)
+                shards = processors;
+            System.setOut(discard);  // Hide the hub's messages about connections.
+            double seconds = run(rooms, members, messages, shards, port++);
+            System.setOut(console);
+            long posts = (long)rooms * members * messages;
+            System.out.printf("%8d %14.0f %16.0f %12.2f%n", shards, posts / seconds,
+                                            posts * members / seconds, seconds);
+            if (shards == processors)
+                break;
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs the test with a given number of shards, and returns the time, in seconds,
+     * from the start of posting until every message has been delivered.
+     */
+    private static double run(int rooms, int members, int messages, int shards, int port) throws Exception {
+        RoomHub hub = new RoomHub(port, Hub.Transport.SELECTOR, shards);
+        SimulatedClients clients = new SimulatedClients(port);
+        clients.start();
+        int clientCount = rooms * members;
+        for (int i = 0; i < clientCount; i++)
+            clients.connect();
+        long expectedFrames = (long)clientCount * (clientCount + 1) / 2;  // Status messages from the Hub.
+        clients.waitForFrames(expectedFrames);
+
+        MessageCodec codec = new SerializationCodec();
+        for (int i = 0; i < clientCount; i++)
+            clients.send(i, MessageFraming.encode(new RoomRequest("room" + (i % rooms), true), codec));
+        expectedFrames += (long)rooms * members * (members + 1) / 2;  // Each join is announced to the room.
+        clients.waitForFrames(expectedFrames);
+
+        byte[][] chunks = new byte[rooms][];  // CHUNK messages for posting in each room.
+        for (int r = 0; r < rooms; r++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = 0; i < CHUNK; i++)
+                bytes.write(MessageFraming.encode(new RoomMessage("room" + r, "Line " + i + " of the chat in room " + r), codec));
+            chunks[r] = bytes.toByteArray();
+        }
+        long startTime = System.nanoTime();
+        for (int round = 0; round < messages / CHUNK; round++) {
+            for (int i = 0; i < clientCount; i++)
+                clients.send(i, chunks[i % rooms]);
+        }
+        expectedFrames += (long)clientCount * messages * members;
+        clients.waitForFrames(expectedFrames);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        hub.shutDownHub();
+        return seconds;
+    }
+
+}
@@ -0,0 +1,31 @@
+package netgame.common;
+
+import java.io.Serializable;
+
+/**
+ * A request from a client to join or to leave one of the rooms in a
+ * RoomHub.  A player can be in any number of rooms at the same time.  A
+ * room is created when the first player joins it, and it disappears when
+ * the last player leaves.  When a player disconnects from the hub, the
+ * player leaves all of the rooms that they were in.
+ * <p>When a player joins or leaves a room, the members of the room are
+ * notified with a RoomMessage that contains a copy of the request.
+ */
+public class RoomRequest implements Serializable {
+
+    public final String room;    // The name of the room.
+    public final boolean join;   // True for joining the room, false for leaving it.
+
+    /**
+     * Creates a request to join or to leave a room.
+     * @param room the name of the room.  This must be non-null.
+     * @param join true to join the room, false to leave it.
+     */
+    public RoomRequest(String room, boolean join) {
+        if (room == null)
+            throw new IllegalArgumentException("The name of the room cannot be null.");
+        this.room = room;
+        this.join = join;
+    }
+
+}
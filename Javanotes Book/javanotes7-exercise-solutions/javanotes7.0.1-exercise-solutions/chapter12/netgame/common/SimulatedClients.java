@@ -0,0 +1,166 @@
+package netgame.common;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A large number of simulated clients, for use by load tests and benchmarks
+ * such as HubLoadTest and RoomHubBenchmark.  The simulated clients do not use
+ * the Client class, which would need two threads for each connection; instead,
+ * they speak the netgame protocol directly.  Connections are opened, and the
+ * handshake is done, by the thread that calls connect().  After that, every
+ * channel is read by this thread, which counts the frames that arrive but
+ * does not decode them.  Messages are sent as pre-encoded frames.
+ */
+class SimulatedClients extends Thread {
+
+    private final int port;
+    private final Selector selector;
+    private final ArrayList<SocketChannel> channels = new ArrayList<SocketChannel>();
+    private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+    private long framesReceived;  // Total number of frames received by all clients.
+
+    /**
+     * Creates the object.  Call start() to start the thread that reads the channels.
+     * @param port the port on which the Hub is listening, on the local host.
+     */
+    SimulatedClients(int port) throws IOException {
+        super("simulated clients");
+        this.port = port;
+        selector = Selector.open();
+        setDaemon(true);
+    }
+
+    /**
+     * Opens one connection and does the handshake, using the same streams as
+     * the Client class.  The channel is then handed over to this thread.
+     */
+    void connect() throws Exception {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        channel.socket().setTcpNoDelay(true);
+        ObjectOutputStream out = new ObjectOutputStream(Channels.newOutputStream(channel));
+        out.writeObject("Hello Hub");
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(Channels.newInputStream(channel));
+        in.readObject();  // The ID number of this client.
+        channel.configureBlocking(false);
+        channels.add(channel);
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the number of clients that have been connected.
+     */
+    int size() {
+        return channels.size();
+    }
+
+    /**
+     * Sends a frame from the first client.
+     */
+    void send(byte[] frame) throws IOException {
+        send(0, frame);
+    }
+
+    /**
+     * Sends some data, consisting of one or more complete frames, from one of the
+     * clients.  Since the channels are in non-blocking mode, this waits until all
+     * the data has been written.
+     * @param client the number of the client, in the order in which they were connected.
+     */
+    void send(int client, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        SocketChannel channel = channels.get(client);
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0)
+                Thread.yield();
+        }
+    }
+
+    /**
+     * Returns the total number of frames that have been received by all the clients.
+     */
+    synchronized long getFramesReceived() {
+        return framesReceived;
+    }
+
+    /**
+     * Waits until the total number of frames received by all the clients reaches
+     * a specified count.
+     */
+    synchronized void waitForFrames(long count) throws InterruptedException {
+        while (framesReceived < count)
+            wait();
+    }
+
+    private synchronized void framesArrived(int count) {
+        framesReceived += count;
+        notifyAll();
+    }
+
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocate(64*1024);
+        try {
+            while (true) {
+                selector.select();
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null)
+                    channel.register(selector, SelectionKey.OP_READ, new FrameCounter());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    FrameCounter counter = (FrameCounter)key.attachment();
+                    buffer.clear();
+                    if (((SocketChannel)key.channel()).read(buffer) < 0) {
+                        key.cancel();
+                        continue;
+                    }
+                    buffer.flip();
+                    int frames = 0;
+                    while (buffer.hasRemaining()) {
+                        if (counter.lengthBytes < 4) {  // Still reading the length of a frame.
+                            counter.length = (counter.length << 8) | (buffer.get() & 0xFF);
+                            counter.lengthBytes++;
+                        }
+                        else {
+                            int skip = Math.min(counter.length, buffer.remaining());
+                            buffer.position(buffer.position() + skip);
+                            counter.length -= skip;
+                        }
+                        if (counter.lengthBytes == 4 && counter.length == 0) {
+                            frames++;
+                            counter.lengthBytes = 0;
+                        }
+                    }
+                    if (frames > 0)
+                        framesArrived(frames);
+                }
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Error in simulated clients: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Keeps track of how much of the current frame has been received on one channel.
+     */
+    private static class FrameCounter {
+        int lengthBytes;  // How many bytes of the frame's length have been read (0 to 4).
+        int length;       // The length, as read so far; once it is complete, the bytes still to skip.
+    }
+
+}
@@ -0,0 +1,56 @@
+package netgame.common;
+
+/**
+ * A StateReceiver is used in a client to reconstruct the game states that
+ * are sent by a StateSender in the hub.  Every StateUpdate that the client
+ * receives should be passed to the receive() method, which returns the new
+ * state.  If an update cannot be applied, because the client does not have
+ * the version of the state that it is based on, receive() sends a
+ * ResyncRequest to the hub and ignores updates until a complete state
+ * arrives.
+ * <p>Updates must be passed to receive() in the order in which they were
+ * received, so it should be called directly from the client's
+ * messageReceived() method, not from a task that runs later in some other
+ * thread.
+ */
+public class StateReceiver<S extends DeltaState<S>> {
+
+    private S state;      // The current state, or null if no complete state has been received.
+    private int version;  // The version number of the current state.
+    private boolean resyncRequested;  // True while waiting for a complete state.
+
+    /**
+     * Applies an update, and returns the new state.
+     * @param update the update that was received from the hub.
+     * @param client the client that received the update.  If the update cannot
+     *    be applied, a ResyncRequest is sent through this client.
+     * @return the new state, or null if the update could not be applied.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized S receive(StateUpdate update, Client client) {
+        if (update.isComplete()) {
+            state = (S)update.data;
+            version = update.version;
+            resyncRequested = false;
+            return state;
+        }
+        if (state == null || update.baseVersion != version) {
+            if ( ! resyncRequested ) {
+                resyncRequested = true;
+                client.send(new ResyncRequest(version));
+            }
+            return null;
+        }
+        state = state.withChanges(update.data);
+        version = update.version;
+        return state;
+    }
+
+    /**
+     * Returns the most recent state, or null if no state has been received.
+     */
+    public synchronized S getState() {
+        return state;
+    }
+
+}
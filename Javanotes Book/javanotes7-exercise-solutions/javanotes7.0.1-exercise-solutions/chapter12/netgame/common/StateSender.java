@@ -0,0 +1,130 @@
+package netgame.common;
+
+import java.util.HashMap;
+
+/**
+ * A StateSender is used in a Hub to send a game state to the players as
+ * StateUpdate messages.  The first time the state is sent to a player, and
+ * whenever the player asks for it, the player gets a complete copy of the
+ * state.  After that, the player only gets the changes from the last
+ * version that was sent to that player.  Since messages from the hub to a
+ * client arrive in the order in which they were sent, the client can
+ * reconstruct each new state from its copy of the previous one.  (The
+ * client does this with a StateReceiver.)  If an update is lost because the
+ * client's outgoing queue overflowed, the client notices that it cannot
+ * apply the next update and sends a ResyncRequest; the hub must pass that
+ * message to handleMessage(), which sends a complete state.
+ * <p>A player who disconnects should be removed by calling forget(), so that
+ * a player who connects later starts with a complete state.
+ * <p>The methods of this class are synchronized, but they will ordinarily be
+ * called only from the hub's message processing thread.
+ */
+public class StateSender<S extends DeltaState<S>> {
+
+    private final Hub hub;
+
+    /**
+     * For each player, the version number and a copy of the last state that
+     * was sent to that player.
+     */
+    private final HashMap<Integer,SentState<S>> sent = new HashMap<Integer,SentState<S>>();
+
+    private long completeUpdates;  // Number of complete states that have been sent.
+    private long deltaUpdates;     // Number of updates containing changes that have been sent.
+
+    /**
+     * Creates a StateSender that will send messages through a given hub.
+     */
+    public StateSender(Hub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * Sends a state to one player.  If it is identical to the last state that
+     * was sent to that player, nothing is sent.
+     * @param playerID the ID of the player who is to receive the state.
+     * @param state the state that is to be sent.  The StateSender makes a copy,
+     *    so the caller is free to go on modifying this object.
+     */
+    public synchronized void sendToOne(int playerID, S state) {
+        SentState<S> previous = sent.get(playerID);
+        if (previous == null) {
+            sendComplete(playerID, state.copy(), 1);
+            return;
+        }
+        Object changes = state.changesFrom(previous.state);
+        if (changes == null)
+            return;
+        S copy = state.copy();
+        sent.put(playerID, new SentState<S>(previous.version + 1, copy));
+        deltaUpdates++;
+        hub.sendToOne(playerID, new StateUpdate(previous.version + 1, previous.version, changes));
+    }
+
+    /**
+     * Sends a state to every player who is connected to the hub.  Each player
+     * gets the changes from the last version that was sent to that player.
+     */
+    public synchronized void sendToAll(S state) {
+        for (int playerID : hub.getPlayerList())
+            sendToOne(playerID, state);
+    }
+
+    /**
+     * If a message is a ResyncRequest, sends a complete copy of the last state that
+     * was sent to the player who sent the message.  A hub should call this method
+     * for every message that it receives, before handling the message itself.
+     * @return true if the message was a ResyncRequest and has been handled, false if
+     *    it is some other message.
+     */
+    public synchronized boolean handleMessage(int playerID, Object message) {
+        if ( ! (message instanceof ResyncRequest) )
+            return false;
+        SentState<S> previous = sent.get(playerID);
+        if (previous != null)
+            sendComplete(playerID, previous.state, previous.version + 1);
+        return true;
+    }
+
+    /**
+     * Discards the information about a player.  The next state that is sent to
+     * that ID will be complete.  This should be called when a player disconnects.
+     */
+    public synchronized void forget(int playerID) {
+        sent.remove(playerID);
+    }
+
+    /**
+     * Returns the number of complete states that have been sent, including
+     * those sent in response to ResyncRequests.
+     */
+    public synchronized long getCompleteUpdateCount() {
+        return completeUpdates;
+    }
+
+    /**
+     * Returns the number of updates containing only changes that have been sent.
+     */
+    public synchronized long getDeltaUpdateCount() {
+        return deltaUpdates;
+    }
+
+    /**
+     * Sends a complete state, which must not be modified afterwards, and records it.
+     */
+    private void sendComplete(int playerID, S copy, int version) {
+        sent.put(playerID, new SentState<S>(version, copy));
+        completeUpdates++;
+        hub.sendToOne(playerID, new StateUpdate(version, 0, copy));
+    }
+
+    private static class SentState<S> {
+        final int version;
+        final S state;  // A copy that is never modified.
+        SentState(int version, S state) {
+            this.version = version;
+            this.state = state;
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package netgame.common;
+
+import java.io.Serializable;
+
+/**
+ * A message from a StateSender in a hub to a StateReceiver in a client, which
+ * carries either a complete copy of a game state or the changes from the
+ * previous version of the state.  The versions of the state that are sent
+ * to one player are numbered 1, 2, 3, ...; an update that contains changes
+ * can only be applied to the version given by its baseVersion.
+ */
+public class StateUpdate implements Serializable {
+
+    public final int version;      // The version of the state that results from this update.
+    public final int baseVersion;  // The version to which the changes apply, or 0 for a complete state.
+    public final Object data;      // The complete state, or the changes, made by DeltaState.changesFrom().
+
+    /**
+     * Creates an update.  StateUpdates are created by a StateSender.
+     */
+    public StateUpdate(int version, int baseVersion, Object data) {
+        this.version = version;
+        this.baseVersion = baseVersion;
+        this.data = data;
+    }
+
+    /**
+     * Tests whether this update contains a complete state rather than changes.
+     */
+    public boolean isComplete() {
+        return baseVersion == 0;
+    }
+
+}
@@ -14,6 +14,11 @@ import java.io.Serializable;
  * in the netgame.common package.  Users of the package will
  * not see these messages; instead, the Client's playerConnected()
  * or playerDisconnected() method will be called.
+ * <p>Only the player who has just connected is sent the complete list
+ * of connected players.  Other players receive a StatusMessage in which
+ * the list is null, and they apply the change to the list they already
+ * have.  (Sending the complete list to everyone would mean that the
+ * amount of data sent when N players connect grows like N cubed.)
  */
 final class StatusMessage implements Serializable {
 
@@ -29,7 +34,8 @@ final class StatusMessage implements Serializable {
     public final boolean connecting;
     
     /**
-     * The list of players after the change has been made.
+     * The list of players after the change has been made, in increasing order.
+     * This is null except in the message that is sent to a newly connected player.
      */
     public final int[] players;
     
@@ -11,9 +11,11 @@ import javax.swing.*;
    
    The graph is drawn on a canvas which represents the region of the
    (x,y)-plane given by  -5 <= x <= 5  and  -5 <= y <= 5.  Any part of
-   the graph that lies outside this region is not shown.  The graph
-   is drawn by plotting 301 points and joining them with lines.  This
-   does not handle discontinuous functions properly.
+   the graph that lies outside this region is not shown.  The function
+   is evaluated at 1000001 points, and the graph is drawn by joining
+   them with lines.  (Since there are many more points than pixels,
+   this is done one column of pixels at a time; see drawFunction().)
+   This does not handle discontinuous functions properly.
    
    This program requires the class Expr,
    which is defined in by a separate file, Expr.java.
@@ -108,18 +110,31 @@ public class SimpleGrapher extends JPanel {
 
       // A object of this class can display the graph of a function
       // on the region of the (x,y)-plane given by -5 &lt;= x &lt;= 5 and
-      // -5 &lt;= y &lt;= 5.  The graph is drawn very simply, by plotting
-      // 301 points and connecting them with line segments.
+      // -5 &lt;= y &lt;= 5.  The graph is drawn by computing the value of
+      // the function at SAMPLES points and connecting them with line segments.
+      // The values are computed when the function is set, not every time
+      // the graph is drawn.
 
 
+      static final int SAMPLES = 1000001;  // Number of points on the graph.
+
       Expr func;  // The definition of the function that is to be graphed.
                   // If the value is null, no graph is drawn.
 
+      double[] xValues;  // The x-coordinates of the points on the graph.
+
+      double[] yValues;  // The y-coordinates of the points; yValues[i] is
+                         // the value of func at xValues[i].
+
 
       GraphPanel() {
              // Constructor.
          setBackground(Color.WHITE);
          func = null;
+         xValues = new double[SAMPLES];
+         for (int i = 0; i < SAMPLES; i++)
+            xValues[i] = -5 + 10.0 * i / (SAMPLES - 1);
+         yValues = new double[SAMPLES];
       }
 
 
@@ -127,10 +142,39 @@ public class SimpleGrapher extends JPanel {
              // Set the canvas to graph the function whose definition is
              // given by the function exp.
          func = exp;
+         computeValues();
          repaint();
       }
 
 
+      void computeValues() {
+             // Fill the array yValues with the values of func at the
+             // points in xValues.  The work is divided among several
+             // threads, one for each available processor.  This is
+             // possible because func.values() can safely be called by
+             // several threads at the same time.
+         int threadCount = Runtime.getRuntime().availableProcessors();
+         Thread[] threads = new Thread[threadCount];
+         for (int i = 0; i < threadCount; i++) {
+            final int start = (int)( (long)SAMPLES * i / threadCount );
+            final int end = (int)( (long)SAMPLES * (i+1) / threadCount );
+            threads[i] = new Thread() {
+               public void run() {
+                  func.values(xValues, yValues, start, end);
+               }
+            };
+            threads[i].start();
+         }
+         for (int i = 0; i < threadCount; i++) {
+            try {
+               threads[i].join();
+            }
+            catch (InterruptedException e) {
+            }
+         }
+      }
+
+
       public void clearFunction() {
              // Set the canvas to draw no graph at all.
          func = null;
@@ -166,73 +210,64 @@ public class SimpleGrapher extends JPanel {
 
       void drawFunction(Graphics g) {
              // Draw the graph of the function defined by the instance 
-             // variable func.  Just plot 301 points with lines 
-             // between them. 
-         
-         double x, y;          // A point on the graph.  y is f(x).
-         double prevx, prevy;  // The previous point on the graph.
+             // variable func, using the points in xValues and yValues.
+             // Since there are many more points than columns of pixels,
+             // drawing a line between each pair of consecutive points
+             // would take a long time and would draw most pixels many
+             // times.  Instead, the points are taken in order, and all
+             // the points that fall in the same column of pixels are
+             // covered by a single vertical line from the highest to the
+             // lowest of them.  A line segment is drawn from the last
+             // point in one column to the first point in the next.  This
+             // gives the same picture as drawing all the line segments.
+             // As before, if the function is undefined at a point, no
+             // line is drawn to or from that point, and points with
+             // unreasonably large y-values are treated as undefined.
 
-         double dx;  // Difference between the x-values of consecutive 
-                     // points on the graph.
+         int width = getWidth();     // Width of the canvas.
+         int height = getHeight();   // Height of the canvas. 
 
-         dx  = 10.0 / 300;
+         int prevColumn = -1, prevRow = 0;  // Pixel coords of the previous point.
+         boolean prevDefined = false;       // Is the function defined at the previous point?
+         int top = 0, bottom = 0;           // Pixel rows of the highest and lowest point so
+                                            //   far in the current column of pixels.
+         boolean haveRange = false;         // Are top and bottom defined?
 
          g.setColor(Color.RED);
 
-         /* Compute the first point. */
-
-         x = -5;
-         y = func.value(x);
-
-         /* Compute each of the other 300 points, and draw a line segment
-               between each consecutive pair of points.  Note that if the
-               function is undefined at one of the points in a pair, then 
-               the line segment is not drawn.  */
-
-         for (int i = 1; i <= 300; i++) {
-
-            prevx = x;           // Save the coords of the previous point.
-            prevy = y;
-
-            x += dx;            // Get the coords of the next point.
-
-            y = func.value(x);
-
-            if ( (! Double.isNaN(y)) && (! Double.isNaN(prevy)) ) {
-                   // Draw a line segment between the two points.
-               putLine(g, prevx, prevy, x, y);
+         for (int i = 0; i < SAMPLES; i++) {
+            double y = yValues[i];
+            int column = (int)( (xValues[i] + 5) / 10 * width );
+            if (column != prevColumn || Double.isNaN(y) || Math.abs(y) >= 30000) {
+                   // Finish the vertical line for the previous group of points.
+               if (haveRange && bottom > top)
+                  g.drawLine(prevColumn, top, prevColumn, bottom);
+               haveRange = false;
             }
-
-         }  // end for
-
-      }  // end drawFunction()
-
-
-      void putLine(Graphics g, double x1, double y1, 
-                                   double x2, double y2) {
-                // Draw a line segment from the point (x1,y1) to (x2,y2).
-                // These real values must be scaled to get the integer 
-                // coordinates of the corresponding pixels.
-
-         int a1, b1;   // Pixel coordinates corresponding to (x1,y1).
-         int a2, b2;   // Pixel coordinates corresponding to (x2,y2).
-
-         int width = getWidth();     // Width of the canvas.
-         int height = getHeight();   // Height of the canvas. 
-
-         a1 = (int)( (x1 + 5) / 10 * width );
-         b1 = (int)( (5 - y1) / 10 * height );
-         a2 = (int)( (x2 + 5) / 10 * width );
-         b2 = (int)( (5 - y2) / 10 * height );
-
-         if (Math.abs(y1) < 30000 && Math.abs(y2) < 30000) {
-                // Only draw lines for reasonable y-values.
-                // This should not be necessary, I think,
-                // but I got a problem when y was very large.)
-            g.drawLine(a1,b1,a2,b2);
+            if (Double.isNaN(y) || Math.abs(y) >= 30000) {
+               prevDefined = false;
+               prevColumn = column;
+               continue;
+            }
+            int row = (int)( (5 - y) / 10 * height );
+            if (prevDefined && column != prevColumn)
+               g.drawLine(prevColumn, prevRow, column, row);
+            if (haveRange) {
+               top = Math.min(top, row);
+               bottom = Math.max(bottom, row);
+            }
+            else {
+               top = bottom = row;
+               haveRange = true;
+            }
+            prevColumn = column;
+            prevRow = row;
+            prevDefined = true;
          }
+         if (haveRange && bottom > top)
+            g.drawLine(prevColumn, top, prevColumn, bottom);
 
-      }  // end putLine()
+      }  // end drawFunction()
 
    }  // end nested class GraphPanel
 
@@ -0,0 +1,278 @@
+
+/*
+    A FlatExpr is a "compiled" form of an arithmetic expression, which can
+    be evaluated many times much faster than by walking over an expression
+    tree or by parsing the text of the expression again.  It is used by the
+    programs SimpleParser5 and SimpleInterpreter2, which translate their own
+    representations of expressions into FlatExprs.
+
+    A FlatExpr is a list of instructions for a simple "register machine".
+    The registers are just the elements of an array of doubles.  Each
+    instruction applies one operation to the values in one or two registers
+    and puts the answer into another register, which is not used for
+    anything else.  For example, the expression  x*x + 3*x  might become
+
+              r0 = x
+              r1 = r0 * r0
+              r3 = r2 * r0       (r2 holds the constant 3)
+              r4 = r1 + r3
+
+    Constants are put into their registers once, when the FlatExpr is
+    created, so they don't need any instructions.  Variables are referred
+    to by number.  The values of the variables are passed to the value()
+    method in an array, and the variable number is the position of the
+    variable in that array; so, no names have to be looked up when the
+    expression is evaluated.
+
+    A FlatExpr is built by calling the methods constant(), variable(),
+    binary(), and unary().  Each of these methods returns the number of
+    the register that will hold the value that it computes, and that
+    number is then passed to other methods to use the value as an operand.
+    When the whole expression has been added, finish() is called with the
+    number of the register that holds the value of the expression.  Along
+    the way, an operation whose operands are constants is done immediately,
+    instead of adding an instruction for it, and if the same operation is
+    applied to the same operands more than once, the register from the
+    first time is used again.  For example, in the derivative of x*x*x*x
+    as computed by SimpleParser5, the subexpression x*x is used several
+    times, but it is only computed once.
+
+    Note that a FlatExpr contains the array of registers that is used by
+    value(), so it should not be used by several threads at the same time.
+
+    This file is used in two directories, chapter9 and chapter10, and the
+    two copies are the same.
+*/
+
+import java.util.HashMap;
+
+public class FlatExpr {
+
+   /**
+    * Operation codes, for use as the first parameter to binary() or unary().
+    * The binary operations are PLUS, MINUS, TIMES, DIVIDE, and POWER.  The
+    * others are unary.  NEGATE is the unary minus operation, and LOG is the
+    * natural logarithm.  The opcode VARIABLE is used only in instructions.
+    */
+   public static final int PLUS = 0, MINUS = 1, TIMES = 2, DIVIDE = 3, POWER = 4,
+                           NEGATE = 5, SIN = 6, COS = 7, TAN = 8, ABS = 9, SQRT = 10,
+                           LOG = 11, VARIABLE = 12;
+
+   private int[] ops = new int[16];    // The operation codes of the instructions.
+   private int[] dest = new int[16];   // The register where each instruction puts its answer.
+   private int[] left = new int[16];   // The first operand of each instruction (a register
+                                       //   number, or a variable number for VARIABLE).
+   private int[] right = new int[16];  // The second operand, for a binary operation.
+   private int instructionCount;       // The number of instructions.
+
+   private double[] registers = new double[16];  // The registers, with the constants filled in.
+   private boolean[] isConstant = new boolean[16];  // Tells which registers hold constants.
+   private int registerCount;          // The number of registers that have been used.
+   private int result = -1;            // The register that holds the value; -1 until finish().
+
+   private HashMap<String,Integer> registerFor = new HashMap<String,Integer>();
+          // Maps a description of each constant and operation to the register that holds
+          // its value, so that the same thing won't be computed twice.  Set to null by finish().
+
+   private double[] oneVariable = new double[1];  // Used by value(double).
+
+
+   /**
+    * Returns the number of a register that holds a specified constant.
+    */
+   public int constant(double value) {
+      checkNotFinished();
+      String key = "c" + Double.doubleToLongBits(value);
+      Integer r = registerFor.get(key);
+      if (r != null)
+         return r;
+      int reg = newRegister(key);
+      registers[reg] = value;
+      isConstant[reg] = true;
+      return reg;
+   }
+
+   /**
+    * Returns the number of a register that will hold the value of a variable,
+    * when the expression is evaluated.
+    * @param variableNumber the position of the variable's value in the array
+    *    that is passed to value(double[]).  Must be 0 if value(double) will be used.
+    */
+   public int variable(int variableNumber) {
+      return instruction(VARIABLE, variableNumber, -1);
+   }
+
+   /**
+    * Adds a binary operation to the expression, and returns the number of the
+    * register that will hold its value.
+    * @param op one of the constants PLUS, MINUS, TIMES, DIVIDE, or POWER
+    * @param x the register that holds the first operand
+    * @param y the register that holds the second operand
+    */
+   public int binary(int op, int x, int y) {
+      if (op < PLUS || op > POWER)
+         throw new IllegalArgumentException("Not a binary operation: " + op);
+      if (isConstant[x] && isConstant[y]) {
+         if ( op != POWER || ! Double.isNaN(Math.pow(registers[x], registers[y])) )
+            return constant(compute(op, registers[x], registers[y]));
+         // (An illegal power is an error when the expression is evaluated, not now.)
+      }
+      return instruction(op, x, y);
+   }
+
+   /**
+    * Adds a unary operation to the expression, and returns the number of the
+    * register that will hold its value.
+    * @param op one of the constants NEGATE, SIN, COS, TAN, ABS, SQRT, or LOG
+    * @param x the register that holds the operand
+    */
+   public int unary(int op, int x) {
+      if (op < NEGATE || op > LOG)
+         throw new IllegalArgumentException("Not a unary operation: " + op);
+      if (isConstant[x])
+         return constant(compute(op, registers[x], 0));
+      return instruction(op, x, -1);
+   }
+
+   /**
+    * Tells whether a register holds a constant, so that its value is already
+    * known while the expression is being built.
+    */
+   public boolean isConstant(int register) {
+      return isConstant[register];
+   }
+
+   /**
+    * Returns the value in a register that holds a constant.
+    * @throws IllegalArgumentException if the register does not hold a constant.
+    */
+   public double getConstant(int register) {
+      if ( ! isConstant[register] )
+         throw new IllegalArgumentException("Register " + register + " does not hold a constant.");
+      return registers[register];
+   }
+
+   /**
+    * Must be called after the whole expression has been added, and before the
+    * expression is evaluated.  No more operations can be added after this is called.
+    * @param resultRegister the register that holds the value of the whole expression
+    */
+   public void finish(int resultRegister) {
+      if (resultRegister < 0 || resultRegister >= registerCount)
+         throw new IllegalArgumentException("Illegal register number.");
+      result = resultRegister;
+      registerFor = null;  // Not needed any more.
+   }
+
+   /**
+    * Returns the number of instructions that are executed by value().
+    */
+   public int getInstructionCount() {
+      return instructionCount;
+   }
+
+   /**
+    * Evaluates the expression, for given values of the variables.
+    * @param variables the values of the variables.  If the number of a
+    *    variable, as passed to variable(), is n, then its value is variables[n].
+    * @throws ArithmeticException if the POWER operation gives an undefined
+    *    result (such as for (-1)^0.5).  Other operations can return NaN or an
+    *    infinite value.
+    * @throws IllegalStateException if finish() has not been called.
+    */
+   public double value(double[] variables) {
+      if (result < 0)
+         throw new IllegalStateException("finish() has not been called.");
+      double[] r = registers;
+      for (int i = 0; i < instructionCount; i++) {
+         int a = left[i];
+         switch (ops[i]) {
+         case VARIABLE:  r[dest[i]] = variables[a];  break;
+         case PLUS:      r[dest[i]] = r[a] + r[right[i]];  break;
+         case MINUS:     r[dest[i]] = r[a] - r[right[i]];  break;
+         case TIMES:     r[dest[i]] = r[a] * r[right[i]];  break;
+         case DIVIDE:    r[dest[i]] = r[a] / r[right[i]];  break;
+         case NEGATE:    r[dest[i]] = -r[a];  break;
+         default:        r[dest[i]] = compute(ops[i], r[a], right[i] < 0 ? 0 : r[right[i]]);  break;
+         }
+      }
+      return r[result];
+   }
+
+   /**
+    * Evaluates an expression that uses only one variable, with variable number 0.
+    */
+   public double value(double x) {
+      oneVariable[0] = x;
+      return value(oneVariable);
+   }
+
+
+   /**
+    * Applies an operation to one or two values.  For a unary operation, y is ignored.
+    */
+   private static double compute(int op, double x, double y) {
+      switch (op) {
+      case PLUS:    return x + y;
+      case MINUS:   return x - y;
+      case TIMES:   return x * y;
+      case DIVIDE:  return x / y;
+      case POWER:
+         double val = Math.pow(x,y);
+         if (Double.isNaN(val))
+            throw new ArithmeticException("Illegal values for ^ operator.");
+         return val;
+      case NEGATE:  return -x;
+      case SIN:     return Math.sin(x);
+      case COS:     return Math.cos(x);
+      case TAN:     return Math.tan(x);
+      case ABS:     return Math.abs(x);
+      case SQRT:    return Math.sqrt(x);
+      default:      return Math.log(x);
+      }
+   }
+
+   /**
+    * Adds an instruction, unless the same instruction has already been added,
+    * and returns the register where it puts its answer.
+    */
+   private int instruction(int op, int x, int y) {
+      checkNotFinished();
+      String key = op + " " + x + " " + y;
+      Integer r = registerFor.get(key);
+      if (r != null)
+         return r;
+      if (instructionCount == ops.length) {
+         ops = java.util.Arrays.copyOf(ops, 2*instructionCount);
+         dest = java.util.Arrays.copyOf(dest, 2*instructionCount);
+         left = java.util.Arrays.copyOf(left, 2*instructionCount);
+         right = java.util.Arrays.copyOf(right, 2*instructionCount);
+      }
+      int reg = newRegister(key);
+      ops[instructionCount] = op;
+      dest[instructionCount] = reg;
+      left[instructionCount] = x;
+      right[instructionCount] = y;
+      instructionCount++;
+      return reg;
+   }
+
+   private void checkNotFinished() {
+      if (result >= 0)
+         throw new IllegalStateException("Can't add to a FlatExpr after finish() is called.");
+   }
+
+   /**
+    * Returns the number of an unused register, and records that it holds the
+    * value described by key.
+    */
+   private int newRegister(String key) {
+      if (registerCount == registers.length) {
+         registers = java.util.Arrays.copyOf(registers, 2*registerCount);
+         isConstant = java.util.Arrays.copyOf(isConstant, 2*registerCount);
+      }
+      registerFor.put(key, registerCount);
+      return registerCount++;
+   }
+
+} // end class FlatExpr
@@ -22,6 +22,10 @@
 
     In addition to the main program class, SimpleParser5, this program
     defines a set of five nested classes for implementing expression trees.
+    The values of the derivative are computed by translating its expression
+    tree into a FlatExpr (see FlatExpr.java), which can be evaluated much
+    faster than the tree itself, since the derivative of a product or
+    quotient uses the subtrees for the factors several times.
 
  */
 
@@ -45,12 +49,16 @@ public class SimpleParser5 {
     *  this might not be a tree, but it is a "directed acyclic graph",
     *  with no loops, so it's OK for our purposes.  The printInfix()
     *  method prints the expression in fully parenthesized form.
+    *  The compile() method adds the instructions for evaluating the
+    *  expression to a FlatExpr, and returns the number of the register
+    *  that will hold the value of the expression.
     */
    abstract private static class ExpNode {
       abstract double value(double xValue); 
       abstract void printStackCommands();
       abstract void printInfix();       
       abstract ExpNode derivative();
+      abstract int compile(FlatExpr code);
    }
 
    /**
@@ -77,6 +85,10 @@ public class SimpleParser5 {
              // The derivative of a constant is zero.
          return new ConstNode(0);
       }
+      int compile(FlatExpr code) {
+             // The number is put into a register when the code is created.
+         return code.constant(number);
+      }
    }
 
    
@@ -147,6 +159,18 @@ public class SimpleParser5 {
             return null;
          }
       }
+      int compile(FlatExpr code) {
+             // Add the code for the operands, then an instruction that
+             // combines their values.
+         int x = left.compile(code);
+         int y = right.compile(code);
+         switch (op) {
+         case '+':  return code.binary(FlatExpr.PLUS, x, y);
+         case '-':  return code.binary(FlatExpr.MINUS, x, y);
+         case '*':  return code.binary(FlatExpr.TIMES, x, y);
+         default:   return code.binary(FlatExpr.DIVIDE, x, y);
+         }
+      }
    }
 
    
@@ -183,6 +207,9 @@ public class SimpleParser5 {
          // The derivative of -A is -(derivative of A).
          return new UnaryMinusNode(operand.derivative());
       }
+      int compile(FlatExpr code) {
+         return code.unary(FlatExpr.NEGATE, operand.compile(code));
+      }
    }
 
 
@@ -208,6 +235,10 @@ public class SimpleParser5 {
             // The derivative of x is the constant 1.
          return new ConstNode(1);
       }
+      int compile(FlatExpr code) {
+            // x is variable number 0 in the FlatExpr.
+         return code.variable(0);
+      }
    }
 
    
@@ -240,14 +271,16 @@ public class SimpleParser5 {
                throw new ParseError("Extra data after end of expression.");
             TextIO.getln();
             ExpNode deriv = exp.derivative();
+            FlatExpr derivCode = new FlatExpr();
+            derivCode.finish( deriv.compile(derivCode) );
             System.out.println("\nA fully parenthesized expression for the derivative is:");
             System.out.print("   ");
             deriv.printInfix();
             System.out.println();
-            System.out.println("\nValue of derivative at x = 0 is " + deriv.value(0));
-            System.out.println("Value of derivative at x = 1 is " + deriv.value(1));
-            System.out.println("Value of derivative at x = 2 is " + deriv.value(2));
-            System.out.println("Value of derivative at x = 3 is " + deriv.value(3));
+            System.out.println("\nValue of derivative at x = 0 is " + derivCode.value(0));
+            System.out.println("Value of derivative at x = 1 is " + derivCode.value(1));
+            System.out.println("Value of derivative at x = 2 is " + derivCode.value(2));
+            System.out.println("Value of derivative at x = 3 is " + derivCode.value(3));
             System.out.println("\nOrder of postfix evaluation for derivative is:\n");
             deriv.printStackCommands();
          }